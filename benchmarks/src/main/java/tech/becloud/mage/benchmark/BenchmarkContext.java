@@ -0,0 +1,40 @@
+package tech.becloud.mage.benchmark;
+
+import tech.becloud.mage.model.UserContext;
+
+import java.util.UUID;
+
+/**
+ * Flow data object used by benchmarks. Execution id is preset so that creating a context doesn't involve
+ * {@link UUID#randomUUID()}, which would dominate measurements of short flows.
+ */
+public class BenchmarkContext implements UserContext {
+    private static final UUID EXECUTION_ID = new UUID(0x6d616765L, 1L);
+
+    private UUID executionId = EXECUTION_ID;
+    int counter;
+    int key;
+
+    public BenchmarkContext() {
+    }
+
+    public BenchmarkContext(int key) {
+        this.key = key;
+    }
+
+    BenchmarkContext(BenchmarkContext other) {
+        this.executionId = other.executionId;
+        this.counter = other.counter;
+        this.key = other.key;
+    }
+
+    @Override
+    public UUID getExecutionId() {
+        return executionId;
+    }
+
+    @Override
+    public void setExecutionId(UUID executionId) {
+        this.executionId = executionId;
+    }
+}
@@ -0,0 +1,63 @@
+package tech.becloud.mage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionContextCodec;
+import tech.becloud.mage.graph.ExecutionState;
+import tech.becloud.mage.graph.Workflow;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding of execution context checkpoints into a direct buffer and decoding them back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private ExecutionContextCodec codec;
+    private ExecutionContext<BenchmarkContext> execution;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() {
+        Workflow<BenchmarkContext> workflow = new Workflow<>("codec", 1,
+                FlowBenchmark.buildLinearFlow("Step", FlowBenchmark.STEPS));
+        codec = new ExecutionContextCodec(workflow);
+        execution = workflow.createContext(new BenchmarkContext()).getExecutionContext();
+        execution.setExecutionState(ExecutionState.RUNNING);
+        execution.setExecutionPoint("Step5");
+        execution.setServiceInstanceId("instance-1");
+        buffer = ByteBuffer.allocateDirect(codec.maxEncodedSize(execution));
+        encoded = ByteBuffer.allocateDirect(codec.maxEncodedSize(execution));
+        codec.encode(execution, encoded);
+        encoded.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        buffer.clear();
+        codec.encode(execution, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ExecutionContext<BenchmarkContext> decode() {
+        return codec.decode(encoded.duplicate());
+    }
+}
@@ -0,0 +1,140 @@
+package tech.becloud.mage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.becloud.mage.graph.ActionNodeBuilder;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.graph.FlowBuilder;
+import tech.becloud.mage.graph.Workflow;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures flow interpreter overhead: all actions just increment a counter, so the result is dominated by
+ * stepping, routing and subflow bookkeeping. No repository is set.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlowBenchmark {
+    static final int STEPS = 10;
+    static final Consumer<BenchmarkContext> INCREMENT = t -> t.counter++;
+
+    private Workflow<BenchmarkContext> linear;
+    private Workflow<BenchmarkContext> routed;
+    private Workflow<BenchmarkContext> nested;
+    private Workflow<BenchmarkContext> exceptionRouted;
+    private int key;
+
+    @Setup
+    public void setUp() {
+        linear = new Workflow<>("linear", 1, buildLinearFlow("Step", STEPS));
+        routed = new Workflow<>("routed", 1, buildRoutedFlow());
+        nested = new Workflow<>("nested", 1, buildNestedFlow(3));
+        exceptionRouted = new Workflow<>("exceptionRouted", 1, buildExceptionRoutedFlow());
+    }
+
+    /**
+     * Ten actions executed one after another.
+     */
+    @Benchmark
+    public int linearFlow() {
+        return run(linear, new BenchmarkContext());
+    }
+
+    /**
+     * Router selecting one of two paths of five actions each, alternating between invocations.
+     */
+    @Benchmark
+    public int routedFlow() {
+        key ^= 1;
+        return run(routed, new BenchmarkContext(key));
+    }
+
+    /**
+     * Subflows nested three levels deep, two actions on each level.
+     */
+    @Benchmark
+    public int nestedSubflows() {
+        return run(nested, new BenchmarkContext());
+    }
+
+    /**
+     * Action failing with an exception matched by the last of three exception routes.
+     */
+    @Benchmark
+    public int exceptionRouting() {
+        return run(exceptionRouted, new BenchmarkContext());
+    }
+
+    static int run(Workflow<BenchmarkContext> workflow, BenchmarkContext data) {
+        workflow.start(workflow.createContext(data));
+        return data.counter;
+    }
+
+    static Flow<BenchmarkContext> buildLinearFlow(String prefix, int steps) {
+        FlowBuilder<BenchmarkContext> builder = FlowBuilder.flowBuilderFor(BenchmarkContext.class);
+        ActionNodeBuilder<BenchmarkContext> step = builder.execute(prefix + 0, INCREMENT);
+        for (int i = 1; i < steps; i++) {
+            step = step.execute(prefix + i, INCREMENT);
+        }
+        return builder.build();
+    }
+
+    private static Flow<BenchmarkContext> buildRoutedFlow() {
+        FlowBuilder<BenchmarkContext> builder = FlowBuilder.flowBuilderFor(BenchmarkContext.class);
+        builder.execute("Start", INCREMENT)
+                .route("Router", t -> t.key == 0, path("Left"))
+                .defaultRoute(path("Right"));
+        return builder.build();
+    }
+
+    private static FlowBuilder<BenchmarkContext> path(String prefix) {
+        FlowBuilder<BenchmarkContext> builder = FlowBuilder.flowBuilderFor(BenchmarkContext.class);
+        ActionNodeBuilder<BenchmarkContext> step = builder.execute(prefix + 0, INCREMENT);
+        for (int i = 1; i < STEPS / 2; i++) {
+            step = step.execute(prefix + i, INCREMENT);
+        }
+        return builder;
+    }
+
+    private static Flow<BenchmarkContext> buildNestedFlow(int depth) {
+        FlowBuilder<BenchmarkContext> builder = FlowBuilder.flowBuilderFor(BenchmarkContext.class);
+        ActionNodeBuilder<BenchmarkContext> first = builder.execute("Level" + depth, INCREMENT);
+        if (depth > 1) {
+            first.subflow("Subflow" + depth, buildNestedFlow(depth - 1)).execute("Last" + depth, INCREMENT);
+        } else {
+            first.execute("Last" + depth, INCREMENT);
+        }
+        return builder.build();
+    }
+
+    private static Flow<BenchmarkContext> buildExceptionRoutedFlow() {
+        // preallocated to measure routing rather than stack trace filling
+        IllegalStateException failure = new IllegalStateException("benchmark");
+        FlowBuilder<BenchmarkContext> builder = FlowBuilder.flowBuilderFor(BenchmarkContext.class);
+        builder.execute("Start", INCREMENT)
+                .execute("Failing", t -> {
+                    throw failure;
+                })
+                .onException(IllegalArgumentException.class, "Unexpected")
+                .onException(UnsupportedOperationException.class, "Unexpected")
+                .onException(IllegalStateException.class, "Recovery")
+                .execute("Skipped", INCREMENT);
+        builder.execute("Recovery", INCREMENT);
+        builder.execute("Unexpected", INCREMENT);
+        return builder.build();
+    }
+}
@@ -0,0 +1,50 @@
+package tech.becloud.mage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.graph.Workflow;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepository;
+import tech.becloud.mage.persistence.PersistContextScope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures checkpoint overhead of each {@link PersistContextScope} for a linear flow of ten steps saving to
+ * an in-memory repository copying data objects, as a real repository would have to.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistenceBenchmark {
+
+    @Param
+    public PersistContextScope scope;
+
+    private Workflow<BenchmarkContext> workflow;
+
+    @Setup
+    public void setUp() {
+        Flow<BenchmarkContext> flow = FlowBenchmark.buildLinearFlow("Step", FlowBenchmark.STEPS);
+        flow.setWorkflowContextRepository(new InMemoryWorkflowContextRepository<>(BenchmarkContext::new));
+        flow.setPersistContextScope(scope);
+        workflow = new Workflow<>("persistence", 1, flow);
+    }
+
+    @Benchmark
+    public int linearFlow() {
+        return FlowBenchmark.run(workflow, new BenchmarkContext());
+    }
+}
@@ -0,0 +1,107 @@
+package tech.becloud.mage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.becloud.mage.graph.FlowBuilder;
+import tech.becloud.mage.graph.RouterBuilder;
+import tech.becloud.mage.graph.Workflow;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures routing cost depending on number of routes, position of matching one and kind of routing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterBenchmark {
+
+    public enum Match {
+        FIRST, LAST, DEFAULT
+    }
+
+    public enum Routing {
+        /**
+         * Predicates tested in order of declaration
+         */
+        PREDICATES,
+        /**
+         * Predicates tested in order of observed hit rates
+         */
+        ADAPTIVE,
+        /**
+         * Key lookup
+         */
+        KEYED
+    }
+
+    @Param({"2", "8", "32"})
+    public int routes;
+
+    @Param
+    public Match match;
+
+    @Param
+    public Routing routing;
+
+    private Workflow<BenchmarkContext> workflow;
+    private int key;
+
+    @Setup
+    public void setUp() {
+        FlowBuilder<BenchmarkContext> builder = FlowBuilder.flowBuilderFor(BenchmarkContext.class);
+        RouterBuilder<BenchmarkContext> router;
+        if (routing == Routing.KEYED) {
+            Map<Integer, String> keyRoutes = new HashMap<>();
+            for (int i = 0; i < routes; i++) {
+                keyRoutes.put(i, "Target" + i);
+            }
+            router = builder.execute("Start", FlowBenchmark.INCREMENT).routeOn("Router", t -> t.key, keyRoutes);
+        } else {
+            router = builder.execute("Start", FlowBenchmark.INCREMENT).routeTo("Router", t -> t.key == 0, "Target0");
+            for (int i = 1; i < routes; i++) {
+                final int routeKey = i;
+                router.routeTo(t -> t.key == routeKey, "Target" + i);
+            }
+            if (routing == Routing.ADAPTIVE) {
+                router.adaptiveOrder();
+            }
+        }
+        for (int i = 0; i < routes; i++) {
+            builder.execute("Target" + i, FlowBenchmark.INCREMENT);
+        }
+        router.defaultRoute("Default");
+        builder.execute("Default", FlowBenchmark.INCREMENT);
+        workflow = new Workflow<>("router", 1, builder.build());
+        switch (match) {
+            case FIRST:
+                key = 0;
+                break;
+            case LAST:
+                key = routes - 1;
+                break;
+            case DEFAULT:
+                key = -1;
+                break;
+        }
+    }
+
+    @Benchmark
+    public int route() {
+        return FlowBenchmark.run(workflow, new BenchmarkContext(key));
+    }
+}
@@ -0,0 +1,52 @@
+package tech.becloud.mage.definition;
+
+import tech.becloud.mage.graph.BeanResolver;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.model.UserContext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Remembers beans looked up by a delegate, so that a bean referenced by many steps or definitions is resolved once.
+ * Used by a single {@link FlowDefinitionLoader}, so flow data class is the same for all lookups.
+ */
+final class CachingBeanResolver implements BeanResolver {
+    private final BeanResolver delegate;
+    private final Map<String, Consumer<?>> consumers = new ConcurrentHashMap<>();
+    private final Map<String, Flow<?>> flows = new ConcurrentHashMap<>();
+    private final Map<String, Predicate<?>> predicates = new ConcurrentHashMap<>();
+    private final Map<String, BiConsumer<?, Throwable>> exceptionHandlers = new ConcurrentHashMap<>();
+
+    CachingBeanResolver(BeanResolver delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends UserContext> Consumer<? super T> getConsumer(String name, Class<T> klass) {
+        return (Consumer<? super T>) consumers.computeIfAbsent(name, key -> delegate.getConsumer(key, klass));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends UserContext> Flow<T> getFlow(String name, Class<T> klass) {
+        return (Flow<T>) flows.computeIfAbsent(name, key -> delegate.getFlow(key, klass));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends UserContext> Predicate<? super T> getPredicate(String name, Class<T> klass) {
+        return (Predicate<? super T>) predicates.computeIfAbsent(name, key -> delegate.getPredicate(key, klass));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends UserContext> BiConsumer<? super T, Throwable> getExceptionHandler(String name, Class<T> klass) {
+        return (BiConsumer<? super T, Throwable>) exceptionHandlers.computeIfAbsent(name,
+                key -> delegate.getExceptionHandler(key, klass));
+    }
+}
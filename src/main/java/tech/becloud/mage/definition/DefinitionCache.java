@@ -0,0 +1,281 @@
+package tech.becloud.mage.definition;
+
+import tech.becloud.mage.model.definition.ExceptionRoute;
+import tech.becloud.mage.model.definition.FlowDefinition;
+import tech.becloud.mage.model.definition.Node;
+import tech.becloud.mage.model.definition.Retry;
+import tech.becloud.mage.model.definition.Route;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Directory of validated definitions in binary form, so that unchanged definitions aren't parsed and validated
+ * again on startup. Entry is a file named by workflow name, version and hash of definition text, e.g.
+ * {@code order-3-5f1c...def}; the directory is listed once when cache is opened, so lookup by hash doesn't touch
+ * the file system. Entry of changed definition replaces entries of the same workflow name and version.
+ * <p>
+ * Unreadable entries are treated as missing and overwritten, so a cache of an older format is simply rebuilt.
+ */
+final class DefinitionCache {
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".def";
+
+    private final Path directory;
+    private final Map<String, Path> entries;
+
+    DefinitionCache(Path directory) {
+        this.directory = directory;
+        this.entries = new ConcurrentHashMap<>();
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                        .forEach(file -> entries.put(hashOf(file), file));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open definition cache in " + directory, e);
+        }
+    }
+
+    /**
+     * @param content definition text
+     * @return hex form of SHA-256 of definition text
+     */
+    static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param hash hash of definition text
+     * @return cached definition, {@code null} if there is none or it can't be read
+     */
+    FlowDefinition get(String hash) {
+        Path file = entries.get(hash);
+        if (file == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return in.readInt() == FORMAT_VERSION ? readFlow(in) : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a definition, replacing entries of previous definitions of the same workflow name and version.
+     * @param hash hash of definition text
+     * @param definition validated definition
+     */
+    void put(String hash, FlowDefinition definition) {
+        String name = fileName(definition.getName());
+        String version = Integer.toString(definition.getVersion());
+        String prefix = name + "-" + version + "-";
+        Path file = directory.resolve(prefix + hash + SUFFIX);
+        try {
+            Path temporary = Files.createTempFile(directory, prefix, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary)))) {
+                out.writeInt(FORMAT_VERSION);
+                writeFlow(out, definition);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (Map.Entry<String, Path> entry : entries.entrySet()) {
+                // an unreadable entry is rewritten under the same name, which must not be deleted then
+                if (!entry.getValue().equals(file) && isEntryOf(entry.getValue(), name, version)) {
+                    Files.deleteIfExists(entry.getValue());
+                    entries.remove(entry.getKey());
+                }
+            }
+            entries.put(hash, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write definition cache in " + directory, e);
+        }
+    }
+
+    /**
+     * @return {@code true} if cache file holds a definition of given workflow name, as in file names, and version
+     */
+    private static boolean isEntryOf(Path file, String name, String version) {
+        String fileName = file.getFileName().toString();
+        // workflow name has no dashes in file names, while version may be negative
+        int nameEnd = fileName.indexOf('-');
+        int hashStart = fileName.lastIndexOf('-');
+        return nameEnd > 0 && hashStart > nameEnd && fileName.substring(0, nameEnd).equals(name)
+                && fileName.substring(nameEnd + 1, hashStart).equals(version);
+    }
+
+    private static String hashOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(name.lastIndexOf('-') + 1, name.length() - SUFFIX.length());
+    }
+
+    private static String fileName(String workflowName) {
+        return workflowName.replaceAll("[^A-Za-z0-9._]", "_");
+    }
+
+    private static void writeFlow(DataOutput out, FlowDefinition definition) throws IOException {
+        out.writeUTF(definition.getName());
+        out.writeInt(definition.getVersion());
+        writeDuration(out, definition.getTimeout());
+        out.writeInt(definition.getNodes().size());
+        for (Node node : definition.getNodes()) {
+            out.writeUTF(node.getId());
+            writeString(out, node.getAction());
+            writeString(out, node.getSubflow());
+            out.writeBoolean(node.getRoutes() != null);
+            if (node.getRoutes() != null) {
+                out.writeInt(node.getRoutes().size());
+                for (Route route : node.getRoutes()) {
+                    out.writeUTF(route.getPredicate());
+                    out.writeUTF(route.getRoute());
+                }
+            }
+            writeString(out, node.getDefaultRoute());
+            writeString(out, node.getNext());
+            out.writeInt(node.getExceptionRoutes().size());
+            for (ExceptionRoute route : node.getExceptionRoutes()) {
+                out.writeUTF(route.getExceptionClass());
+                writeString(out, route.getHandler());
+                out.writeUTF(route.getRoute());
+            }
+            out.writeBoolean(node.isPause());
+            writeDuration(out, node.getTimeout());
+            out.writeBoolean(node.isInterruptible());
+            writeString(out, node.getPersistContext());
+            Retry retry = node.getRetry();
+            out.writeBoolean(retry != null);
+            if (retry != null) {
+                out.writeInt(retry.getMaxAttempts());
+                writeDuration(out, retry.getInitialDelay());
+                writeDouble(out, retry.getMultiplier());
+                writeDuration(out, retry.getMaxDelay());
+                writeDouble(out, retry.getJitter());
+                out.writeInt(retry.getRetryOn().size());
+                for (String className : retry.getRetryOn()) {
+                    out.writeUTF(className);
+                }
+            }
+        }
+    }
+
+    private static FlowDefinition readFlow(DataInput in) throws IOException {
+        FlowDefinition definition = new FlowDefinition();
+        definition.setName(in.readUTF());
+        definition.setVersion(in.readInt());
+        definition.setTimeout(readDuration(in));
+        int nodeCount = in.readInt();
+        List<Node> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            Node node = new Node();
+            node.setId(in.readUTF());
+            node.setAction(readString(in));
+            node.setSubflow(readString(in));
+            if (in.readBoolean()) {
+                int routeCount = in.readInt();
+                List<Route> routes = new ArrayList<>(routeCount);
+                for (int j = 0; j < routeCount; j++) {
+                    Route route = new Route();
+                    route.setPredicate(in.readUTF());
+                    route.setRoute(in.readUTF());
+                    routes.add(route);
+                }
+                node.setRoutes(routes);
+            }
+            node.setDefaultRoute(readString(in));
+            node.setNext(readString(in));
+            int exceptionRouteCount = in.readInt();
+            List<ExceptionRoute> exceptionRoutes = new ArrayList<>(exceptionRouteCount);
+            for (int j = 0; j < exceptionRouteCount; j++) {
+                ExceptionRoute route = new ExceptionRoute();
+                route.setExceptionClass(in.readUTF());
+                route.setHandler(readString(in));
+                route.setRoute(in.readUTF());
+                exceptionRoutes.add(route);
+            }
+            node.setExceptionRoutes(exceptionRoutes);
+            node.setPause(in.readBoolean());
+            node.setTimeout(readDuration(in));
+            node.setInterruptible(in.readBoolean());
+            node.setPersistContext(readString(in));
+            if (in.readBoolean()) {
+                Retry retry = new Retry();
+                retry.setMaxAttempts(in.readInt());
+                retry.setInitialDelay(readDuration(in));
+                retry.setMultiplier(readDouble(in));
+                retry.setMaxDelay(readDuration(in));
+                retry.setJitter(readDouble(in));
+                int classCount = in.readInt();
+                List<String> retryOn = new ArrayList<>(classCount);
+                for (int j = 0; j < classCount; j++) {
+                    retryOn.add(in.readUTF());
+                }
+                retry.setRetryOn(retryOn);
+                node.setRetry(retry);
+            }
+            nodes.add(node);
+        }
+        definition.setNodes(nodes);
+        return definition;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDuration(DataOutput out, Duration value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getSeconds());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static Duration readDuration(DataInput in) throws IOException {
+        return in.readBoolean() ? Duration.ofSeconds(in.readLong(), in.readInt()) : null;
+    }
+
+    private static void writeDouble(DataOutput out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+}
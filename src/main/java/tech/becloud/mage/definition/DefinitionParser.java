@@ -0,0 +1,18 @@
+package tech.becloud.mage.definition;
+
+/**
+ * Parses text of a flow definition into a tree of {@link java.util.Map}s with string keys, {@link java.util.List}s,
+ * strings, numbers, booleans and {@code null}s. JSON is parsed by {@link JsonDefinitionParser}; other formats, e.g.
+ * YAML, are supported by registering a parser backed by a library of choice, for SnakeYAML it's just
+ * {@code content -> new Yaml().load(content)}.
+ */
+@FunctionalInterface
+public interface DefinitionParser {
+
+    /**
+     * @param content text of definition
+     * @return root of parsed tree
+     * @throws IllegalArgumentException if text is malformed
+     */
+    Object parse(String content);
+}
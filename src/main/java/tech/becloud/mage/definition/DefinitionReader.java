@@ -0,0 +1,337 @@
+package tech.becloud.mage.definition;
+
+import tech.becloud.mage.model.definition.ExceptionRoute;
+import tech.becloud.mage.model.definition.FlowDefinition;
+import tech.becloud.mage.model.definition.Node;
+import tech.becloud.mage.model.definition.Retry;
+import tech.becloud.mage.model.definition.Route;
+import tech.becloud.mage.persistence.PersistContextScope;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps a parsed tree to a {@link FlowDefinition} and validates it, collecting all problems. Unknown properties are
+ * reported as well, so that a misspelled property isn't silently ignored.
+ */
+final class DefinitionReader {
+    private static final Set<String> FLOW_PROPERTIES = Set.of("name", "version", "timeout", "nodes");
+    private static final Set<String> NODE_PROPERTIES = Set.of("id", "action", "subflow", "routes", "defaultRoute",
+            "next", "exceptionRoutes", "pause", "timeout", "interruptible", "persistContext", "retry");
+    private static final Set<String> ROUTE_PROPERTIES = Set.of("predicate", "route");
+    private static final Set<String> EXCEPTION_ROUTE_PROPERTIES = Set.of("exceptionClass", "handler", "route");
+    private static final Set<String> RETRY_PROPERTIES = Set.of("maxAttempts", "initialDelay", "multiplier",
+            "maxDelay", "jitter", "retryOn");
+
+    private final List<String> problems = new ArrayList<>();
+    private final ClassLoader classLoader;
+
+    private DefinitionReader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @param tree parsed definition
+     * @param source description of definition source for error messages
+     * @param classLoader class loader to check exception classes with
+     * @return valid definition
+     * @throws FlowDefinitionException if definition is malformed or invalid
+     */
+    static FlowDefinition read(Object tree, String source, ClassLoader classLoader) {
+        DefinitionReader reader = new DefinitionReader(classLoader);
+        FlowDefinition definition = reader.flow(tree);
+        reader.validate(definition);
+        if (!reader.problems.isEmpty()) {
+            throw new FlowDefinitionException(source, reader.problems);
+        }
+        return definition;
+    }
+
+    private FlowDefinition flow(Object tree) {
+        FlowDefinition definition = new FlowDefinition();
+        definition.setNodes(List.of());
+        Map<?, ?> map = map(tree, "Definition");
+        if (map == null) {
+            return definition;
+        }
+        checkProperties(map, FLOW_PROPERTIES, "Definition");
+        definition.setName(string(map, "name", "Definition"));
+        Long version = number(map, "version", "Definition");
+        definition.setVersion(version == null ? 0 : version.intValue());
+        definition.setTimeout(duration(map, "timeout", "Definition"));
+        List<Node> nodes = new ArrayList<>();
+        for (Object item : list(map, "nodes", "Definition")) {
+            nodes.add(node(item, "Node " + (nodes.size() + 1)));
+        }
+        definition.setNodes(nodes);
+        return definition;
+    }
+
+    private Node node(Object tree, String context) {
+        Node node = new Node();
+        node.setExceptionRoutes(List.of());
+        Map<?, ?> map = map(tree, context);
+        if (map == null) {
+            return node;
+        }
+        node.setId(string(map, "id", context));
+        if (node.getId() != null) {
+            context = "Node " + node.getId();
+        }
+        checkProperties(map, NODE_PROPERTIES, context);
+        node.setAction(string(map, "action", context));
+        node.setSubflow(string(map, "subflow", context));
+        node.setDefaultRoute(string(map, "defaultRoute", context));
+        node.setNext(string(map, "next", context));
+        node.setPause(bool(map, "pause", context));
+        node.setInterruptible(bool(map, "interruptible", context));
+        node.setTimeout(duration(map, "timeout", context));
+        node.setPersistContext(string(map, "persistContext", context));
+        if (map.containsKey("routes")) {
+            List<Route> routes = new ArrayList<>();
+            for (Object item : list(map, "routes", context)) {
+                Map<?, ?> routeMap = map(item, context + " route");
+                if (routeMap != null) {
+                    checkProperties(routeMap, ROUTE_PROPERTIES, context + " route");
+                    Route route = new Route();
+                    route.setPredicate(string(routeMap, "predicate", context + " route"));
+                    route.setRoute(string(routeMap, "route", context + " route"));
+                    routes.add(route);
+                }
+            }
+            node.setRoutes(routes);
+        }
+        List<ExceptionRoute> exceptionRoutes = new ArrayList<>();
+        for (Object item : list(map, "exceptionRoutes", context)) {
+            Map<?, ?> routeMap = map(item, context + " exception route");
+            if (routeMap != null) {
+                checkProperties(routeMap, EXCEPTION_ROUTE_PROPERTIES, context + " exception route");
+                ExceptionRoute route = new ExceptionRoute();
+                route.setExceptionClass(string(routeMap, "exceptionClass", context + " exception route"));
+                route.setHandler(string(routeMap, "handler", context + " exception route"));
+                route.setRoute(string(routeMap, "route", context + " exception route"));
+                exceptionRoutes.add(route);
+            }
+        }
+        node.setExceptionRoutes(exceptionRoutes);
+        if (map.get("retry") != null) {
+            node.setRetry(retry(map.get("retry"), context + " retry"));
+        }
+        return node;
+    }
+
+    private Retry retry(Object tree, String context) {
+        Retry retry = new Retry();
+        retry.setRetryOn(List.of());
+        Map<?, ?> map = map(tree, context);
+        if (map == null) {
+            return retry;
+        }
+        checkProperties(map, RETRY_PROPERTIES, context);
+        Long maxAttempts = number(map, "maxAttempts", context);
+        retry.setMaxAttempts(maxAttempts == null ? 0 : maxAttempts.intValue());
+        retry.setInitialDelay(duration(map, "initialDelay", context));
+        retry.setMaxDelay(duration(map, "maxDelay", context));
+        retry.setMultiplier(decimal(map, "multiplier", context));
+        retry.setJitter(decimal(map, "jitter", context));
+        List<String> retryOn = new ArrayList<>();
+        for (Object item : list(map, "retryOn", context)) {
+            if (item instanceof String) {
+                retryOn.add((String) item);
+            } else {
+                problems.add(context + ": retryOn should list class names");
+            }
+        }
+        retry.setRetryOn(retryOn);
+        return retry;
+    }
+
+    private void validate(FlowDefinition definition) {
+        if (definition.getName() == null || definition.getName().isEmpty()) {
+            problems.add("Definition: name is missing");
+        }
+        if (definition.getNodes().isEmpty()) {
+            problems.add("Definition: no nodes defined");
+        }
+        Set<String> ids = new HashSet<>();
+        for (Node node : definition.getNodes()) {
+            if (node.getId() == null || node.getId().isEmpty()) {
+                problems.add("Definition: node without id");
+            } else if (!ids.add(node.getId())) {
+                problems.add(String.format("Node %s: defined more than once", node.getId()));
+            }
+        }
+        for (Node node : definition.getNodes()) {
+            validate(node, ids);
+        }
+    }
+
+    private void validate(Node node, Set<String> ids) {
+        String context = "Node " + node.getId();
+        boolean router = node.getRoutes() != null || node.getDefaultRoute() != null;
+        int kinds = (node.getAction() != null ? 1 : 0) + (node.getSubflow() != null ? 1 : 0) + (router ? 1 : 0);
+        if (kinds != 1) {
+            problems.add(context + ": exactly one of action, subflow or routes should be set");
+        }
+        if (router) {
+            if (node.getRoutes() == null || node.getRoutes().isEmpty()) {
+                problems.add(context + ": router should have at least one route");
+            } else {
+                for (Route route : node.getRoutes()) {
+                    if (route.getPredicate() == null) {
+                        problems.add(context + ": route without predicate");
+                    }
+                    checkReference(context, route.getRoute(), ids, false);
+                }
+            }
+            if (node.getNext() != null) {
+                problems.add(context + ": router can't have next node, use defaultRoute");
+            }
+            checkReference(context, node.getDefaultRoute(), ids, true);
+        } else {
+            checkReference(context, node.getNext(), ids, true);
+        }
+        if ((node.getTimeout() != null || node.isInterruptible()) && node.getAction() == null) {
+            problems.add(context + ": only action steps may have timeout or be interruptible");
+        }
+        if (node.getPersistContext() != null) {
+            try {
+                PersistContextScope.valueOf(node.getPersistContext());
+            } catch (IllegalArgumentException e) {
+                problems.add(String.format("%s: unknown persistence scope %s", context, node.getPersistContext()));
+            }
+        }
+        for (ExceptionRoute route : node.getExceptionRoutes()) {
+            checkClass(context, route.getExceptionClass());
+            checkReference(context, route.getRoute(), ids, false);
+        }
+        Retry retry = node.getRetry();
+        if (retry != null) {
+            if (retry.getMaxAttempts() < 1) {
+                problems.add(context + ": retry maxAttempts should be positive");
+            }
+            if (retry.getJitter() != null && (retry.getJitter() < 0 || retry.getJitter() > 1)) {
+                problems.add(context + ": retry jitter should be between 0 and 1");
+            }
+            if (retry.getMultiplier() != null && retry.getMultiplier() < 1) {
+                problems.add(context + ": retry multiplier should be at least 1");
+            }
+            retry.getRetryOn().forEach(className -> checkClass(context, className));
+        }
+    }
+
+    private void checkReference(String context, String nodeId, Set<String> ids, boolean optional) {
+        if (nodeId == null) {
+            if (!optional) {
+                problems.add(context + ": route without target node");
+            }
+        } else if (!ids.contains(nodeId)) {
+            problems.add(String.format("%s: references undefined node %s", context, nodeId));
+        }
+    }
+
+    private void checkClass(String context, String className) {
+        if (className == null) {
+            problems.add(context + ": exception class is missing");
+            return;
+        }
+        try {
+            if (!Throwable.class.isAssignableFrom(Class.forName(className, false, classLoader))) {
+                problems.add(String.format("%s: %s isn't an exception class", context, className));
+            }
+        } catch (ClassNotFoundException e) {
+            problems.add(String.format("%s: exception class %s not found", context, className));
+        }
+    }
+
+    private void checkProperties(Map<?, ?> map, Set<String> known, String context) {
+        for (Object key : map.keySet()) {
+            if (!known.contains(key)) {
+                problems.add(String.format("%s: unknown property %s", context, key));
+            }
+        }
+    }
+
+    private Map<?, ?> map(Object value, String context) {
+        if (value instanceof Map) {
+            return (Map<?, ?>) value;
+        }
+        problems.add(context + ": object expected");
+        return null;
+    }
+
+    private List<?> list(Map<?, ?> map, String key, String context) {
+        Object value = map.get(key);
+        if (value == null) {
+            return List.of();
+        }
+        if (value instanceof List) {
+            return (List<?>) value;
+        }
+        problems.add(String.format("%s: %s should be a list", context, key));
+        return List.of();
+    }
+
+    private String string(Map<?, ?> map, String key, String context) {
+        Object value = map.get(key);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        problems.add(String.format("%s: %s should be a string", context, key));
+        return null;
+    }
+
+    private Long number(Map<?, ?> map, String key, String context) {
+        Object value = map.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Integer || value instanceof Long) {
+            return ((Number) value).longValue();
+        }
+        problems.add(String.format("%s: %s should be an integer", context, key));
+        return null;
+    }
+
+    private Double decimal(Map<?, ?> map, String key, String context) {
+        Object value = map.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        problems.add(String.format("%s: %s should be a number", context, key));
+        return null;
+    }
+
+    private boolean bool(Map<?, ?> map, String key, String context) {
+        Object value = map.get(key);
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        problems.add(String.format("%s: %s should be true or false", context, key));
+        return false;
+    }
+
+    private Duration duration(Map<?, ?> map, String key, String context) {
+        String value = string(map, key, context);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.parse(value);
+        } catch (DateTimeParseException e) {
+            problems.add(String.format("%s: %s should be ISO-8601 duration, e.g. PT30S", context, key));
+            return null;
+        }
+    }
+}
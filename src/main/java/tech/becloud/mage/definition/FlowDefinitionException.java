@@ -0,0 +1,31 @@
+package tech.becloud.mage.definition;
+
+import java.util.List;
+
+/**
+ * Thrown when a flow definition is malformed or invalid. Reports all problems found rather than the first one.
+ */
+public class FlowDefinitionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String source;
+    private final List<String> problems;
+
+    public FlowDefinitionException(String source, List<String> problems) {
+        super(String.format("Invalid flow definition %s:%n  %s", source, String.join(System.lineSeparator() + "  ",
+                problems)));
+        this.source = source;
+        this.problems = List.copyOf(problems);
+    }
+
+    /**
+     * @return file name or other description of definition source
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public List<String> getProblems() {
+        return problems;
+    }
+}
@@ -0,0 +1,364 @@
+package tech.becloud.mage.definition;
+
+import tech.becloud.mage.graph.ActionNodeBuilder;
+import tech.becloud.mage.graph.BeanResolver;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.graph.FlowBuilder;
+import tech.becloud.mage.graph.FlowValidationException;
+import tech.becloud.mage.graph.NodeBuilder;
+import tech.becloud.mage.graph.RetryPolicy;
+import tech.becloud.mage.graph.RouterBuilder;
+import tech.becloud.mage.graph.Workflow;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.definition.ExceptionRoute;
+import tech.becloud.mage.model.definition.FlowDefinition;
+import tech.becloud.mage.model.definition.Node;
+import tech.becloud.mage.model.definition.Retry;
+import tech.becloud.mage.model.definition.Route;
+import tech.becloud.mage.persistence.PersistContextScope;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads workflows from declarative definitions, see {@link FlowDefinition} for structure. Definitions in JSON are
+ * supported out of the box; YAML or other formats need a parser registered for file extension, see
+ * {@link DefinitionParser}. Definition may call as subflow a workflow loaded together with it, by name, or a
+ * {@link Flow} bean.
+ * <p>
+ * Definitions are validated as a whole and {@link FlowDefinitionException} reports all problems found, including
+ * unresolved beans. Beans are looked up once per name. With cache directory set, parsed and validated definitions are
+ * stored there keyed by workflow name, version and hash of definition text, so that unchanged definitions aren't
+ * parsed and validated again on next start. Compiled {@link Flow}s hold bean instances, so they are built on each
+ * start, which takes little time once definitions are read.
+ *
+ * @param <T> a type of workflow's data object
+ */
+public class FlowDefinitionLoader<T extends UserContext> {
+    private static final String JSON = "json";
+
+    private final Class<T> contextClass;
+    private final BeanResolver beanResolver;
+    private final Map<String, DefinitionParser> parsers;
+    private ClassLoader classLoader;
+    private DefinitionCache cache;
+
+    /**
+     * @param contextClass class of workflow data object
+     * @param beanResolver resolver to lookup actions, predicates, exception handlers and subflows by name
+     */
+    public FlowDefinitionLoader(Class<T> contextClass, BeanResolver beanResolver) {
+        this.contextClass = contextClass;
+        this.beanResolver = new CachingBeanResolver(beanResolver);
+        this.parsers = new HashMap<>();
+        this.parsers.put(JSON, new JsonDefinitionParser());
+        this.classLoader = contextClass.getClassLoader();
+    }
+
+    /**
+     * Registers parser for definition files with given extension, e.g. {@code yaml}.
+     * @param extension file name extension without dot
+     * @param parser parser of definition text
+     */
+    public void setParser(String extension, DefinitionParser parser) {
+        parsers.put(extension.toLowerCase(), parser);
+    }
+
+    /**
+     * Enables cache of parsed and validated definitions in given directory, which is created if missing.
+     * @param directory cache directory
+     * @throws UncheckedIOException if directory can't be created or listed
+     */
+    public void setCacheDirectory(Path directory) {
+        this.cache = new DefinitionCache(directory);
+    }
+
+    /**
+     * @param classLoader class loader of exception classes referenced by definitions, by default the one of flow
+     *                    data class
+     */
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Loads workflows from all files in given directory having extension of a registered parser.
+     * @param directory directory with definition files
+     * @return workflows in order of file names
+     * @throws FlowDefinitionException if any definition is invalid
+     * @throws UncheckedIOException if directory or file can't be read
+     */
+    public List<Workflow<T>> loadAll(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return load(files.filter(file -> parsers.containsKey(extension(file)))
+                    .sorted()
+                    .collect(Collectors.toList()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't list definitions in " + directory, e);
+        }
+    }
+
+    /**
+     * @param file definition file
+     * @return workflow defined in the file
+     * @throws FlowDefinitionException if definition is invalid
+     * @throws UncheckedIOException if file can't be read
+     */
+    public Workflow<T> load(Path file) {
+        return load(List.of(file)).get(0);
+    }
+
+    /**
+     * Loads workflows from given files. Definitions may refer each other as subflows.
+     * @param files definition files
+     * @return workflows in order of files
+     * @throws FlowDefinitionException if any definition is invalid
+     * @throws UncheckedIOException if file can't be read
+     */
+    public List<Workflow<T>> load(Collection<Path> files) {
+        List<FlowDefinition> definitions = new ArrayList<>(files.size());
+        List<String> problems = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                definitions.add(read(file));
+            } catch (FlowDefinitionException e) {
+                e.getProblems().forEach(problem -> problems.add(file.getFileName() + ": " + problem));
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new FlowDefinitionException(files.size() == 1 ? files.iterator().next().toString()
+                    : files.size() + " files", problems);
+        }
+        return compile(definitions);
+    }
+
+    /**
+     * Reads a definition from file, or from cache if the file is unchanged since cached.
+     * @param file definition file
+     * @return valid definition
+     * @throws FlowDefinitionException if definition is malformed or invalid
+     * @throws IllegalStateException if no parser is registered for file extension
+     * @throws UncheckedIOException if file can't be read
+     */
+    public FlowDefinition read(Path file) {
+        DefinitionParser parser = parsers.get(extension(file));
+        if (parser == null) {
+            throw new IllegalStateException(String.format("No parser registered for %s, see setParser()", file));
+        }
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read definition " + file, e);
+        }
+        String hash = cache == null ? null : DefinitionCache.hash(content);
+        FlowDefinition definition = cache == null ? null : cache.get(hash);
+        if (definition != null) {
+            return definition;
+        }
+        Object tree;
+        try {
+            tree = parser.parse(new String(content, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new FlowDefinitionException(file.toString(), List.of(String.valueOf(e.getMessage())));
+        }
+        definition = DefinitionReader.read(tree, file.toString(), classLoader);
+        if (cache != null) {
+            cache.put(hash, definition);
+        }
+        return definition;
+    }
+
+    /**
+     * Builds workflows from valid definitions. Definitions may refer each other as subflows by name, the one of
+     * highest version is used if several versions are given.
+     * @param definitions valid definitions
+     * @return workflows in order of definitions
+     * @throws FlowDefinitionException if a bean can't be resolved, subflows form a cycle or a value is rejected by
+     *                                 flow builder
+     */
+    public List<Workflow<T>> compile(Collection<FlowDefinition> definitions) {
+        Compiler compiler = new Compiler(definitions);
+        List<Workflow<T>> workflows = new ArrayList<>(definitions.size());
+        for (FlowDefinition definition : definitions) {
+            Flow<T> flow = compiler.flow(definition);
+            if (flow != null) {
+                workflows.add(new Workflow<>(definition.getName(), definition.getVersion(), flow));
+            }
+        }
+        if (!compiler.problems.isEmpty()) {
+            throw new FlowDefinitionException(definitions.size() == 1 ? definitions.iterator().next().getName()
+                    : definitions.size() + " definitions", compiler.problems);
+        }
+        return workflows;
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+
+    private final class Compiler {
+        private final Map<String, FlowDefinition> latest = new HashMap<>();
+        private final Map<FlowDefinition, Flow<T>> flows = new IdentityHashMap<>();
+        private final Set<FlowDefinition> compiling = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<String> problems = new ArrayList<>();
+
+        Compiler(Collection<FlowDefinition> definitions) {
+            for (FlowDefinition definition : definitions) {
+                latest.merge(definition.getName(), definition,
+                        (first, second) -> first.getVersion() >= second.getVersion() ? first : second);
+            }
+        }
+
+        Flow<T> flow(FlowDefinition definition) {
+            if (flows.containsKey(definition)) {
+                return flows.get(definition);
+            }
+            if (!compiling.add(definition)) {
+                problems.add(String.format("Definition %s: subflow calls form a cycle", definition.getName()));
+                return null;
+            }
+            int problemCount = problems.size();
+            FlowBuilder<T> builder = FlowBuilder.flowBuilderFor(contextClass);
+            builder.setBeanResolver(beanResolver);
+            for (Node node : definition.getNodes()) {
+                node(builder, node, String.format("Definition %s node %s", definition.getName(), node.getId()));
+            }
+            builder.setStartNode(definition.getNodes().get(0).getId());
+            builder.timeout(definition.getTimeout());
+            Flow<T> flow = null;
+            if (problems.size() == problemCount) {
+                try {
+                    flow = builder.build();
+                } catch (FlowValidationException e) {
+                    e.getProblems().forEach(problem -> problems.add(String.format("Definition %s: %s",
+                            definition.getName(), problem)));
+                } catch (RuntimeException e) {
+                    problems.add(String.format("Definition %s: %s", definition.getName(), e.getMessage()));
+                }
+            }
+            compiling.remove(definition);
+            flows.put(definition, flow);
+            return flow;
+        }
+
+        private void node(FlowBuilder<T> builder, Node node, String context) {
+            NodeBuilder<T, ?> nodeBuilder;
+            if (node.getAction() != null) {
+                ActionNodeBuilder<T> actionBuilder = builder.execute(node.getId(),
+                        bean(context, node.getAction(), () -> beanResolver.getConsumer(node.getAction(),
+                                contextClass)))
+                        .next(node.getNext());
+                if (node.getTimeout() != null) {
+                    actionBuilder.timeout(node.getTimeout());
+                }
+                if (node.isInterruptible()) {
+                    actionBuilder.interruptible();
+                }
+                nodeBuilder = actionBuilder;
+            } else if (node.getSubflow() != null) {
+                nodeBuilder = builder.subflow(node.getId(), subflow(context, node.getSubflow())).next(node.getNext());
+            } else {
+                RouterBuilder<T> routerBuilder = null;
+                for (Route route : node.getRoutes()) {
+                    Predicate<? super T> predicate = bean(context, route.getPredicate(),
+                            () -> beanResolver.getPredicate(route.getPredicate(), contextClass));
+                    routerBuilder = routerBuilder == null ? builder.routeTo(node.getId(), predicate, route.getRoute())
+                            : routerBuilder.routeTo(predicate, route.getRoute());
+                }
+                nodeBuilder = routerBuilder.defaultRoute(node.getDefaultRoute());
+            }
+            for (ExceptionRoute route : node.getExceptionRoutes()) {
+                BiConsumer<? super T, Throwable> handler = route.getHandler() == null ? null : bean(context,
+                        route.getHandler(), () -> beanResolver.getExceptionHandler(route.getHandler(), contextClass));
+                nodeBuilder.onException(exceptionClass(context, route.getExceptionClass()), handler, route.getRoute());
+            }
+            if (node.isPause()) {
+                nodeBuilder.pause();
+            }
+            if (node.getPersistContext() != null) {
+                nodeBuilder.persistContext(PersistContextScope.valueOf(node.getPersistContext()));
+            }
+            if (node.getRetry() != null) {
+                nodeBuilder.retry(retryPolicy(context, node.getRetry()));
+            }
+        }
+
+        private Flow<T> subflow(String context, String name) {
+            FlowDefinition definition = latest.get(name);
+            return definition != null ? flow(definition)
+                    : bean(context, name, () -> beanResolver.getFlow(name, contextClass));
+        }
+
+        private <B> B bean(String context, String name, Supplier<B> lookup) {
+            try {
+                B bean = lookup.get();
+                if (bean == null) {
+                    problems.add(String.format("%s: bean %s not found", context, name));
+                }
+                return bean;
+            } catch (RuntimeException e) {
+                problems.add(String.format("%s: can't resolve bean %s: %s", context, name, e.getMessage()));
+                return null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private RetryPolicy retryPolicy(String context, Retry retry) {
+            RetryPolicy policy = RetryPolicy.maxAttempts(retry.getMaxAttempts());
+            try {
+                if (retry.getInitialDelay() != null || retry.getMultiplier() != null || retry.getMaxDelay() != null) {
+                    policy = policy.backoff(
+                            retry.getInitialDelay() != null ? retry.getInitialDelay() : policy.getInitialDelay(),
+                            retry.getMultiplier() != null ? retry.getMultiplier() : policy.getMultiplier(),
+                            retry.getMaxDelay() != null ? retry.getMaxDelay() : policy.getMaxDelay());
+                }
+            } catch (IllegalArgumentException e) {
+                problems.add(context + ": " + e.getMessage());
+            }
+            if (retry.getJitter() != null) {
+                try {
+                    policy = policy.jitter(retry.getJitter());
+                } catch (IllegalArgumentException e) {
+                    problems.add(context + ": " + e.getMessage());
+                }
+            }
+            if (!retry.getRetryOn().isEmpty()) {
+                policy = policy.retryOn(retry.getRetryOn().stream()
+                        .map(className -> exceptionClass(context, className))
+                        .filter(Objects::nonNull)
+                        .toArray(Class[]::new));
+            }
+            return policy;
+        }
+
+        private Class<? extends Throwable> exceptionClass(String context, String className) {
+            try {
+                return Class.forName(className, true, classLoader).asSubclass(Throwable.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                // cached definition may outlive a class it was validated with
+                problems.add(String.format("%s: exception class %s not found", context, className));
+                return null;
+            }
+        }
+    }
+}
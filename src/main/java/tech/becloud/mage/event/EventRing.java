@@ -0,0 +1,77 @@
+package tech.becloud.mage.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bounded ring buffer for many producers and a single consumer. Each slot has a sequence telling
+ * whether it is free for producer of given position or published for the consumer, so producers only contend
+ * on claiming a position.
+ */
+final class EventRing {
+    private final WorkflowEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;
+    private volatile long head;
+
+    EventRing(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new WorkflowEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * @return {@code false} if buffer is full
+     */
+    boolean offer(WorkflowEvent event) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = event;
+                    // volatile write, so that sleeping consumer check in publisher can't be reordered before it
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Called by consumer thread only.
+     * @return next event or {@code null} if buffer is empty
+     */
+    WorkflowEvent poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        WorkflowEvent event = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, position + slots.length);
+        head = position + 1;
+        return event;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    long size() {
+        return Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,15 @@
+package tech.becloud.mage.event;
+
+/**
+ * Defines what publishing does when buffer of a listener is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Event is dropped for that listener and counted, publishing never waits.
+     */
+    DROP,
+    /**
+     * Publishing waits until the listener catches up, so slow listener slows down executions.
+     */
+    BLOCK
+}
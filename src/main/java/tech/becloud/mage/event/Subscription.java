@@ -0,0 +1,140 @@
+package tech.becloud.mage.event;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A listener subscribed to {@link WorkflowEventBus} along with its buffer and thread. Offers counters to observe
+ * whether the listener keeps up with published events.
+ */
+public class Subscription implements AutoCloseable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final WorkflowEventBus bus;
+    private final WorkflowEventListener listener;
+    private final EventRing ring;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread thread;
+    private final LongAdder dropped;
+    private volatile long delivered;
+    private volatile long failed;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    Subscription(WorkflowEventBus bus, WorkflowEventListener listener, int capacity, OverflowPolicy overflowPolicy,
+                 ThreadFactory threadFactory) {
+        this.bus = bus;
+        this.listener = listener;
+        this.ring = new EventRing(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.dropped = new LongAdder();
+        this.thread = threadFactory.newThread(this::consume);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void offer(WorkflowEvent event) {
+        while (!ring.offer(event)) {
+            if (overflowPolicy == OverflowPolicy.DROP || closed) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void consume() {
+        while (true) {
+            WorkflowEvent event = ring.poll();
+            if (event == null) {
+                if (closed) {
+                    return;
+                }
+                sleeping = true;
+                event = ring.poll();
+                if (event == null) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    sleeping = false;
+                    continue;
+                }
+                sleeping = false;
+            }
+            deliver(event);
+        }
+    }
+
+    private void deliver(WorkflowEvent event) {
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException e) {
+            // listener failure must not stop delivery of following events
+            failed++;
+        }
+        delivered++;
+    }
+
+    public WorkflowEventListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return number of events passed to the listener, including ones it failed to process
+     */
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * @return number of events the listener threw an exception on
+     */
+    public long getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * @return number of events dropped for this listener as its buffer was full, see {@link OverflowPolicy#DROP}
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of events waiting in the buffer
+     */
+    public long getPendingCount() {
+        return ring.size();
+    }
+
+    /**
+     * @return buffer capacity, which is requested capacity rounded up to a power of two
+     */
+    public int getCapacity() {
+        return ring.capacity();
+    }
+
+    /**
+     * Unsubscribes the listener. Events already in the buffer are still delivered; waits for that to happen.
+     */
+    @Override
+    public void close() {
+        bus.unsubscribe(this);
+        closed = true;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
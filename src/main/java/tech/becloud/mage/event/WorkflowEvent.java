@@ -0,0 +1,92 @@
+package tech.becloud.mage.event;
+
+import java.util.UUID;
+
+/**
+ * Execution lifecycle event. Events are immutable, so they can be safely handed over to listener threads.
+ */
+public final class WorkflowEvent {
+    private final WorkflowEventType type;
+    private final String workflowName;
+    private final int workflowVersion;
+    private final UUID executionId;
+    private final String nodeId;
+    private final String nextNodeId;
+    private final Throwable exception;
+    private final long timestamp;
+
+    /**
+     * @param type event type
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @param executionId execution id
+     * @param nodeId id of step (node) event relates to, {@code null} for events of execution as a whole
+     * @param nextNodeId id of step to execute next, for events of step completion
+     * @param exception exception routed or failed execution, if any
+     */
+    public WorkflowEvent(WorkflowEventType type, String workflowName, int workflowVersion, UUID executionId,
+                         String nodeId, String nextNodeId, Throwable exception) {
+        this.type = type;
+        this.workflowName = workflowName;
+        this.workflowVersion = workflowVersion;
+        this.executionId = executionId;
+        this.nodeId = nodeId;
+        this.nextNodeId = nextNodeId;
+        this.exception = exception;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public WorkflowEventType getType() {
+        return type;
+    }
+
+    public String getWorkflowName() {
+        return workflowName;
+    }
+
+    public int getWorkflowVersion() {
+        return workflowVersion;
+    }
+
+    public UUID getExecutionId() {
+        return executionId;
+    }
+
+    /**
+     * @return id of step (node) event relates to. Step ids of subflows are reported as is, without a path of
+     * subflow steps. {@code null} for events of execution as a whole.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return id of step to execute next for {@link WorkflowEventType#NODE_EXITED}, {@link WorkflowEventType#ROUTED}
+     * and {@link WorkflowEventType#EXCEPTION_ROUTED} events; {@code null} means flow completion
+     */
+    public String getNextNodeId() {
+        return nextNodeId;
+    }
+
+    /**
+     * @return exception for {@link WorkflowEventType#EXCEPTION_ROUTED} and {@link WorkflowEventType#FAILED} events
+     */
+    public Throwable getException() {
+        return exception;
+    }
+
+    /**
+     * @return time event occurred, in milliseconds since epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowEvent{" + type + ", " + workflowName + ':' + workflowVersion + ", " + executionId
+                + (nodeId != null ? ", node=" + nodeId : "")
+                + (nextNodeId != null ? ", next=" + nextNodeId : "")
+                + (exception != null ? ", exception=" + exception : "") + '}';
+    }
+}
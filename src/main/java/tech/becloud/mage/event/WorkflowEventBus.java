@@ -0,0 +1,125 @@
+package tech.becloud.mage.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands execution lifecycle events over to listeners running in their own threads, so that listeners never add
+ * latency to flow execution. Each listener has its own bounded lock-free buffer; what happens when it's full is
+ * defined by {@link OverflowPolicy}. Events of a single execution are delivered to a listener in order they
+ * occurred, unless it's a parallel step publishing events from several threads.
+ * <p>
+ * Bus is attached to workflows with {@link tech.becloud.mage.graph.Workflow#setEventBus(WorkflowEventBus)};
+ * the same bus may serve many workflows.
+ */
+public class WorkflowEventBus implements AutoCloseable {
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ThreadFactory threadFactory;
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    /**
+     * Creates bus running listeners in daemon threads.
+     * @param capacity buffer capacity per listener, rounded up to a power of two
+     * @param overflowPolicy what to do when buffer of a listener is full
+     */
+    public WorkflowEventBus(int capacity, OverflowPolicy overflowPolicy) {
+        this(capacity, overflowPolicy, runnable -> {
+            Thread thread = new Thread(runnable, "mage-events-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param capacity buffer capacity per listener, rounded up to a power of two
+     * @param overflowPolicy what to do when buffer of a listener is full
+     * @param threadFactory factory of listener threads
+     */
+    public WorkflowEventBus(int capacity, OverflowPolicy overflowPolicy, ThreadFactory threadFactory) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Subscribes a listener, starting a thread it will be called in.
+     * @param listener listener to call on each event published after subscription
+     * @return subscription to observe listener progress or to unsubscribe
+     */
+    public Subscription subscribe(WorkflowEventListener listener) {
+        Subscription subscription = new Subscription(this, listener, capacity, overflowPolicy, threadFactory);
+        synchronized (this) {
+            Subscription[] current = subscriptions;
+            Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+            subscriptions = updated;
+        }
+        subscription.start();
+        return subscription;
+    }
+
+    synchronized void unsubscribe(Subscription subscription) {
+        List<Subscription> remaining = new ArrayList<>(Arrays.asList(subscriptions));
+        remaining.remove(subscription);
+        subscriptions = remaining.toArray(new Subscription[0]);
+    }
+
+    /**
+     * @return {@code true} if there is at least one listener, so events should be published
+     */
+    public boolean hasSubscribers() {
+        return subscriptions.length > 0;
+    }
+
+    /**
+     * Passes event to buffers of all listeners. Doesn't wait unless {@link OverflowPolicy#BLOCK} is used and
+     * some buffer is full.
+     * @param event event to publish
+     */
+    public void publish(WorkflowEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * @return current subscriptions
+     */
+    public List<Subscription> getSubscriptions() {
+        return List.of(subscriptions);
+    }
+
+    /**
+     * @return total number of events dropped for current listeners
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (Subscription subscription : subscriptions) {
+            dropped += subscription.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Unsubscribes all listeners, waiting for events already published to be delivered.
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package tech.becloud.mage.event;
+
+/**
+ * Listener of execution lifecycle events, see {@link WorkflowEventBus#subscribe(WorkflowEventListener)}.
+ * Called in a thread dedicated to the listener, never in an execution thread.
+ */
+@FunctionalInterface
+public interface WorkflowEventListener {
+
+    void onEvent(WorkflowEvent event);
+}
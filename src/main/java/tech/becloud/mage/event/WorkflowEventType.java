@@ -0,0 +1,38 @@
+package tech.becloud.mage.event;
+
+public enum WorkflowEventType {
+    /**
+     * Execution started from the first step
+     */
+    STARTED,
+    /**
+     * Execution resumed from a saved or paused execution point
+     */
+    RESUMED,
+    /**
+     * Step execution is about to begin
+     */
+    NODE_ENTERED,
+    /**
+     * Step completed, next step is known
+     */
+    NODE_EXITED,
+    /**
+     * Router step selected a route
+     */
+    ROUTED,
+    /**
+     * Step failed with an exception matched by one of its exception routes
+     */
+    EXCEPTION_ROUTED,
+    PAUSED,
+    COMPLETED,
+    /**
+     * Step failed with an exception not matched by any exception route
+     */
+    FAILED,
+    /**
+     * Execution stopped on cancellation request or at its deadline
+     */
+    CANCELED
+}
@@ -5,8 +5,12 @@ import tech.becloud.mage.model.WorkflowContext;
 import tech.becloud.mage.persistence.PersistContext;
 import tech.becloud.mage.persistence.PersistContextScope;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -19,7 +23,10 @@ import java.util.function.Predicate;
 public class ActionNode<T extends UserContext> extends Node<T> {
     private final Consumer<? super T> action;
     private final Predicate<? super T> predicate;
+    private final PersistContextScope actionPersistContextScope;
     protected final String nextNodeId;
+    private final List<String> nextNodeIds;
+    private boolean interruptible;
 
     /**
      * Constructor, package private as intended way to create nodes is via builders.
@@ -32,7 +39,9 @@ public class ActionNode<T extends UserContext> extends Node<T> {
         super(id, exceptionRoutes);
         this.action = action;
         this.predicate = null;
+        this.actionPersistContextScope = getActionPersistContextScope(action);
         this.nextNodeId = nextNodeId;
+        this.nextNodeIds = Collections.singletonList(nextNodeId);
     }
 
     /**
@@ -48,26 +57,77 @@ public class ActionNode<T extends UserContext> extends Node<T> {
         super(id, exceptionRoutes);
         this.action = action;
         this.predicate = predicate;
+        this.actionPersistContextScope = getActionPersistContextScope(action);
         this.nextNodeId = nextNodeId;
+        this.nextNodeIds = Collections.singletonList(nextNodeId);
     }
 
     @Override
-    protected String executeAction(WorkflowContext<T> workflowContext) {
+    protected int executeAction(WorkflowContext<T> workflowContext) {
         T userContext = workflowContext.getUserContext();
         if (predicate == null || predicate.test(userContext)) {
+            if (interruptible) {
+                return executeInterruptibly(workflowContext);
+            }
             action.accept(userContext);
         }
-        return nextNodeId;
+        return 0;
+    }
+
+    /**
+     * Runs action letting its thread be interrupted on cancellation of execution or once step times out. Action
+     * interrupted on timeout and failing is routed as {@link TimeoutException} having exception thrown by action as
+     * a cause; action returning normally completes the step even if the timer has fired meanwhile.
+     */
+    private int executeInterruptibly(WorkflowContext<T> workflowContext) {
+        ExecutionContext<T> execution = workflowContext.getExecutionContext();
+        execution.beginInterruptible();
+        ScheduledFuture<?> timer = timeout == null ? null
+                : Timers.schedule(execution::interruptAction, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        RuntimeException failure = null;
+        boolean interrupted;
+        try {
+            action.accept(workflowContext.getUserContext());
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            // ended before the timer is canceled, so a timer firing meanwhile finds no action to interrupt
+            interrupted = execution.endInterruptible();
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+        if (interrupted && failure != null && !execution.isCanceled()) {
+            TimeoutException timeoutException = new TimeoutException(String.format("Step %s timed out after %d ms",
+                    getId(), timeout.toMillis()));
+            timeoutException.initCause(failure);
+            return routeOnException(timeoutException, workflowContext);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return 0;
+    }
+
+    @Override
+    protected List<String> getNextNodeIds() {
+        return nextNodeIds;
+    }
+
+    private static PersistContextScope getActionPersistContextScope(Object action) {
+        PersistContext annotation = action.getClass().getAnnotation(PersistContext.class);
+        return annotation != null ? annotation.value() : null;
     }
 
     @Override
     PersistContextScope getPersistenceScope() {
-        // FIXME consumer defined scope should have higher priority
-        return Optional.ofNullable(persistContextScope).orElseGet(() ->
-                Optional.ofNullable(action.getClass().getAnnotation(PersistContext.class))
-                        .map(PersistContext::value)
-                        .orElse(PersistContextScope.ALL)
-        );
+        if (nodePersistContextScope != null) {
+            return nodePersistContextScope;
+        }
+        if (actionPersistContextScope != null) {
+            return actionPersistContextScope;
+        }
+        return Optional.ofNullable(persistContextScope).orElse(PersistContextScope.ALL);
     }
 
     /**
@@ -84,6 +144,17 @@ public class ActionNode<T extends UserContext> extends Node<T> {
         return predicate;
     }
 
+    /**
+     * @return {@code true} if action may be interrupted on cancellation of execution or on timeout
+     */
+    public boolean isInterruptible() {
+        return interruptible;
+    }
+
+    void setInterruptible(boolean interruptible) {
+        this.interruptible = interruptible;
+    }
+
     /**
      * @return id of next step (node) on successful completion. May be {@code null} which means flow completion.
      */
@@ -0,0 +1,117 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.PersistContextScope;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Represents a workflow step executing a single asynchronous action, i.e. a function starting some work and
+ * returning a {@link CompletionStage} of it. If returned stage isn't complete yet, flow execution is suspended
+ * without holding a thread and continues to the next step once the stage completes. Stage completed
+ * exceptionally is routed by {@link ExceptionRoute}s as any exception thrown by a step. Step having a timeout
+ * routes {@link TimeoutException} if the stage doesn't complete in time.
+ * @param <T> type parameter representing type of data processed by the flow.
+ */
+public class AsyncActionNode<T extends UserContext> extends Node<T> {
+    private final Function<? super T, ? extends CompletionStage<Void>> action;
+    private final String nextNodeId;
+    private final List<String> nextNodeIds;
+
+    /**
+     * Constructor, package private as intended way to create nodes is via builders.
+     * @param id step (node) id
+     * @param action asynchronous action to perform
+     * @param nextNodeId id of next step to execute on successful completion
+     * @param exceptionRoutes next steps per exception type on exceptional action completion
+     */
+    AsyncActionNode(String id, Function<? super T, ? extends CompletionStage<Void>> action, String nextNodeId,
+                    List<ExceptionRoute<T>> exceptionRoutes) {
+        super(id, exceptionRoutes);
+        this.action = action;
+        this.nextNodeId = nextNodeId;
+        this.nextNodeIds = Collections.singletonList(nextNodeId);
+    }
+
+    @Override
+    protected int executeAction(WorkflowContext<T> workflowContext) {
+        ExecutionContext<T> execution = workflowContext.getExecutionContext();
+        // step is re-entered once awaited stage completes
+        CompletableFuture<?> stage = execution.takeCompletedAwaitedStage();
+        if (stage == null) {
+            stage = action.apply(workflowContext.getUserContext()).toCompletableFuture();
+            if (!stage.isDone()) {
+                // a copy is awaited, so that timeout or cancellation of execution don't complete action's own stage
+                CompletableFuture<?> awaited = stage.copy();
+                if (timeout != null) {
+                    scheduleTimeout(awaited, execution.getRunContinuationExecutor());
+                }
+                execution.setAwaitedStage(awaited);
+                return SUSPENDED;
+            }
+        }
+        try {
+            stage.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                return routeOnException((Exception) e.getCause(), workflowContext);
+            }
+            throw e;
+        }
+        return 0;
+    }
+
+    /**
+     * Completes awaited stage with {@link TimeoutException} unless it completes in time. Flow continues in the thread
+     * completing the stage when there is no continuation executor, so expiry is then delivered by the common pool
+     * rather than by the timer thread.
+     */
+    private void scheduleTimeout(CompletableFuture<?> awaited, Executor continuationExecutor) {
+        Executor completionExecutor = continuationExecutor == null ? ForkJoinPool.commonPool() : null;
+        ScheduledFuture<?> timer = Timers.schedule(() -> {
+            if (completionExecutor == null) {
+                awaited.completeExceptionally(new TimeoutException());
+            } else {
+                completionExecutor.execute(() -> awaited.completeExceptionally(new TimeoutException()));
+            }
+        }, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        awaited.whenComplete((result, e) -> timer.cancel(false));
+    }
+
+    @Override
+    protected List<String> getNextNodeIds() {
+        return nextNodeIds;
+    }
+
+    @Override
+    PersistContextScope getPersistenceScope() {
+        return Optional.ofNullable(nodePersistContextScope).or(() -> Optional.ofNullable(persistContextScope))
+                .orElse(PersistContextScope.ALL);
+    }
+
+    /**
+     * @return asynchronous action to be performed
+     */
+    public Function<? super T, ? extends CompletionStage<Void>> getAction() {
+        return action;
+    }
+
+    /**
+     * @return id of next step (node) on successful completion. May be {@code null} which means flow completion.
+     */
+    public String getNextNodeId() {
+        return nextNodeId;
+    }
+}
@@ -0,0 +1,41 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.model.UserContext;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+public class AsyncActionNodeBuilder<T extends UserContext>
+        extends SequentialNodeBuilder<T, AsyncActionNodeBuilder<T>> {
+    private final Function<? super T, ? extends CompletionStage<Void>> action;
+    private Duration timeout;
+
+    public AsyncActionNodeBuilder(FlowBuilder<T> flowBuilder, String id,
+                                  Function<? super T, ? extends CompletionStage<Void>> action) {
+        super(flowBuilder, id);
+        this.action = action;
+    }
+
+    /**
+     * Limits time to await completion of this step's action. Once time is out the step is routed as
+     * {@link TimeoutException}, see {@link #onException(Class, String)}; stage returned by action isn't affected.
+     * @param timeout time to await action completion
+     * @return this builder
+     */
+    public AsyncActionNodeBuilder<T> timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    @Override
+    public Node<T> build() {
+        AsyncActionNode<T> node = new AsyncActionNode<>(id, action, nextNode, exceptionRoutes);
+        node.setPause(this.pause);
+        node.setTimeout(this.timeout);
+        node.setNodePersistContextScope(this.persistContextScope);
+        node.setRetryPolicy(this.retryPolicy);
+        return node;
+    }
+}
@@ -2,7 +2,9 @@ package tech.becloud.mage.graph;
 
 import tech.becloud.mage.model.UserContext;
 
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Interface for integration with DI like Spring, Micronaut, etc. that allows bean lookup by name and type
@@ -29,4 +31,29 @@ public interface BeanResolver {
      * @throws
      */
     <T extends UserContext> Flow<T> getFlow(String name, Class<T> klass);
+
+    /**
+     * Performs lookup for a {@link Predicate} bean by name, used by router steps. Resolves nothing by default, so
+     * resolvers not supporting predicates don't have to implement it.
+     * @param name {@link Predicate} bean name to lookup
+     * @param klass Type that predicate implementation should accept as parameter
+     * @param <T> type parameter for predicate
+     * @return a corresponding {@link Predicate} instance, {@code null} if not found
+     */
+    default <T extends UserContext> Predicate<? super T> getPredicate(String name, Class<T> klass) {
+        return null;
+    }
+
+    /**
+     * Performs lookup for an exception handler bean by name, called when exception is routed. Resolves nothing by
+     * default, so resolvers not supporting exception handlers don't have to implement it.
+     * @param name {@link BiConsumer} bean name to lookup
+     * @param klass Type of flow data handler implementation should accept as the first parameter
+     * @param <T> type parameter for handler
+     * @return a corresponding {@link BiConsumer} instance, {@code null} if not found
+     */
+    default <T extends UserContext> BiConsumer<? super T, Throwable> getExceptionHandler(String name,
+                                                                                         Class<T> klass) {
+        return null;
+    }
 }
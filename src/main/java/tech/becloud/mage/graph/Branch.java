@@ -0,0 +1,23 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.model.UserContext;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Supplemental class for ParallelNode: a branch executing either an action or a whole flow, with exception routes
+ * applied if the branch fails.
+ * @param <T>
+ */
+final class Branch<T extends UserContext> {
+    public final Consumer<? super T> action;
+    public final Flow<T> flow;
+    public final List<ExceptionRoute<T>> exceptionRoutes;
+
+    public Branch(Consumer<? super T> action, Flow<T> flow, List<ExceptionRoute<T>> exceptionRoutes) {
+        this.action = action;
+        this.flow = flow;
+        this.exceptionRoutes = List.copyOf(exceptionRoutes);
+    }
+}
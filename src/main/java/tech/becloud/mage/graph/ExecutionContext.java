@@ -1,31 +1,102 @@
 package tech.becloud.mage.graph;
 
-import java.util.ArrayList;
+import tech.becloud.mage.event.WorkflowEventBus;
+import tech.becloud.mage.instrumentation.WorkflowInstrumentation;
+import tech.becloud.mage.lease.Lease;
+import tech.becloud.mage.lease.LeaseManager;
+
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.BiConsumer;
 
 public class ExecutionContext<T> {
+    private static final int INITIAL_PATH_CAPACITY = 4;
+    private static final String PATH_SEPARATOR = "/";
+
     private String serviceInstanceId;
     private final UUID executionId;
     private final String workflowName;
     private final int workflowVersion;
     private WorkflowExceptionHandler<T> exceptionHandler;
     private BiConsumer<? super T, ExecutionState> completionHandler;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ExecutionContext, ExecutionState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(ExecutionContext.class, ExecutionState.class, "executionState");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ExecutionContext, CompletableFuture> PAUSED_FUTURE =
+            AtomicReferenceFieldUpdater.newUpdater(ExecutionContext.class, CompletableFuture.class,
+                    "pausedCompletableFuture");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ExecutionContext, CancelRequest> CANCEL_REQUEST =
+            AtomicReferenceFieldUpdater.newUpdater(ExecutionContext.class, CancelRequest.class, "cancelRequest");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ExecutionContext> RUN_CLAIMED =
+            AtomicIntegerFieldUpdater.newUpdater(ExecutionContext.class, "runClaimed");
+
     private volatile ExecutionState executionState;
-    private volatile boolean pauseRequested;
-    private volatile boolean canceled;
-    private final List<String> currentNodePath;
+    private volatile int runClaimed;
+    private String[] nodePath;
+    private int[] nodeSlots;
+    private int pathLength;
+    private String executionPoint;
     private int subflowDepth;
-    private CompletableFuture<Void> pausedCompletableFuture;
+    private volatile CompletableFuture<Void> pausedCompletableFuture;
+    private volatile CompletableFuture<?> awaitedStage;
+    private Executor continuationExecutor;
+    private CompletableFuture<Void> runCompletion;
+    private volatile long completedBranches;
+    private int retryAttempts;
+    private int retryLevel = -1;
+    private boolean branch;
+    private boolean flushDeferred;
+    private Throwable failure;
+    private StepScheduler stepScheduler;
+    private int stepsPerTurn;
+    private int turnSteps;
+    private boolean yielded;
+    private WorkflowInstrumentation instrumentation = WorkflowInstrumentation.NOOP;
+    private long startedNanos;
+    private long[] stepStartedNanos;
+    private WorkflowEventBus eventBus;
+    private Throwable routedException;
+    // lease is renewed in background while the run holds it, see setLease
+    private final Object leaseLock = new Object();
+    private volatile Lease lease;
+    private long fencingToken;
+    private LeaseManager leaseManager;
+    private Duration leaseDuration;
+    private volatile boolean leaseLost;
+    private ScheduledFuture<?> leaseRenewal;
+    private volatile CancelRequest cancelRequest;
+    private ExecutionContext<T> parent;
+    private long deadline;
+    private ScheduledFuture<?> deadlineTimer;
+    private Thread actionThread;
+    private boolean actionInterrupted;
 
     public ExecutionContext(String workflowName, int workflowVersion, UUID executionId) {
+        this(workflowName, workflowVersion, executionId, INITIAL_PATH_CAPACITY);
+    }
+
+    /**
+     * @param pathCapacity number of subflow levels execution point is sized for, see
+     * {@link Flow#getMaxSubflowDepth()}, so it isn't grown during execution
+     */
+    ExecutionContext(String workflowName, int workflowVersion, UUID executionId, int pathCapacity) {
         this.workflowName = workflowName;
         this.workflowVersion = workflowVersion;
         this.executionId = executionId;
-        this.currentNodePath = new ArrayList<>();
+        this.nodePath = new String[pathCapacity];
+        this.nodeSlots = new int[pathCapacity];
     }
 
     /**
@@ -90,45 +161,830 @@ public class ExecutionContext<T> {
         return executionState;
     }
 
+    /**
+     * Sets state unconditionally, e.g. when execution context is restored. Running execution should be controlled
+     * with {@link #requestPause()} and {@link #requestCancel()} instead.
+     * @param executionState execution state
+     */
     public void setExecutionState(ExecutionState executionState) {
         this.executionState = executionState;
     }
 
     /**
-     * @return
+     * Atomically changes state if it is the expected one.
+     * @return {@code true} if state was changed
+     */
+    boolean transition(ExecutionState expected, ExecutionState next) {
+        return STATE.compareAndSet(this, expected, next);
+    }
+
+    /**
+     * Enters {@link ExecutionState#RUNNING} state at the start of a run. Requested pause or cancellation stays in
+     * effect, so execution pauses or stops before its first step.
+     */
+    void enterRunning() {
+        for (;;) {
+            ExecutionState state = executionState;
+            if (state == ExecutionState.RUNNING || state == ExecutionState.PAUSING
+                    || state == ExecutionState.CANCELING || state == ExecutionState.CANCELED) {
+                return;
+            }
+            if (STATE.compareAndSet(this, state, ExecutionState.RUNNING)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claims a run of execution in this process, so that an execution isn't run by two threads at once. The run is
+     * released by the flow once it stops, before futures of pause and cancellation requests are completed.
+     * @throws IllegalStateException if execution is running already
+     */
+    void claimRun() {
+        if (!RUN_CLAIMED.compareAndSet(this, 0, 1)) {
+            throw new IllegalStateException(String.format("Execution %s is running already", executionId));
+        }
+    }
+
+    void releaseRun() {
+        runClaimed = 0;
+    }
+
+    /**
+     * Claims a run and marks execution as being resumed, so that of concurrent resumes of the same execution only
+     * one proceeds. Execution loaded from repository in a running or pausing state, i.e. left by a failed instance,
+     * may be resumed as well.
+     * @return state execution was in, to be restored with {@link #abortResume(ExecutionState)} if resume couldn't
+     * be submitted
+     * @throws IllegalStateException if execution is running or being canceled, or it has stopped for good
+     */
+    ExecutionState beginResume() {
+        claimRun();
+        for (;;) {
+            ExecutionState state = executionState;
+            if (state == ExecutionState.CANCELING || state != null && state.isTerminal()) {
+                releaseRun();
+                throw new IllegalStateException(String.format("Execution %s can't be resumed in state %s",
+                        executionId, state));
+            }
+            if (STATE.compareAndSet(this, state, ExecutionState.RESUMING)) {
+                return state;
+            }
+        }
+    }
+
+    /**
+     * Restores state execution was in before {@link #beginResume()} and releases the run. If execution was
+     * canceled meanwhile, cancellation completes, as nothing runs execution to complete it.
+     * @param previous state returned by {@link #beginResume()}
+     */
+    void abortResume(ExecutionState previous) {
+        if (!STATE.compareAndSet(this, ExecutionState.RESUMING, previous)) {
+            transition(ExecutionState.CANCELING, ExecutionState.CANCELED);
+        }
+        releaseRun();
+        completePause();
+        completeCancel();
+    }
+
+    /**
+     * Execution point is kept as node ids and node slots in compiled flows per subflow level. String form is
+     * rendered only when requested and cached until execution moves to another node. In the main flow it is just
+     * an id of the node, so no string is built at all.
+     * @return ids of nodes at each subflow level leading to the current one, separated with '/'
      */
     public String getExecutionPoint() {
-        return String.join("/", currentNodePath);
+        if (executionPoint == null) {
+            executionPoint = renderExecutionPoint();
+        }
+        return executionPoint;
+    }
+
+    private String renderExecutionPoint() {
+        // only trailing levels may be null, which means their flows start from the beginning
+        int length = pathLength;
+        while (length > 0 && nodePath[length - 1] == null) {
+            length--;
+        }
+        if (length == 0) {
+            return "";
+        }
+        if (length == 1) {
+            return nodePath[0];
+        }
+        StringBuilder builder = new StringBuilder(nodePath[0]);
+        for (int i = 1; i < length; i++) {
+            builder.append(PATH_SEPARATOR).append(nodePath[i]);
+        }
+        return builder.toString();
     }
 
     /**
-     *
-     * @param executionPoint
+     * Sets an execution point to continue execution from, e.g. loaded from persistent storage.
+     * @param executionPoint ids of nodes at each subflow level separated with '/', see {@link #getExecutionPoint()}
      */
     public void setExecutionPoint(String executionPoint) {
-        currentNodePath.clear();
+        Arrays.fill(nodePath, 0, pathLength, null);
+        pathLength = 0;
+        this.executionPoint = null;
         if (executionPoint == null || executionPoint.isEmpty()) {
             return;
         }
-        String[] path = executionPoint.split("/");
-        currentNodePath.addAll(Arrays.asList(path));
+        if (executionPoint.indexOf('/') < 0) {
+            setNode(0, executionPoint, Flow.END);
+        } else {
+            String[] path = executionPoint.split(PATH_SEPARATOR);
+            for (int i = 0; i < path.length; i++) {
+                setNode(i, path[i], Flow.END);
+            }
+        }
+        this.executionPoint = executionPoint;
+    }
+
+    /**
+     * @param level subflow level
+     * @return id of current node at given subflow level, {@code null} if flow at this level should start from
+     * the beginning or has completed
+     */
+    String getNodeId(int level) {
+        return level < pathLength ? nodePath[level] : null;
+    }
+
+    /**
+     * @param level subflow level
+     * @return slot of current node in a compiled flow at given subflow level, or {@link Flow#END} if unknown
+     */
+    int getNodeSlot(int level) {
+        return level < pathLength ? nodeSlots[level] : Flow.END;
+    }
+
+    /**
+     * Sets current node at given subflow level.
+     * @param level subflow level
+     * @param nodeId node id
+     * @param slot slot of node in compiled flow, {@link Flow#END} if unknown
+     */
+    void setNode(int level, String nodeId, int slot) {
+        if (level >= nodePath.length) {
+            int capacity = Math.max(nodePath.length * 2, level + 1);
+            nodePath = Arrays.copyOf(nodePath, capacity);
+            nodeSlots = Arrays.copyOf(nodeSlots, capacity);
+        }
+        if (level >= pathLength) {
+            Arrays.fill(nodeSlots, pathLength, level, Flow.END);
+            pathLength = level + 1;
+        }
+        nodePath[level] = nodeId;
+        nodeSlots[level] = slot;
+        executionPoint = null;
+    }
+
+    /**
+     * @return number of subflow levels in execution point
+     */
+    int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * Enters a subflow, i.e. adds a level to execution point unless it is already there, as happens on resume.
+     */
+    void enterSubflow() {
+        subflowDepth++;
+        if (subflowDepth == pathLength) {
+            setNode(subflowDepth, null, Flow.END);
+        }
+    }
+
+    /**
+     * Exits a subflow, removing the deepest level of execution point.
+     */
+    void exitSubflow() {
+        pathLength = subflowDepth;
+        nodePath[subflowDepth] = null;
+        subflowDepth--;
+        executionPoint = null;
+    }
+
+    /**
+     * Leaves a subflow awaiting an asynchronous action, keeping its level of execution point so the subflow is
+     * re-entered once action completes.
+     */
+    void suspendSubflow() {
+        subflowDepth--;
+    }
+
+    /**
+     * @return {@code true} if execution awaits completion of asynchronous action
+     */
+    boolean isAwaiting() {
+        return awaitedStage != null;
+    }
+
+    CompletableFuture<?> getAwaitedStage() {
+        return awaitedStage;
+    }
+
+    void setAwaitedStage(CompletableFuture<?> awaitedStage) {
+        this.awaitedStage = awaitedStage;
+    }
+
+    /**
+     * Takes completed awaited stage, so the node awaiting it can continue.
+     * @return awaited stage, or {@code null} if there is no such stage or it hasn't completed yet
+     */
+    CompletableFuture<?> takeCompletedAwaitedStage() {
+        CompletableFuture<?> stage = awaitedStage;
+        if (stage == null || !stage.isDone()) {
+            return null;
+        }
+        awaitedStage = null;
+        return stage;
+    }
+
+    /**
+     * @return executor to continue execution on once awaited asynchronous action completes, {@code null} means
+     * execution continues in a thread completing the action
+     */
+    public Executor getContinuationExecutor() {
+        return continuationExecutor;
+    }
+
+    public void setContinuationExecutor(Executor continuationExecutor) {
+        this.continuationExecutor = continuationExecutor;
+    }
+
+    /**
+     * @return executor current run continues on after asynchronous actions and retry delays: continuation executor
+     * if it's set, otherwise scheduler the run is scheduled on, if any
+     */
+    Executor getRunContinuationExecutor() {
+        Executor executor = continuationExecutor;
+        return executor != null ? executor : stepScheduler;
+    }
+
+    /**
+     * @return instrumentation receiving timings of this execution, {@link WorkflowInstrumentation#NOOP} by default
+     */
+    public WorkflowInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    public void setInstrumentation(WorkflowInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when execution was started or resumed, set only if instrumentation is used
+     */
+    long getStartedNanos() {
+        return startedNanos;
+    }
+
+    void setStartedNanos(long startedNanos) {
+        this.startedNanos = startedNanos;
+    }
+
+    /**
+     * @param level subflow level
+     * @return {@link System#nanoTime()} when the step at given level was entered, kept while the step awaits
+     */
+    long getStepStartedNanos(int level) {
+        return stepStartedNanos != null && level < stepStartedNanos.length ? stepStartedNanos[level] : 0;
+    }
+
+    void setStepStartedNanos(int level, long nanos) {
+        if (stepStartedNanos == null) {
+            stepStartedNanos = new long[Math.max(INITIAL_PATH_CAPACITY, level + 1)];
+        } else if (level >= stepStartedNanos.length) {
+            stepStartedNanos = Arrays.copyOf(stepStartedNanos, Math.max(stepStartedNanos.length * 2, level + 1));
+        }
+        stepStartedNanos[level] = nanos;
+    }
+
+    /**
+     * @return bus to publish lifecycle events of this execution to, {@code null} if events aren't published
+     */
+    public WorkflowEventBus getEventBus() {
+        return eventBus;
+    }
+
+    public void setEventBus(WorkflowEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    void setRoutedException(Throwable routedException) {
+        this.routedException = routedException;
+    }
+
+    /**
+     * @return exception routed by the last step, if any; it's cleared so that context doesn't hold it
+     */
+    Throwable takeRoutedException() {
+        Throwable exception = routedException;
+        routedException = null;
+        return exception;
+    }
+
+    /**
+     * Progress of a parallel step being executed: bit {@code i} is set if branch {@code i} has completed, so resumed
+     * execution re-runs only unfinished branches. Should be persisted along with execution point.
+     * @return bit mask of completed branches of current parallel step
+     */
+    public long getCompletedBranches() {
+        return completedBranches;
+    }
+
+    public void setCompletedBranches(long completedBranches) {
+        this.completedBranches = completedBranches;
+    }
+
+    synchronized void markBranchCompleted(int branch) {
+        completedBranches |= 1L << branch;
+    }
+
+    /**
+     * Number of failed attempts of current step retried by its {@link RetryPolicy}. Should be persisted along with
+     * execution point, so that resumed execution doesn't retry the step more times than the policy allows.
+     * @return number of failed attempts of current step, 0 if it isn't being retried
+     */
+    public int getRetryAttempts() {
+        return retryAttempts;
+    }
+
+    public void setRetryAttempts(int retryAttempts) {
+        this.retryAttempts = retryAttempts;
+    }
+
+    /**
+     * Suspends execution until a step failed at current subflow level is retried. Delay is awaited as an
+     * asynchronous action, so no thread is held; it is fired by the shared timer and completed in continuation
+     * executor, if it is set, or in the common pool, so that the timer thread never runs actions.
+     * @param delayNanos delay before retry in nanoseconds
+     */
+    void scheduleRetry(long delayNanos) {
+        CompletableFuture<Void> retry = new CompletableFuture<>();
+        Executor completionExecutor = getRunContinuationExecutor() == null ? ForkJoinPool.commonPool() : null;
+        ScheduledFuture<?> timer = Timers.schedule(() -> {
+            if (completionExecutor == null) {
+                retry.complete(null);
+            } else {
+                completionExecutor.execute(() -> retry.complete(null));
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+        // cancellation of execution cancels the awaited delay, which doesn't need to stay scheduled then
+        retry.whenComplete((result, e) -> timer.cancel(false));
+        retryLevel = subflowDepth;
+        awaitedStage = retry;
+    }
+
+    /**
+     * @return {@code true} if execution awaits retry delay of a step
+     */
+    boolean isRetryScheduled() {
+        return retryLevel >= 0;
+    }
+
+    /**
+     * @return {@code true} if a step at current subflow level is re-entered after retry delay
+     */
+    boolean isRetryDue() {
+        return retryLevel == subflowDepth && retryLevel >= 0;
     }
 
+    /**
+     * @return {@code true} if a step awaits retry delay, which has already elapsed, at any subflow level
+     */
+    boolean isRetryDelayElapsed() {
+        CompletableFuture<?> stage = awaitedStage;
+        return retryLevel >= 0 && stage != null && stage.isDone();
+    }
+
+    /**
+     * Stops awaiting elapsed retry delay, so the step is executed again.
+     */
+    void takeRetryDelay() {
+        retryLevel = -1;
+        awaitedStage = null;
+    }
+
+    /**
+     * @return {@code true} if this context belongs to a subflow executed as a branch of parallel step. Such
+     * contexts share execution id with the main one, so they are never persisted.
+     */
+    boolean isBranch() {
+        return branch;
+    }
+
+    void setBranch(boolean branch) {
+        this.branch = branch;
+    }
+
+    /**
+     * @return {@code true} if flow doesn't flush context of this execution to repository when execution pauses or
+     * terminates, as it's flushed together with others, see {@link WorkflowBatch}
+     */
+    boolean isFlushDeferred() {
+        return flushDeferred;
+    }
+
+    void setFlushDeferred(boolean flushDeferred) {
+        this.flushDeferred = flushDeferred;
+    }
+
+    /**
+     * @return exception execution has failed with, {@code null} unless execution state is
+     * {@link ExecutionState#FAILED}; it isn't persisted
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    void setFailure(Throwable failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * @return scheduler execution yields to between its steps, {@code null} if execution runs in a thread until
+     * it stops or awaits an asynchronous action
+     */
+    StepScheduler getStepScheduler() {
+        return stepScheduler;
+    }
+
+    /**
+     * @param stepScheduler scheduler to yield to between steps, {@code null} to run execution in a thread
+     * @param stepsPerTurn number of steps execution runs before it yields
+     */
+    void setStepScheduler(StepScheduler stepScheduler, int stepsPerTurn) {
+        this.stepScheduler = stepScheduler;
+        this.stepsPerTurn = stepsPerTurn;
+        this.turnSteps = 0;
+    }
+
+    /**
+     * Counts a step executed in the current turn.
+     * @return {@code true} if the turn is over and execution should yield
+     */
+    boolean completeTurnStep() {
+        if (++turnSteps < stepsPerTurn) {
+            return false;
+        }
+        turnSteps = 0;
+        return true;
+    }
+
+    /**
+     * @param yielded {@code true} once execution has yielded to scheduler, so that its next turn doesn't count as a
+     *                start of run
+     */
+    void setYielded(boolean yielded) {
+        this.yielded = yielded;
+    }
+
+    /**
+     * @return {@code true} if execution continues after it has yielded; flag is cleared
+     */
+    boolean takeYielded() {
+        boolean result = yielded;
+        yielded = false;
+        return result;
+    }
+
+    /**
+     * Starts a new run, i.e. start or resume of execution.
+     * @return future to be completed when execution completes, fails or pauses
+     */
+    CompletableFuture<Void> startRun() {
+        runCompletion = new CompletableFuture<>();
+        return runCompletion;
+    }
+
+    /**
+     * Completes current run, if it was started with {@link #startRun()}
+     * @param failure an exception that terminated run, {@code null} if execution completed, failed or paused
+     * normally
+     */
+    void completeRun(Throwable failure) {
+        CompletableFuture<Void> run = runCompletion;
+        if (run == null) {
+            return;
+        }
+        if (failure == null) {
+            run.complete(null);
+        } else {
+            run.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * @return lease this service instance holds on execution while running it, {@code null} if execution isn't
+     * leased or isn't running
+     */
+    public Lease getLease() {
+        return lease;
+    }
+
+    /**
+     * Checkpoints should carry this token, so storage can reject checkpoints of a former owner which lost its lease.
+     * @return fencing token of current lease, or the one set by {@link #setFencingToken(long)} if no lease is
+     * held; 0 if execution isn't leased
+     */
+    public long getFencingToken() {
+        Lease current = lease;
+        return current == null ? fencingToken : current.getFencingToken();
+    }
+
+    /**
+     * Sets fencing token of a checkpoint taken under a lease, for a copy of execution context written to storage
+     * after the checkpoint, e.g. by a write-behind repository. A lease held by a running execution takes precedence.
+     * @param fencingToken fencing token of the lease checkpoint was taken under
+     */
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
+    /**
+     * Sets a lease claimed for this run. It's renewed every half of its duration until it's released, whether
+     * execution runs a step or awaits one. Timer only triggers renewal, lease manager is called in the common pool.
+     */
+    void setLease(Lease lease, LeaseManager leaseManager, Duration leaseDuration) {
+        synchronized (leaseLock) {
+            this.lease = lease;
+            this.leaseManager = leaseManager;
+            this.leaseDuration = leaseDuration;
+            this.leaseLost = false;
+            scheduleLeaseRenewal();
+        }
+    }
+
+    private void scheduleLeaseRenewal() {
+        long period = leaseDuration.toNanos() / 2;
+        if (period > 0) {
+            Lease current = lease;
+            leaseRenewal = Timers.schedule(() -> ForkJoinPool.commonPool().execute(() -> renewLease(current)),
+                    period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void renewLease(Lease current) {
+        synchronized (leaseLock) {
+            if (lease != current || leaseLost) {
+                // released meanwhile, possibly claimed again by another run
+                return;
+            }
+            Lease renewed;
+            try {
+                renewed = leaseManager.renew(current, leaseDuration);
+            } catch (RuntimeException e) {
+                // lease may outlive a transient failure of lease manager, so renewal is retried on schedule
+                scheduleLeaseRenewal();
+                return;
+            }
+            if (renewed == null) {
+                leaseLost = true;
+                return;
+            }
+            lease = renewed;
+            scheduleLeaseRenewal();
+        }
+    }
+
+    /**
+     * @return {@code true} if lease was lost during this run, i.e. execution is owned by another service instance
+     * now. Checked between steps, so that a former owner neither checkpoints nor continues execution.
+     */
+    boolean isLeaseLost() {
+        return leaseLost;
+    }
+
+    /**
+     * Stops renewal of lease and releases it at the end of run, unless it's lost already.
+     */
+    void releaseLease() {
+        synchronized (leaseLock) {
+            if (leaseRenewal != null) {
+                leaseRenewal.cancel(false);
+                leaseRenewal = null;
+            }
+            if (lease != null && !leaseLost) {
+                leaseManager.release(lease);
+            }
+            lease = null;
+        }
+    }
+
+    /**
+     * Requests cancellation of execution. Running execution stops before its next step; its current action is
+     * interrupted if the step allows it, and awaiting of asynchronous action or parallel branches is abandoned.
+     * Execution which isn't running, e.g. paused, is canceled at once. Canceled execution ends in
+     * {@link ExecutionState#CANCELED} state, which is passed to completion handler.
+     * @return future completed once execution has stopped; it's completed at once if execution has already
+     * completed, failed or been canceled
+     */
+    public CompletableFuture<Void> requestCancel() {
+        return requestCancel(null);
+    }
+
+    /**
+     * @param cause reason of cancellation passed to exception handler, {@code null} if canceled on request
+     */
+    CompletableFuture<Void> requestCancel(Throwable cause) {
+        CancelRequest request = cancelRequest;
+        if (request == null) {
+            CancelRequest created = new CancelRequest(cause);
+            request = CANCEL_REQUEST.compareAndSet(this, null, created) ? created : cancelRequest;
+        }
+        for (;;) {
+            ExecutionState state = executionState;
+            if (state == ExecutionState.CANCELING) {
+                return request.future;
+            }
+            if (state != null && state.isTerminal()) {
+                request.future.complete(null);
+                return request.future;
+            }
+            if (state == ExecutionState.RUNNING || state == ExecutionState.PAUSING
+                    || state == ExecutionState.RESUMING) {
+                if (STATE.compareAndSet(this, state, ExecutionState.CANCELING)) {
+                    interruptAction();
+                    CompletableFuture<?> stage = awaitedStage;
+                    if (stage != null) {
+                        stage.cancel(false);
+                    }
+                    return request.future;
+                }
+            } else if (STATE.compareAndSet(this, state, ExecutionState.CANCELED)) {
+                // not started or paused, so nothing runs it
+                request.future.complete(null);
+                return request.future;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if cancellation of this execution, or of execution this branch belongs to, is requested
+     */
+    public boolean isCanceled() {
+        ExecutionState state = executionState;
+        return state == ExecutionState.CANCELING || state == ExecutionState.CANCELED
+                || parent != null && parent.isCanceled();
+    }
+
+    /**
+     * @return reason of cancellation, e.g. exceeded deadline, {@code null} if execution was canceled on request
+     */
+    Throwable getCancelCause() {
+        CancelRequest request = cancelRequest;
+        return request == null ? null : request.cause;
+    }
+
+    /**
+     * Completes future returned by {@link #requestCancel()} once execution has stopped.
+     */
+    void completeCancel() {
+        CancelRequest request = cancelRequest;
+        if (request != null) {
+            request.future.complete(null);
+        }
+    }
+
+    /**
+     * Sets execution this branch belongs to, so that branch stops when that execution is canceled.
+     */
+    void setParent(ExecutionContext<T> parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Deadline isn't persisted, so an execution loaded from repository gets a new one from its flow on resume.
+     * @return time by which execution is canceled unless it completes, in milliseconds since epoch, 0 if none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets deadline of execution. Should be set before execution is started or resumed.
+     * @param deadline time in milliseconds since epoch, 0 means no deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Schedules cancellation of execution at its deadline, if any, for the current run.
+     */
+    void startDeadlineTimer() {
+        if (deadline == 0 || deadlineTimer != null) {
+            return;
+        }
+        deadlineTimer = Timers.schedule(() -> requestCancel(new TimeoutException(String.format(
+                "Execution %s exceeded its deadline", executionId))),
+                deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void stopDeadlineTimer() {
+        if (deadlineTimer != null) {
+            deadlineTimer.cancel(false);
+            deadlineTimer = null;
+        }
+    }
+
+    /**
+     * Marks current thread as running an action which may be interrupted, see {@link #interruptAction()}.
+     */
+    synchronized void beginInterruptible() {
+        actionThread = Thread.currentThread();
+        actionInterrupted = false;
+        if (isCanceled()) {
+            // canceled right before the action, so it doesn't get to run to completion
+            interruptAction();
+        }
+    }
+
+    /**
+     * Ends interruptible action, clearing interrupt status if it was set by {@link #interruptAction()}, so it
+     * doesn't leak to subsequent steps or to a pooled thread.
+     * @return {@code true} if action was interrupted
+     */
+    synchronized boolean endInterruptible() {
+        actionThread = null;
+        if (actionInterrupted) {
+            actionInterrupted = false;
+            Thread.interrupted();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Interrupts thread running an interruptible action, if any.
+     */
+    synchronized void interruptAction() {
+        if (actionThread != null && !actionInterrupted) {
+            actionInterrupted = true;
+            actionThread.interrupt();
+        }
+    }
+
+    /**
+     * @return {@code true} if execution is requested to pause and hasn't paused yet
+     */
     public boolean isPauseRequested() {
-        return pauseRequested;
+        return executionState == ExecutionState.PAUSING;
     }
 
     /**
-     * Passing {@code true} means a request to pause execution as soon as possible, i.e. right after current node
-     * execution completes.
-     * @param pauseRequested
+     * Requests running execution to pause before its next step. Execution being resumed pauses before its first
+     * step. Requests made while execution is pausing share the same future.
+     * @return future completed once execution has paused, or stopped otherwise, e.g. completed; it's completed at
+     * once if execution isn't running
      */
-    public void setPauseRequested(boolean pauseRequested) {
-        this.pauseRequested = pauseRequested;
+    public CompletableFuture<Void> requestPause() {
+        for (;;) {
+            ExecutionState state = executionState;
+            if (state == ExecutionState.RUNNING || state == ExecutionState.RESUMING) {
+                CompletableFuture<Void> paused = pausedFuture();
+                if (STATE.compareAndSet(this, state, ExecutionState.PAUSING)) {
+                    return paused;
+                }
+            } else if (state == ExecutionState.PAUSING) {
+                CompletableFuture<Void> paused = pausedFuture();
+                // unless execution has paused meanwhile, then the future is left for the next pause
+                if (executionState == ExecutionState.PAUSING) {
+                    return paused;
+                }
+            } else {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
     }
 
-    List<String> getCurrentNodePath() {
-        return currentNodePath;
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Void> pausedFuture() {
+        for (;;) {
+            CompletableFuture<Void> paused = pausedCompletableFuture;
+            if (paused != null) {
+                return paused;
+            }
+            CompletableFuture<Void> created = new CompletableFuture<>();
+            if (PAUSED_FUTURE.compareAndSet(this, null, created)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Completes pending pause future once execution has paused or stopped. Future is taken atomically, so it is
+     * completed exactly once.
+     */
+    @SuppressWarnings("unchecked")
+    void completePause() {
+        CompletableFuture<Void> paused = PAUSED_FUTURE.getAndSet(this, null);
+        if (paused != null) {
+            paused.complete(null);
+        }
     }
 
     int getSubflowDepth() {
@@ -139,11 +995,22 @@ public class ExecutionContext<T> {
         this.subflowDepth = subflowDepth;
     }
 
+    /**
+     * @return future of pending pause request, {@code null} if there is none
+     */
     public CompletableFuture<Void> getPausedCompletableFuture() {
         return pausedCompletableFuture;
     }
 
-    public void setPausedCompletableFuture(CompletableFuture<Void> completableFuture) {
-        this.pausedCompletableFuture = completableFuture;
+    /**
+     * Cancellation request, installed once so that its cause and future are shared by concurrent requests.
+     */
+    private static final class CancelRequest {
+        final Throwable cause;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        CancelRequest(Throwable cause) {
+            this.cause = cause;
+        }
     }
 }
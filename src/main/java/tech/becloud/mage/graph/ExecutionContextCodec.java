@@ -0,0 +1,354 @@
+package tech.becloud.mage.graph;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary form of persistable part of {@link ExecutionContext}: execution id, state, execution point,
+ * service instance id, progress of parallel step and retry attempts of current step. Handlers and other runtime
+ * state aren't encoded.
+ * <p>
+ * Strings are interned against registered workflows. A workflow is written as a 32-bit key computed from its name,
+ * version and ids of nodes of its compiled flows, and execution point is written as slots of nodes in compiled
+ * flows, so decoded context resumes without looking nodes up. Slots depend on flow definition, so the key changes
+ * with definition: a checkpoint of another definition fails to decode rather than resumes at a wrong node.
+ * <p>
+ * Format version 1, in order:
+ * <ul>
+ *     <li>format version, byte</li>
+ *     <li>workflow key, int</li>
+ *     <li>execution id, two longs</li>
+ *     <li>execution state ordinal + 1, or 0 if state isn't set, byte</li>
+ *     <li>number of subflow levels of execution point followed by node slot + 1 per level, varints</li>
+ *     <li>completed branches, varint</li>
+ *     <li>retry attempts of current step, varint</li>
+ *     <li>UTF-8 length of service instance id + 1, or 0 if it isn't set, varint, followed by UTF-8 bytes</li>
+ * </ul>
+ * Varints are unsigned, 7 bits per byte, least significant first. Execution of the main flow takes 27 bytes plus
+ * length of service instance id.
+ * <p>
+ * Instances are thread-safe. Workflows are expected to be registered on startup, before checkpoints are decoded.
+ */
+public final class ExecutionContextCodec {
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final ExecutionState[] STATES = ExecutionState.values();
+    // format version, workflow key, execution id, state, varints of path length, completed branches, retry
+    // attempts, service id
+    private static final int FIXED_SIZE = 1 + Integer.BYTES + 2 * Long.BYTES + 1 + 5 + 10 + 5 + 5;
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private final Object registrationMonitor = new Object();
+    private volatile Map<String, WorkflowTable[]> tablesByName = Map.of();
+    private volatile Map<Integer, WorkflowTable> tablesByKey = Map.of();
+    // service instance id is usually the same for all checkpoints made by a process, so its bytes are cached
+    private volatile ServiceInstance serviceInstance;
+
+    /**
+     * @param workflows workflows to register, see {@link #register(Workflow)}
+     */
+    public ExecutionContextCodec(Workflow<?>... workflows) {
+        for (Workflow<?> workflow : workflows) {
+            register(workflow);
+        }
+    }
+
+    /**
+     * Registers a workflow, so its executions can be encoded and decoded. Registering the same definition again
+     * has no effect.
+     * @param workflow workflow to register
+     * @return this codec
+     * @throws IllegalArgumentException if another definition with the same name and version is registered already,
+     * or registered workflow has the same key
+     */
+    public ExecutionContextCodec register(Workflow<?> workflow) {
+        WorkflowTable table = new WorkflowTable(workflow.getName(), workflow.getVersion(), workflow.getFlow());
+        synchronized (registrationMonitor) {
+            WorkflowTable registered = tablesByKey.get(table.key);
+            if (registered != null && !(registered.name.equals(table.name) && registered.version == table.version)) {
+                throw new IllegalArgumentException(String.format("Workflow %s version %d has the same key as %s "
+                        + "version %d, consider renaming a node", table.name, table.version, registered.name,
+                        registered.version));
+            }
+            WorkflowTable[] tables = tablesByName.getOrDefault(table.name, new WorkflowTable[0]);
+            for (WorkflowTable sameName : tables) {
+                if (sameName.version == table.version) {
+                    if (sameName.key != table.key) {
+                        throw new IllegalArgumentException(String.format(
+                                "Workflow %s version %d is already registered with another definition",
+                                table.name, table.version));
+                    }
+                    return this;
+                }
+            }
+            tables = Arrays.copyOf(tables, tables.length + 1);
+            tables[tables.length - 1] = table;
+            Map<String, WorkflowTable[]> byName = new HashMap<>(tablesByName);
+            byName.put(table.name, tables);
+            Map<Integer, WorkflowTable> byKey = new HashMap<>(tablesByKey);
+            byKey.put(table.key, table);
+            tablesByName = byName;
+            tablesByKey = byKey;
+        }
+        return this;
+    }
+
+    /**
+     * @param execution execution context
+     * @return upper bound of encoded size of given context
+     */
+    public int maxEncodedSize(ExecutionContext<?> execution) {
+        String serviceInstanceId = execution.getServiceInstanceId();
+        return FIXED_SIZE + MAX_VARINT_SIZE * execution.getPathLength()
+                + (serviceInstanceId == null ? 0 : 3 * serviceInstanceId.length());
+    }
+
+    /**
+     * Encodes execution context into target buffer, starting at its position. Position is advanced past encoded
+     * data, as with relative put methods.
+     * @param execution execution context
+     * @param target buffer to write to
+     * @throws IllegalStateException if workflow of execution isn't registered or execution point refers
+     * to undefined node
+     * @throws java.nio.BufferOverflowException if target doesn't have enough space, see {@link #maxEncodedSize}
+     */
+    public void encode(ExecutionContext<?> execution, ByteBuffer target) {
+        WorkflowTable table = getTable(execution.getWorkflowName(), execution.getWorkflowVersion());
+        UUID executionId = execution.getExecutionId();
+        ExecutionState state = execution.getExecutionState();
+        target.put(FORMAT_VERSION)
+                .putInt(table.key)
+                .putLong(executionId.getMostSignificantBits())
+                .putLong(executionId.getLeastSignificantBits())
+                .put((byte) (state == null ? 0 : state.ordinal() + 1));
+        // only trailing levels may be empty, they aren't written
+        int pathLength = execution.getPathLength();
+        while (pathLength > 0 && execution.getNodeId(pathLength - 1) == null) {
+            pathLength--;
+        }
+        putVarint(target, pathLength);
+        Flow<?> flow = table.flow;
+        for (int level = 0; level < pathLength; level++) {
+            String nodeId = execution.getNodeId(level);
+            if (nodeId == null) {
+                putVarint(target, 0);
+                flow = null;
+                continue;
+            }
+            if (flow == null) {
+                throw new IllegalStateException(String.format("Execution point %s doesn't match workflow %s version %d",
+                        execution.getExecutionPoint(), table.name, table.version));
+            }
+            int slot = execution.getNodeSlot(level);
+            if (slot < 0 || slot >= flow.getNodeCount() || !nodeId.equals(flow.getNode(slot).getId())) {
+                slot = flow.getSlot(nodeId);
+            }
+            putVarint(target, slot + 1);
+            flow = getSubflow(flow.getNode(slot));
+        }
+        putVarlong(target, execution.getCompletedBranches());
+        putVarint(target, execution.getRetryAttempts());
+        String serviceInstanceId = execution.getServiceInstanceId();
+        if (serviceInstanceId == null) {
+            putVarint(target, 0);
+        } else {
+            byte[] bytes = getServiceInstanceBytes(serviceInstanceId);
+            putVarint(target, bytes.length + 1);
+            target.put(bytes);
+        }
+    }
+
+    /**
+     * @param execution execution context
+     * @return encoded execution context
+     * @throws IllegalStateException if workflow of execution isn't registered or execution point refers
+     * to undefined node
+     */
+    public byte[] encode(ExecutionContext<?> execution) {
+        ByteBuffer buffer = ByteBuffer.allocate(maxEncodedSize(execution));
+        encode(execution, buffer);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Decodes execution context from source buffer, starting at its position. Position is advanced past decoded
+     * data, as with relative get methods. Workflow name and node ids of decoded context are the instances held by
+     * registered workflow.
+     * @param source buffer to read from
+     * @param <T> type of flow data object
+     * @return decoded execution context
+     * @throws IllegalArgumentException if data has unsupported format version or doesn't match workflow definition
+     * @throws IllegalStateException if workflow isn't registered
+     * @throws java.nio.BufferUnderflowException if data is truncated
+     */
+    public <T> ExecutionContext<T> decode(ByteBuffer source) {
+        byte formatVersion = source.get();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported execution context format version " + formatVersion);
+        }
+        int key = source.getInt();
+        WorkflowTable table = tablesByKey.get(key);
+        if (table == null) {
+            throw new IllegalStateException(String.format("No registered workflow has key %08x", key));
+        }
+        ExecutionContext<T> execution = new ExecutionContext<>(table.name, table.version,
+                new UUID(source.getLong(), source.getLong()));
+        int state = source.get();
+        if (state < 0 || state > STATES.length) {
+            throw new IllegalArgumentException("Invalid execution state " + state);
+        }
+        execution.setExecutionState(state == 0 ? null : STATES[state - 1]);
+        int pathLength = getVarint(source);
+        Flow<?> flow = table.flow;
+        for (int level = 0; level < pathLength; level++) {
+            int slot = getVarint(source) - 1;
+            if (slot == Flow.END) {
+                execution.setNode(level, null, Flow.END);
+                flow = null;
+                continue;
+            }
+            if (flow == null || slot < 0 || slot >= flow.getNodeCount()) {
+                throw new IllegalArgumentException(String.format(
+                        "Execution point doesn't match workflow %s version %d", table.name, table.version));
+            }
+            Node<?> node = flow.getNode(slot);
+            execution.setNode(level, node.getId(), slot);
+            flow = getSubflow(node);
+        }
+        execution.setCompletedBranches(getVarlong(source));
+        execution.setRetryAttempts(getVarint(source));
+        int serviceInstanceLength = getVarint(source) - 1;
+        if (serviceInstanceLength >= 0) {
+            byte[] bytes = new byte[serviceInstanceLength];
+            source.get(bytes);
+            execution.setServiceInstanceId(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return execution;
+    }
+
+    /**
+     * @param data encoded execution context
+     * @param <T> type of flow data object
+     * @return decoded execution context
+     * @see #decode(ByteBuffer)
+     */
+    public <T> ExecutionContext<T> decode(byte[] data) {
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    private WorkflowTable getTable(String name, int version) {
+        WorkflowTable[] tables = tablesByName.get(name);
+        if (tables != null) {
+            for (WorkflowTable table : tables) {
+                if (table.version == version) {
+                    return table;
+                }
+            }
+        }
+        throw new IllegalStateException(String.format("Workflow %s version %d is not registered", name, version));
+    }
+
+    private byte[] getServiceInstanceBytes(String serviceInstanceId) {
+        ServiceInstance cached = serviceInstance;
+        if (cached != null && cached.id.equals(serviceInstanceId)) {
+            return cached.bytes;
+        }
+        byte[] bytes = serviceInstanceId.getBytes(StandardCharsets.UTF_8);
+        serviceInstance = new ServiceInstance(serviceInstanceId, bytes);
+        return bytes;
+    }
+
+    private static Flow<?> getSubflow(Node<?> node) {
+        return node instanceof SubflowNode ? ((SubflowNode<?>) node).getFlow() : null;
+    }
+
+    private static void putVarint(ByteBuffer target, int value) {
+        while ((value & ~0x7F) != 0) {
+            target.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    private static void putVarlong(ByteBuffer target, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer source) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = source.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long getVarlong(ByteBuffer source) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = source.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static final class WorkflowTable {
+        final String name;
+        final int version;
+        final Flow<?> flow;
+        final int key;
+
+        WorkflowTable(String name, int version, Flow<?> flow) {
+            this.name = name;
+            this.version = version;
+            this.flow = flow;
+            this.key = mix(hashFlow(31 * name.hashCode() + version, flow));
+        }
+
+        private static int hashFlow(int hash, Flow<?> flow) {
+            for (int slot = 0; slot < flow.getNodeCount(); slot++) {
+                Node<?> node = flow.getNode(slot);
+                hash = 31 * hash + node.getId().hashCode();
+                Flow<?> subflow = getSubflow(node);
+                if (subflow != null) {
+                    hash = hashFlow(hash, subflow);
+                }
+            }
+            return hash;
+        }
+
+        // murmur3 finalizer, so that similar definitions don't get close keys
+        private static int mix(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x85ebca6b;
+            hash ^= hash >>> 13;
+            hash *= 0xc2b2ae35;
+            hash ^= hash >>> 16;
+            return hash;
+        }
+    }
+
+    private static final class ServiceInstance {
+        final String id;
+        final byte[] bytes;
+
+        ServiceInstance(String id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,10 +1,39 @@
 package tech.becloud.mage.graph;
 
+/**
+ * States of execution. Transitions are made atomically by {@link ExecutionContext}:
+ * <pre>
+ * NOT_STARTED -&gt; RUNNING -&gt; COMPLETED | FAILED
+ * RUNNING -&gt; PAUSING -&gt; PAUSED -&gt; RESUMING -&gt; RUNNING
+ * RUNNING | PAUSING | RESUMING -&gt; CANCELING -&gt; CANCELED
+ * NOT_STARTED | PAUSED -&gt; CANCELED
+ * </pre>
+ * Transient states are appended after the original ones, so ordinals of persisted states don't change.
+ */
 public enum ExecutionState {
     NOT_STARTED,
     RUNNING,
     PAUSED,
     CANCELED,
     COMPLETED,
-    FAILED
+    FAILED,
+    /**
+     * Pause is requested, execution pauses before its next step or at the next pause point
+     */
+    PAUSING,
+    /**
+     * Resume of paused execution is submitted, but execution hasn't continued yet
+     */
+    RESUMING,
+    /**
+     * Cancellation is requested, execution stops before its next step
+     */
+    CANCELING;
+
+    /**
+     * @return {@code true} if execution has stopped for good, i.e. it is completed, failed or canceled
+     */
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED || this == CANCELED;
+    }
 }
@@ -1,64 +1,555 @@
 package tech.becloud.mage.graph;
 
+import tech.becloud.mage.event.WorkflowEvent;
+import tech.becloud.mage.event.WorkflowEventBus;
+import tech.becloud.mage.event.WorkflowEventType;
+import tech.becloud.mage.instrumentation.WorkflowInstrumentation;
+import tech.becloud.mage.lease.LeaseException;
+import tech.becloud.mage.model.ChangeTracking;
 import tech.becloud.mage.model.UserContext;
 import tech.becloud.mage.model.WorkflowContext;
 import tech.becloud.mage.persistence.PersistContextScope;
 import tech.becloud.mage.persistence.WorkflowContextRepository;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+/**
+ * Executable graph of steps (nodes). On creation nodes are compiled into an execution plan: each node gets a slot
+ * in an array and all node outcomes (successors on normal completion and exception routes) are resolved to slots
+ * of successor nodes, so flow execution doesn't look up nodes by id.
+ * @param <T> type of flow data object
+ */
 public class Flow<T extends UserContext> implements Consumer<WorkflowContext<T>> {
-    private final Map<String, Node<T>> nodes;
+    /**
+     * Slot value meaning there is no successor, i.e. flow completion.
+     */
+    static final int END = -1;
+
     private final String startNodeId;
+    private final Map<String, Integer> nodeSlots;
+    private final Node<T>[] plan;
+    private final int[][] successors;
+    private final PersistContextScope[] persistenceScopes;
+    private final int[] fusedLengths;
+    private final int[] regularOutcomeCounts;
+    private final boolean[] routers;
+    private final boolean[] pausePoints;
+    private final int startSlot;
+    private final int maxSubflowDepth;
     private WorkflowContextRepository<T> workflowContextRepository;
+    private Duration timeout;
 
+    /**
+     * Compiles and validates a flow. Besides references to undefined nodes, steps unreachable from the start one and
+     * cycles no path leads out of are rejected, all problems are reported at once.
+     * @param nodes flow nodes by id
+     * @param startNodeId id of first node to execute
+     * @throws FlowValidationException if flow is invalid
+     */
     public Flow(Map<String, Node<T>> nodes, String startNodeId) {
-        this.nodes = Map.copyOf(nodes);
         this.startNodeId = startNodeId;
+        this.plan = newPlan(nodes.size());
+        Map<String, Integer> slots = new HashMap<>();
+        int slot = 0;
+        for (Map.Entry<String, Node<T>> entry : nodes.entrySet()) {
+            slots.put(entry.getKey(), slot);
+            plan[slot++] = entry.getValue();
+        }
+        this.nodeSlots = Map.copyOf(slots);
+        this.successors = new int[plan.length][];
+        this.regularOutcomeCounts = new int[plan.length];
+        this.routers = new boolean[plan.length];
+        this.pausePoints = new boolean[plan.length];
+        List<String> problems = new ArrayList<>();
+        for (int i = 0; i < plan.length; i++) {
+            Node<T> node = plan[i];
+            regularOutcomeCounts[i] = node.getNextNodeIds().size();
+            routers[i] = node instanceof RouterNode;
+            pausePoints[i] = node.isPause();
+            successors[i] = new int[node.getOutcomeCount()];
+            for (int outcome = 0; outcome < successors[i].length; outcome++) {
+                successors[i][outcome] = resolveSlot(node.getOutcomeNodeId(outcome), node.getId(), problems);
+            }
+        }
+        if (startNodeId == null && plan.length > 0) {
+            problems.add("Start node is not set");
+        }
+        this.startSlot = resolveSlot(startNodeId, null, problems);
+        this.maxSubflowDepth = analyze(problems);
+        if (!problems.isEmpty()) {
+            throw new FlowValidationException(problems);
+        }
+        this.persistenceScopes = new PersistContextScope[plan.length];
+        this.fusedLengths = new int[plan.length];
+        resolvePersistenceScopes();
+    }
+
+    /**
+     * Checks that every node is reachable from the start one and that a path to completion exists from every node,
+     * so that execution can't get trapped in a cycle. Exception routes count as paths, unhandled exceptions don't.
+     * @param problems list to add problems found to
+     * @return maximum depth of subflow calls
+     */
+    private int analyze(List<String> problems) {
+        boolean[] reachable = new boolean[plan.length];
+        int[] queue = new int[plan.length];
+        int queueLength = 0;
+        if (startSlot != END) {
+            reachable[startSlot] = true;
+            queue[queueLength++] = startSlot;
+        }
+        for (int head = 0; head < queueLength; head++) {
+            for (int successor : successors[queue[head]]) {
+                if (successor != END && !reachable[successor]) {
+                    reachable[successor] = true;
+                    queue[queueLength++] = successor;
+                }
+            }
+        }
+        boolean[] completing = new boolean[plan.length];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < plan.length; i++) {
+                if (!completing[i]) {
+                    for (int successor : successors[i]) {
+                        if (successor == END || completing[successor]) {
+                            completing[i] = true;
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        List<String> unreachable = new ArrayList<>();
+        List<String> trapped = new ArrayList<>();
+        int depth = 0;
+        for (int i = 0; i < plan.length; i++) {
+            if (!reachable[i]) {
+                unreachable.add(plan[i].getId());
+            } else if (!completing[i]) {
+                trapped.add(plan[i].getId());
+            }
+            if (plan[i] instanceof SubflowNode) {
+                depth = Math.max(depth, ((SubflowNode<T>) plan[i]).getFlow().getMaxSubflowDepth() + 1);
+            }
+        }
+        if (!unreachable.isEmpty() && startSlot != END) {
+            Collections.sort(unreachable);
+            problems.add(String.format("Nodes %s are unreachable from start node %s", unreachable, startNodeId));
+        }
+        if (!trapped.isEmpty()) {
+            Collections.sort(trapped);
+            problems.add(String.format("Nodes %s form a cycle without exit", trapped));
+        }
+        return depth;
+    }
+
+    private void resolvePersistenceScopes() {
+        for (int i = 0; i < plan.length; i++) {
+            persistenceScopes[i] = plan[i].getPersistenceScope();
+        }
+        fuseChains();
+    }
+
+    /**
+     * Finds chains of action steps that may be executed back to back, skipping per step bookkeeping of execution
+     * loop: steps that persist nothing, have no exception routes, retries, pause points or timeouts and aren't
+     * interruptible. A step following such step ends the chain, whatever it is. Chain is recorded for every its
+     * step, so execution entering it in the middle, e.g. on resume, still benefits.
+     */
+    private void fuseChains() {
+        for (int i = 0; i < plan.length; i++) {
+            int length = 1;
+            for (int slot = i; length <= plan.length && isFusible(slot) && successors[slot][0] != END; length++) {
+                slot = successors[slot][0];
+            }
+            fusedLengths[i] = length;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends UserContext> Node<T>[] newPlan(int size) {
+        return (Node<T>[]) new Node<?>[size];
+    }
+
+    private boolean isFusible(int slot) {
+        Node<T> node = plan[slot];
+        return node.getClass() == ActionNode.class && persistenceScopes[slot] == PersistContextScope.NONE
+                && node.getExceptionRoutes().isEmpty() && !node.isPause() && node.getRetryPolicy() == null
+                && node.getTimeout() == null && !((ActionNode<T>) node).isInterruptible();
+    }
+
+    /**
+     * Executes steps of a fused chain starting at given slot back to back, but the last one, which flow executes
+     * as usual. Fused steps neither persist context nor pause, so execution point is moved once chain is passed or
+     * a step fails, and requests to pause or cancel are served when the last step of chain is reached.
+     * @return slot of the last step of chain, or {@link Node#STOPPED} if a step failed in canceled execution
+     * @throws WokflowExecutionException if a step failed
+     */
+    private int executeFused(WorkflowContext<T> context, int subflowLevel, int slot) {
+        for (int remaining = fusedLengths[slot]; remaining > 1; remaining--) {
+            try {
+                plan[slot].executeAction(context);
+            } catch (Exception e) {
+                ExecutionContext<T> execution = context.getExecutionContext();
+                execution.setNode(subflowLevel, plan[slot].getId(), slot);
+                if (execution.isCanceled()) {
+                    return Node.STOPPED;
+                }
+                throw new WokflowExecutionException(e, execution.getExecutionPoint());
+            }
+            slot = successors[slot][0];
+        }
+        context.getExecutionContext().setNode(subflowLevel, plan[slot].getId(), slot);
+        return slot;
     }
 
+    private int resolveSlot(String nodeId, String referencingNodeId, List<String> problems) {
+        if (nodeId == null) {
+            return END;
+        }
+        Integer slot = nodeSlots.get(nodeId);
+        if (slot == null) {
+            problems.add(referencingNodeId == null
+                    ? String.format("Node %s is not defined", nodeId)
+                    : String.format("Node %s references undefined node %s", referencingNodeId, nodeId));
+            return END;
+        }
+        return slot;
+    }
+
+    /**
+     * Executes flow from the current execution point. Execution pauses before a step if pause is requested, and
+     * after steps declared as pause points, see {@link NodeBuilder#pause()}, unless they are the last ones.
+     * Returns when execution completes, fails or pauses, or when
+     * a step awaits an asynchronous action; in the latter case execution continues in a thread completing the
+     * action, or in {@link ExecutionContext#getContinuationExecutor()} if it's set. Execution started on
+     * {@link StepScheduler} also returns once it has run its turn of steps, continuing in a turn queued to scheduler.
+     * @param context workflow context
+     */
     @Override
     public void accept(WorkflowContext<T> context) {
         ExecutionContext<T> execution = context.getExecutionContext();
         final int subflowLevel = execution.getSubflowDepth();
-        String currentNodeId = Optional.ofNullable(execution.getCurrentNodePath().get(subflowLevel))
-                .orElse(startNodeId);
-        execution.setExecutionState(ExecutionState.RUNNING);
-        do {
-            Node<T> currentNode = nodes.get(currentNodeId);
+        int currentSlot = getResumeSlot(execution, subflowLevel);
+        final WorkflowInstrumentation instrumentation = execution.getInstrumentation();
+        final boolean instrumented = instrumentation != WorkflowInstrumentation.NOOP;
+        final boolean topLevel = subflowLevel == 0 && !execution.isBranch();
+        // scheduled executions yield between steps of the main flow only
+        final StepScheduler stepScheduler = topLevel ? execution.getStepScheduler() : null;
+        final boolean yielded = topLevel && execution.takeYielded();
+        // start or resume of execution, unlike entering a subflow or continuing after asynchronous action or yield
+        final boolean runStarting = topLevel && !execution.isAwaiting() && !yielded;
+        if (runStarting) {
+            if (timeout != null && execution.getDeadline() == 0) {
+                execution.setDeadline(System.currentTimeMillis() + timeout.toMillis());
+            }
+            execution.startDeadlineTimer();
+        }
+        if (instrumented && runStarting) {
+            execution.setStartedNanos(System.nanoTime());
+            instrumentation.workflowStarted(execution.getWorkflowName(), execution.getWorkflowVersion());
+        }
+        final WorkflowEventBus eventBus = execution.getEventBus();
+        final boolean publishing = eventBus != null && eventBus.hasSubscribers();
+        if (publishing && runStarting) {
+            publish(eventBus, execution, execution.getExecutionState() == null
+                    ? WorkflowEventType.STARTED : WorkflowEventType.RESUMED, null, null, null);
+        }
+        execution.enterRunning();
+        while (currentSlot != END) {
+            if (execution.isCanceled()) {
+                execution.setAwaitedStage(null);
+                execution.setExecutionState(ExecutionState.CANCELED);
+                break;
+            }
+            // an awaiting step is completed before pausing, while a step awaiting retry is paused once delay elapses
+            if (execution.isPauseRequested() && (!execution.isAwaiting() || execution.isRetryDelayElapsed())) {
+                if (execution.transition(ExecutionState.PAUSING, ExecutionState.PAUSED)) {
+                    if (execution.isAwaiting()) {
+                        execution.takeRetryDelay();
+                    }
+                    pauseContext(execution, publishing ? eventBus : null, plan[currentSlot].getId());
+                    break;
+                }
+                // canceled meanwhile
+                continue;
+            }
+            int executedSlot = currentSlot;
+            final int outcome;
+            if (publishing && !execution.isAwaiting()) {
+                publish(eventBus, execution, WorkflowEventType.NODE_ENTERED, plan[executedSlot].getId(), null, null);
+            }
+            final long stepStarted;
+            if (!instrumented) {
+                stepStarted = 0;
+            } else if (execution.isAwaiting()) {
+                // step re-entered after suspension is timed from its first entry
+                stepStarted = execution.getStepStartedNanos(subflowLevel);
+            } else {
+                stepStarted = System.nanoTime();
+                execution.setStepStartedNanos(subflowLevel, stepStarted);
+            }
             try {
-                currentNodeId = currentNode.apply(context);
+                // steps are reported one by one when execution is observed
+                if (fusedLengths[executedSlot] > 1 && !publishing && !instrumented && !execution.isAwaiting()) {
+                    executedSlot = executeFused(context, subflowLevel, executedSlot);
+                }
+                outcome = executedSlot == Node.STOPPED ? Node.STOPPED : plan[executedSlot].step(context);
             } catch (WokflowExecutionException e) {
+                if (instrumented) {
+                    instrumentation.nodeExecuted(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                            plan[executedSlot].getId(), System.nanoTime() - stepStarted);
+                }
                 execution.setExecutionState(ExecutionState.FAILED);
+                execution.setFailure(e.getCause());
+                if (publishing && !execution.isBranch()) {
+                    publish(eventBus, execution, WorkflowEventType.FAILED, plan[executedSlot].getId(), null,
+                            e.getCause());
+                }
                 Optional.ofNullable(execution.getExceptionHandler()).ifPresent(
                         eh -> eh.handle(context.getUserContext(), e.getCause(), e.getExecutionPath())
                 );
                 break;
             }
-            execution.getCurrentNodePath().set(subflowLevel, currentNodeId);
-            PersistContextScope persistenceScope = currentNode.getPersistenceScope();
-            persistContext(persistenceScope, context);
-            if (execution.isPauseRequested()) {
+            if (outcome == Node.STOPPED) {
+                // execution point stays at the step, state is already set unless execution is being canceled
+                if (execution.isCanceled()) {
+                    execution.setExecutionState(ExecutionState.CANCELED);
+                }
+                break;
+            }
+            if (outcome == Node.SUSPENDED) {
+                // execution point stays at awaiting step, it is re-entered from the main flow on action completion
+                if (subflowLevel == 0) {
+                    if (execution.isRetryScheduled() && workflowContextRepository != null && !execution.isBranch()) {
+                        // attempts made survive restart
+                        workflowContextRepository.saveExecutionContext(execution);
+                    }
+                    awaitStage(context);
+                }
+                return;
+            }
+            if (instrumented) {
+                instrumentation.nodeExecuted(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                        plan[executedSlot].getId(), System.nanoTime() - stepStarted);
+            }
+            currentSlot = successors[executedSlot][outcome];
+            final String nextNodeId = currentSlot == END ? null : plan[currentSlot].getId();
+            execution.setNode(subflowLevel, nextNodeId, currentSlot);
+            execution.setRetryAttempts(0);
+            if (outcome >= regularOutcomeCounts[executedSlot]) {
+                Throwable routedException = execution.takeRoutedException();
+                if (publishing) {
+                    publish(eventBus, execution, WorkflowEventType.EXCEPTION_ROUTED, plan[executedSlot].getId(),
+                            nextNodeId, routedException);
+                }
+            } else if (publishing) {
+                publish(eventBus, execution, routers[executedSlot] ? WorkflowEventType.ROUTED
+                        : WorkflowEventType.NODE_EXITED, plan[executedSlot].getId(), nextNodeId, null);
+            }
+            if (execution.isLeaseLost()) {
+                // another service instance owns execution now, so it's neither checkpointed nor continued here
                 execution.setExecutionState(ExecutionState.PAUSED);
-                execution.setPauseRequested(false);
-                execution.getPausedCompletableFuture().complete(null);
+                break;
+            }
+            if (instrumented) {
+                persistContextTimed(executedSlot, context, instrumentation);
+            } else {
+                persistContext(persistenceScopes[executedSlot], context);
+            }
+            if (pausePoints[executedSlot] && currentSlot != END) {
+                execution.requestPause();
+            }
+            if (stepScheduler != null && currentSlot != END && execution.completeTurnStep()) {
+                execution.setYielded(true);
+                if (stepScheduler.schedule(() -> continueRun(context))) {
+                    // pause and cancellation requests are served when the next turn starts
+                    return;
+                }
+                // scheduler is closed, so execution goes on in this thread
+                execution.setYielded(false);
             }
-        } while (currentNodeId != null && execution.getExecutionState() == ExecutionState.RUNNING);
-        if (currentNodeId == null && subflowLevel == 0) {
+        }
+        if (currentSlot == END && subflowLevel == 0) {
             execution.setExecutionState(ExecutionState.COMPLETED);
+            if (publishing && !execution.isBranch()) {
+                publish(eventBus, execution, WorkflowEventType.COMPLETED, null, null, null);
+            }
         }
         final ExecutionState state = execution.getExecutionState();
         BiConsumer<? super T, ExecutionState> completionHandler = execution.getCompletionHandler();
-        if (completionHandler != null && (state == ExecutionState.COMPLETED || state == ExecutionState.FAILED)) {
+        if (state == ExecutionState.COMPLETED || state == ExecutionState.FAILED) {
+            flushContext(execution);
+            if (instrumented && subflowLevel == 0 && !execution.isBranch()) {
+                long duration = System.nanoTime() - execution.getStartedNanos();
+                if (state == ExecutionState.COMPLETED) {
+                    instrumentation.workflowCompleted(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                            duration);
+                } else {
+                    instrumentation.workflowFailed(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                            duration);
+                }
+            }
+        }
+        final boolean canceled = state == ExecutionState.CANCELED && subflowLevel == 0 && !execution.isBranch();
+        if (canceled) {
+            cancelContext(context, publishing ? eventBus : null);
+        }
+        if (instrumented && subflowLevel == 0 && !execution.isBranch()
+                && (canceled || state == ExecutionState.PAUSED)) {
+            long duration = System.nanoTime() - execution.getStartedNanos();
+            if (canceled) {
+                instrumentation.workflowCanceled(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                        duration);
+            } else {
+                instrumentation.workflowPaused(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                        duration);
+            }
+        }
+        if (completionHandler != null && (state == ExecutionState.COMPLETED || state == ExecutionState.FAILED
+                || canceled)) {
             completionHandler.accept(context.getUserContext(), state);
         }
+        if (subflowLevel == 0) {
+            execution.stopDeadlineTimer();
+            boolean leaseLost = execution.isLeaseLost();
+            execution.releaseLease();
+            // released before requests are completed, so that execution may be resumed as soon as it has paused
+            execution.releaseRun();
+            execution.completePause();
+            execution.completeCancel();
+            execution.completeRun(leaseLost ? new LeaseException(execution.getExecutionId(),
+                    String.format("Lease of execution %s is lost", execution.getExecutionId())) : null);
+        }
+    }
+
+    /**
+     * Saves paused state and reports pause once execution has paused before a step.
+     * @param eventBus bus to publish event to, {@code null} if events aren't published
+     * @param nodeId id of step execution continues from on resume
+     */
+    private void pauseContext(ExecutionContext<T> execution, WorkflowEventBus eventBus, String nodeId) {
+        if (!execution.isBranch()) {
+            if (workflowContextRepository != null) {
+                workflowContextRepository.saveExecutionContext(execution);
+            }
+            flushContext(execution);
+            if (eventBus != null) {
+                publish(eventBus, execution, WorkflowEventType.PAUSED, nodeId, null, null);
+            }
+        }
+    }
+
+    /**
+     * Saves canceled state, so that execution isn't resumed by recovery, and reports cancellation.
+     * @param eventBus bus to publish event to, {@code null} if events aren't published
+     */
+    private void cancelContext(WorkflowContext<T> context, WorkflowEventBus eventBus) {
+        ExecutionContext<T> execution = context.getExecutionContext();
+        if (workflowContextRepository != null) {
+            workflowContextRepository.saveExecutionContext(execution);
+        }
+        flushContext(execution);
+        Throwable cause = execution.getCancelCause();
+        if (eventBus != null) {
+            publish(eventBus, execution, WorkflowEventType.CANCELED, execution.getNodeId(0), null, cause);
+        }
+        if (cause != null) {
+            Optional.ofNullable(execution.getExceptionHandler()).ifPresent(
+                    eh -> eh.handle(context.getUserContext(), cause, execution.getExecutionPoint()));
+        }
+    }
+
+    private void publish(WorkflowEventBus eventBus, ExecutionContext<T> execution, WorkflowEventType type,
+                         String nodeId, String nextNodeId, Throwable exception) {
+        eventBus.publish(new WorkflowEvent(type, execution.getWorkflowName(), execution.getWorkflowVersion(),
+                execution.getExecutionId(), nodeId, nextNodeId, exception));
+    }
+
+    /**
+     * Schedules continuation of execution once awaited asynchronous action completes.
+     */
+    private void awaitStage(WorkflowContext<T> context) {
+        ExecutionContext<T> execution = context.getExecutionContext();
+        BiConsumer<Object, Throwable> continuation = (result, e) -> continueRun(context);
+        Executor executor = execution.getRunContinuationExecutor();
+        CompletableFuture<?> stage = execution.getAwaitedStage();
+        if (executor == null) {
+            stage.whenComplete(continuation);
+        } else {
+            stage.whenCompleteAsync(continuation, task -> {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // e.g. scheduler closed meanwhile; stage may be completed by timer thread, which mustn't run steps
+                    ForkJoinPool.commonPool().execute(task);
+                }
+            });
+        }
+        if (execution.isCanceled()) {
+            // cancellation requested before the stage was set to be awaited
+            stage.cancel(false);
+        }
+    }
+
+    /**
+     * Continues execution in a thread other than the one it was started in, completing its run if flow throws.
+     */
+    private void continueRun(WorkflowContext<T> context) {
+        try {
+            accept(context);
+        } catch (RuntimeException | Error failure) {
+            ExecutionContext<T> execution = context.getExecutionContext();
+            execution.releaseLease();
+            execution.releaseRun();
+            execution.completeRun(failure);
+            throw failure;
+        }
+    }
+
+    /**
+     * @return slot of node to continue execution from at given subflow level. Slot saved in execution context is
+     * used if it belongs to this flow, otherwise node is looked up by id, e.g. after execution point was loaded.
+     */
+    private int getResumeSlot(ExecutionContext<T> execution, int subflowLevel) {
+        String nodeId = execution.getNodeId(subflowLevel);
+        if (nodeId == null) {
+            return startSlot;
+        }
+        int slot = execution.getNodeSlot(subflowLevel);
+        if (slot >= 0 && slot < plan.length && nodeId.equals(plan[slot].getId())) {
+            return slot;
+        }
+        return getSlot(nodeId);
     }
 
     private void persistContext(PersistContextScope persistenceScope, WorkflowContext<T> context) {
-        if (workflowContextRepository == null) {
+        persistContext(workflowContextRepository, persistenceScope, context);
+    }
+
+    /**
+     * Saves parts of workflow context selected by persistence scope, taking changes of change tracking data objects.
+     * Does nothing if repository isn't set or context is of a parallel branch.
+     */
+    static <T extends UserContext> void persistContext(WorkflowContextRepository<T> workflowContextRepository,
+                                                       PersistContextScope persistenceScope,
+                                                       WorkflowContext<T> context) {
+        if (workflowContextRepository == null || context.getExecutionContext().isBranch()) {
             return;
         }
         switch (persistenceScope) {
@@ -67,28 +558,131 @@ public class Flow<T extends UserContext> implements Consumer<WorkflowContext<T>>
                 break;
             case USER:
                 ExecutionContext<T> execution = context.getExecutionContext();
-                workflowContextRepository.saveUserContext(execution.getExecutionId(), execution.getExecutionPoint(),
-                        context.getUserContext());
+                T userContext = context.getUserContext();
+                if (userContext instanceof ChangeTracking) {
+                    Object changes = ((ChangeTracking<?>) userContext).takeChanges();
+                    workflowContextRepository.saveUserContextChanges(execution.getExecutionId(),
+                            execution.getExecutionPoint(), userContext, changes);
+                } else {
+                    workflowContextRepository.saveUserContext(execution.getExecutionId(),
+                            execution.getExecutionPoint(), userContext);
+                }
                 break;
             case ALL:
-                workflowContextRepository.save(context);
+                if (context.getUserContext() instanceof ChangeTracking) {
+                    workflowContextRepository.saveChanges(context,
+                            ((ChangeTracking<?>) context.getUserContext()).takeChanges());
+                } else {
+                    workflowContextRepository.save(context);
+                }
                 break;
             case NONE:
                 break;
         }
     }
 
+    private void persistContextTimed(int executedSlot, WorkflowContext<T> context,
+                                     WorkflowInstrumentation instrumentation) {
+        PersistContextScope scope = persistenceScopes[executedSlot];
+        if (workflowContextRepository == null || scope == PersistContextScope.NONE
+                || context.getExecutionContext().isBranch()) {
+            return;
+        }
+        long started = System.nanoTime();
+        persistContext(scope, context);
+        ExecutionContext<T> execution = context.getExecutionContext();
+        instrumentation.contextPersisted(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                plan[executedSlot].getId(), scope, System.nanoTime() - started);
+    }
+
+    /**
+     * Durability barrier: makes sure all checkpoints made so far are written before execution is reported as paused
+     * or terminated.
+     */
+    private void flushContext(ExecutionContext<T> execution) {
+        if (workflowContextRepository != null && !execution.isBranch() && !execution.isFlushDeferred()) {
+            workflowContextRepository.flush(execution.getExecutionId());
+        }
+    }
+
+    WorkflowContextRepository<T> getWorkflowContextRepository() {
+        return workflowContextRepository;
+    }
+
     public void setWorkflowContextRepository(WorkflowContextRepository<T> workflowContextRepository) {
         this.workflowContextRepository = workflowContextRepository;
         // Propagate repository to subflows
-        nodes.values().stream().filter(SubflowNode.class::isInstance)
-                .map(node -> (SubflowNode<T>)node)
-                .map(SubflowNode::getFlow)
-                .forEach(flow -> setWorkflowContextRepository(workflowContextRepository));
+        for (Node<T> node : plan) {
+            node.setWorkflowContextRepository(workflowContextRepository);
+        }
     }
 
+    /**
+     * Sets scope of context to persist for all steps of this flow and its subflows. Steps still may declare their
+     * own scope which takes precedence, see {@link Node#getPersistenceScope()}.
+     * @param persistContextScope scope of context to persist
+     */
     public void setPersistContextScope(PersistContextScope persistContextScope) {
-        nodes.forEach((id, node) -> node.setPersistenceScope(persistContextScope));
+        for (Node<T> node : plan) {
+            node.setPersistenceScope(persistContextScope);
+        }
+        resolvePersistenceScopes();
+    }
+
+    /**
+     * @param nodeId node id
+     * @return number of steps executed back to back from given one, see {@link #fuseChains()}
+     */
+    int getFusedLength(String nodeId) {
+        return fusedLengths[getSlot(nodeId)];
+    }
+
+    /**
+     * @return number of nodes in compiled plan
+     */
+    int getNodeCount() {
+        return plan.length;
+    }
+
+    /**
+     * @param slot slot in compiled plan
+     * @return node at given slot
+     */
+    Node<T> getNode(int slot) {
+        return plan[slot];
+    }
+
+    /**
+     * @param nodeId node id
+     * @return slot of node in compiled plan
+     * @throws IllegalStateException if there is no such node
+     */
+    int getSlot(String nodeId) {
+        Integer slot = nodeId == null ? Integer.valueOf(END) : nodeSlots.get(nodeId);
+        if (slot == null) {
+            throw new IllegalStateException(String.format("Node %s is not defined", nodeId));
+        }
+        return slot;
+    }
+
+    /**
+     * @return maximum number of nested subflow calls, 0 if flow calls no subflows; execution point of this flow has
+     * at most this number plus one levels
+     */
+    public int getMaxSubflowDepth() {
+        return maxSubflowDepth;
+    }
+
+    /**
+     * @return time an execution of this flow may take, {@code null} if not limited, see
+     * {@link FlowBuilder#timeout(Duration)}
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    void setTimeout(Duration timeout) {
+        this.timeout = timeout;
     }
 
     public String getStartNode() {
@@ -2,9 +2,12 @@ package tech.becloud.mage.graph;
 
 import tech.becloud.mage.model.UserContext;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 public class FlowBuilder<T extends UserContext> {
@@ -15,6 +18,7 @@ public class FlowBuilder<T extends UserContext> {
     private final Class<T> contextClass;
     private BeanResolver beanResolver;
     private String startNode;
+    private Duration timeout;
     private final Map<String, NodeBuilder<T, ?>> nodeBuilders;
 
     public FlowBuilder(Class<T> contextClass) {
@@ -78,6 +82,47 @@ public class FlowBuilder<T extends UserContext> {
         return execute(id, action);
     }
 
+    /**
+     * Adds a step that executes an asynchronous action: a function starting some work and returning a
+     * {@link CompletionStage} of it. Flow doesn't hold a thread while the stage is not completed; execution continues
+     * to the next step once it completes, or is routed by exception routes if it completes exceptionally.
+     * @param id workflow step id
+     * @param action function starting an action and returning its {@link CompletionStage}
+     * @return builder for {@link AsyncActionNode<T>} implementing such step.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public AsyncActionNodeBuilder<T> executeAsync(String id,
+                                                  Function<? super T, ? extends CompletionStage<Void>> action) {
+        if (nodeBuilders.containsKey(id)) {
+            throw new IllegalArgumentException(String.format(NODE_ALREADY_EXIST, id));
+        }
+        AsyncActionNodeBuilder<T> builder = new AsyncActionNodeBuilder<>(this, id, action);
+        if (nodeBuilders.isEmpty()) {
+            startNode = id;
+        }
+        nodeBuilders.put(id, builder);
+        return builder;
+    }
+
+    /**
+     * Adds a step running several branches concurrently and continuing once all of them complete. Branches are
+     * added to returned builder.
+     * @param id workflow step id
+     * @return builder for {@link ParallelNode<T>} implementing such step.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public ParallelNodeBuilder<T> parallel(String id) {
+        if (nodeBuilders.containsKey(id)) {
+            throw new IllegalArgumentException(String.format(NODE_ALREADY_EXIST, id));
+        }
+        ParallelNodeBuilder<T> builder = new ParallelNodeBuilder<>(this, id);
+        if (nodeBuilders.isEmpty()) {
+            startNode = id;
+        }
+        nodeBuilders.put(id, builder);
+        return builder;
+    }
+
     /**
      * Adds a "router" step intended for dispatching further execution to a distinct path.
      * Basically, it is an if-elseif-else implementation in terms of workflow step.
@@ -98,6 +143,27 @@ public class FlowBuilder<T extends UserContext> {
         return builder;
     }
 
+    /**
+     * Adds a "router" step selecting next step by a key extracted from flow data, see
+     * {@link RouterBuilder#routeOn(Function, Map)}. Intended for routers with many routes: selection doesn't depend
+     * on number of routes. Predicate routes and default route may be added to returned builder as a fallback.
+     * @param id workflow step id
+     * @param keyExtractor function extracting routing key from flow data
+     * @param keyRoutes step (node) id to execute next per routing key
+     * @param <K> type of routing key
+     * @return builder for {@link RouterNode<T>} implementing such step.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public <K> RouterBuilder<T> routeOn(String id, Function<? super T, ? extends K> keyExtractor,
+                                        Map<K, String> keyRoutes) {
+        if (nodeBuilders.containsKey(id)) {
+            throw new IllegalArgumentException(String.format(NODE_ALREADY_EXIST, id));
+        }
+        RouterBuilder<T> builder = new RouterBuilder<>(this, id).routeOn(keyExtractor, keyRoutes);
+        nodeBuilders.put(id, builder);
+        return builder;
+    }
+
     /**
      * Adds a "router" step intended for dispatching further execution to a distinct path.
      * Basically, it is an if-elseif-else implementation in terms of workflow step.
@@ -172,16 +238,30 @@ public class FlowBuilder<T extends UserContext> {
     }
 
     /**
-     * Builds a flow. Note that all node references including exceptional routes are validated and
-     * {@link IllegalStateException} is thrown if nonexistent node is referenced.
+     * Builds a flow. Note that the graph is validated: all node references including exceptional routes should
+     * resolve, every step should be reachable from the start one and have a path to completion. All problems are
+     * reported at once.
      * @return {@link Flow} instance
-     * @throws IllegalStateException if nonexistent node is referenced.
+     * @throws FlowValidationException if flow graph is invalid
      */
     public Flow<T> build() {
         Map<String, Node<T>> nodes = new HashMap<>();
-        // TODO validate builders so all references can be resolved
         nodeBuilders.forEach((id, builder) -> nodes.put(id, builder.build()));
-        return new Flow<>(nodes, startNode);
+        Flow<T> flow = new Flow<>(nodes, startNode);
+        flow.setTimeout(timeout);
+        return flow;
+    }
+
+    /**
+     * Limits time of executions of the flow: execution still running once time is out is canceled, see
+     * {@link ExecutionContext#requestCancel()}. Time is counted from start or resume of execution; it applies
+     * only when the flow is executed as the main flow of a workflow, not as a subflow.
+     * @param timeout time an execution may take
+     * @return this builder
+     */
+    public FlowBuilder<T> timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
     }
 
     /**
@@ -217,4 +297,12 @@ public class FlowBuilder<T extends UserContext> {
     public String getStartNode() {
         return startNode;
     }
+
+    /**
+     * Sets start step explicitly. By default it is the first action or parallel step added.
+     * @param startNode id of start step
+     */
+    public void setStartNode(String startNode) {
+        this.startNode = startNode;
+    }
 }
@@ -4,19 +4,44 @@ import tech.becloud.mage.model.UserContext;
 import tech.becloud.mage.model.WorkflowContext;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
 
 class FlowCallable<T extends UserContext> implements Callable<Void> {
     private final Flow<T> flow;
     private final WorkflowContext<T> workflowContext;
+    private final Semaphore concurrencyLimiter;
 
     FlowCallable(Flow<T> flow, WorkflowContext<T> workflowContext) {
+        this(flow, workflowContext, null);
+    }
+
+    /**
+     * @param concurrencyLimiter if supplied, flow is executed only after a permit is acquired
+     */
+    FlowCallable(Flow<T> flow, WorkflowContext<T> workflowContext, Semaphore concurrencyLimiter) {
         this.flow = flow;
         this.workflowContext = workflowContext;
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     @Override
     public Void call() throws Exception {
-        flow.accept(workflowContext);
-        return null;
+        try {
+            if (concurrencyLimiter == null) {
+                flow.accept(workflowContext);
+                return null;
+            }
+            concurrencyLimiter.acquire();
+            try {
+                flow.accept(workflowContext);
+            } finally {
+                concurrencyLimiter.release();
+            }
+            return null;
+        } catch (Exception | Error e) {
+            workflowContext.getExecutionContext().releaseRun();
+            workflowContext.getExecutionContext().completeRun(e);
+            throw e;
+        }
     }
 }
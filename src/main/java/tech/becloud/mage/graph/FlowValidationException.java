@@ -0,0 +1,22 @@
+package tech.becloud.mage.graph;
+
+import java.util.List;
+
+/**
+ * Thrown when a flow graph is invalid, e.g. references undefined nodes or has steps never executed. Reports all
+ * problems found rather than the first one.
+ */
+public class FlowValidationException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> problems;
+
+    public FlowValidationException(List<String> problems) {
+        super(String.format("Invalid flow:%n  %s", String.join(System.lineSeparator() + "  ", problems)));
+        this.problems = List.copyOf(problems);
+    }
+
+    public List<String> getProblems() {
+        return problems;
+    }
+}
@@ -0,0 +1,140 @@
+package tech.becloud.mage.graph;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Supplemental class for RouterNode: lookup table of route keys compiled for the kind of keys supplied.
+ * Enum keys are looked up by ordinal, dense int keys by offset in an array, other keys in an open addressing hash
+ * table. Lookup returns -1 for unknown or {@code null} key.
+ */
+abstract class KeyTable {
+    private static final int MIN_DENSE_RANGE = 64;
+    private static final int DENSITY_FACTOR = 4;
+
+    abstract int lookup(Object key);
+
+    /**
+     * @param outcomes outcome index per key
+     * @return table best suited for supplied keys
+     */
+    static KeyTable of(Map<?, Integer> outcomes) {
+        Class<?> enumClass = commonEnumClass(outcomes);
+        if (enumClass != null) {
+            return new EnumKeyTable(enumClass, outcomes);
+        }
+        if (outcomes.keySet().stream().allMatch(key -> key instanceof Integer)) {
+            long min = outcomes.keySet().stream().mapToLong(key -> (Integer) key).min().orElse(0);
+            long max = outcomes.keySet().stream().mapToLong(key -> (Integer) key).max().orElse(0);
+            if (max - min + 1 <= Math.max(MIN_DENSE_RANGE, (long) DENSITY_FACTOR * outcomes.size())) {
+                return new IntKeyTable((int) min, (int) (max - min + 1), outcomes);
+            }
+        }
+        return new HashKeyTable(outcomes);
+    }
+
+    private static Class<?> commonEnumClass(Map<?, Integer> outcomes) {
+        Class<?> enumClass = null;
+        for (Object key : outcomes.keySet()) {
+            if (!(key instanceof Enum)) {
+                return null;
+            }
+            Class<?> keyClass = ((Enum<?>) key).getDeclaringClass();
+            if (enumClass != null && enumClass != keyClass) {
+                return null;
+            }
+            enumClass = keyClass;
+        }
+        return enumClass;
+    }
+
+    private static int[] emptyOutcomes(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private static final class EnumKeyTable extends KeyTable {
+        private final Class<?> enumClass;
+        private final int[] outcomes;
+
+        EnumKeyTable(Class<?> enumClass, Map<?, Integer> outcomes) {
+            this.enumClass = enumClass;
+            this.outcomes = emptyOutcomes(enumClass.getEnumConstants().length);
+            outcomes.forEach((key, outcome) -> this.outcomes[((Enum<?>) key).ordinal()] = outcome);
+        }
+
+        @Override
+        int lookup(Object key) {
+            if (key instanceof Enum && ((Enum<?>) key).getDeclaringClass() == enumClass) {
+                return outcomes[((Enum<?>) key).ordinal()];
+            }
+            return -1;
+        }
+    }
+
+    private static final class IntKeyTable extends KeyTable {
+        private final int min;
+        private final int[] outcomes;
+
+        IntKeyTable(int min, int size, Map<?, Integer> outcomes) {
+            this.min = min;
+            this.outcomes = emptyOutcomes(size);
+            outcomes.forEach((key, outcome) -> this.outcomes[(Integer) key - min] = outcome);
+        }
+
+        @Override
+        int lookup(Object key) {
+            if (key instanceof Integer) {
+                // unsigned comparison checks both bounds
+                int index = (Integer) key - min;
+                if (Integer.compareUnsigned(index, outcomes.length) < 0) {
+                    return outcomes[index];
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class HashKeyTable extends KeyTable {
+        private final Object[] keys;
+        private final int[] outcomes;
+        private final int mask;
+
+        HashKeyTable(Map<?, Integer> outcomes) {
+            // load factor is at most 0.5, so probe sequences are short
+            int size = Integer.highestOneBit(Math.max(outcomes.size(), 1) * 2 - 1) << 1;
+            this.keys = new Object[size];
+            this.outcomes = new int[size];
+            this.mask = size - 1;
+            outcomes.forEach((key, outcome) -> {
+                int index = spread(key.hashCode()) & mask;
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                this.outcomes[index] = outcome;
+            });
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        @Override
+        int lookup(Object key) {
+            if (key == null) {
+                return -1;
+            }
+            int index = spread(key.hashCode()) & mask;
+            Object candidate;
+            while ((candidate = keys[index]) != null) {
+                if (candidate == key || candidate.equals(key)) {
+                    return outcomes[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
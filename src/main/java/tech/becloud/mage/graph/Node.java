@@ -3,9 +3,12 @@ package tech.becloud.mage.graph;
 import tech.becloud.mage.model.UserContext;
 import tech.becloud.mage.model.WorkflowContext;
 import tech.becloud.mage.persistence.PersistContextScope;
+import tech.becloud.mage.persistence.WorkflowContextRepository;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.function.Function;
 
 /**
@@ -15,10 +18,25 @@ import java.util.function.Function;
  */
 public abstract class Node<T extends UserContext> implements Function<WorkflowContext<T>, String> {
 
+    /**
+     * Outcome of a step that started an asynchronous action and didn't complete yet. Flow stops execution without
+     * holding a thread and re-enters the same step once action completes.
+     */
+    static final int SUSPENDED = -2;
+
+    /**
+     * Outcome of a step stopped by cancellation of execution, or of a subflow step which execution has paused,
+     * failed or been canceled inside it. Flow stops without moving to any successor.
+     */
+    static final int STOPPED = -3;
+
     private final String id;
     protected final List<ExceptionRoute<T>> exceptionRoutes;
     protected PersistContextScope persistContextScope;
+    protected PersistContextScope nodePersistContextScope;
     protected boolean pause;
+    protected Duration timeout;
+    protected RetryPolicy retryPolicy;
 
     Node(String id, List<ExceptionRoute<T>> exceptionRoutes) {
         this.id = id;
@@ -26,19 +44,52 @@ public abstract class Node<T extends UserContext> implements Function<WorkflowCo
     }
 
     public String apply(WorkflowContext<T> context) {
+        int outcome = step(context);
+        if (outcome == SUSPENDED) {
+            throw new IllegalStateException(String.format(
+                    "Step %s awaits asynchronous action and can be continued only by flow", id));
+        }
+        if (outcome == STOPPED) {
+            throw new CancellationException(String.format("Execution was stopped at step %s", id));
+        }
+        return getOutcomeNodeId(outcome);
+    }
+
+    /**
+     * Executes this step and returns an outcome, i.e. an index of successor in {@link #getNextNodeIds()} or, if
+     * exception was routed, that index shifted by size of {@link #getNextNodeIds()} to point to matched
+     * {@link ExceptionRoute}. Used by {@link Flow} to follow precompiled successor slots without node id lookups.
+     * Steps awaiting asynchronous action return {@link #SUSPENDED}, steps stopped by cancellation of execution return
+     * {@link #STOPPED}; exception thrown by an action of canceled execution isn't routed. Step being retried
+     * returns {@link #SUSPENDED} too, and is re-entered once retry delay elapses.
+     * @param context workflow context
+     * @return outcome of step execution
+     */
+    int step(WorkflowContext<T> context) {
+        ExecutionContext<T> execution = context.getExecutionContext();
+        if (execution.isRetryDue()) {
+            execution.takeRetryDelay();
+        }
         enterNode(context);
         try {
             return executeAction(context);
         } catch (Exception e) {
+            if (context.getExecutionContext().isCanceled()) {
+                return STOPPED;
+            }
             return routeOnException(e, context);
         } finally {
             exitNode(context);
         }
     }
 
-    protected abstract String executeAction(WorkflowContext<T> context);
+    /**
+     * @param context workflow context
+     * @return index of selected successor in {@link #getNextNodeIds()}
+     */
+    protected abstract int executeAction(WorkflowContext<T> context);
 
-    protected String routeOnException(Exception e, WorkflowContext<T> context) {
+    protected int routeOnException(Exception e, WorkflowContext<T> context) {
         Throwable cause;
         WokflowExecutionException executionException;
         if (e instanceof WokflowExecutionException) {
@@ -49,21 +100,75 @@ public abstract class Node<T extends UserContext> implements Function<WorkflowCo
             cause = e;
             executionException = new WokflowExecutionException(e, context.getExecutionContext().getExecutionPoint());
         }
-        for (ExceptionRoute<T> exceptionRoute: getExceptionRoutes()) {
+        if (retryPolicy != null && retry(cause, context.getExecutionContext())) {
+            return SUSPENDED;
+        }
+        for (int i = 0; i < exceptionRoutes.size(); i++) {
+            ExceptionRoute<T> exceptionRoute = exceptionRoutes.get(i);
             if (exceptionRoute.test(cause)) {
                 Optional.ofNullable(exceptionRoute.handler).ifPresent(h -> h.accept(context.getUserContext(), cause));
-                return exceptionRoute.nodeId;
+                context.getExecutionContext().setRoutedException(cause);
+                return getNextNodeIds().size() + i;
             }
         }
         throw executionException;
     }
 
     /**
-     * @return persistence scope of this step. Node may narrow the scope, excluding flow data or even disabling
-     * persistence completely
+     * Schedules another attempt of this step if exception is retryable and attempts aren't exhausted. Attempts are
+     * counted in execution context, which flow resets when execution moves to another step.
+     * @return {@code true} if retry is scheduled
+     */
+    private boolean retry(Throwable cause, ExecutionContext<T> execution) {
+        int attempts = execution.getRetryAttempts() + 1;
+        if (attempts >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(cause) || execution.isCanceled()) {
+            return false;
+        }
+        execution.setRetryAttempts(attempts);
+        execution.scheduleRetry(retryPolicy.getDelayNanos(attempts));
+        return true;
+    }
+
+    /**
+     * @return ids of successor steps this node may select on normal completion, in outcome order.
+     * May contain {@code null} meaning flow completion.
+     */
+    protected abstract List<String> getNextNodeIds();
+
+    /**
+     * @return number of distinct outcomes of this step: successors on normal completion and exception routes
+     */
+    int getOutcomeCount() {
+        return getNextNodeIds().size() + exceptionRoutes.size();
+    }
+
+    /**
+     * @param outcome outcome returned by {@link #step(WorkflowContext)}
+     * @return id of step corresponding to given outcome, {@code null} means flow completion
+     */
+    String getOutcomeNodeId(int outcome) {
+        List<String> nextNodeIds = getNextNodeIds();
+        return outcome < nextNodeIds.size() ? nextNodeIds.get(outcome)
+                : exceptionRoutes.get(outcome - nextNodeIds.size()).nodeId;
+    }
+
+    /**
+     * Resolves persistence scope of this step. Called by {@link Flow} when it's built or configured, never on step
+     * execution. Scope declared for the node in builder has the highest priority, then scope declared by action
+     * (see {@link tech.becloud.mage.persistence.PersistContext}), then flow level scope set with
+     * {@link #setPersistenceScope(PersistContextScope)}. Node may narrow the scope, excluding flow data or even
+     * disabling persistence completely.
+     * @return persistence scope of this step.
      */
     abstract PersistContextScope getPersistenceScope();
 
+    /**
+     * Called when repository is set to a flow this node belongs to. Nodes executing other flows propagate it.
+     * @param workflowContextRepository repository to persist context with
+     */
+    void setWorkflowContextRepository(WorkflowContextRepository<T> workflowContextRepository) {
+    }
+
     protected void enterNode(WorkflowContext<T> workflowContext) {
     }
 
@@ -92,6 +197,39 @@ public abstract class Node<T extends UserContext> implements Function<WorkflowCo
         this.pause = pause;
     }
 
+    /**
+     * @return time this step's action may take, {@code null} if not limited
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return policy of retrying this step on failure, {@code null} if it isn't retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return scope of context to be persisted declared for this node in builder, if any
+     */
+    public PersistContextScope getNodePersistContextScope() {
+        return nodePersistContextScope;
+    }
+
+    void setNodePersistContextScope(PersistContextScope nodePersistContextScope) {
+        this.nodePersistContextScope = nodePersistContextScope;
+    }
+
     /**
      * @return default scope of context to be persisted. Node still may reduce this scope for its execution.
      */
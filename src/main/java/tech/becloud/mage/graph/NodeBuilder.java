@@ -1,6 +1,7 @@
 package tech.becloud.mage.graph;
 
 import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.persistence.PersistContextScope;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -12,6 +13,8 @@ public abstract class NodeBuilder<T extends UserContext, N extends NodeBuilder<T
     protected final String id;
     protected final List<ExceptionRoute<T>> exceptionRoutes;
     protected boolean pause;
+    protected PersistContextScope persistContextScope;
+    protected RetryPolicy retryPolicy;
 
     protected NodeBuilder(FlowBuilder<T> flowBuilder, String id) {
         this.flowBuilder = flowBuilder;
@@ -39,6 +42,30 @@ public abstract class NodeBuilder<T extends UserContext, N extends NodeBuilder<T
         return (N) this;
     }
 
+    /**
+     * Retries this step on failure according to given policy before its exception routes apply. Thread isn't held
+     * while waiting for retry, see {@link RetryPolicy}.
+     * @param retryPolicy retry policy
+     * @return this builder
+     */
+    @SuppressWarnings("unchecked")
+    public N retry(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return (N) this;
+    }
+
+    /**
+     * Declares scope of context to persist after this step. It takes precedence over scope declared by action with
+     * {@link tech.becloud.mage.persistence.PersistContext} and scope set for whole flow.
+     * @param persistContextScope scope of context to persist
+     * @return this builder
+     */
+    @SuppressWarnings("unchecked")
+    public N persistContext(PersistContextScope persistContextScope) {
+        this.persistContextScope = persistContextScope;
+        return (N) this;
+    }
+
     public abstract Node<T> build();
 
     public FlowBuilder<T> done() {
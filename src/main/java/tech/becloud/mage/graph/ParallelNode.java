@@ -0,0 +1,273 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.PersistContextScope;
+import tech.becloud.mage.persistence.WorkflowContextRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Represents a workflow step running several branches concurrently and continuing once all of them complete.
+ * Branch is either an action or a flow; all branches process the same data object, so they should modify distinct
+ * parts of it. Flow execution doesn't hold a thread while branches run.
+ * <p>
+ * Completed branches are recorded in {@link ExecutionContext#getCompletedBranches()}. With
+ * {@link PersistContextScope#ALL} (default) workflow context is saved after each of them, so the data object is
+ * stored together with completed branches and resumed execution re-runs only unfinished ones. Checkpoints are taken
+ * one at a time while other branches may still run, so parts of the data object written by branches should be safe
+ * to read concurrently. With other scopes completed branches are kept in memory only and all branches are re-run
+ * on resume.
+ * <p>
+ * If a branch fails, its exception routes are applied in order of branches; if none of them matches, exception
+ * is routed by exception routes of the step itself. When execution is canceled, branch flows stop before their
+ * next steps and the step doesn't await them.
+ * @param <T> type parameter representing type of data processed by the flow.
+ */
+public class ParallelNode<T extends UserContext> extends Node<T> {
+    /**
+     * Maximum number of branches, limited by size of completed branches bit mask
+     */
+    public static final int MAX_BRANCHES = Long.SIZE;
+
+    private final List<Branch<T>> branches;
+    private final Executor executor;
+    private final String nextNodeId;
+    private final List<String> nextNodeIds;
+    private final int[] branchRouteOffsets;
+    private WorkflowContextRepository<T> workflowContextRepository;
+
+    /**
+     * Constructor, package private as intended way to create nodes is via builders.
+     * @param id step (node) id
+     * @param branches branches to run
+     * @param executor executor to run branches on
+     * @param nextNodeId id of next step to execute on successful completion
+     * @param exceptionRoutes next steps per exception type on exceptional completion not routed by branches
+     */
+    ParallelNode(String id, List<Branch<T>> branches, Executor executor, String nextNodeId,
+                 List<ExceptionRoute<T>> exceptionRoutes) {
+        super(id, exceptionRoutes);
+        if (branches.size() > MAX_BRANCHES) {
+            throw new IllegalArgumentException(String.format("Step %s has more than %d branches", id, MAX_BRANCHES));
+        }
+        this.branches = List.copyOf(branches);
+        this.executor = executor;
+        this.nextNodeId = nextNodeId;
+        // outcomes: next node, then exception routes of all branches
+        List<String> outcomes = new ArrayList<>();
+        outcomes.add(nextNodeId);
+        this.branchRouteOffsets = new int[branches.size()];
+        for (int i = 0; i < branches.size(); i++) {
+            branchRouteOffsets[i] = outcomes.size();
+            branches.get(i).exceptionRoutes.forEach(route -> outcomes.add(route.nodeId));
+        }
+        this.nextNodeIds = Collections.unmodifiableList(outcomes);
+    }
+
+    @Override
+    protected int executeAction(WorkflowContext<T> workflowContext) {
+        ExecutionContext<T> execution = workflowContext.getExecutionContext();
+        // step is re-entered once all branches complete
+        CompletableFuture<?> stage = execution.takeCompletedAwaitedStage();
+        if (stage == null) {
+            stage = startBranches(workflowContext);
+            if (!stage.isDone()) {
+                execution.setAwaitedStage(stage);
+                return SUSPENDED;
+            }
+        }
+        Throwable[] failures;
+        try {
+            failures = (Throwable[]) stage.join();
+        } catch (CompletionException e) {
+            // checkpoint of a completed branch has failed
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+        return join(failures, workflowContext);
+    }
+
+    private CompletableFuture<Throwable[]> startBranches(WorkflowContext<T> workflowContext) {
+        ExecutionContext<T> execution = workflowContext.getExecutionContext();
+        long completed = execution.getCompletedBranches();
+        BranchCheckpoints checkpoints = workflowContextRepository != null && !execution.isBranch()
+                && getPersistenceScope() == PersistContextScope.ALL ? new BranchCheckpoints(workflowContext) : null;
+        Throwable[] failures = new Throwable[branches.size()];
+        CompletableFuture<?>[] results = new CompletableFuture<?>[branches.size()];
+        for (int i = 0; i < branches.size(); i++) {
+            if ((completed & (1L << i)) != 0) {
+                results[i] = CompletableFuture.completedFuture(null);
+                continue;
+            }
+            final int branch = i;
+            results[i] = startBranch(branch, workflowContext, checkpoints).handle((result, e) -> {
+                failures[branch] = unwrap(e);
+                return null;
+            });
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(results);
+        return checkpoints == null ? all.thenApply(v -> failures)
+                : all.thenCompose(v -> checkpoints.last()).thenApply(v -> failures);
+    }
+
+    private CompletableFuture<Void> startBranch(int branchIndex, WorkflowContext<T> workflowContext,
+                                                BranchCheckpoints checkpoints) {
+        Branch<T> branch = branches.get(branchIndex);
+        ExecutionContext<T> execution = workflowContext.getExecutionContext();
+        CompletableFuture<Void> result = branch.action != null
+                ? CompletableFuture.runAsync(() -> branch.action.accept(workflowContext.getUserContext()), executor)
+                : startFlow(branch.flow, workflowContext);
+        return result.thenRun(() -> {
+            execution.markBranchCompleted(branchIndex);
+            if (checkpoints != null) {
+                checkpoints.add();
+            }
+        });
+    }
+
+    private CompletableFuture<Void> startFlow(Flow<T> flow, WorkflowContext<T> workflowContext) {
+        ExecutionContext<T> execution = workflowContext.getExecutionContext();
+        ExecutionContext<T> branchExecution = new ExecutionContext<>(execution.getWorkflowName(),
+                execution.getWorkflowVersion(), execution.getExecutionId(), flow.getMaxSubflowDepth() + 1);
+        branchExecution.setBranch(true);
+        branchExecution.setParent(execution);
+        branchExecution.setContinuationExecutor(execution.getRunContinuationExecutor());
+        branchExecution.setInstrumentation(execution.getInstrumentation());
+        branchExecution.setEventBus(execution.getEventBus());
+        Throwable[] failure = new Throwable[1];
+        branchExecution.setExceptionHandler((data, e, path) -> failure[0] = e);
+        WorkflowContext<T> branchContext = new WorkflowContext<>(branchExecution, workflowContext.getUserContext());
+        CompletableFuture<Void> run = branchExecution.startRun();
+        executor.execute(() -> {
+            try {
+                flow.accept(branchContext);
+            } catch (RuntimeException | Error e) {
+                branchExecution.completeRun(e);
+            }
+        });
+        return run.thenRun(() -> {
+            if (branchExecution.getExecutionState() == ExecutionState.CANCELED) {
+                throw new CancellationException();
+            }
+            if (failure[0] != null) {
+                throw new CompletionException(failure[0]);
+            }
+        });
+    }
+
+    /**
+     * Checkpoints of branch completions in a single run of the step. They are chained, so each one is taken once
+     * the previous one is written and the step doesn't complete before the last one.
+     */
+    private final class BranchCheckpoints {
+        private final WorkflowContext<T> workflowContext;
+        private final Object lock = new Object();
+        private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+
+        BranchCheckpoints(WorkflowContext<T> workflowContext) {
+            this.workflowContext = workflowContext;
+        }
+
+        void add() {
+            synchronized (lock) {
+                last = last.thenRun(() -> Flow.persistContext(workflowContextRepository, PersistContextScope.ALL,
+                        workflowContext));
+            }
+        }
+
+        CompletableFuture<Void> last() {
+            synchronized (lock) {
+                return last;
+            }
+        }
+    }
+
+    private int join(Throwable[] failures, WorkflowContext<T> workflowContext) {
+        ExecutionContext<T> execution = workflowContext.getExecutionContext();
+        for (int i = 0; i < failures.length; i++) {
+            Throwable failure = failures[i];
+            if (failure == null) {
+                continue;
+            }
+            List<ExceptionRoute<T>> routes = branches.get(i).exceptionRoutes;
+            for (int j = 0; j < routes.size(); j++) {
+                ExceptionRoute<T> route = routes.get(j);
+                if (route.test(failure)) {
+                    Optional.ofNullable(route.handler).ifPresent(h -> h.accept(workflowContext.getUserContext(), failure));
+                    execution.setCompletedBranches(0);
+                    return branchRouteOffsets[i] + j;
+                }
+            }
+        }
+        for (Throwable failure : failures) {
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (failure != null) {
+                // throws if not routed, keeping completed branches for resume; retry re-runs failed branches only
+                int outcome = routeOnException((Exception) failure, workflowContext);
+                if (outcome != SUSPENDED) {
+                    execution.setCompletedBranches(0);
+                }
+                return outcome;
+            }
+        }
+        execution.setCompletedBranches(0);
+        return 0;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    @Override
+    protected List<String> getNextNodeIds() {
+        return nextNodeIds;
+    }
+
+    @Override
+    PersistContextScope getPersistenceScope() {
+        return Optional.ofNullable(nodePersistContextScope).or(() -> Optional.ofNullable(persistContextScope))
+                .orElse(PersistContextScope.ALL);
+    }
+
+    @Override
+    void setWorkflowContextRepository(WorkflowContextRepository<T> workflowContextRepository) {
+        this.workflowContextRepository = workflowContextRepository;
+    }
+
+    /**
+     * @return number of branches
+     */
+    public int getBranchCount() {
+        return branches.size();
+    }
+
+    /**
+     * @return executor branches run on
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return id of next step (node) on successful completion. May be {@code null} which means flow completion.
+     */
+    public String getNextNodeId() {
+        return nextNodeId;
+    }
+}
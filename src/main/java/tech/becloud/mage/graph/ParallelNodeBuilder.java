@@ -0,0 +1,108 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.model.UserContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+public class ParallelNodeBuilder<T extends UserContext> extends SequentialNodeBuilder<T, ParallelNodeBuilder<T>> {
+    private final List<Consumer<? super T>> actions;
+    private final List<Flow<T>> flows;
+    private final List<List<ExceptionRoute<T>>> branchExceptionRoutes;
+    private Executor executor;
+
+    public ParallelNodeBuilder(FlowBuilder<T> flowBuilder, String id) {
+        super(flowBuilder, id);
+        this.actions = new ArrayList<>();
+        this.flows = new ArrayList<>();
+        this.branchExceptionRoutes = new ArrayList<>();
+        this.executor = ForkJoinPool.commonPool();
+    }
+
+    @Override
+    public Node<T> build() {
+        List<Branch<T>> branches = new ArrayList<>();
+        for (int i = 0; i < actions.size(); i++) {
+            branches.add(new Branch<>(actions.get(i), flows.get(i), branchExceptionRoutes.get(i)));
+        }
+        ParallelNode<T> node = new ParallelNode<>(id, branches, executor, nextNode, exceptionRoutes);
+        node.setPause(this.pause);
+        node.setNodePersistContextScope(this.persistContextScope);
+        node.setRetryPolicy(this.retryPolicy);
+        return node;
+    }
+
+    /**
+     * Adds a branch executing an action.
+     * @param action {@link Consumer<T>} implementation to call in this branch
+     * @return this builder
+     * @throws IllegalStateException if there are {@link ParallelNode#MAX_BRANCHES} branches already
+     */
+    public ParallelNodeBuilder<T> branch(Consumer<? super T> action) {
+        return addBranch(action, null);
+    }
+
+    /**
+     * Adds a branch executing a flow.
+     * @param flow flow to execute in this branch
+     * @return this builder
+     * @throws IllegalStateException if there are {@link ParallelNode#MAX_BRANCHES} branches already
+     */
+    public ParallelNodeBuilder<T> branch(Flow<T> flow) {
+        return addBranch(null, flow);
+    }
+
+    private ParallelNodeBuilder<T> addBranch(Consumer<? super T> action, Flow<T> flow) {
+        if (actions.size() == ParallelNode.MAX_BRANCHES) {
+            throw new IllegalStateException(String.format("Step %s can't have more than %d branches", id,
+                    ParallelNode.MAX_BRANCHES));
+        }
+        actions.add(action);
+        flows.add(flow);
+        branchExceptionRoutes.add(new ArrayList<>());
+        return this;
+    }
+
+    /**
+     * Adds exception route to the last added branch.
+     * @param exceptionClass exception type to match
+     * @param nodeId step to continue with after all branches complete
+     * @return this builder
+     * @throws IllegalStateException if no branch added yet
+     */
+    public ParallelNodeBuilder<T> onBranchException(Class<? extends Throwable> exceptionClass, String nodeId) {
+        return onBranchException(exceptionClass, null, nodeId);
+    }
+
+    /**
+     * Adds exception route to the last added branch.
+     * @param exceptionClass exception type to match
+     * @param handler handler to call with data object and exception
+     * @param nodeId step to continue with after all branches complete
+     * @return this builder
+     * @throws IllegalStateException if no branch added yet
+     */
+    public ParallelNodeBuilder<T> onBranchException(Class<? extends Throwable> exceptionClass,
+                                                    BiConsumer<? super T, Throwable> handler, String nodeId) {
+        if (branchExceptionRoutes.isEmpty()) {
+            throw new IllegalStateException("Branch must be added before its exception routes");
+        }
+        branchExceptionRoutes.get(branchExceptionRoutes.size() - 1)
+                .add(new ExceptionRoute<>(exceptionClass, handler, nodeId));
+        return this;
+    }
+
+    /**
+     * Sets executor to run branches on, {@link ForkJoinPool#commonPool()} is used by default.
+     * @param executor executor to run branches on
+     * @return this builder
+     */
+    public ParallelNodeBuilder<T> executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+}
@@ -0,0 +1,148 @@
+package tech.becloud.mage.graph;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Declares how a step is retried when its action fails: maximum number of attempts, exponential backoff between
+ * them and exception classes worth retrying. Retry doesn't hold a thread while waiting, execution is suspended and
+ * continues once the delay elapses, as with asynchronous actions. Exception routes of the step apply only once
+ * attempts are exhausted or exception isn't retryable.
+ * <p>
+ * Instances are immutable, methods configuring a policy return a new one, e.g.
+ * <pre>
+ * RetryPolicy.maxAttempts(5).backoff(Duration.ofMillis(200), 2, Duration.ofSeconds(10)).retryOn(IOException.class)
+ * </pre>
+ */
+public final class RetryPolicy {
+    private static final Duration DEFAULT_INITIAL_DELAY = Duration.ofMillis(100);
+    private static final double DEFAULT_MULTIPLIER = 2;
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(30);
+    private static final double DEFAULT_JITTER = 0.5;
+
+    private final int maxAttempts;
+    private final long initialDelayNanos;
+    private final double multiplier;
+    private final long maxDelayNanos;
+    private final double jitter;
+    private final List<Class<? extends Throwable>> retryOn;
+
+    private RetryPolicy(int maxAttempts, long initialDelayNanos, double multiplier, long maxDelayNanos,
+                        double jitter, List<Class<? extends Throwable>> retryOn) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelayNanos = initialDelayNanos;
+        this.multiplier = multiplier;
+        this.maxDelayNanos = maxDelayNanos;
+        this.jitter = jitter;
+        this.retryOn = retryOn;
+    }
+
+    /**
+     * Creates a policy retrying any exception, with delay starting at 100 ms, doubled on each attempt up to 30
+     * seconds, and reduced by random jitter of up to a half.
+     * @param maxAttempts maximum number of attempts including the first one
+     * @return new policy
+     */
+    public static RetryPolicy maxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Number of attempts should be positive: " + maxAttempts);
+        }
+        return new RetryPolicy(maxAttempts, DEFAULT_INITIAL_DELAY.toNanos(), DEFAULT_MULTIPLIER,
+                DEFAULT_MAX_DELAY.toNanos(), DEFAULT_JITTER, List.of());
+    }
+
+    /**
+     * @param initialDelay delay before the first retry
+     * @param multiplier factor delay grows by on each subsequent retry, 1 means fixed delay
+     * @param maxDelay upper limit of delay
+     * @return new policy with given backoff
+     */
+    public RetryPolicy backoff(Duration initialDelay, double multiplier, Duration maxDelay) {
+        if (initialDelay.isNegative() || maxDelay.compareTo(initialDelay) < 0 || multiplier < 1) {
+            throw new IllegalArgumentException(String.format("Invalid backoff: initial delay %s, multiplier %s, "
+                    + "maximum delay %s", initialDelay, multiplier, maxDelay));
+        }
+        return new RetryPolicy(maxAttempts, initialDelay.toNanos(), multiplier, maxDelay.toNanos(), jitter, retryOn);
+    }
+
+    /**
+     * Sets random jitter, so that executions failed at once don't retry at once as well.
+     * @param jitter maximum fraction delay is randomly reduced by, from 0 meaning no jitter to 1
+     * @return new policy with given jitter
+     */
+    public RetryPolicy jitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter should be between 0 and 1: " + jitter);
+        }
+        return new RetryPolicy(maxAttempts, initialDelayNanos, multiplier, maxDelayNanos, jitter, retryOn);
+    }
+
+    /**
+     * Limits retries to given exception classes and their subclasses. By default any exception is retried.
+     * @param exceptionClasses retryable exception classes
+     * @return new policy retrying given exceptions only
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs") // array is only read by List.of
+    public final RetryPolicy retryOn(Class<? extends Throwable>... exceptionClasses) {
+        return new RetryPolicy(maxAttempts, initialDelayNanos, multiplier, maxDelayNanos, jitter,
+                List.of(exceptionClasses));
+    }
+
+    /**
+     * @return maximum number of attempts including the first one
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return delay before the first retry
+     */
+    public Duration getInitialDelay() {
+        return Duration.ofNanos(initialDelayNanos);
+    }
+
+    /**
+     * @return factor delay grows by on each subsequent retry
+     */
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * @return upper limit of delay
+     */
+    public Duration getMaxDelay() {
+        return Duration.ofNanos(maxDelayNanos);
+    }
+
+    /**
+     * @param e exception thrown by step
+     * @return {@code true} if exception is of retryable class
+     */
+    public boolean isRetryable(Throwable e) {
+        if (retryOn.isEmpty()) {
+            return true;
+        }
+        for (Class<? extends Throwable> exceptionClass : retryOn) {
+            if (exceptionClass.isInstance(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param retry number of retry, starting from 1
+     * @return delay before given retry in nanoseconds, with jitter applied
+     */
+    public long getDelayNanos(int retry) {
+        double delay = Math.min(initialDelayNanos * Math.pow(multiplier, retry - 1), maxDelayNanos);
+        if (jitter > 0) {
+            delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        }
+        return (long) delay;
+    }
+}
@@ -3,22 +3,53 @@ package tech.becloud.mage.graph;
 import tech.becloud.mage.model.UserContext;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 public class RouterBuilder<T extends UserContext> extends NodeBuilder<T, RouterBuilder<T>> {
 
     private final List<Route<? super T>> routes;
+    private final Map<Object, String> keyRoutes;
+    private Function<? super T, ?> keyExtractor;
     private String defaultRoute;
+    private boolean adaptiveOrder;
 
     public RouterBuilder(FlowBuilder<T> flowBuilder, String id) {
         super(flowBuilder, id);
         this.routes = new ArrayList<>();
+        this.keyRoutes = new LinkedHashMap<>();
     }
 
     @Override
     public Node<T> build() {
-        return new RouterNode<>(id, routes, defaultRoute, exceptionRoutes);
+        RouterNode<T> node = new RouterNode<>(id, keyExtractor, keyRoutes, routes, defaultRoute, exceptionRoutes);
+        node.setNodePersistContextScope(persistContextScope);
+        node.setRetryPolicy(retryPolicy);
+        if (adaptiveOrder) {
+            node.enableAdaptiveOrder();
+        }
+        return node;
+    }
+
+    /**
+     * Sets routing by key: key is extracted from flow data and looked up in a table compiled on build, so selecting
+     * a route doesn't depend on number of routes. Enum and int keys are looked up in arrays, other keys in a hash
+     * table relying on their {@code equals()} and {@code hashCode()}. Predicate routes are tested only if extracted
+     * key isn't in the table.
+     * @param keyExtractor function extracting routing key from flow data
+     * @param keyRoutes step (node) id to execute next per routing key, keys can't be {@code null}
+     * @param <K> type of routing key
+     * @return builder for {@link RouterNode}
+     */
+    public <K> RouterBuilder<T> routeOn(Function<? super T, ? extends K> keyExtractor, Map<K, String> keyRoutes) {
+        this.keyExtractor = keyExtractor;
+        this.keyRoutes.clear();
+        this.keyRoutes.putAll(keyRoutes);
+        return this;
     }
 
     /**
@@ -27,7 +58,7 @@ public class RouterBuilder<T extends UserContext> extends NodeBuilder<T, RouterB
      * @param nodeId step (node) id to be executed next
      * @return builder for {@link RouterNode}
      */
-    RouterBuilder<T> routeTo(Predicate<? super T> predicate, String nodeId) {
+    public RouterBuilder<T> routeTo(Predicate<? super T> predicate, String nodeId) {
         routes.add(new Route<T>(predicate, nodeId));
         return this;
     }
@@ -38,7 +69,7 @@ public class RouterBuilder<T extends UserContext> extends NodeBuilder<T, RouterB
      * @param builder flow builder defining steps to execute
      * @return builder for {@link RouterNode}
      */
-    RouterBuilder<T> route(Predicate<? super T> predicate, FlowBuilder<T> builder) {
+    public RouterBuilder<T> route(Predicate<? super T> predicate, FlowBuilder<T> builder) {
         routes.add(new Route<T>(predicate, builder.getStartNode()));
         flowBuilder.add(builder);
         return this;
@@ -49,7 +80,7 @@ public class RouterBuilder<T extends UserContext> extends NodeBuilder<T, RouterB
      * @param nodeId step (node) id to be executed next
      * @return builder for {@link RouterNode}
      */
-    RouterBuilder<T> defaultRoute(String nodeId) {
+    public RouterBuilder<T> defaultRoute(String nodeId) {
         this.defaultRoute = nodeId;
         return this;
     }
@@ -59,12 +90,23 @@ public class RouterBuilder<T extends UserContext> extends NodeBuilder<T, RouterB
      * @param builder flow builder defining steps to execute
      * @return builder for {@link RouterNode}
      */
-    RouterBuilder<T> defaultRoute(FlowBuilder<T> builder) {
+    public RouterBuilder<T> defaultRoute(FlowBuilder<T> builder) {
         this.defaultRoute = builder.getStartNode();
         flowBuilder.add(builder);
         return this;
     }
 
+    /**
+     * Makes router test predicate routes in order of their observed hit rates rather than in order of declaration,
+     * so that frequently selected routes are tested first. By calling this method You declare that predicates of
+     * routes are free of side effects and mutually exclusive, otherwise execution may differ from declared order.
+     * @return builder for {@link RouterNode}
+     */
+    public RouterBuilder<T> adaptiveOrder() {
+        this.adaptiveOrder = true;
+        return this;
+    }
+
     /**
      * @return routes configured in this builder. Returned list can't be modified directly.
      */
@@ -72,6 +114,13 @@ public class RouterBuilder<T extends UserContext> extends NodeBuilder<T, RouterB
         return List.copyOf(routes);
     }
 
+    /**
+     * @return routes by key configured in this builder. Returned map can't be modified directly.
+     */
+    public Map<Object, String> getKeyRoutes() {
+        return Collections.unmodifiableMap(keyRoutes);
+    }
+
     /**
      * @return default route configured in this builder.
      */
@@ -5,33 +5,209 @@ import tech.becloud.mage.model.WorkflowContext;
 import tech.becloud.mage.persistence.PersistContextScope;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Represents a workflow step selecting a successor. Routes are either predicates tested in order they were added,
+ * or a table of keys extracted from flow data; key table is looked up first, predicates are used as a fallback
+ * when extracted key isn't in the table. Default route is selected if nothing matches.
+ * <p>
+ * Predicate routes may be tested in adaptive order, see {@link #enableAdaptiveOrder()}.
+ * @param <T> type parameter representing type of data processed by the flow.
+ */
 public class RouterNode<T extends UserContext> extends Node<T> {
+    /**
+     * Average number of executions between route reorderings in adaptive mode
+     */
+    static final int REORDER_INTERVAL = 1024;
 
     private final List<Route<? super T>> routes;
+    private final List<String> nextNodeIds;
+    private final Function<? super T, ?> keyExtractor;
+    private final KeyTable keyTable;
+    private final int keyOutcomeCount;
+    private volatile int[] routeOrder;
+    private LongAdder[] hits;
+    private long[] reorderedHits;
+    private double[] scores;
+    private final AtomicBoolean reordering = new AtomicBoolean();
 
     public RouterNode(String id, List<Route<? super T>> routes, String defaultRoute, List<ExceptionRoute<T>> exceptionRoutes) {
+        this(id, null, Map.of(), routes, defaultRoute, exceptionRoutes);
+    }
+
+    /**
+     * @param id step (node) id
+     * @param keyExtractor function extracting routing key from flow data, may be {@code null} if no key routes
+     * @param keyRoutes step (node) id per routing key
+     * @param routes predicate routes to test if extracted key isn't found in {@code keyRoutes}
+     * @param defaultRoute step (node) id selected if no other route matches
+     * @param exceptionRoutes next steps per exception type on exceptional completion
+     * @throws IllegalArgumentException if key routes contain {@code null} key
+     */
+    public RouterNode(String id, Function<? super T, ?> keyExtractor, Map<?, String> keyRoutes,
+                      List<Route<? super T>> routes, String defaultRoute, List<ExceptionRoute<T>> exceptionRoutes) {
         super(id, exceptionRoutes);
         ArrayList<Route<? super T>> allRoutes = new ArrayList<>(routes);
         allRoutes.add(new Route<>(t -> true, defaultRoute));
         this.routes = List.copyOf(allRoutes);
+        // outcomes: distinct targets of key routes, then predicate routes and default route
+        Map<String, Integer> keyTargets = new LinkedHashMap<>();
+        Map<Object, Integer> keyOutcomes = new HashMap<>();
+        keyRoutes.forEach((key, nodeId) -> {
+            if (key == null) {
+                throw new IllegalArgumentException(String.format("Router %s has null route key", id));
+            }
+            keyOutcomes.put(key, keyTargets.computeIfAbsent(nodeId, target -> keyTargets.size()));
+        });
+        this.keyExtractor = keyRoutes.isEmpty() ? null : keyExtractor;
+        this.keyTable = keyRoutes.isEmpty() ? null : KeyTable.of(keyOutcomes);
+        this.keyOutcomeCount = keyTargets.size();
+        // node ids may be null, so List.copyOf() isn't applicable here
+        String[] routeNodeIds = Stream.concat(keyTargets.keySet().stream(),
+                allRoutes.stream().map(route -> route.nodeId)).toArray(String[]::new);
+        this.nextNodeIds = Collections.unmodifiableList(Arrays.asList(routeNodeIds));
     }
 
     @Override
-    public String executeAction(WorkflowContext<T> workflowContext) {
+    public int executeAction(WorkflowContext<T> workflowContext) {
         T userContext = workflowContext.getUserContext();
-        for (Route<? super T> route : routes) {
-            if (route.predicate.test(userContext)) {
-                return route.nodeId;
+        if (keyTable != null) {
+            int outcome = keyTable.lookup(keyExtractor.apply(userContext));
+            if (outcome >= 0) {
+                return outcome;
+            }
+        }
+        int[] order = routeOrder;
+        if (order != null) {
+            return keyOutcomeCount + routeAdaptively(order, userContext);
+        }
+        for (int i = 0; i < routes.size(); i++) {
+            if (routes.get(i).predicate.test(userContext)) {
+                return keyOutcomeCount + i;
             }
         }
         throw new IllegalStateException("No default route found, abandon execution");
     }
 
+    private int routeAdaptively(int[] order, T userContext) {
+        // default route is the last one and is never reordered
+        int selected = routes.size() - 1;
+        for (int route : order) {
+            if (routes.get(route).predicate.test(userContext)) {
+                selected = route;
+                break;
+            }
+        }
+        hits[selected].increment();
+        // sampling avoids a shared counter of executions
+        if (ThreadLocalRandom.current().nextInt(REORDER_INTERVAL) == 0) {
+            reorderRoutes();
+        }
+        return selected;
+    }
+
+    /**
+     * Enables adaptive order of predicate routes: hits of each route are counted and routes are periodically
+     * reordered so that frequently selected routes are tested first. Hit rates decay on each reordering, so order
+     * follows changes of traffic. This is only correct if route predicates are free of side effects and mutually
+     * exclusive, i.e. no flow data matches more than one of them.
+     * Package private as it's intended to be called by builder, before node is executed.
+     */
+    void enableAdaptiveOrder() {
+        int count = routes.size() - 1;
+        hits = new LongAdder[routes.size()];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new LongAdder();
+        }
+        reorderedHits = new long[count];
+        scores = new double[count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        routeOrder = order;
+    }
+
+    /**
+     * Reorders predicate routes by their recent hit rates. Called periodically during execution in adaptive mode;
+     * does nothing if adaptive mode isn't enabled or reordering is in progress in another thread.
+     */
+    public void reorderRoutes() {
+        int[] current = routeOrder;
+        if (current == null || !reordering.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < scores.length; i++) {
+                long routeHits = hits[i].sum();
+                scores[i] = scores[i] / 2 + (routeHits - reorderedHits[i]);
+                reorderedHits[i] = routeHits;
+            }
+            // stable sort keeps declaration order for routes with equal scores
+            int[] order = Arrays.stream(current).boxed()
+                    .sorted((a, b) -> Double.compare(scores[b], scores[a]))
+                    .mapToInt(Integer::intValue).toArray();
+            if (!Arrays.equals(order, current)) {
+                routeOrder = order;
+            }
+        } finally {
+            reordering.set(false);
+        }
+    }
+
+    /**
+     * @return {@code true} if predicate routes are tested in adaptive order
+     */
+    public boolean isAdaptiveOrder() {
+        return routeOrder != null;
+    }
+
+    /**
+     * @return indexes of predicate routes, in order of declaration, in order they are currently tested
+     */
+    public List<Integer> getRouteOrder() {
+        int[] order = routeOrder;
+        if (order == null) {
+            int[] declared = new int[routes.size() - 1];
+            Arrays.setAll(declared, i -> i);
+            order = declared;
+        }
+        return Arrays.stream(order).boxed().collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * @return number of times each predicate route was selected, in order of declaration followed by default route;
+     * empty if adaptive order isn't enabled, as hits are counted only in that mode
+     */
+    public List<Long> getRouteHits() {
+        if (routeOrder == null) {
+            return List.of();
+        }
+        return Arrays.stream(hits).map(LongAdder::sum).collect(Collectors.toUnmodifiableList());
+    }
+
+    @Override
+    protected List<String> getNextNodeIds() {
+        return nextNodeIds;
+    }
+
     @Override
     PersistContextScope getPersistenceScope() {
-        if (persistContextScope == PersistContextScope.NONE || persistContextScope == PersistContextScope.USER) {
+        PersistContextScope scope = nodePersistContextScope != null ? nodePersistContextScope : persistContextScope;
+        // router doesn't modify flow data, so there is no need to save it
+        if (scope == PersistContextScope.NONE || scope == PersistContextScope.USER) {
             return PersistContextScope.NONE;
         }
         return PersistContextScope.EXECUTION;
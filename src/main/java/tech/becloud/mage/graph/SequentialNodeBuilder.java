@@ -0,0 +1,192 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.model.UserContext;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Base builder for nodes having at most one successor. Offers methods adding a step that becomes a successor of
+ * the one being built, so flow can be defined as a chain of calls.
+ * @param <T> type of flow data object
+ * @param <N> type of builder itself
+ */
+public abstract class SequentialNodeBuilder<T extends UserContext, N extends SequentialNodeBuilder<T, N>>
+        extends NodeBuilder<T, N> {
+
+    protected String nextNode;
+
+    protected SequentialNodeBuilder(FlowBuilder<T> flowBuilder, String id) {
+        super(flowBuilder, id);
+    }
+
+    /**
+     * Sets successor of current step by id, e.g. of a step added to the flow builder separately.
+     * @param nodeId id of step to execute next, {@code null} means flow completion
+     * @return this builder
+     */
+    @SuppressWarnings("unchecked")
+    public N next(String nodeId) {
+        nextNode = nodeId;
+        return (N) this;
+    }
+
+    /**
+     * Adds a step that executes an action calling an {@code accept()} method of supplied {@link Consumer<T>}.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @param action {@link Consumer<T>} implementation to call on this step
+     * @return builder for {@link ActionNode<T>} implementing such step.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public ActionNodeBuilder<T> execute(String id, Consumer<? super T> action) {
+        ActionNodeBuilder<T> next = flowBuilder.execute(id, action);
+        nextNode = id;
+        return next;
+    }
+
+    /**
+     * Adds a step that executes an action calling an {@code accept()} method of supplied {@link Consumer<T>} bean.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @param beanName bean implementing {@link Consumer<T>} interface to call on this step
+     * @return builder for {@link ActionNode<T>} implementing such step.
+     * @throws IllegalStateException if no {@link BeanResolver} supplied to parent {@link FlowBuilder}
+     * @throws IllegalArgumentException if step with same id already exists
+     *
+     */
+    public ActionNodeBuilder<T> execute(String id, String beanName) {
+        ActionNodeBuilder<T> next = flowBuilder.execute(id, beanName);
+        nextNode = id;
+        return next;
+    }
+
+    /**
+     * Adds a step that executes an action calling an {@code accept()} method of supplied {@link Consumer<T>} bean.
+     * Added step became a successor of current one.
+     * @param id workflow step id, also used as bean name to lookup a {@link Consumer<T>} interface to call on this step
+     * @return builder for {@link ActionNode<T>} implementing such step.
+     * @throws IllegalStateException if no {@link BeanResolver} supplied to parent {@link FlowBuilder}
+     * @throws IllegalArgumentException if step with same id already exists
+     *
+     */
+    public ActionNodeBuilder<T> execute(String id) {
+        ActionNodeBuilder<T> next = flowBuilder.execute(id);
+        nextNode = id;
+        return next;
+    }
+
+    /**
+     * Adds a step that executes an asynchronous action, see {@link FlowBuilder#executeAsync(String, Function)}.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @param action function starting an action and returning its {@link CompletionStage}
+     * @return builder for {@link AsyncActionNode<T>} implementing such step.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public AsyncActionNodeBuilder<T> executeAsync(String id,
+                                                  Function<? super T, ? extends CompletionStage<Void>> action) {
+        AsyncActionNodeBuilder<T> next = flowBuilder.executeAsync(id, action);
+        nextNode = id;
+        return next;
+    }
+
+    /**
+     * Adds a step running several branches concurrently, see {@link FlowBuilder#parallel(String)}.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @return builder for {@link ParallelNode<T>} implementing such step.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public ParallelNodeBuilder<T> parallel(String id) {
+        ParallelNodeBuilder<T> next = flowBuilder.parallel(id);
+        nextNode = id;
+        return next;
+    }
+
+    /**
+     * Adds a "router" step intended for dispatching further execution to a distinct path.
+     * Basically, it is an if-elseif-else implementation in terms of workflow step.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @param predicate predicate to test to select this route
+     * @param targetNodeId id of node to be executed when condition is met
+     * @return builder for {@link RouterNode<T>} implementing such step.Note that unlike other builders {@link RouterBuilder}
+     * doesn't offers methods to 'continue' flow; instead it's routeIf() and defaultRoute() methods accepts subsequent
+     * node or FlowBuilder, so further flow is built in scope of these methods call.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public RouterBuilder<T> routeTo(String id, Predicate<? super T> predicate, String targetNodeId) {
+        RouterBuilder<T> routerBuilder = flowBuilder.routeTo(id, predicate, targetNodeId);
+        nextNode = id;
+        return routerBuilder;
+    }
+
+    /**
+     * Adds a "router" step intended for dispatching further execution to a distinct path.
+     * Basically, it is an if-elseif-else implementation in terms of workflow step.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @param predicate predicate to test to select this route
+     * @param flowBuilder execution will be routed to the start step of supplied builder, builder itself will be added
+     *                    to current one, see {@link FlowBuilder#add(FlowBuilder)}.
+     * @return builder for {@link RouterNode<T>} implementing such step.Note that unlike other builders {@link RouterBuilder}
+     * doesn't offers methods to 'continue' flow; instead it's routeIf() and defaultRoute() methods accepts subsequent
+     * node or FlowBuilder, so further flow is built in scope of these methods call.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public RouterBuilder<T> route(String id, Predicate<? super T> predicate, FlowBuilder<T> flowBuilder) {
+        RouterBuilder<T> routerBuilder = this.flowBuilder.route(id, predicate, flowBuilder);
+        nextNode = id;
+        return routerBuilder;
+    }
+
+    /**
+     * Adds a "router" step selecting next step by a key extracted from flow data, see
+     * {@link FlowBuilder#routeOn(String, Function, Map)}.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @param keyExtractor function extracting routing key from flow data
+     * @param keyRoutes step (node) id to execute next per routing key
+     * @param <K> type of routing key
+     * @return builder for {@link RouterNode<T>} implementing such step.
+     * @throws IllegalArgumentException if step with same id already exists
+     */
+    public <K> RouterBuilder<T> routeOn(String id, Function<? super T, ? extends K> keyExtractor,
+                                        Map<K, String> keyRoutes) {
+        RouterBuilder<T> routerBuilder = flowBuilder.routeOn(id, keyExtractor, keyRoutes);
+        nextNode = id;
+        return routerBuilder;
+    }
+
+    /**
+     * Adds a subflow call step to workflow. Calls of subflow from subflow is supported.
+     * The same flow may be used as main in one workflow and as subflow in another.
+     * Added step became a successor of current one.
+     * @param id workflow step id
+     * @param flow flow to execute as subflow
+     * @return a builder for {@link SubflowNode} implementing such step
+     */
+    public SubflowBuilder<T> subflow(String id, Flow<T> flow) {
+        SubflowBuilder<T> next = flowBuilder.subflow(id, flow);
+        nextNode = id;
+        return next;
+    }
+
+    /**
+     * Adds a subflow call step to workflow. Calls of subflow from subflow is supported.
+     * The same flow may be used as main in one workflow and as subflow in another.
+     * Added step became a successor of current one.
+     * @param id subflow step id
+     * @param flowBean bean name to lookup {@link Flow} instance
+     * @return a builder for {@link SubflowNode} implementing such step
+     */
+    public SubflowBuilder<T> subflow(String id, String flowBean) {
+        SubflowBuilder<T> next = flowBuilder.subflow(id, flowBean);
+        nextNode = id;
+        return next;
+    }
+}
@@ -0,0 +1,233 @@
+package tech.becloud.mage.graph;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Work-stealing pool running executions step by step rather than a thread per execution. An execution started on
+ * scheduler, see {@link Workflow#start(tech.becloud.mage.model.WorkflowContext, StepScheduler)}, runs a turn of
+ * steps and then yields, queueing its continuation behind executions that are already waiting, so that thousands of
+ * executions interleave on a fixed number of threads and long flows don't hold threads short flows are waiting for.
+ * Turn length is set per workflow, see {@link Workflow#setSchedulingWeight(int)}.
+ * <p>
+ * Each worker thread has its own FIFO queue, continuations of executions it runs are put there. Idle workers steal
+ * from queues of busy ones, so steps spread across cores. Executions started from other threads are put in shared
+ * queue, which workers check periodically even when busy, so new executions are admitted under load.
+ * <p>
+ * Steps of an execution yield at its top level only: a subflow or a parallel step is run within a single turn.
+ * Scheduler is an {@link Executor} as well; it continues executions after asynchronous actions unless workflow has
+ * its own continuation executor.
+ */
+public class StepScheduler implements Executor, AutoCloseable {
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final ThreadLocal<Worker> CURRENT_WORKER = new ThreadLocal<>();
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /**
+     * Busy worker takes a task from shared queue before its own one once per this number of tasks
+     */
+    private static final int SUBMISSION_CHECK_INTERVAL = 31;
+
+    private final Worker[] workers;
+    private final Queue<Runnable> submissions;
+    private volatile boolean closed;
+
+    /**
+     * Creates scheduler with a daemon worker thread per available processor.
+     */
+    public StepScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates scheduler running steps in daemon threads.
+     * @param parallelism number of worker threads
+     */
+    public StepScheduler(int parallelism) {
+        this(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "mage-step-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param parallelism number of worker threads
+     * @param threadFactory factory of worker threads
+     */
+    public StepScheduler(int parallelism, ThreadFactory threadFactory) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.submissions = new ConcurrentLinkedQueue<>();
+        this.workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(i, threadFactory);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Runs given task on a worker. Task submitted from a worker is queued to that worker.
+     * @param task task to run
+     * @throws RejectedExecutionException if scheduler is closed
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (!schedule(task)) {
+            throw new RejectedExecutionException("Step scheduler is closed");
+        }
+    }
+
+    /**
+     * Queues continuation of an execution that has completed its turn.
+     * @return {@code false} if scheduler is closed, so execution should go on in the current thread
+     */
+    boolean schedule(Runnable task) {
+        if (closed) {
+            return false;
+        }
+        Worker worker = CURRENT_WORKER.get();
+        if (worker != null && worker.scheduler() == this) {
+            worker.tasks.offer(task);
+        } else {
+            submissions.offer(task);
+            if (closed && submissions.remove(task)) {
+                // closed meanwhile and workers may have exited already; a task taken by a worker is run by it
+                return false;
+            }
+        }
+        wakeUp();
+        return true;
+    }
+
+    public int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * @return number of tasks waiting for a worker, i.e. executions waiting for their turn
+     */
+    public int getQueuedCount() {
+        int queued = submissions.size();
+        for (Worker worker : workers) {
+            queued += worker.tasks.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stops accepting tasks and waits until queued ones are run. Executions running meanwhile don't yield anymore
+     * and complete their runs in worker threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Worker current = CURRENT_WORKER.get();
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        for (Worker worker : workers) {
+            if (worker == current) {
+                continue;
+            }
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void wakeUp() {
+        for (Worker worker : workers) {
+            if (worker.sleeping) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final int index;
+        private final Queue<Runnable> tasks;
+        private final Thread thread;
+        private volatile boolean sleeping;
+
+        Worker(int index, ThreadFactory threadFactory) {
+            this.index = index;
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.thread = threadFactory.newThread(this);
+        }
+
+        StepScheduler scheduler() {
+            return StepScheduler.this;
+        }
+
+        @Override
+        public void run() {
+            CURRENT_WORKER.set(this);
+            int executed = 0;
+            while (true) {
+                Runnable task = ++executed % SUBMISSION_CHECK_INTERVAL == 0 ? submissions.poll() : null;
+                if (task == null) {
+                    task = nextTask();
+                }
+                if (task == null && closed) {
+                    // polled once more after seeing scheduler closed, so task queued before it closed isn't lost
+                    task = nextTask();
+                    if (task == null) {
+                        return;
+                    }
+                }
+                if (task == null) {
+                    sleeping = true;
+                    task = nextTask();
+                    if (task == null) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                        sleeping = false;
+                        continue;
+                    }
+                    sleeping = false;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException | Error e) {
+                    // a failing task must not stop the worker
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        }
+
+        private Runnable nextTask() {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                task = submissions.poll();
+            }
+            return task == null ? steal() : task;
+        }
+
+        private Runnable steal() {
+            int start = ThreadLocalRandom.current().nextInt(workers.length);
+            for (int i = 0; i < workers.length; i++) {
+                Worker victim = workers[(start + i) % workers.length];
+                if (victim.index != index) {
+                    Runnable task = victim.tasks.poll();
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
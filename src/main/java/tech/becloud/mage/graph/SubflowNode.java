@@ -3,7 +3,9 @@ package tech.becloud.mage.graph;
 import tech.becloud.mage.model.UserContext;
 import tech.becloud.mage.model.WorkflowContext;
 import tech.becloud.mage.persistence.PersistContextScope;
+import tech.becloud.mage.persistence.WorkflowContextRepository;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,38 +13,58 @@ public class SubflowNode<T extends UserContext> extends Node<T> {
 
     private final Flow<T> flow;
     private final String nextNodeId;
+    private final List<String> nextNodeIds;
 
     SubflowNode(String id, Flow<T> flow, String nextNode, List<ExceptionRoute<T>> exceptionRoutes) {
         super(id, exceptionRoutes);
         this.flow = flow;
         this.nextNodeId = nextNode;
+        this.nextNodeIds = Collections.singletonList(nextNode);
     }
 
     @Override
-    protected String executeAction(WorkflowContext<T> context) {
+    protected int executeAction(WorkflowContext<T> context) {
         flow.accept(context);
-        return nextNodeId;
+        ExecutionContext<T> execution = context.getExecutionContext();
+        if (isStopped(execution)) {
+            return STOPPED;
+        }
+        return execution.isAwaiting() ? SUSPENDED : 0;
+    }
+
+    @Override
+    protected List<String> getNextNodeIds() {
+        return nextNodeIds;
     }
 
     @Override
     protected void enterNode(WorkflowContext<T> workflowContext) {
-        ExecutionContext<T> execution = workflowContext.getExecutionContext();
-        execution.setSubflowDepth(execution.getSubflowDepth() + 1);
-        if (execution.getSubflowDepth() == execution.getCurrentNodePath().size()) {
-            execution.getCurrentNodePath().add(null);
-        }
+        workflowContext.getExecutionContext().enterSubflow();
     }
 
     @Override
     protected void exitNode(WorkflowContext<T> workflowContext) {
         ExecutionContext<T> execution = workflowContext.getExecutionContext();
-        execution.getCurrentNodePath().remove(execution.getSubflowDepth());
-        execution.setSubflowDepth(execution.getSubflowDepth() - 1);
+        if (execution.isAwaiting() || isStopped(execution)) {
+            // subflow level of execution point is kept, so the subflow continues where it has stopped
+            execution.suspendSubflow();
+        } else {
+            execution.exitSubflow();
+        }
+    }
+
+    /**
+     * @return {@code true} if subflow execution has paused, failed or been canceled rather than completed
+     */
+    private static boolean isStopped(ExecutionContext<?> execution) {
+        ExecutionState state = execution.getExecutionState();
+        return state != ExecutionState.RUNNING && state != ExecutionState.PAUSING;
     }
 
     @Override
     PersistContextScope getPersistenceScope() {
-        return Optional.ofNullable(persistContextScope).orElse(PersistContextScope.ALL);
+        return Optional.ofNullable(nodePersistContextScope).or(() -> Optional.ofNullable(persistContextScope))
+                .orElse(PersistContextScope.ALL);
     }
 
     @Override
@@ -51,6 +73,11 @@ public class SubflowNode<T extends UserContext> extends Node<T> {
         flow.setPersistContextScope(persistContextScope);
     }
 
+    @Override
+    void setWorkflowContextRepository(WorkflowContextRepository<T> workflowContextRepository) {
+        flow.setWorkflowContextRepository(workflowContextRepository);
+    }
+
     public Flow<T> getFlow() {
         return flow;
     }
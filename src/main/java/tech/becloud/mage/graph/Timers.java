@@ -0,0 +1,31 @@
+package tech.becloud.mage.graph;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single daemon thread firing deadlines of executions and steps, created on first use. Tasks only set flags and
+ * interrupt threads, they never run actions, so one thread serves any number of executions.
+ */
+final class Timers {
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private Timers() {
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "mage-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most deadlines are cancelled long before they fire, so they shouldn't pile up in the queue
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(task, delay, unit);
+    }
+}
@@ -0,0 +1,52 @@
+package tech.becloud.mage.graph;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Access to virtual threads without requiring a JDK supporting them at build time. Library targets Java 11, so
+ * {@code Thread.startVirtualThread()} is looked up at runtime and is available on Java 21 and later.
+ */
+public final class VirtualThreads {
+
+    private static final MethodHandle START_VIRTUAL_THREAD = lookupStartVirtualThread();
+
+    private VirtualThreads() {
+    }
+
+    private static MethodHandle lookupStartVirtualThread() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                    MethodType.methodType(Thread.class, Runnable.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if current JVM supports virtual threads
+     */
+    public static boolean isAvailable() {
+        return START_VIRTUAL_THREAD != null;
+    }
+
+    /**
+     * Starts a virtual thread executing given task
+     * @param task task to execute
+     * @return started thread
+     * @throws UnsupportedOperationException if current JVM doesn't support virtual threads
+     */
+    public static Thread start(Runnable task) {
+        if (START_VIRTUAL_THREAD == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        try {
+            return (Thread) START_VIRTUAL_THREAD.invokeExact(task);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to start virtual thread", e);
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package tech.becloud.mage.graph;
 
+import tech.becloud.mage.event.WorkflowEventBus;
+import tech.becloud.mage.instrumentation.WorkflowInstrumentation;
+import tech.becloud.mage.lease.Lease;
+import tech.becloud.mage.lease.LeaseException;
+import tech.becloud.mage.lease.LeaseManager;
 import tech.becloud.mage.model.UserContext;
 import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.WorkflowContextRepository;
 
+import java.time.Duration;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.function.BiConsumer;
 
 /**
@@ -24,6 +33,14 @@ public class Workflow<T extends UserContext> {
     private final Flow<T> flow;
     private WorkflowExceptionHandler<T> exceptionHandler;
     private BiConsumer<? super T, ExecutionState> completionHandler;
+    private Semaphore concurrencyLimiter;
+    private Executor continuationExecutor;
+    private WorkflowInstrumentation instrumentation;
+    private WorkflowEventBus eventBus;
+    private String serviceInstanceId;
+    private LeaseManager leaseManager;
+    private Duration leaseDuration;
+    private int schedulingWeight = 1;
 
     /**
      * @param name workflow name
@@ -47,59 +64,400 @@ public class Workflow<T extends UserContext> {
      */
     public WorkflowContext<T> createContext(T userContext) {
         final UUID executionId = Optional.ofNullable(userContext.getExecutionId()).orElseGet(UUID::randomUUID);
-        ExecutionContext<T> executionContext = new ExecutionContext<T>(id, version, executionId);
+        ExecutionContext<T> executionContext = new ExecutionContext<T>(id, version, executionId,
+                flow.getMaxSubflowDepth() + 1);
         userContext.setExecutionId(executionContext.getExecutionId());
         return new WorkflowContext<>(executionContext, userContext);
     }
 
     private void prepareContext(WorkflowContext<T> workflowContext) {
         final ExecutionContext<T> executionContext = workflowContext.getExecutionContext();
+        // runs in a thread unless it's scheduled step by step, flushing its own checkpoints unless started by a batch
+        executionContext.setStepScheduler(null, 0);
+        executionContext.setFlushDeferred(false);
         Optional.ofNullable(exceptionHandler).ifPresent(executionContext::setExceptionHandler);
         Optional.ofNullable(completionHandler).ifPresent(executionContext::setCompletionHandler);
+        Optional.ofNullable(continuationExecutor).ifPresent(executionContext::setContinuationExecutor);
+        Optional.ofNullable(instrumentation).ifPresent(executionContext::setInstrumentation);
+        Optional.ofNullable(eventBus).ifPresent(executionContext::setEventBus);
+        Optional.ofNullable(serviceInstanceId).ifPresent(executionContext::setServiceInstanceId);
+        if (leaseManager != null) {
+            claim(executionContext);
+        }
+    }
+
+    private void prepareStart(WorkflowContext<T> workflowContext) {
+        final ExecutionContext<T> executionContext = workflowContext.getExecutionContext();
+        executionContext.claimRun();
+        try {
+            prepareContext(workflowContext);
+        } catch (RuntimeException e) {
+            executionContext.releaseRun();
+            throw e;
+        }
+        executionContext.setExecutionPoint(flow.getStartNode());
+    }
+
+    /**
+     * Marks execution as being resumed before preparing it, so that only one of concurrent resumes proceeds.
+     * @return state execution was in before resume
+     * @throws IllegalStateException if execution is being resumed or canceled already, or it has stopped for good
+     */
+    private ExecutionState prepareResume(WorkflowContext<T> workflowContext) {
+        final ExecutionContext<T> executionContext = workflowContext.getExecutionContext();
+        ExecutionState previous = executionContext.beginResume();
+        try {
+            prepareContext(workflowContext);
+        } catch (RuntimeException e) {
+            executionContext.abortResume(previous);
+            throw e;
+        }
+        return previous;
+    }
+
+    private void claim(ExecutionContext<T> executionContext) {
+        Lease lease = leaseManager.claim(executionContext.getExecutionId(), serviceInstanceId, leaseDuration);
+        if (lease == null) {
+            Lease current = leaseManager.getLease(executionContext.getExecutionId());
+            throw new LeaseException(executionContext.getExecutionId(), String.format(
+                    "Execution %s is leased by %s", executionContext.getExecutionId(),
+                    current == null ? "another service instance" : current.getOwner()));
+        }
+        executionContext.setLease(lease, leaseManager, leaseDuration);
+    }
+
+    /**
+     * Undoes run that couldn't be submitted or has failed, releasing lease claimed for it along with the run.
+     */
+    private static void abortRun(ExecutionContext<?> executionContext) {
+        executionContext.releaseLease();
+        executionContext.releaseRun();
+    }
+
+    private void abortResume(ExecutionContext<T> executionContext, ExecutionState previous) {
+        executionContext.releaseLease();
+        executionContext.abortResume(previous);
+        // canceled while resume was being submitted
+        saveCanceled(executionContext);
+    }
+
+    private CompletableFuture<Void> submit(WorkflowContext<T> workflowContext, ExecutorService executorService) {
+        CompletableFuture<Void> run = workflowContext.getExecutionContext().startRun();
+        executorService.submit(new FlowCallable<>(flow, workflowContext, concurrencyLimiter));
+        return run;
     }
 
     /**
      * Starts a flow execution in a separate thread submitting it to provided {@link ExecutorService}
      * @param workflowContext an execution state, including data object to process with a flow
      * @param executorService {@link ExecutorService} that schedules flow execution to it's thread
-     * @return a {@link Future} representing result of execution; may be used to check for completion.
+     * @return a {@link CompletableFuture} representing result of execution; may be used to check for completion,
+     * failure or pause, including executions continued after asynchronous actions.
      * If flow terminates with an exception it's {@code get()} method will throw that exception.
      */
-    public Future<Void> start(WorkflowContext<T> workflowContext, ExecutorService executorService) {
-        prepareContext(workflowContext);
-        workflowContext.getExecutionContext().setExecutionPoint(flow.getStartNode());
-        return executorService.submit(new FlowCallable<>(flow, workflowContext));
+    public CompletableFuture<Void> start(WorkflowContext<T> workflowContext, ExecutorService executorService) {
+        return start(workflowContext, executorService, false);
     }
 
     /**
-     * Executes flow in current thread.
+     * @param flushDeferred {@code true} if checkpoints of this run are flushed by the caller, e.g. by a batch,
+     *                      rather than when execution pauses or terminates
+     */
+    CompletableFuture<Void> start(WorkflowContext<T> workflowContext, ExecutorService executorService,
+                                  boolean flushDeferred) {
+        prepareStart(workflowContext);
+        workflowContext.getExecutionContext().setFlushDeferred(flushDeferred);
+        try {
+            return submit(workflowContext, executorService);
+        } catch (RuntimeException e) {
+            abortRun(workflowContext.getExecutionContext());
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a flow execution on a {@link StepScheduler}, which runs it step by step interleaved with other
+     * executions rather than in a thread of its own. {@link #setMaxConcurrentExecutions(int) Concurrency limit}
+     * doesn't apply, the number of steps running at once is limited by scheduler parallelism.
+     * @param workflowContext an execution state, including data object to process with a flow
+     * @param stepScheduler scheduler to run execution on
+     * @return a {@link CompletableFuture} representing result of execution, see
+     * {@link #start(WorkflowContext, ExecutorService)}
+     * @throws java.util.concurrent.RejectedExecutionException if scheduler is closed
+     */
+    public CompletableFuture<Void> start(WorkflowContext<T> workflowContext, StepScheduler stepScheduler) {
+        prepareStart(workflowContext);
+        try {
+            return schedule(workflowContext, stepScheduler);
+        } catch (RuntimeException e) {
+            abortRun(workflowContext.getExecutionContext());
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a flow execution in a new virtual thread, so blocking calls made by actions don't hold a platform
+     * thread. Requires Java 21 or later, see {@link VirtualThreads#isAvailable()}.
+     * @param workflowContext an execution state, including data object to process with a flow
+     * @return a {@link CompletableFuture} representing result of execution.
+     * @throws UnsupportedOperationException if current JVM doesn't support virtual threads
+     */
+    public CompletableFuture<Void> startOnVirtualThread(WorkflowContext<T> workflowContext) {
+        prepareStart(workflowContext);
+        try {
+            return runOnVirtualThread(workflowContext);
+        } catch (RuntimeException e) {
+            abortRun(workflowContext.getExecutionContext());
+            throw e;
+        }
+    }
+
+    /**
+     * Executes flow in current thread. If flow contains asynchronous actions, returns once an action that isn't
+     * completed yet is awaited; execution then continues in a thread completing the action or in continuation
+     * executor, see {@link #setContinuationExecutor(Executor)}.
      * @param workflowContext an execution state, including data object to process with a flow
      */
     public void start(WorkflowContext<T> workflowContext) {
-        prepareContext(workflowContext);
-        workflowContext.getExecutionContext().setExecutionPoint(flow.getStartNode());
-        flow.accept(workflowContext);
+        prepareStart(workflowContext);
+        run(workflowContext);
     }
 
     /**
      * Resumes a flow execution in a separate thread submitting it to provided {@link ExecutorService}
      * @param workflowContext an execution state, including data object to process with a flow
      * @param executorService {@link ExecutorService} that schedules flow execution to it's thread
-     * @return a {@link Future} representing result of execution; may be used to check for completion.
+     * @return a {@link CompletableFuture} representing result of execution; may be used to check for completion,
+     * failure or pause, including executions continued after asynchronous actions.
      * If flow terminates with an exception it's {@code get()} method will throw that exception.
+     * @throws IllegalStateException if execution is being resumed or canceled already, or it has stopped for good
+     */
+    public CompletableFuture<Void> resume(WorkflowContext<T> workflowContext, ExecutorService executorService) {
+        ExecutionState previous = prepareResume(workflowContext);
+        try {
+            return submit(workflowContext, executorService);
+        } catch (RuntimeException e) {
+            abortResume(workflowContext.getExecutionContext(), previous);
+            throw e;
+        }
+    }
+
+    /**
+     * Resumes a flow execution on a {@link StepScheduler}, see {@link #start(WorkflowContext, StepScheduler)}.
+     * @param workflowContext an execution state, including data object to process with a flow
+     * @param stepScheduler scheduler to run execution on
+     * @return a {@link CompletableFuture} representing result of execution.
+     * @throws IllegalStateException if execution is being resumed or canceled already, or it has stopped for good
      */
-    public Future<Void> resume(WorkflowContext<T> workflowContext, ExecutorService executorService) {
-        prepareContext(workflowContext);
-        return executorService.submit(new FlowCallable<>(flow, workflowContext));
+    public CompletableFuture<Void> resume(WorkflowContext<T> workflowContext, StepScheduler stepScheduler) {
+        ExecutionState previous = prepareResume(workflowContext);
+        try {
+            return schedule(workflowContext, stepScheduler);
+        } catch (RuntimeException e) {
+            abortResume(workflowContext.getExecutionContext(), previous);
+            throw e;
+        }
+    }
+
+    /**
+     * Resumes a flow execution in a new virtual thread. Requires Java 21 or later,
+     * see {@link VirtualThreads#isAvailable()}.
+     * @param workflowContext an execution state, including data object to process with a flow
+     * @return a {@link CompletableFuture} representing result of execution.
+     * @throws UnsupportedOperationException if current JVM doesn't support virtual threads
+     * @throws IllegalStateException if execution is being resumed or canceled already, or it has stopped for good
+     */
+    public CompletableFuture<Void> resumeOnVirtualThread(WorkflowContext<T> workflowContext) {
+        ExecutionState previous = prepareResume(workflowContext);
+        try {
+            return runOnVirtualThread(workflowContext);
+        } catch (RuntimeException e) {
+            abortResume(workflowContext.getExecutionContext(), previous);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Void> schedule(WorkflowContext<T> workflowContext, StepScheduler stepScheduler) {
+        ExecutionContext<T> executionContext = workflowContext.getExecutionContext();
+        // scheduler continues this run after asynchronous actions unless there is a continuation executor
+        executionContext.setStepScheduler(stepScheduler, schedulingWeight);
+        CompletableFuture<Void> run = executionContext.startRun();
+        FlowCallable<T> callable = new FlowCallable<>(flow, workflowContext);
+        stepScheduler.execute(() -> {
+            try {
+                callable.call();
+            } catch (Exception e) {
+                // already delivered to run future
+            }
+        });
+        return run;
+    }
+
+    private CompletableFuture<Void> runOnVirtualThread(WorkflowContext<T> workflowContext) {
+        CompletableFuture<Void> run = workflowContext.getExecutionContext().startRun();
+        FlowCallable<T> callable = new FlowCallable<>(flow, workflowContext, concurrencyLimiter);
+        VirtualThreads.start(() -> {
+            try {
+                callable.call();
+            } catch (Exception e) {
+                // already delivered to run future
+            }
+        });
+        return run;
     }
 
     /**
-     * Resumes a flow execution in a current thread.
+     * Resumes a flow execution in a current thread. Asynchronous actions are handled as described in
+     * {@link #start(WorkflowContext)}.
      * @param workflowContext an execution state, including data object to process with a flow
+     * @throws IllegalStateException if execution is being resumed or canceled already, or it has stopped for good
      */
     public void resume(WorkflowContext<T> workflowContext) {
-        prepareContext(workflowContext);
-        flow.accept(workflowContext);
+        prepareResume(workflowContext);
+        run(workflowContext);
+    }
+
+    /**
+     * Requests cancellation of execution, see {@link ExecutionContext#requestCancel()}. Execution which isn't
+     * running, e.g. paused one loaded from repository, is canceled at once and its state is saved to repository of
+     * the flow, so that it isn't resumed on recovery; running execution saves it once it stops.
+     * @param workflowContext execution to cancel
+     * @return future completed once execution has stopped
+     */
+    public CompletableFuture<Void> cancel(WorkflowContext<T> workflowContext) {
+        ExecutionContext<T> executionContext = workflowContext.getExecutionContext();
+        CompletableFuture<Void> stopped = executionContext.requestCancel();
+        if (stopped.isDone()) {
+            saveCanceled(executionContext);
+        }
+        return stopped;
+    }
+
+    /**
+     * Saves cancellation of execution nothing runs, which flow doesn't save as it doesn't see it.
+     */
+    private void saveCanceled(ExecutionContext<T> executionContext) {
+        WorkflowContextRepository<T> repository = flow.getWorkflowContextRepository();
+        if (repository != null && executionContext.getExecutionState() == ExecutionState.CANCELED) {
+            repository.saveExecutionContext(executionContext);
+            repository.flush(executionContext.getExecutionId());
+        }
+    }
+
+    private void run(WorkflowContext<T> workflowContext) {
+        try {
+            flow.accept(workflowContext);
+        } catch (RuntimeException | Error e) {
+            abortRun(workflowContext.getExecutionContext());
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return id;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public Flow<T> getFlow() {
+        return flow;
+    }
+
+    /**
+     * Limits number of executions of this workflow running concurrently when started or resumed asynchronously.
+     * Executions over the limit wait for a permit in their thread, which is cheap for virtual threads; with a pool of
+     * platform threads waiting executions occupy pool threads. Executions awaiting asynchronous actions release
+     * their permits.
+     * <p>
+     * The limit applies to the part of a run up to the first awaited asynchronous action or retry delay only:
+     * continuations after them run without a permit, as they run in a thread completing the action or in
+     * continuation executor, which shouldn't be blocked. Bound them with a continuation executor having a limited
+     * number of threads, see {@link #setContinuationExecutor(Executor)}. Should be set before executions are
+     * started.
+     * @param maxConcurrentExecutions maximum number of concurrently running executions, 0 means no limit
+     */
+    public void setMaxConcurrentExecutions(int maxConcurrentExecutions) {
+        if (maxConcurrentExecutions < 0) {
+            throw new IllegalArgumentException("maxConcurrentExecutions can't be negative");
+        }
+        this.concurrencyLimiter = maxConcurrentExecutions == 0 ? null : new Semaphore(maxConcurrentExecutions);
+    }
+
+    /**
+     * Sets a number of steps an execution of this workflow runs in a turn on {@link StepScheduler} before it yields
+     * to other executions, which is a share of scheduler time this workflow gets relative to others. Steps of
+     * the main flow are counted; a subflow, a parallel step or a chain of steps persisting nothing counts as one.
+     * Should be set before executions are started.
+     * @param schedulingWeight number of steps per turn, 1 by default
+     */
+    public void setSchedulingWeight(int schedulingWeight) {
+        if (schedulingWeight < 1) {
+            throw new IllegalArgumentException("schedulingWeight must be positive");
+        }
+        this.schedulingWeight = schedulingWeight;
+    }
+
+    /**
+     * Sets an executor to continue executions on once awaited asynchronous actions complete. By default execution
+     * continues in a thread completing the action, which is typically an I/O thread of a client library.
+     * @param continuationExecutor executor to continue executions on
+     */
+    public void setContinuationExecutor(Executor continuationExecutor) {
+        this.continuationExecutor = continuationExecutor;
+    }
+
+    /**
+     * Sets instrumentation receiving timings of executions of this workflow, their steps and context persistence.
+     * @param instrumentation instrumentation to use, {@link WorkflowInstrumentation#NOOP} by default
+     */
+    public void setInstrumentation(WorkflowInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Sets a bus to publish lifecycle events of executions of this workflow to. Events are handed over to listeners
+     * running in their own threads, unlike completion and exception handlers called in execution thread.
+     * @param eventBus bus to publish events to
+     */
+    public void setEventBus(WorkflowEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * Sets an identifier of this service instance, assigned to executions it starts or resumes.
+     * See {@link ExecutionContext#getServiceInstanceId()}.
+     * @param serviceInstanceId service instance identifier
+     */
+    public void setServiceInstanceId(String serviceInstanceId) {
+        this.serviceInstanceId = serviceInstanceId;
+    }
+
+    /**
+     * Makes executions of this workflow leased: an execution is claimed for this service instance on start or
+     * resume, and start or resume fails with {@link LeaseException} if another instance holds a live lease.
+     * While the run holds the lease, it's renewed in background every half of lease duration, including time
+     * execution awaits an asynchronous action, parallel branches or a retry delay. If it's lost, e.g. taken over
+     * after renewals of this instance failed, execution stops before its next step without saving further
+     * checkpoints and its run completes with {@link LeaseException}. Lease is released once execution completes,
+     * fails or pauses. Requires service instance id to be set.
+     * <p>
+     * Checkpoints of a former owner are rejected only by repositories that enforce fencing tokens, see
+     * {@link ExecutionContext#getFencingToken()}.
+     * @param leaseManager lease manager shared by service instances
+     * @param leaseDuration time a lease is valid for unless renewed, positive; should leave time for a renewal
+     *                      to be retried once lease manager is unavailable
+     */
+    public void setLeaseManager(LeaseManager leaseManager, Duration leaseDuration) {
+        if (leaseManager != null && serviceInstanceId == null) {
+            throw new IllegalStateException("Service instance id must be set to lease executions");
+        }
+        if (leaseManager != null && (leaseDuration == null || leaseDuration.isNegative() || leaseDuration.isZero())) {
+            throw new IllegalArgumentException("Lease duration must be positive");
+        }
+        this.leaseManager = leaseManager;
+        this.leaseDuration = leaseDuration;
     }
 
     /**
@@ -0,0 +1,314 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.WorkflowContextRepository;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Runs executions of a workflow for a large number of data objects, e.g. for every record of a nightly job.
+ * Data objects are taken from supplied source only when an execution may start, so that the number of executions
+ * in flight is limited and neither data objects nor submitted tasks pile up in memory however large the source is.
+ * <p>
+ * Executions don't flush their checkpoints one by one when they terminate or pause; instead the flow's repository
+ * is flushed once the batch finishes, see {@link WorkflowContextRepository#flush()}. Combined with
+ * {@link tech.becloud.mage.persistence.WriteBehindWorkflowContextRepository} checkpoints are written in batches.
+ * <p>
+ * Outcome is reported as a number of executions per final state, with a random sample of failures.
+ * @param <T> type of flow data object
+ */
+public class WorkflowBatch<T extends UserContext> {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    public static final int DEFAULT_FAILURE_SAMPLE_SIZE = 10;
+
+    private final Workflow<T> workflow;
+    private final ExecutorService executorService;
+    private int maxInFlight;
+    private int failureSampleSize;
+
+    /**
+     * @param workflow workflow to execute
+     * @param executorService executor to run executions on
+     */
+    public WorkflowBatch(Workflow<T> workflow, ExecutorService executorService) {
+        this.workflow = workflow;
+        this.executorService = executorService;
+        this.maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        this.failureSampleSize = DEFAULT_FAILURE_SAMPLE_SIZE;
+    }
+
+    /**
+     * @param maxInFlight maximum number of executions running at once; an execution awaiting an asynchronous action
+     *                    counts as running
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param failureSampleSize maximum number of failures kept in report
+     */
+    public void setFailureSampleSize(int failureSampleSize) {
+        if (failureSampleSize < 0) {
+            throw new IllegalArgumentException("failureSampleSize can't be negative");
+        }
+        this.failureSampleSize = failureSampleSize;
+    }
+
+    /**
+     * Starts executions for data objects of given source in a new thread. The source is consumed by that thread.
+     * @param source data objects to process
+     * @return future completed once executions for all data objects have been started and their runs have finished,
+     * i.e. executions completed, failed, paused or were canceled; cancelling it stops starting further executions.
+     * If the source throws, no further executions are started and the future completes exceptionally once the ones
+     * started have finished and the repository has been flushed.
+     */
+    public CompletableFuture<BatchReport> run(Iterator<? extends T> source) {
+        CompletableFuture<BatchReport> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> run(source, result), "mage-batch");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Starts executions for data objects of given stream, see {@link #run(Iterator)}. Stream is consumed lazily.
+     * @param source data objects to process
+     * @return future completed once all executions have finished
+     */
+    public CompletableFuture<BatchReport> run(Stream<? extends T> source) {
+        return run(source.iterator());
+    }
+
+    /**
+     * Starts executions for data objects of given spliterator, see {@link #run(Iterator)}.
+     * @param source data objects to process
+     * @return future completed once all executions have finished
+     */
+    public CompletableFuture<BatchReport> run(Spliterator<? extends T> source) {
+        return run(Spliterators.iterator(source));
+    }
+
+    private void run(Iterator<? extends T> source, CompletableFuture<BatchReport> result) {
+        final int concurrency = maxInFlight;
+        Semaphore permits = new Semaphore(concurrency);
+        Tally tally = new Tally(failureSampleSize);
+        try {
+            RuntimeException sourceFailure = null;
+            try {
+                startAll(source, result, permits, tally);
+            } catch (RuntimeException e) {
+                // executions started so far still finish and get flushed before failure is reported
+                sourceFailure = e;
+            }
+            // all permits are back once all runs have finished
+            permits.acquire(concurrency);
+            WorkflowContextRepository<T> repository = workflow.getFlow().getWorkflowContextRepository();
+            if (repository != null) {
+                repository.flush();
+            }
+            if (sourceFailure != null) {
+                result.completeExceptionally(sourceFailure);
+            } else {
+                result.complete(tally.report());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void startAll(Iterator<? extends T> source, CompletableFuture<BatchReport> result, Semaphore permits,
+                          Tally tally) throws InterruptedException {
+        while (!result.isDone() && source.hasNext()) {
+            T userContext = source.next();
+            permits.acquire();
+            WorkflowContext<T> context = workflow.createContext(userContext);
+            ExecutionContext<T> execution = context.getExecutionContext();
+            CompletableFuture<Void> run;
+            try {
+                run = workflow.start(context, executorService, true);
+            } catch (RuntimeException e) {
+                // e.g. leased by another service instance or rejected by executor
+                permits.release();
+                tally.rejected(execution, e);
+                continue;
+            }
+            run.whenComplete((nothing, e) -> {
+                tally.finished(execution, e);
+                permits.release();
+            });
+        }
+    }
+
+    /**
+     * Counts finished executions and keeps a uniform random sample of failures, so the sample represents the whole
+     * batch rather than its beginning.
+     */
+    private static final class Tally {
+        private final LongAdder[] counts;
+        private final LongAdder rejected;
+        private final int sampleSize;
+        private final List<Failure> sample;
+        private long failures;
+
+        Tally(int sampleSize) {
+            this.counts = new LongAdder[ExecutionState.values().length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+            this.rejected = new LongAdder();
+            this.sampleSize = sampleSize;
+            this.sample = new ArrayList<>(sampleSize);
+        }
+
+        void rejected(ExecutionContext<?> execution, Throwable e) {
+            rejected.increment();
+            sample(new Failure(execution.getExecutionId(), null, e));
+        }
+
+        void finished(ExecutionContext<?> execution, Throwable e) {
+            ExecutionState state = e != null ? ExecutionState.FAILED : execution.getExecutionState();
+            counts[state.ordinal()].increment();
+            if (state == ExecutionState.FAILED) {
+                sample(new Failure(execution.getExecutionId(), execution.getExecutionPoint(),
+                        e != null ? e : execution.getFailure()));
+            }
+        }
+
+        private synchronized void sample(Failure failure) {
+            failures++;
+            if (sample.size() < sampleSize) {
+                sample.add(failure);
+            } else if (sampleSize > 0) {
+                long index = ThreadLocalRandom.current().nextLong(failures);
+                if (index < sampleSize) {
+                    sample.set((int) index, failure);
+                }
+            }
+        }
+
+        synchronized BatchReport report() {
+            Map<ExecutionState, Long> states = new EnumMap<>(ExecutionState.class);
+            for (ExecutionState state : ExecutionState.values()) {
+                long count = counts[state.ordinal()].sum();
+                if (count > 0) {
+                    states.put(state, count);
+                }
+            }
+            return new BatchReport(states, rejected.sum(), List.copyOf(sample));
+        }
+    }
+
+    /**
+     * Outcome of a batch.
+     */
+    public static final class BatchReport {
+        private final Map<ExecutionState, Long> states;
+        private final long rejected;
+        private final List<Failure> failures;
+
+        BatchReport(Map<ExecutionState, Long> states, long rejected, List<Failure> failures) {
+            this.states = states;
+            this.rejected = rejected;
+            this.failures = failures;
+        }
+
+        /**
+         * @param state final state of execution
+         * @return number of executions finished in given state, e.g. {@link ExecutionState#COMPLETED}; execution
+         * which run has thrown counts as {@link ExecutionState#FAILED}
+         */
+        public long getCount(ExecutionState state) {
+            return states.getOrDefault(state, 0L);
+        }
+
+        /**
+         * @return number of executions started
+         */
+        public long getStarted() {
+            long started = 0;
+            for (long count : states.values()) {
+                started += count;
+            }
+            return started;
+        }
+
+        /**
+         * @return number of executions that couldn't be started, e.g. as executor has rejected them
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return random sample of failed and rejected executions
+         */
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("started %d, rejected %d, by state %s", getStarted(), rejected, states);
+        }
+    }
+
+    /**
+     * Failed or rejected execution.
+     */
+    public static final class Failure {
+        private final UUID executionId;
+        private final String executionPoint;
+        private final Throwable exception;
+
+        Failure(UUID executionId, String executionPoint, Throwable exception) {
+            this.executionId = executionId;
+            this.executionPoint = executionPoint;
+            this.exception = exception;
+        }
+
+        public UUID getExecutionId() {
+            return executionId;
+        }
+
+        /**
+         * @return path to the step execution has failed at, see {@link ExecutionContext#getExecutionPoint()};
+         * {@code null} if execution was rejected
+         */
+        public String getExecutionPoint() {
+            return executionPoint;
+        }
+
+        /**
+         * @return exception execution has failed or was rejected with, if known
+         */
+        public Throwable getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at %s: %s", executionId, executionPoint, exception);
+        }
+    }
+}
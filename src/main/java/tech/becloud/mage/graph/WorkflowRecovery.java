@@ -0,0 +1,261 @@
+package tech.becloud.mage.graph;
+
+import tech.becloud.mage.lease.Lease;
+import tech.becloud.mage.lease.LeaseException;
+import tech.becloud.mage.lease.LeaseManager;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.WorkflowContextRepository;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Resumes executions left by a service instance, e.g. by this instance before restart or by a failed one.
+ * Executions are loaded from repository page by page, see {@link WorkflowContextRepository#findExecutions}, and
+ * resumed on supplied executor. Both the number of resumed executions running at once and the rate of resumes are
+ * limited, so that thousands of executions recovered at once don't overload services called by flows.
+ * <p>
+ * Executions of workflows not registered here, without saved user context, or leased by another service instance
+ * are skipped.
+ * @param <T> type of flow data object
+ */
+public class WorkflowRecovery<T extends UserContext> {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int DEFAULT_MAX_CONCURRENT_RESUMES = 64;
+
+    private final WorkflowContextRepository<T> repository;
+    private final ExecutorService executorService;
+    private final Map<String, Workflow<T>> workflows;
+    private Set<ExecutionState> states;
+    private int pageSize;
+    private int maxConcurrentResumes;
+    private double maxResumesPerSecond;
+
+    /**
+     * @param repository repository to load executions from
+     * @param executorService executor to resume executions on
+     */
+    public WorkflowRecovery(WorkflowContextRepository<T> repository, ExecutorService executorService) {
+        this.repository = repository;
+        this.executorService = executorService;
+        this.workflows = new ConcurrentHashMap<>();
+        this.states = EnumSet.of(ExecutionState.PAUSED, ExecutionState.RUNNING, ExecutionState.PAUSING);
+        this.pageSize = DEFAULT_PAGE_SIZE;
+        this.maxConcurrentResumes = DEFAULT_MAX_CONCURRENT_RESUMES;
+    }
+
+    /**
+     * Registers workflow, so its executions are resumed.
+     * @param workflow workflow to register
+     * @return this recovery
+     */
+    public WorkflowRecovery<T> register(Workflow<T> workflow) {
+        workflows.put(key(workflow.getName(), workflow.getVersion()), workflow);
+        return this;
+    }
+
+    /**
+     * @param states states of executions to resume, {@link ExecutionState#PAUSED}, {@link ExecutionState#RUNNING}
+     *               and {@link ExecutionState#PAUSING} by default
+     */
+    public void setStates(Set<ExecutionState> states) {
+        this.states = EnumSet.copyOf(states);
+    }
+
+    /**
+     * @param pageSize number of executions loaded from repository at once
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param maxConcurrentResumes maximum number of resumed executions running at once; an execution awaiting
+     *                             an asynchronous action counts as running
+     */
+    public void setMaxConcurrentResumes(int maxConcurrentResumes) {
+        if (maxConcurrentResumes < 1) {
+            throw new IllegalArgumentException("maxConcurrentResumes must be positive");
+        }
+        this.maxConcurrentResumes = maxConcurrentResumes;
+    }
+
+    /**
+     * @param maxResumesPerSecond maximum rate of resumes, 0 means no limit
+     */
+    public void setMaxResumesPerSecond(double maxResumesPerSecond) {
+        if (maxResumesPerSecond < 0) {
+            throw new IllegalArgumentException("maxResumesPerSecond can't be negative");
+        }
+        this.maxResumesPerSecond = maxResumesPerSecond;
+    }
+
+    /**
+     * Starts recovery in a new thread.
+     * @param serviceInstanceId service instance which executions to resume, {@code null} for executions
+     *                          without owner
+     * @return future completed once all executions are resumed and their runs have finished, i.e. executions
+     * completed, failed or paused again; cancelling it stops resuming further executions
+     */
+    public CompletableFuture<RecoveryReport> recover(String serviceInstanceId) {
+        return start(after -> repository.findExecutions(serviceInstanceId, states, after, pageSize));
+    }
+
+    /**
+     * Starts taking over executions which leases have expired, e.g. as their owner has failed, in a new thread.
+     * Workflows should use the same lease manager, so that resume claims an execution for this instance; executions
+     * claimed by another instance in the meantime are skipped.
+     * @param leaseManager lease manager to find expired leases with
+     * @return future completed once all executions are resumed and their runs have finished
+     */
+    public CompletableFuture<RecoveryReport> takeOverExpired(LeaseManager leaseManager) {
+        return start(after -> {
+            List<Lease> leases = leaseManager.findExpired(after, pageSize);
+            List<WorkflowContext<T>> page = new ArrayList<>(leases.size());
+            for (Lease lease : leases) {
+                WorkflowContext<T> context = repository.load(lease.getExecutionId());
+                // an execution without checkpoints keeps its place in the page and is counted as skipped
+                page.add(context == null ? new WorkflowContext<>(new ExecutionContext<>(null, 0,
+                        lease.getExecutionId()), null) : context);
+            }
+            return page;
+        });
+    }
+
+    private CompletableFuture<RecoveryReport> start(Function<UUID, List<WorkflowContext<T>>> pages) {
+        CompletableFuture<RecoveryReport> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> run(pages, result), "mage-recovery");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    private void run(Function<UUID, List<WorkflowContext<T>>> pages, CompletableFuture<RecoveryReport> result) {
+        final int concurrency = maxConcurrentResumes;
+        final long interval = maxResumesPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxResumesPerSecond) : 0;
+        Semaphore permits = new Semaphore(concurrency);
+        AtomicInteger failed = new AtomicInteger();
+        int resumed = 0;
+        int skipped = 0;
+        long nextResume = System.nanoTime();
+        try {
+            UUID after = null;
+            List<WorkflowContext<T>> page;
+            do {
+                page = pages.apply(after);
+                for (WorkflowContext<T> context : page) {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    ExecutionContext<T> execution = context.getExecutionContext();
+                    after = execution.getExecutionId();
+                    Workflow<T> workflow = workflows.get(key(execution.getWorkflowName(),
+                            execution.getWorkflowVersion()));
+                    if (workflow == null || context.getUserContext() == null) {
+                        skipped++;
+                        continue;
+                    }
+                    if (interval > 0) {
+                        // no burst after falling behind, e.g. while waiting for a permit
+                        long now = System.nanoTime();
+                        if (nextResume > now) {
+                            TimeUnit.NANOSECONDS.sleep(nextResume - now);
+                            now = nextResume;
+                        }
+                        nextResume = now + interval;
+                    }
+                    permits.acquire();
+                    CompletableFuture<Void> run;
+                    try {
+                        run = workflow.resume(context, executorService);
+                    } catch (LeaseException e) {
+                        // owned by another service instance
+                        permits.release();
+                        skipped++;
+                        continue;
+                    } catch (RuntimeException e) {
+                        permits.release();
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                    resumed++;
+                    run.whenComplete((nothing, e) -> {
+                        if (e != null || execution.getExecutionState() == ExecutionState.FAILED) {
+                            failed.incrementAndGet();
+                        }
+                        permits.release();
+                    });
+                }
+            } while (page.size() == pageSize);
+            // all permits are back once all runs have finished
+            permits.acquire(concurrency);
+            result.complete(new RecoveryReport(resumed, failed.get(), skipped));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static String key(String name, int version) {
+        return name + ':' + version;
+    }
+
+    /**
+     * Outcome of recovery.
+     */
+    public static final class RecoveryReport {
+        private final int resumed;
+        private final int failed;
+        private final int skipped;
+
+        RecoveryReport(int resumed, int failed, int skipped) {
+            this.resumed = resumed;
+            this.failed = failed;
+            this.skipped = skipped;
+        }
+
+        /**
+         * @return number of executions resumed
+         */
+        public int getResumed() {
+            return resumed;
+        }
+
+        /**
+         * @return number of executions which resumed run failed, or which couldn't be submitted to executor
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return number of executions skipped, as their workflow isn't registered, user context isn't saved, or
+         * they are leased by another service instance
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("resumed %d, failed %d, skipped %d", resumed, failed, skipped);
+        }
+    }
+}
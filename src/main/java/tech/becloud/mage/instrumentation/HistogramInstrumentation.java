@@ -0,0 +1,86 @@
+package tech.becloud.mage.instrumentation;
+
+import tech.becloud.mage.persistence.PersistContextScope;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Instrumentation collecting timings in {@link Histogram}s per workflow version, step and persistence call.
+ * Lookup of histograms doesn't allocate once they are created, so it is suitable for production use.
+ */
+public class HistogramInstrumentation implements WorkflowInstrumentation {
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, WorkflowMetrics>> workflows =
+            new ConcurrentHashMap<>();
+
+    private WorkflowMetrics metrics(String workflowName, int workflowVersion) {
+        ConcurrentHashMap<Integer, WorkflowMetrics> versions = workflows.get(workflowName);
+        if (versions == null) {
+            versions = workflows.computeIfAbsent(workflowName, name -> new ConcurrentHashMap<>());
+        }
+        WorkflowMetrics metrics = versions.get(workflowVersion);
+        if (metrics == null) {
+            metrics = versions.computeIfAbsent(workflowVersion, version -> new WorkflowMetrics(workflowName, version));
+        }
+        return metrics;
+    }
+
+    @Override
+    public void workflowStarted(String workflowName, int workflowVersion) {
+        metrics(workflowName, workflowVersion).recordStart();
+    }
+
+    @Override
+    public void workflowCompleted(String workflowName, int workflowVersion, long durationNanos) {
+        metrics(workflowName, workflowVersion).getCompleted().record(durationNanos);
+    }
+
+    @Override
+    public void workflowFailed(String workflowName, int workflowVersion, long durationNanos) {
+        metrics(workflowName, workflowVersion).getFailed().record(durationNanos);
+    }
+
+    @Override
+    public void workflowPaused(String workflowName, int workflowVersion, long durationNanos) {
+        metrics(workflowName, workflowVersion).getPaused().record(durationNanos);
+    }
+
+    @Override
+    public void workflowCanceled(String workflowName, int workflowVersion, long durationNanos) {
+        metrics(workflowName, workflowVersion).getCanceled().record(durationNanos);
+    }
+
+    @Override
+    public void nodeExecuted(String workflowName, int workflowVersion, String nodeId, long durationNanos) {
+        metrics(workflowName, workflowVersion).nodeHistogram(nodeId).record(durationNanos);
+    }
+
+    @Override
+    public void contextPersisted(String workflowName, int workflowVersion, String nodeId, PersistContextScope scope,
+                                 long durationNanos) {
+        metrics(workflowName, workflowVersion).persistenceHistogram(nodeId).record(durationNanos);
+    }
+
+    /**
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @return metrics of given workflow version, {@code null} if nothing recorded for it yet
+     */
+    public WorkflowMetrics getMetrics(String workflowName, int workflowVersion) {
+        ConcurrentHashMap<Integer, WorkflowMetrics> versions = workflows.get(workflowName);
+        return versions == null ? null : versions.get(workflowVersion);
+    }
+
+    /**
+     * @return metrics of all workflow versions recorded so far
+     */
+    public Collection<WorkflowMetrics> getMetrics() {
+        List<WorkflowMetrics> all = new ArrayList<>();
+        workflows.values().forEach(versions -> all.addAll(versions.values()));
+        return Collections.unmodifiableList(all);
+    }
+}
@@ -0,0 +1,88 @@
+package tech.becloud.mage.instrumentation;
+
+import tech.becloud.mage.persistence.PersistContextScope;
+
+/**
+ * Receives timings of workflow executions, their steps and context persistence. Events are keyed by workflow name,
+ * version and step (node) id; step ids of subflows are reported as is, without a path of subflow steps.
+ * <p>
+ * Methods are called in execution threads, so implementations must be thread safe and cheap. All methods do
+ * nothing by default. Timing is skipped altogether when {@link #NOOP} is used.
+ */
+public interface WorkflowInstrumentation {
+
+    /**
+     * Instrumentation doing nothing, default for all workflows.
+     */
+    WorkflowInstrumentation NOOP = new WorkflowInstrumentation() {
+    };
+
+    /**
+     * Called when execution starts or resumes, but not when it continues after an asynchronous action.
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     */
+    default void workflowStarted(String workflowName, int workflowVersion) {
+    }
+
+    /**
+     * Called when execution completes.
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @param durationNanos time since execution was started or resumed, including time awaiting asynchronous actions
+     */
+    default void workflowCompleted(String workflowName, int workflowVersion, long durationNanos) {
+    }
+
+    /**
+     * Called when execution fails with an exception not routed by any step.
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @param durationNanos time since execution was started or resumed, including time awaiting asynchronous actions
+     */
+    default void workflowFailed(String workflowName, int workflowVersion, long durationNanos) {
+    }
+
+    /**
+     * Called when execution pauses, either on request or at a pause point, or because its lease is lost. Resumed
+     * execution is reported by {@link #workflowStarted} again.
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @param durationNanos time since execution was started or resumed, including time awaiting asynchronous actions
+     */
+    default void workflowPaused(String workflowName, int workflowVersion, long durationNanos) {
+    }
+
+    /**
+     * Called when execution is canceled while running or awaiting an asynchronous action.
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @param durationNanos time since execution was started or resumed, including time awaiting asynchronous actions
+     */
+    default void workflowCanceled(String workflowName, int workflowVersion, long durationNanos) {
+    }
+
+    /**
+     * Called when a step is executed, either successfully or not. Time of subflow step includes execution of
+     * the subflow; time of asynchronous, parallel or retried step includes time the step awaits its actions and
+     * retry delays. A step suspended when execution pauses or is canceled is not reported.
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @param nodeId step (node) id
+     * @param durationNanos step execution time
+     */
+    default void nodeExecuted(String workflowName, int workflowVersion, String nodeId, long durationNanos) {
+    }
+
+    /**
+     * Called when context is saved to repository after a step.
+     * @param workflowName workflow name
+     * @param workflowVersion workflow version
+     * @param nodeId id of step (node) after which context is saved
+     * @param scope part of context saved
+     * @param durationNanos time taken by repository
+     */
+    default void contextPersisted(String workflowName, int workflowVersion, String nodeId, PersistContextScope scope,
+                                  long durationNanos) {
+    }
+}
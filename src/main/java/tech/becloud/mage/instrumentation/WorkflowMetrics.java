@@ -0,0 +1,107 @@
+package tech.becloud.mage.instrumentation;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single workflow version collected by {@link HistogramInstrumentation}.
+ */
+public class WorkflowMetrics {
+    private final String workflowName;
+    private final int workflowVersion;
+    private final LongAdder started;
+    private final Histogram completed;
+    private final Histogram failed;
+    private final Histogram paused;
+    private final Histogram canceled;
+    private final ConcurrentHashMap<String, Histogram> nodes;
+    private final ConcurrentHashMap<String, Histogram> persistence;
+
+    WorkflowMetrics(String workflowName, int workflowVersion) {
+        this.workflowName = workflowName;
+        this.workflowVersion = workflowVersion;
+        this.started = new LongAdder();
+        this.completed = new Histogram();
+        this.failed = new Histogram();
+        this.paused = new Histogram();
+        this.canceled = new Histogram();
+        this.nodes = new ConcurrentHashMap<>();
+        this.persistence = new ConcurrentHashMap<>();
+    }
+
+    void recordStart() {
+        started.increment();
+    }
+
+    static Histogram histogram(ConcurrentHashMap<String, Histogram> histograms, String nodeId) {
+        Histogram histogram = histograms.get(nodeId);
+        return histogram != null ? histogram : histograms.computeIfAbsent(nodeId, id -> new Histogram());
+    }
+
+    Histogram nodeHistogram(String nodeId) {
+        return histogram(nodes, nodeId);
+    }
+
+    Histogram persistenceHistogram(String nodeId) {
+        return histogram(persistence, nodeId);
+    }
+
+    public String getWorkflowName() {
+        return workflowName;
+    }
+
+    public int getWorkflowVersion() {
+        return workflowVersion;
+    }
+
+    /**
+     * @return number of executions started or resumed
+     */
+    public long getStartedCount() {
+        return started.sum();
+    }
+
+    /**
+     * @return durations of completed executions
+     */
+    public Histogram getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return durations of failed executions
+     */
+    public Histogram getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return durations of runs ended by pause
+     */
+    public Histogram getPaused() {
+        return paused;
+    }
+
+    /**
+     * @return durations of canceled executions, counting from the last start or resume
+     */
+    public Histogram getCanceled() {
+        return canceled;
+    }
+
+    /**
+     * @return execution times of steps by step id. Returned map can't be modified directly.
+     */
+    public Map<String, Histogram> getNodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /**
+     * @return times of saving context after steps by step id. Returned map can't be modified directly.
+     */
+    public Map<String, Histogram> getPersistence() {
+        return Collections.unmodifiableMap(persistence);
+    }
+}
@@ -0,0 +1,83 @@
+package tech.becloud.mage.lease;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lease manager keeping leases in memory, for tests and for instances sharing a process. Fencing tokens come from
+ * a single counter, so they increase across all executions.
+ */
+public class InMemoryLeaseManager implements LeaseManager {
+    private final Clock clock;
+    private final Map<UUID, Lease> leases;
+    private final AtomicLong tokens;
+
+    public InMemoryLeaseManager() {
+        this(Clock.systemUTC());
+    }
+
+    /**
+     * @param clock clock to check expiration with
+     */
+    public InMemoryLeaseManager(Clock clock) {
+        this.clock = clock;
+        this.leases = new ConcurrentHashMap<>();
+        this.tokens = new AtomicLong();
+    }
+
+    @Override
+    public Lease claim(UUID executionId, String owner, Duration duration) {
+        long now = clock.millis();
+        Lease claimed = new Lease(executionId, owner, tokens.incrementAndGet(), now + duration.toMillis());
+        Lease current = leases.compute(executionId, (id, lease) ->
+                lease == null || lease.isExpired(now) || lease.getOwner().equals(owner) ? claimed : lease);
+        return current == claimed ? claimed : null;
+    }
+
+    @Override
+    public Lease renew(Lease lease, Duration duration) {
+        Lease renewed = new Lease(lease.getExecutionId(), lease.getOwner(), lease.getFencingToken(),
+                clock.millis() + duration.toMillis());
+        Lease current = leases.computeIfPresent(lease.getExecutionId(), (id, existing) ->
+                existing.getFencingToken() == lease.getFencingToken() ? renewed : existing);
+        return current == renewed ? renewed : null;
+    }
+
+    @Override
+    public boolean release(Lease lease) {
+        boolean[] released = new boolean[1];
+        leases.computeIfPresent(lease.getExecutionId(), (id, existing) -> {
+            released[0] = existing.getFencingToken() == lease.getFencingToken();
+            return released[0] ? null : existing;
+        });
+        return released[0];
+    }
+
+    @Override
+    public Lease getLease(UUID executionId) {
+        return leases.get(executionId);
+    }
+
+    @Override
+    public List<Lease> findExpired(UUID afterExecutionId, int limit) {
+        long now = clock.millis();
+        TreeMap<UUID, Lease> page = new TreeMap<>();
+        for (Lease lease : leases.values()) {
+            if (lease.isExpired(now)
+                    && (afterExecutionId == null || lease.getExecutionId().compareTo(afterExecutionId) > 0)) {
+                page.put(lease.getExecutionId(), lease);
+                if (page.size() > limit) {
+                    page.pollLastEntry();
+                }
+            }
+        }
+        return new ArrayList<>(page.values());
+    }
+}
@@ -0,0 +1,57 @@
+package tech.becloud.mage.lease;
+
+import java.util.UUID;
+
+/**
+ * Time-limited right of a service instance to run an execution. Each claim gets a fencing token greater than tokens
+ * of all previous claims of the execution, so checkpoints of a former owner which lost its lease, e.g. while paused
+ * by garbage collection, can be told from checkpoints of the current owner and rejected.
+ */
+public final class Lease {
+    private final UUID executionId;
+    private final String owner;
+    private final long fencingToken;
+    private final long expiresAt;
+
+    public Lease(UUID executionId, String owner, long fencingToken, long expiresAt) {
+        this.executionId = executionId;
+        this.owner = owner;
+        this.fencingToken = fencingToken;
+        this.expiresAt = expiresAt;
+    }
+
+    public UUID getExecutionId() {
+        return executionId;
+    }
+
+    /**
+     * @return id of service instance holding the lease
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    /**
+     * @return time the lease expires at unless renewed, in milliseconds since epoch
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @param now current time in milliseconds since epoch
+     * @return {@code true} if lease has expired by given time
+     */
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Lease of %s by %s, token %d", executionId, owner, fencingToken);
+    }
+}
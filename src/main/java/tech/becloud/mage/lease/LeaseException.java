@@ -0,0 +1,21 @@
+package tech.becloud.mage.lease;
+
+import java.util.UUID;
+
+/**
+ * Thrown when an execution can't be run or checkpointed by this service instance as another instance owns it.
+ */
+public class LeaseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final UUID executionId;
+
+    public LeaseException(UUID executionId, String message) {
+        super(message);
+        this.executionId = executionId;
+    }
+
+    public UUID getExecutionId() {
+        return executionId;
+    }
+}
@@ -0,0 +1,53 @@
+package tech.becloud.mage.lease;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Grants service instances exclusive, time-limited ownership of executions, so that an execution isn't run by two
+ * instances at once, and executions of a failed instance can be taken over once its leases expire.
+ * Implementations backed by shared storage let executions of a workflow be spread across a cluster.
+ */
+public interface LeaseManager {
+
+    /**
+     * Claims an execution. Succeeds if execution isn't leased, its lease has expired, or it's leased by the same
+     * owner, e.g. by the previous incarnation of restarted instance. Successful claim always gets a new fencing
+     * token, invalidating the previous lease.
+     * @param executionId execution to claim
+     * @param owner id of service instance claiming execution
+     * @param duration time the lease is valid for unless renewed
+     * @return new lease, or {@code null} if execution is leased by another owner
+     */
+    Lease claim(UUID executionId, String owner, Duration duration);
+
+    /**
+     * Extends a lease. Succeeds even if lease has expired, as long as execution wasn't claimed since.
+     * @param lease lease to renew
+     * @param duration time the lease is valid for from now on
+     * @return renewed lease having the same fencing token, or {@code null} if the lease is lost
+     */
+    Lease renew(Lease lease, Duration duration);
+
+    /**
+     * Releases a lease, so that execution can be claimed by any instance.
+     * @param lease lease to release
+     * @return {@code true} if lease was released, {@code false} if it has been lost already
+     */
+    boolean release(Lease lease);
+
+    /**
+     * @param executionId execution id
+     * @return current lease of execution, possibly expired, or {@code null} if execution isn't leased
+     */
+    Lease getLease(UUID executionId);
+
+    /**
+     * Finds expired leases, e.g. of failed instances, for their executions to be taken over.
+     * @param afterExecutionId execution id of the last lease of previous page, {@code null} for the first page
+     * @param limit maximum number of leases to return
+     * @return expired leases ordered by execution id
+     */
+    List<Lease> findExpired(UUID afterExecutionId, int limit);
+}
@@ -0,0 +1,25 @@
+package tech.becloud.mage.model;
+
+/**
+ * Mix-in for flow data objects tracking their own changes, so checkpoints write only what steps have changed
+ * instead of the whole object. The flow takes changes each time it saves user context; repositories supporting
+ * changes keep them after the latest full snapshot and apply them in order on load, others save full snapshots.
+ * <p>
+ * Changes should carry new values rather than increments, so that applying them to a snapshot already having them
+ * is harmless. Taken changes must not be modified afterwards, as repositories may keep them by reference.
+ * @param <D> type of changes
+ */
+public interface ChangeTracking<D> {
+
+    /**
+     * Returns changes made since previous call and starts tracking anew.
+     * @return changes, {@code null} if nothing changed
+     */
+    D takeChanges();
+
+    /**
+     * Applies changes taken from another instance, e.g. replayed over a snapshot on load.
+     * @param changes changes to apply
+     */
+    void applyChanges(D changes);
+}
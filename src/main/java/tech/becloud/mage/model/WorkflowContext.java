@@ -26,14 +26,21 @@ public class WorkflowContext<T extends UserContext> {
         return executionContext.getExecutionId();
     }
 
+    /**
+     * Requests cancellation of execution, see {@link ExecutionContext#requestCancel()}. Cancellation of execution
+     * which isn't running isn't saved to repository, use
+     * {@link tech.becloud.mage.graph.Workflow#cancel(WorkflowContext)} for executions that may be paused.
+     * @return future completed once execution has stopped
+     */
+    public CompletableFuture<Void> cancel() {
+        return executionContext.requestCancel();
+    }
+
+    /**
+     * Requests execution to pause, see {@link ExecutionContext#requestPause()}.
+     * @return future completed once execution has paused
+     */
     public CompletableFuture<Void> requestPause() {
-        if (executionContext.isPauseRequested()) {
-            CompletableFuture<Void> paused = new CompletableFuture<>();
-            executionContext.setPausedCompletableFuture(paused);
-            executionContext.setPauseRequested(true);
-            return paused;
-        } else {
-            return executionContext.getPausedCompletableFuture();
-        }
+        return executionContext.requestPause();
     }
 }
@@ -0,0 +1,19 @@
+package tech.becloud.mage.model.definition;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Declarative definition of a workflow: its name, version and steps. The first step is the start one.
+ */
+@Getter
+@Setter
+public class FlowDefinition {
+    private String name;
+    private int version;
+    private Duration timeout;
+    private List<Node> nodes;
+}
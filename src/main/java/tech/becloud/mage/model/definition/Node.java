@@ -3,11 +3,39 @@ package tech.becloud.mage.model.definition;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.Duration;
 import java.util.List;
 
+/**
+ * Declarative definition of a step. Kind of step is determined by which of {@code action}, {@code subflow} or
+ * {@code routes} is set: an action step calls a consumer bean, a subflow step executes another flow, a router step
+ * selects the next step by predicate beans.
+ */
 @Getter
 @Setter
 public class Node {
     private String id;
+    /**
+     * Name of consumer bean executed by action step
+     */
+    private String action;
+    /**
+     * Name of flow executed by subflow step: a definition loaded by the same loader or a flow bean
+     */
+    private String subflow;
+    private List<Route> routes;
+    private String defaultRoute;
+    /**
+     * Id of next step of action or subflow step, {@code null} means flow completion
+     */
+    private String next;
     private List<ExceptionRoute> exceptionRoutes;
+    private boolean pause;
+    private Duration timeout;
+    private boolean interruptible;
+    /**
+     * Name of {@link tech.becloud.mage.persistence.PersistContextScope} to persist after the step
+     */
+    private String persistContext;
+    private Retry retry;
 }
@@ -0,0 +1,24 @@
+package tech.becloud.mage.model.definition;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Retry policy of a step, see {@link tech.becloud.mage.graph.RetryPolicy}. Unset values take policy defaults.
+ */
+@Getter
+@Setter
+public class Retry {
+    private int maxAttempts;
+    private Duration initialDelay;
+    private Double multiplier;
+    private Duration maxDelay;
+    private Double jitter;
+    /**
+     * Names of retryable exception classes, all exceptions are retried if empty
+     */
+    private List<String> retryOn;
+}
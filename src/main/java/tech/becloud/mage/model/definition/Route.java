@@ -0,0 +1,14 @@
+package tech.becloud.mage.model.definition;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Route of a router step, selected if predicate bean matches flow data.
+ */
+@Getter
+@Setter
+public class Route {
+    private String predicate;
+    private String route;
+}
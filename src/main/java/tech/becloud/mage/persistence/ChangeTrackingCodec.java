@@ -0,0 +1,31 @@
+package tech.becloud.mage.persistence;
+
+import tech.becloud.mage.model.ChangeTracking;
+import tech.becloud.mage.model.UserContext;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec of flow data objects implementing {@link ChangeTracking}, able to write their changes as well as full
+ * snapshots. Repositories storing binary data save changes only if supplied codec implements this interface.
+ * @param <T> type of flow data object
+ * @param <D> type of changes
+ */
+public interface ChangeTrackingCodec<T extends UserContext & ChangeTracking<D>, D> extends UserContextCodec<T> {
+
+    /**
+     * Encodes changes into target buffer, starting at its position. Position is advanced past encoded data.
+     * @param changes changes taken from flow data object
+     * @param target buffer to write to
+     * @throws java.nio.BufferOverflowException if target doesn't have enough space
+     */
+    void encodeChanges(D changes, ByteBuffer target);
+
+    /**
+     * Decodes changes from source buffer, which remaining bytes are exactly the encoded changes.
+     * Source may be a view of repository storage, so it must not be retained.
+     * @param source buffer to read from
+     * @return decoded changes
+     */
+    D decodeChanges(ByteBuffer source);
+}
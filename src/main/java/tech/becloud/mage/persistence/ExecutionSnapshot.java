@@ -0,0 +1,121 @@
+package tech.becloud.mage.persistence;
+
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionState;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Immutable copy of persistable part of {@link ExecutionContext}, as of the moment of checkpoint.
+ */
+final class ExecutionSnapshot {
+    private static final ExecutionState[] STATES = ExecutionState.values();
+
+    final String workflowName;
+    final int workflowVersion;
+    final UUID executionId;
+    final ExecutionState state;
+    final String executionPoint;
+    final String serviceInstanceId;
+    final long completedBranches;
+    final int retryAttempts;
+    /**
+     * Fencing token of the lease execution was run under, kept only in memory.
+     */
+    final long fencingToken;
+
+    private ExecutionSnapshot(String workflowName, int workflowVersion, UUID executionId, ExecutionState state,
+                              String executionPoint, String serviceInstanceId, long completedBranches,
+                              int retryAttempts, long fencingToken) {
+        this.workflowName = workflowName;
+        this.workflowVersion = workflowVersion;
+        this.executionId = executionId;
+        this.state = state;
+        this.executionPoint = executionPoint;
+        this.serviceInstanceId = serviceInstanceId;
+        this.completedBranches = completedBranches;
+        this.retryAttempts = retryAttempts;
+        this.fencingToken = fencingToken;
+    }
+
+    static ExecutionSnapshot of(ExecutionContext<?> execution) {
+        return new ExecutionSnapshot(execution.getWorkflowName(), execution.getWorkflowVersion(),
+                execution.getExecutionId(), execution.getExecutionState(), execution.getExecutionPoint(),
+                execution.getServiceInstanceId(), execution.getCompletedBranches(), execution.getRetryAttempts(),
+                execution.getFencingToken());
+    }
+
+    /**
+     * @return new execution context having state of this snapshot
+     */
+    <T> ExecutionContext<T> restore() {
+        ExecutionContext<T> execution = new ExecutionContext<>(workflowName, workflowVersion, executionId);
+        execution.setExecutionState(state);
+        execution.setExecutionPoint(executionPoint);
+        execution.setServiceInstanceId(serviceInstanceId);
+        execution.setCompletedBranches(completedBranches);
+        execution.setRetryAttempts(retryAttempts);
+        return execution;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(workflowName);
+        out.writeInt(workflowVersion);
+        out.writeByte(state == null ? -1 : state.ordinal());
+        writeNullable(out, executionPoint);
+        writeNullable(out, serviceInstanceId);
+        out.writeLong(completedBranches);
+        out.writeInt(retryAttempts);
+    }
+
+    static ExecutionSnapshot readFrom(UUID executionId, DataInput in) throws IOException {
+        String workflowName = in.readUTF();
+        int workflowVersion = in.readInt();
+        byte state = in.readByte();
+        String executionPoint = readNullable(in);
+        String serviceInstanceId = readNullable(in);
+        long completedBranches = in.readLong();
+        int retryAttempts = in.readInt();
+        return new ExecutionSnapshot(workflowName, workflowVersion, executionId, state < 0 ? null : STATES[state],
+                executionPoint, serviceInstanceId, completedBranches, retryAttempts, 0);
+    }
+
+    static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes nullable string as presence flag byte followed by unsigned short length and UTF-8 bytes.
+     */
+    static void putNullable(ByteBuffer target, String value) {
+        target.put((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("String is too long: " + bytes.length + " bytes");
+            }
+            target.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    static String getNullable(ByteBuffer source) {
+        if (source.get() == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[source.getShort() & 0xFFFF];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,323 @@
+package tech.becloud.mage.persistence;
+
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionState;
+import tech.becloud.mage.lease.LeaseException;
+import tech.becloud.mage.model.ChangeTracking;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+/**
+ * Repository keeping checkpoints in memory, suitable for tests and for executions that don't need to survive
+ * process restart. Executions are spread over lock stripes by id, so saving execution and user context together
+ * is atomic, while checkpoints of distinct executions rarely contend.
+ * <p>
+ * Execution context is always copied on save. Flow data objects are kept by reference unless a copy function is
+ * supplied; without copying, loaded data reflects changes made after checkpoint. With copying, changes of flow data
+ * objects implementing {@link ChangeTracking} are kept instead of copies, except for every
+ * {@link #setFullSnapshotInterval(int) n-th} checkpoint, and applied to a copy of the latest snapshot on load.
+ * <p>
+ * Checkpoints of leased executions are fenced: a checkpoint carrying a lower fencing token than the latest one is
+ * rejected with {@link LeaseException}.
+ * @param <T> type of flow data object
+ */
+public class InMemoryWorkflowContextRepository<T extends UserContext> implements WorkflowContextRepository<T> {
+    private static final int DEFAULT_STRIPES = 64;
+    public static final int DEFAULT_FULL_SNAPSHOT_INTERVAL = 16;
+
+    private final Stripe<T>[] stripes;
+    private final int mask;
+    private final UnaryOperator<T> copier;
+    private volatile int fullSnapshotInterval = DEFAULT_FULL_SNAPSHOT_INTERVAL;
+
+    /**
+     * Creates repository keeping flow data objects by reference.
+     */
+    public InMemoryWorkflowContextRepository() {
+        this(DEFAULT_STRIPES, null);
+    }
+
+    /**
+     * @param copier function making a copy of flow data object on save and on load
+     */
+    public InMemoryWorkflowContextRepository(UnaryOperator<T> copier) {
+        this(DEFAULT_STRIPES, copier);
+    }
+
+    /**
+     * @param stripes number of lock stripes, rounded up to a power of two
+     * @param copier function making a copy of flow data object on save and on load, {@code null} means objects are
+     *               kept by reference
+     */
+    @SuppressWarnings("unchecked")
+    public InMemoryWorkflowContextRepository(int stripes, UnaryOperator<T> copier) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = (Stripe<T>[]) new Stripe<?>[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe<>();
+        }
+        this.mask = size - 1;
+        this.copier = copier;
+    }
+
+    /**
+     * Sets how often flow data objects implementing {@link ChangeTracking} are copied in full rather than just their
+     * changes kept. Affects only repositories copying flow data objects.
+     * @param fullSnapshotInterval maximum number of changes kept after a full copy
+     */
+    public void setFullSnapshotInterval(int fullSnapshotInterval) {
+        if (fullSnapshotInterval < 0) {
+            throw new IllegalArgumentException("fullSnapshotInterval can't be negative");
+        }
+        this.fullSnapshotInterval = fullSnapshotInterval;
+    }
+
+    private Stripe<T> stripe(UUID executionId) {
+        int hash = executionId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    @Override
+    public T loadUserContext(UUID executionId, String executionPath) {
+        Stripe<T> stripe = stripe(executionId);
+        T context;
+        Object[] changes;
+        synchronized (stripe) {
+            Entry<T> entry = stripe.entries.get(executionId);
+            if (entry == null || entry.userContext == null) {
+                return null;
+            }
+            context = entry.userContext;
+            changes = entry.changes.toArray();
+        }
+        return restore(context, changes);
+    }
+
+    @Override
+    public void saveUserContext(UUID executionId, String executionPath, T context) {
+        T copy = copy(context);
+        Stripe<T> stripe = stripe(executionId);
+        synchronized (stripe) {
+            Entry<T> entry = stripe.entries.computeIfAbsent(executionId, id -> new Entry<>());
+            entry.userContext = copy;
+            entry.changes.clear();
+        }
+    }
+
+    @Override
+    public <D> void saveUserContextChanges(UUID executionId, String executionPath, T context, D changes) {
+        Stripe<T> stripe = stripe(executionId);
+        synchronized (stripe) {
+            if (appendChanges(stripe.entries.get(executionId), changes)) {
+                return;
+            }
+        }
+        saveUserContext(executionId, executionPath, context);
+    }
+
+    @Override
+    public ExecutionContext<T> loadExecutionContext(UUID executionId) {
+        Stripe<T> stripe = stripe(executionId);
+        ExecutionSnapshot snapshot;
+        synchronized (stripe) {
+            Entry<T> entry = stripe.entries.get(executionId);
+            snapshot = entry == null ? null : entry.execution;
+        }
+        return snapshot == null ? null : snapshot.restore();
+    }
+
+    @Override
+    public void saveExecutionContext(ExecutionContext<T> executionContext) {
+        ExecutionSnapshot snapshot = ExecutionSnapshot.of(executionContext);
+        Stripe<T> stripe = stripe(executionContext.getExecutionId());
+        synchronized (stripe) {
+            Entry<T> entry = stripe.entries.computeIfAbsent(snapshot.executionId, id -> new Entry<>());
+            fence(entry, snapshot);
+            entry.execution = snapshot;
+        }
+    }
+
+    /**
+     * @return saved context, or {@code null} if no execution context saved; user context is {@code null} if only
+     * execution context was saved
+     */
+    @Override
+    public WorkflowContext<T> load(UUID executionId) {
+        Stripe<T> stripe = stripe(executionId);
+        ExecutionSnapshot snapshot;
+        T context;
+        Object[] changes;
+        synchronized (stripe) {
+            Entry<T> entry = stripe.entries.get(executionId);
+            if (entry == null || entry.execution == null) {
+                return null;
+            }
+            snapshot = entry.execution;
+            context = entry.userContext;
+            changes = entry.changes.toArray();
+        }
+        return new WorkflowContext<>(snapshot.restore(), context == null ? null : restore(context, changes));
+    }
+
+    @Override
+    public void save(WorkflowContext<T> context) {
+        save(ExecutionSnapshot.of(context.getExecutionContext()), context.getUserContext());
+    }
+
+    @Override
+    public <D> void saveChanges(WorkflowContext<T> context, D changes) {
+        ExecutionSnapshot snapshot = ExecutionSnapshot.of(context.getExecutionContext());
+        Stripe<T> stripe = stripe(snapshot.executionId);
+        synchronized (stripe) {
+            Entry<T> entry = stripe.entries.get(snapshot.executionId);
+            if (entry != null) {
+                fence(entry, snapshot);
+            }
+            if (appendChanges(entry, changes)) {
+                entry.execution = snapshot;
+                return;
+            }
+        }
+        save(snapshot, context.getUserContext());
+    }
+
+    private void save(ExecutionSnapshot snapshot, T context) {
+        T copy = copy(context);
+        Stripe<T> stripe = stripe(snapshot.executionId);
+        synchronized (stripe) {
+            Entry<T> entry = stripe.entries.computeIfAbsent(snapshot.executionId, id -> new Entry<>());
+            fence(entry, snapshot);
+            entry.execution = snapshot;
+            entry.userContext = copy;
+            entry.changes.clear();
+        }
+    }
+
+    /**
+     * Rejects checkpoint made under a lease older than the one of the latest checkpoint, i.e. by a service instance
+     * which lost execution to another one; called under stripe lock. Checkpoints of executions which aren't leased
+     * aren't fenced.
+     * @throws LeaseException if checkpoint is stale
+     */
+    private static void fence(Entry<?> entry, ExecutionSnapshot snapshot) {
+        if (snapshot.fencingToken == 0) {
+            return;
+        }
+        if (snapshot.fencingToken < entry.fencingToken) {
+            throw new LeaseException(snapshot.executionId, String.format(
+                    "Checkpoint of execution %s with fencing token %d is stale, token %d is current",
+                    snapshot.executionId, snapshot.fencingToken, entry.fencingToken));
+        }
+        entry.fencingToken = snapshot.fencingToken;
+    }
+
+    /**
+     * Keeps changes instead of a full copy unless it's time for a full copy; called under stripe lock.
+     * @return {@code true} if changes are kept, so full copy isn't needed
+     */
+    private boolean appendChanges(Entry<T> entry, Object changes) {
+        if (copier == null || entry == null || entry.userContext == null
+                || entry.changes.size() >= fullSnapshotInterval) {
+            return false;
+        }
+        if (changes != null) {
+            entry.changes.add(changes);
+        }
+        return true;
+    }
+
+    private T copy(T context) {
+        return copier == null ? context : copier.apply(context);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T restore(T snapshot, Object[] changes) {
+        T context = copy(snapshot);
+        for (Object change : changes) {
+            ((ChangeTracking<Object>) context).applyChanges(change);
+        }
+        return context;
+    }
+
+    @Override
+    public List<WorkflowContext<T>> findExecutions(String serviceInstanceId, Set<ExecutionState> states,
+                                                   UUID afterExecutionId, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        // ids of the page, i.e. the smallest matching ids, limit is kept by evicting the largest
+        TreeMap<UUID, Boolean> page = new TreeMap<>();
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<UUID, Entry<T>> entry : stripe.entries.entrySet()) {
+                    ExecutionSnapshot snapshot = entry.getValue().execution;
+                    if (snapshot != null && states.contains(snapshot.state)
+                            && Objects.equals(serviceInstanceId, snapshot.serviceInstanceId)
+                            && (afterExecutionId == null || entry.getKey().compareTo(afterExecutionId) > 0)) {
+                        page.put(entry.getKey(), Boolean.TRUE);
+                        if (page.size() > limit) {
+                            page.pollLastEntry();
+                        }
+                    }
+                }
+            }
+        }
+        List<WorkflowContext<T>> contexts = new ArrayList<>(page.size());
+        for (UUID executionId : page.keySet()) {
+            WorkflowContext<T> context = load(executionId);
+            // might have been removed meanwhile
+            if (context != null) {
+                contexts.add(context);
+            }
+        }
+        return contexts;
+    }
+
+    /**
+     * Removes everything saved for given execution, e.g. once it has completed.
+     * @param executionId execution id
+     */
+    public void remove(UUID executionId) {
+        Stripe<T> stripe = stripe(executionId);
+        synchronized (stripe) {
+            stripe.entries.remove(executionId);
+        }
+    }
+
+    /**
+     * @return number of executions having anything saved
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Stripe<T> {
+        final Map<UUID, Entry<T>> entries = new HashMap<>();
+    }
+
+    private static final class Entry<T> {
+        final List<Object> changes = new ArrayList<>();
+        ExecutionSnapshot execution;
+        long fencingToken;
+        T userContext;
+    }
+}
@@ -0,0 +1,777 @@
+package tech.becloud.mage.persistence;
+
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionContextCodec;
+import tech.becloud.mage.graph.ExecutionState;
+import tech.becloud.mage.model.ChangeTracking;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable repository writing checkpoints to an append-only log of memory-mapped segment files, so a checkpoint is
+ * a memory copy rather than a system call. Location of the latest records of each execution is kept in memory and
+ * rebuilt by scanning the log on open; records are checksummed, so a record torn by a crash ends the log.
+ * <p>
+ * Checkpoints survive process crash once saved. They survive operating system crash once flushed: the flow calls
+ * {@link #flush(UUID)} when execution pauses or terminates, and a segment is flushed when it's full.
+ * <p>
+ * Superseded records are reclaimed by compaction, which rewrites the latest records of all executions to new
+ * segments. It runs when a segment gets full and less than half of the log is live, or on {@link #compact()}.
+ * Checkpoints wait for compaction to complete. Use {@link #remove(UUID)} for executions that don't need to be kept,
+ * otherwise they are retained forever.
+ * <p>
+ * Execution contexts are written in compact binary form if {@link ExecutionContextCodec} is supplied. Records are
+ * encoded into a reusable per-thread buffer, and codecs decode from views of mapped segments.
+ * <p>
+ * If codec implements {@link ChangeTrackingCodec}, only changes of flow data objects are written, except for every
+ * {@link #setFullSnapshotInterval(int) n-th} checkpoint; changes are applied to the latest full snapshot on load.
+ * <p>
+ * Fencing tokens of leased executions aren't checked: a checkpoint of a former owner which lost its lease is
+ * written like any other. Log is meant to be owned by a single service instance, so executions are taken over only
+ * after that instance restarts and reopens the log.
+ * @param <T> type of flow data object
+ */
+public class MappedLogWorkflowContextRepository<T extends UserContext>
+        implements WorkflowContextRepository<T>, AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte EXECUTION = 1;
+    private static final byte USER = 2;
+    private static final byte REMOVED = 3;
+    private static final byte EXECUTION_BINARY = 4;
+    private static final byte USER_CHANGES = 5;
+    public static final int DEFAULT_FULL_SNAPSHOT_INTERVAL = 16;
+    private static final int INITIAL_RECORD_CAPACITY = 4096;
+    // record: length, type, execution id, payload, crc of type, id and payload
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + 2 * Long.BYTES;
+    private static final int TRAILER_SIZE = Integer.BYTES;
+
+    private final Path directory;
+    private final UserContextCodec<T> codec;
+    @SuppressWarnings("rawtypes")
+    private final ChangeTrackingCodec changesCodec;
+    private final ExecutionContextCodec executionCodec;
+    private final ThreadLocal<ByteBuffer> recordBuffers;
+    private final int segmentSize;
+    private final ConcurrentHashMap<UUID, IndexEntry> index;
+    // read lock for reads and appends, write lock for compaction and close
+    private final ReentrantReadWriteLock segmentsLock;
+    private final Object appendMonitor;
+    private final List<Segment> segments;
+    private Segment active;
+    private long liveBytes;
+    private long totalBytes;
+    private volatile boolean compactionRequested;
+    private volatile int fullSnapshotInterval = DEFAULT_FULL_SNAPSHOT_INTERVAL;
+    private boolean closed;
+
+    /**
+     * Opens repository with segments of {@link #DEFAULT_SEGMENT_SIZE}, recovering checkpoints already in the log.
+     * @param directory directory of segment files, created if doesn't exist
+     * @param codec codec of flow data objects
+     * @throws UncheckedIOException if log can't be read or created
+     */
+    public MappedLogWorkflowContextRepository(Path directory, UserContextCodec<T> codec) {
+        this(directory, codec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens repository, recovering checkpoints already in the log.
+     * @param directory directory of segment files, created if doesn't exist
+     * @param codec codec of flow data objects
+     * @param segmentSize size of segment files; a single checkpoint must fit into a segment
+     * @throws UncheckedIOException if log can't be read or created
+     */
+    public MappedLogWorkflowContextRepository(Path directory, UserContextCodec<T> codec, int segmentSize) {
+        this(directory, codec, segmentSize, null);
+    }
+
+    /**
+     * Opens repository, recovering checkpoints already in the log.
+     * @param directory directory of segment files, created if doesn't exist
+     * @param codec codec of flow data objects
+     * @param segmentSize size of segment files; a single checkpoint must fit into a segment
+     * @param executionCodec codec of execution contexts, having all workflows saved to this repository registered;
+     *                       {@code null} means execution contexts are written with names and node ids as strings
+     * @throws UncheckedIOException if log can't be read or created
+     */
+    public MappedLogWorkflowContextRepository(Path directory, UserContextCodec<T> codec, int segmentSize,
+                                              ExecutionContextCodec executionCodec) {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("Segment size must be at least 4096 bytes");
+        }
+        this.directory = directory;
+        this.codec = codec;
+        this.changesCodec = codec instanceof ChangeTrackingCodec ? (ChangeTrackingCodec<?, ?>) codec : null;
+        this.executionCodec = executionCodec;
+        this.recordBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_RECORD_CAPACITY));
+        this.segmentSize = segmentSize;
+        this.index = new ConcurrentHashMap<>();
+        this.segmentsLock = new ReentrantReadWriteLock();
+        this.appendMonitor = new Object();
+        this.segments = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open workflow context log in " + directory, e);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+            Segment segment = Segment.open(file, sequence, segmentSize);
+            segments.add(segment);
+            scan(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(Segment.open(segmentPath(0), 0, segmentSize));
+        }
+        active = segments.get(segments.size() - 1);
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_SIZE + TRAILER_SIZE <= segment.capacity) {
+            int length = buffer.getInt(position);
+            if (length < HEADER_SIZE + TRAILER_SIZE || length > segment.capacity - position
+                    || !checksumMatches(segment, position, length)) {
+                break;
+            }
+            byte type = buffer.get(position + Integer.BYTES);
+            UUID executionId = new UUID(buffer.getLong(position + Integer.BYTES + 1),
+                    buffer.getLong(position + Integer.BYTES + 1 + Long.BYTES));
+            apply(executionId, type, new Location(segment, position, length));
+            totalBytes += length;
+            position += length;
+        }
+        segment.position = position;
+        // clear whatever a torn write left, so that it can't be taken for a record once overwritten partially
+        int i = position;
+        for (; i < segment.capacity && i % Long.BYTES != 0; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        for (; i + Long.BYTES <= segment.capacity; i += Long.BYTES) {
+            if (buffer.getLong(i) != 0) {
+                buffer.putLong(i, 0);
+            }
+        }
+        for (; i < segment.capacity; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    private static boolean checksumMatches(Segment segment, int position, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = segment.buffer.duplicate();
+        body.position(position + Integer.BYTES).limit(position + length - TRAILER_SIZE);
+        crc.update(body);
+        return (int) crc.getValue() == segment.buffer.getInt(position + length - TRAILER_SIZE);
+    }
+
+    /**
+     * Updates index with a record, called under append monitor or on recovery.
+     */
+    private void apply(UUID executionId, byte type, Location location) {
+        IndexEntry previous = index.get(executionId);
+        if (type == REMOVED) {
+            if (previous != null) {
+                index.remove(executionId);
+                liveBytes -= previous.liveBytes();
+            }
+            return;
+        }
+        IndexEntry entry = previous == null ? IndexEntry.EMPTY : previous;
+        switch (type) {
+            case EXECUTION:
+            case EXECUTION_BINARY:
+                liveBytes += location.length - (entry.execution == null ? 0 : entry.execution.length);
+                entry = new IndexEntry(location, entry.user, entry.changes);
+                break;
+            case USER:
+                liveBytes += location.length - entry.userBytes();
+                entry = new IndexEntry(entry.execution, location, IndexEntry.NO_CHANGES);
+                break;
+            default:
+                liveBytes += location.length;
+                Location[] changes = Arrays.copyOf(entry.changes, entry.changes.length + 1);
+                changes[entry.changes.length] = location;
+                entry = new IndexEntry(entry.execution, entry.user, changes);
+                break;
+        }
+        index.put(executionId, entry);
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%016x%s", sequence, SEGMENT_SUFFIX));
+    }
+
+    @Override
+    public T loadUserContext(UUID executionId, String executionPath) {
+        segmentsLock.readLock().lock();
+        try {
+            IndexEntry entry = index.get(executionId);
+            return entry == null || entry.user == null ? null : decodeUserContext(entry);
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveUserContext(UUID executionId, String executionPath, T context) {
+        append(executionId, USER, payload -> {
+            ExecutionSnapshot.putNullable(payload, executionPath);
+            codec.encode(context, payload);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <D> void saveUserContextChanges(UUID executionId, String executionPath, T context, D changes) {
+        if (!keepsChanges(executionId)) {
+            saveUserContext(executionId, executionPath, context);
+        } else if (changes != null) {
+            append(executionId, USER_CHANGES, payload -> {
+                ExecutionSnapshot.putNullable(payload, executionPath);
+                changesCodec.encodeChanges(changes, payload);
+            });
+        }
+    }
+
+    /**
+     * @return {@code true} if changes of given execution should be written rather than full snapshot
+     */
+    private boolean keepsChanges(UUID executionId) {
+        if (changesCodec == null) {
+            return false;
+        }
+        IndexEntry entry = index.get(executionId);
+        return entry != null && entry.user != null && entry.changes.length < fullSnapshotInterval;
+    }
+
+    @Override
+    public ExecutionContext<T> loadExecutionContext(UUID executionId) {
+        segmentsLock.readLock().lock();
+        try {
+            IndexEntry entry = index.get(executionId);
+            return entry == null || entry.execution == null ? null : decodeExecution(entry.execution);
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveExecutionContext(ExecutionContext<T> executionContext) {
+        appendExecution(executionContext);
+    }
+
+    /**
+     * @return saved context, or {@code null} if no execution context saved; user context is {@code null} if only
+     * execution context was saved
+     */
+    @Override
+    public WorkflowContext<T> load(UUID executionId) {
+        segmentsLock.readLock().lock();
+        try {
+            IndexEntry entry = index.get(executionId);
+            if (entry == null || entry.execution == null) {
+                return null;
+            }
+            return new WorkflowContext<>(decodeExecution(entry.execution),
+                    entry.user == null ? null : decodeUserContext(entry));
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(WorkflowContext<T> context) {
+        ExecutionContext<T> execution = context.getExecutionContext();
+        // data object goes first, so execution record never points past data that may be lost
+        saveUserContext(execution.getExecutionId(), execution.getExecutionPoint(), context.getUserContext());
+        appendExecution(execution);
+    }
+
+    @Override
+    public <D> void saveChanges(WorkflowContext<T> context, D changes) {
+        ExecutionContext<T> execution = context.getExecutionContext();
+        saveUserContextChanges(execution.getExecutionId(), execution.getExecutionPoint(), context.getUserContext(),
+                changes);
+        appendExecution(execution);
+    }
+
+    /**
+     * Sets how often full snapshots of flow data objects are written when codec supports changes.
+     * @param fullSnapshotInterval maximum number of changes written after a full snapshot
+     */
+    public void setFullSnapshotInterval(int fullSnapshotInterval) {
+        if (fullSnapshotInterval < 0) {
+            throw new IllegalArgumentException("fullSnapshotInterval can't be negative");
+        }
+        this.fullSnapshotInterval = fullSnapshotInterval;
+    }
+
+    /**
+     * Scans the whole index decoding execution contexts, so it's intended for occasional recovery rather than
+     * frequent queries.
+     */
+    @Override
+    public List<WorkflowContext<T>> findExecutions(String serviceInstanceId, Set<ExecutionState> states,
+                                                   UUID afterExecutionId, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        segmentsLock.readLock().lock();
+        try {
+            // the smallest matching ids, limit is kept by evicting the largest
+            TreeMap<UUID, ExecutionContext<T>> page = new TreeMap<>();
+            for (Map.Entry<UUID, IndexEntry> entry : index.entrySet()) {
+                UUID executionId = entry.getKey();
+                Location location = entry.getValue().execution;
+                if (location == null || afterExecutionId != null && executionId.compareTo(afterExecutionId) <= 0
+                        || page.size() == limit && executionId.compareTo(page.lastKey()) > 0) {
+                    continue;
+                }
+                ExecutionContext<T> execution = decodeExecution(location);
+                if (states.contains(execution.getExecutionState())
+                        && Objects.equals(serviceInstanceId, execution.getServiceInstanceId())) {
+                    page.put(executionId, execution);
+                    if (page.size() > limit) {
+                        page.pollLastEntry();
+                    }
+                }
+            }
+            List<WorkflowContext<T>> contexts = new ArrayList<>(page.size());
+            for (Map.Entry<UUID, ExecutionContext<T>> execution : page.entrySet()) {
+                IndexEntry entry = index.get(execution.getKey());
+                contexts.add(new WorkflowContext<>(execution.getValue(),
+                        entry == null || entry.user == null ? null : decodeUserContext(entry)));
+            }
+            return contexts;
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes everything saved for given execution, e.g. once it has completed. Space is reclaimed by compaction.
+     * @param executionId execution id
+     */
+    public void remove(UUID executionId) {
+        if (index.containsKey(executionId)) {
+            append(executionId, REMOVED, payload -> { });
+        }
+    }
+
+    /**
+     * Forces log to storage, so that checkpoints saved so far survive operating system crash.
+     * Forces the whole active segment, as checkpoints of given execution are there or in a segment forced already.
+     */
+    @Override
+    public void flush(UUID executionId) {
+        segmentsLock.readLock().lock();
+        try {
+            Segment segment;
+            synchronized (appendMonitor) {
+                segment = active;
+            }
+            if (segment != null) {
+                segment.buffer.force();
+            }
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces log to storage, the same way as {@link #flush(UUID)} does.
+     */
+    @Override
+    public void flush() {
+        flush(null);
+    }
+
+    private void appendExecution(ExecutionContext<T> execution) {
+        if (executionCodec != null) {
+            append(execution.getExecutionId(), EXECUTION_BINARY, payload -> executionCodec.encode(execution, payload));
+        } else {
+            byte[] snapshot = encodeSnapshot(execution);
+            append(execution.getExecutionId(), EXECUTION, payload -> payload.put(snapshot));
+        }
+    }
+
+    private void append(UUID executionId, byte type, Consumer<ByteBuffer> payloadWriter) {
+        ByteBuffer record = encodeRecord(executionId, type, payloadWriter);
+        int length = record.remaining();
+        if (compactionRequested) {
+            compact();
+        }
+        segmentsLock.readLock().lock();
+        try {
+            synchronized (appendMonitor) {
+                if (closed) {
+                    throw new IllegalStateException("Repository is closed");
+                }
+                if (active.position + length > active.capacity) {
+                    roll();
+                }
+                Location location = write(active, record);
+                apply(executionId, type, location);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write workflow context log in " + directory, e);
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Encodes complete record into buffer of current thread, growing it up to segment size if payload doesn't fit.
+     * @return buffer having record between position and limit
+     */
+    private ByteBuffer encodeRecord(UUID executionId, byte type, Consumer<ByteBuffer> payloadWriter) {
+        ByteBuffer record = recordBuffers.get();
+        while (true) {
+            try {
+                record.clear().position(Integer.BYTES);
+                record.put(type).putLong(executionId.getMostSignificantBits())
+                        .putLong(executionId.getLeastSignificantBits());
+                payloadWriter.accept(record);
+                CRC32 crc = new CRC32();
+                crc.update(record.array(), Integer.BYTES, record.position() - Integer.BYTES);
+                record.putInt((int) crc.getValue());
+                return record.flip();
+            } catch (BufferOverflowException e) {
+                if (record.capacity() >= segmentSize) {
+                    throw new IllegalArgumentException(String.format(
+                            "Checkpoint doesn't fit into a segment of %d bytes", segmentSize));
+                }
+                record = ByteBuffer.allocate(Math.min(record.capacity() * 2, segmentSize));
+                recordBuffers.set(record);
+            }
+        }
+    }
+
+    /**
+     * Writes complete record to given segment, called under append monitor or during compaction.
+     */
+    private Location write(Segment segment, ByteBuffer record) {
+        int position = segment.position;
+        int length = record.remaining();
+        ByteBuffer target = segment.buffer.duplicate();
+        target.position(position + Integer.BYTES);
+        ByteBuffer body = record.duplicate();
+        body.position(body.position() + Integer.BYTES);
+        target.put(body);
+        // length is written last, so a scan never sees a partially written record
+        segment.buffer.putInt(position, length);
+        segment.position = position + length;
+        totalBytes += length;
+        return new Location(segment, position, length);
+    }
+
+    /**
+     * Starts a new segment, called under append monitor.
+     */
+    private void roll() throws IOException {
+        active.buffer.force();
+        Segment segment = Segment.open(segmentPath(active.sequence + 1), active.sequence + 1, segmentSize);
+        segments.add(segment);
+        active = segment;
+        if (liveBytes * 2 < totalBytes) {
+            compactionRequested = true;
+        }
+    }
+
+    /**
+     * Rewrites the latest records of all executions to new segments and deletes old ones.
+     * @throws UncheckedIOException if log can't be written
+     */
+    public void compact() {
+        segmentsLock.writeLock().lock();
+        try {
+            compactionRequested = false;
+            if (closed) {
+                return;
+            }
+            List<Segment> oldSegments = new ArrayList<>(segments);
+            Map<UUID, IndexEntry> compacted = new HashMap<>();
+            List<Segment> newSegments = new ArrayList<>();
+            long sequence = active.sequence + 1;
+            Segment target = Segment.open(segmentPath(sequence), sequence, segmentSize);
+            newSegments.add(target);
+            long written = 0;
+            for (Map.Entry<UUID, IndexEntry> entry : index.entrySet()) {
+                IndexEntry indexEntry = entry.getValue();
+                // changes follow the snapshot they apply to, keeping their order
+                Location[] locations = new Location[2 + indexEntry.changes.length];
+                locations[0] = indexEntry.execution;
+                locations[1] = indexEntry.user;
+                System.arraycopy(indexEntry.changes, 0, locations, 2, indexEntry.changes.length);
+                for (int i = 0; i < locations.length; i++) {
+                    if (locations[i] == null) {
+                        continue;
+                    }
+                    ByteBuffer record = locations[i].record();
+                    if (target.position + record.remaining() > target.capacity) {
+                        target.buffer.force();
+                        target = Segment.open(segmentPath(++sequence), sequence, segmentSize);
+                        newSegments.add(target);
+                    }
+                    locations[i] = write(target, record);
+                    written += locations[i].length;
+                }
+                compacted.put(entry.getKey(), new IndexEntry(locations[0], locations[1],
+                        Arrays.copyOfRange(locations, 2, locations.length)));
+            }
+            target.buffer.force();
+            // old segments are deleted in order, so if that is interrupted remaining ones still replay correctly
+            for (Segment segment : oldSegments) {
+                segment.close();
+                Files.delete(segment.path);
+            }
+            segments.clear();
+            segments.addAll(newSegments);
+            index.clear();
+            index.putAll(compacted);
+            active = target;
+            liveBytes = written;
+            totalBytes = written;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't compact workflow context log in " + directory, e);
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of executions having anything saved
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return total size of records in the log, including superseded ones
+     */
+    public long getLogSize() {
+        synchronized (appendMonitor) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * @return size of the latest records of all executions
+     */
+    public long getLiveSize() {
+        synchronized (appendMonitor) {
+            return liveBytes;
+        }
+    }
+
+    /**
+     * @return number of segment files
+     */
+    public int getSegmentCount() {
+        synchronized (appendMonitor) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Forces log to storage and closes segment files.
+     */
+    @Override
+    public void close() {
+        segmentsLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close workflow context log in " + directory, e);
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+    }
+
+    private static byte[] encodeSnapshot(ExecutionContext<?> execution) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ExecutionSnapshot.of(execution).writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private ExecutionContext<T> decodeExecution(Location location) {
+        ByteBuffer payload = location.payload();
+        if (location.type() == EXECUTION_BINARY) {
+            if (executionCodec == null) {
+                throw new IllegalStateException("Execution context is saved in binary form, but no codec supplied");
+            }
+            return executionCodec.decode(payload);
+        }
+        byte[] snapshot = new byte[payload.remaining()];
+        payload.get(snapshot);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            return ExecutionSnapshot.readFrom(location.executionId(), in).restore();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decodeUserContext(IndexEntry entry) {
+        ByteBuffer payload = entry.user.payload();
+        ExecutionSnapshot.getNullable(payload);
+        T context = codec.decode(payload);
+        if (entry.changes.length > 0 && changesCodec == null) {
+            throw new IllegalStateException("Changes of user context are saved, but codec doesn't support changes");
+        }
+        for (Location location : entry.changes) {
+            ByteBuffer changes = location.payload();
+            ExecutionSnapshot.getNullable(changes);
+            ((ChangeTracking<Object>) context).applyChanges(changesCodec.decodeChanges(changes));
+        }
+        return context;
+    }
+
+    private static final class Segment {
+        final Path path;
+        final long sequence;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        int position;
+
+        private Segment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+
+        static Segment open(Path path, long sequence, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long capacity = Math.min(Math.max(size, channel.size()), Integer.MAX_VALUE);
+            return new Segment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        byte type() {
+            return segment.buffer.get(offset + Integer.BYTES);
+        }
+
+        UUID executionId() {
+            return new UUID(segment.buffer.getLong(offset + Integer.BYTES + 1),
+                    segment.buffer.getLong(offset + Integer.BYTES + 1 + Long.BYTES));
+        }
+
+        /**
+         * @return view of the whole record in mapped segment
+         */
+        ByteBuffer record() {
+            ByteBuffer record = segment.buffer.duplicate();
+            record.position(offset).limit(offset + length);
+            return record;
+        }
+
+        /**
+         * @return read-only view of record payload in mapped segment
+         */
+        ByteBuffer payload() {
+            ByteBuffer payload = segment.buffer.asReadOnlyBuffer();
+            payload.position(offset + HEADER_SIZE).limit(offset + length - TRAILER_SIZE);
+            return payload;
+        }
+    }
+
+    private static final class IndexEntry {
+        static final Location[] NO_CHANGES = new Location[0];
+        static final IndexEntry EMPTY = new IndexEntry(null, null, NO_CHANGES);
+
+        final Location execution;
+        final Location user;
+        final Location[] changes;
+
+        IndexEntry(Location execution, Location user, Location[] changes) {
+            this.execution = execution;
+            this.user = user;
+            this.changes = changes;
+        }
+
+        long userBytes() {
+            long bytes = user == null ? 0 : user.length;
+            for (Location location : changes) {
+                bytes += location.length;
+            }
+            return bytes;
+        }
+
+        long liveBytes() {
+            return (execution == null ? 0 : execution.length) + userBytes();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package tech.becloud.mage.persistence;
+
+import tech.becloud.mage.model.UserContext;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts flow data object to bytes and back, for repositories storing binary data. Only byte array methods have
+ * to be implemented; codecs writing to and reading from {@link ByteBuffer} directly should override buffer methods
+ * as well, so repositories don't copy data through intermediate arrays.
+ * @param <T> type of flow data object
+ */
+public interface UserContextCodec<T extends UserContext> {
+
+    byte[] encode(T context);
+
+    T decode(byte[] data);
+
+    /**
+     * Encodes flow data object into target buffer, starting at its position. Position is advanced past encoded
+     * data, as with relative put methods. Callers retry with a larger buffer on overflow.
+     * @param context flow data object
+     * @param target buffer to write to
+     * @throws java.nio.BufferOverflowException if target doesn't have enough space
+     */
+    default void encode(T context, ByteBuffer target) {
+        target.put(encode(context));
+    }
+
+    /**
+     * Decodes flow data object from source buffer, which remaining bytes are exactly the encoded object.
+     * Source may be a view of repository storage, so it must not be retained.
+     * @param source buffer to read from
+     * @return decoded flow data object
+     */
+    default T decode(ByteBuffer source) {
+        byte[] data = new byte[source.remaining()];
+        source.get(data);
+        return decode(data);
+    }
+}
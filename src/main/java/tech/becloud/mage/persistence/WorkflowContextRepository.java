@@ -1,9 +1,14 @@
 package tech.becloud.mage.persistence;
 
 import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionState;
+import tech.becloud.mage.model.ChangeTracking;
 import tech.becloud.mage.model.UserContext;
 import tech.becloud.mage.model.WorkflowContext;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 public interface WorkflowContextRepository<T extends UserContext> {
@@ -19,4 +24,70 @@ public interface WorkflowContextRepository<T extends UserContext> {
     WorkflowContext<T> load(UUID executionId);
 
     void save(WorkflowContext<T> context);
+
+    /**
+     * Saves user context of flow data object implementing {@link ChangeTracking}, along with changes taken from it
+     * since its previous save. Repositories supporting changes may save just them, provided full snapshots are
+     * saved periodically and changes are applied on load. Default implementation saves full snapshot.
+     * @param executionId execution id
+     * @param executionPath execution point
+     * @param context flow data object
+     * @param changes changes since previous save, {@code null} if nothing changed
+     * @param <D> type of changes
+     */
+    default <D> void saveUserContextChanges(UUID executionId, String executionPath, T context, D changes) {
+        saveUserContext(executionId, executionPath, context);
+    }
+
+    /**
+     * Saves execution context and user context of flow data object implementing {@link ChangeTracking}, see
+     * {@link #saveUserContextChanges(UUID, String, UserContext, Object)}. Default implementation saves full snapshot.
+     * @param context workflow context
+     * @param changes changes of flow data object since its previous save, {@code null} if nothing changed
+     * @param <D> type of changes
+     */
+    default <D> void saveChanges(WorkflowContext<T> context, D changes) {
+        save(context);
+    }
+
+    /**
+     * Saves several contexts at once. Default implementation saves them one by one, implementations are encouraged
+     * to override it with a batch write.
+     * @param contexts contexts to save
+     */
+    default void saveAll(Collection<WorkflowContext<T>> contexts) {
+        contexts.forEach(this::save);
+    }
+
+    /**
+     * Loads a page of saved executions in given states owned by given service instance, e.g. to resume them after
+     * restart. Pages are ordered by execution id, so the next page starts after the last id of the previous one.
+     * @param serviceInstanceId owning service instance, see {@link ExecutionContext#getServiceInstanceId()};
+     *                          {@code null} matches executions without owner
+     * @param states execution states to match
+     * @param afterExecutionId id of the last execution of previous page, {@code null} for the first page
+     * @param limit maximum number of executions to load
+     * @return saved contexts ordered by execution id, user context is {@code null} if it wasn't saved
+     * @throws UnsupportedOperationException if repository doesn't support queries, which is the default
+     */
+    default List<WorkflowContext<T>> findExecutions(String serviceInstanceId, Set<ExecutionState> states,
+                                                    UUID afterExecutionId, int limit) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support queries");
+    }
+
+    /**
+     * Durability barrier: returns once everything saved for given execution so far is actually written.
+     * Called by the flow when execution pauses or terminates. Repositories writing synchronously have nothing to
+     * wait for, so default implementation does nothing.
+     * @param executionId execution to flush pending writes of
+     */
+    default void flush(UUID executionId) {
+    }
+
+    /**
+     * Durability barrier for all executions: returns once everything saved so far is actually written. Called when
+     * a batch of executions finishes, see {@link tech.becloud.mage.graph.WorkflowBatch}.
+     */
+    default void flush() {
+    }
 }
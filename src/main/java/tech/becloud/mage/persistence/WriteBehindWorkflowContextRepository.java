@@ -0,0 +1,354 @@
+package tech.becloud.mage.persistence;
+
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionState;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link WorkflowContextRepository} decorator that doesn't write checkpoints on the executing thread. Instead,
+ * checkpoints are coalesced per execution id, so only the latest state of each execution is written, and flushed
+ * to the underlying repository in batches once there are {@code maxBatchSize} executions pending or
+ * {@code flushInterval} elapsed.
+ * <p>
+ * Execution context and flow data object are copied when a checkpoint is queued, so a flush writes the state of the
+ * moment of checkpoint while execution goes on, and data written never gets ahead of the execution point written
+ * with it. Flow data objects are copied by a function supplied on construction.
+ * Executions are flushed synchronously by {@link #flush(UUID)} which the flow calls as a durability barrier when
+ * execution pauses or terminates. Loads flush pending state of requested execution first, so reads always observe
+ * the latest checkpoint.
+ * <p>
+ * Checkpoints failed to be written by background flush are logged and queued again, unless newer ones have been
+ * queued meanwhile, so they are retried by the next flush.
+ * @param <T> type of flow data object
+ */
+public class WriteBehindWorkflowContextRepository<T extends UserContext>
+        implements WorkflowContextRepository<T>, AutoCloseable {
+    private static final System.Logger LOGGER =
+            System.getLogger(WriteBehindWorkflowContextRepository.class.getName());
+
+    private final WorkflowContextRepository<T> repository;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final int maxBatchSize;
+    private final Map<UUID, Checkpoint<T>> pending;
+    private final AtomicBoolean flushScheduled;
+    private final ScheduledFuture<?> periodicFlush;
+    private final Object writeMonitor;
+    private final UnaryOperator<T> copier;
+
+    /**
+     * Creates write-behind repository with its own single flushing thread
+     * @param repository underlying repository to write to
+     * @param copier function making a copy of flow data object when checkpoint is queued
+     * @param maxBatchSize number of pending executions triggering a flush
+     * @param flushInterval maximum time a checkpoint may stay pending
+     */
+    public WriteBehindWorkflowContextRepository(WorkflowContextRepository<T> repository, UnaryOperator<T> copier,
+                                                int maxBatchSize, Duration flushInterval) {
+        // copier is checked before the thread is created
+        this(repository, requireCopier(copier), Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mage-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        }), true, maxBatchSize, flushInterval);
+    }
+
+    /**
+     * @param repository underlying repository to write to
+     * @param scheduler executor to run flushes on; it is not shut down on {@link #close()}
+     * @param copier function making a copy of flow data object when checkpoint is queued
+     * @param maxBatchSize number of pending executions triggering a flush
+     * @param flushInterval maximum time a checkpoint may stay pending
+     */
+    public WriteBehindWorkflowContextRepository(WorkflowContextRepository<T> repository,
+                                                ScheduledExecutorService scheduler, UnaryOperator<T> copier,
+                                                int maxBatchSize, Duration flushInterval) {
+        this(repository, requireCopier(copier), scheduler, false, maxBatchSize, flushInterval);
+    }
+
+    private WriteBehindWorkflowContextRepository(WorkflowContextRepository<T> repository, UnaryOperator<T> copier,
+                                                 ScheduledExecutorService scheduler, boolean ownScheduler,
+                                                 int maxBatchSize, Duration flushInterval) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.repository = repository;
+        this.copier = copier;
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+        this.maxBatchSize = maxBatchSize;
+        this.pending = new ConcurrentHashMap<>();
+        this.flushScheduled = new AtomicBoolean();
+        this.writeMonitor = new Object();
+        long interval = flushInterval.toNanos();
+        this.periodicFlush = scheduler.scheduleWithFixedDelay(this::flushInBackground, interval, interval,
+                TimeUnit.NANOSECONDS);
+    }
+
+    private static <T> UnaryOperator<T> requireCopier(UnaryOperator<T> copier) {
+        if (copier == null) {
+            throw new IllegalArgumentException("copier is required, so queued checkpoints don't see later changes");
+        }
+        return copier;
+    }
+
+    @Override
+    public T loadUserContext(UUID executionId, String executionPath) {
+        flush(executionId);
+        return repository.loadUserContext(executionId, executionPath);
+    }
+
+    @Override
+    public void saveUserContext(UUID executionId, String executionPath, T context) {
+        T copy = copy(context);
+        pending.compute(executionId, (id, checkpoint) -> Checkpoint.merge(checkpoint, null, copy, executionPath));
+        onCheckpoint();
+    }
+
+    @Override
+    public ExecutionContext<T> loadExecutionContext(UUID executionId) {
+        flush(executionId);
+        return repository.loadExecutionContext(executionId);
+    }
+
+    @Override
+    public void saveExecutionContext(ExecutionContext<T> executionContext) {
+        ExecutionSnapshot snapshot = ExecutionSnapshot.of(executionContext);
+        pending.compute(snapshot.executionId, (id, checkpoint) -> Checkpoint.merge(checkpoint, snapshot, null, null));
+        onCheckpoint();
+    }
+
+    @Override
+    public WorkflowContext<T> load(UUID executionId) {
+        flush(executionId);
+        return repository.load(executionId);
+    }
+
+    @Override
+    public void save(WorkflowContext<T> context) {
+        ExecutionSnapshot snapshot = ExecutionSnapshot.of(context.getExecutionContext());
+        T copy = copy(context.getUserContext());
+        pending.compute(snapshot.executionId, (id, checkpoint) ->
+                Checkpoint.merge(checkpoint, snapshot, copy, snapshot.executionPoint));
+        onCheckpoint();
+    }
+
+    /**
+     * Writes all pending checkpoints first, so the query observes the latest ones.
+     */
+    @Override
+    public List<WorkflowContext<T>> findExecutions(String serviceInstanceId, Set<ExecutionState> states,
+                                                   UUID afterExecutionId, int limit) {
+        flushPending();
+        return repository.findExecutions(serviceInstanceId, states, afterExecutionId, limit);
+    }
+
+    /**
+     * Writes pending checkpoint of given execution, if any, on the calling thread. If write fails, checkpoint stays
+     * pending.
+     * @param executionId execution to flush pending writes of
+     */
+    @Override
+    public void flush(UUID executionId) {
+        synchronized (writeMonitor) {
+            Checkpoint<T> checkpoint = pending.remove(executionId);
+            if (checkpoint != null) {
+                write(executionId, checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending checkpoints on the calling thread, then flushes underlying repository.
+     * @throws RuntimeException the first exception thrown by underlying repository; checkpoints failed to be written
+     * stay pending
+     */
+    @Override
+    public void flush() {
+        flushPending();
+        repository.flush();
+    }
+
+    /**
+     * @return number of executions having checkpoints not written yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops periodic flushing and writes all pending checkpoints.
+     */
+    @Override
+    public void close() {
+        periodicFlush.cancel(false);
+        if (ownScheduler) {
+            scheduler.shutdown();
+        }
+        flushPending();
+    }
+
+    private void onCheckpoint() {
+        if (pending.size() >= maxBatchSize && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                flushScheduled.set(false);
+                flushInBackground();
+            });
+        }
+    }
+
+    /**
+     * Flushes pending checkpoints in scheduler thread, where an exception would cancel periodic flushing.
+     */
+    private void flushInBackground() {
+        try {
+            flushPending();
+        } catch (RuntimeException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "Failed to write checkpoints, they stay pending", e);
+        }
+    }
+
+    /**
+     * Writes all pending checkpoints. A checkpoint failed to be written is queued again, and remaining ones are
+     * still written.
+     * @throws RuntimeException the first exception thrown by underlying repository
+     */
+    private void flushPending() {
+        synchronized (writeMonitor) {
+            RuntimeException failure = null;
+            Map<UUID, Checkpoint<T>> batch = new LinkedHashMap<>();
+            Iterator<Map.Entry<UUID, Checkpoint<T>>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<UUID, Checkpoint<T>> entry = iterator.next();
+                Checkpoint<T> checkpoint = entry.getValue();
+                if (!pending.remove(entry.getKey(), checkpoint)) {
+                    continue;
+                }
+                try {
+                    if (checkpoint.isComplete()) {
+                        batch.put(entry.getKey(), checkpoint);
+                        if (batch.size() == maxBatchSize) {
+                            writeBatch(batch);
+                        }
+                    } else {
+                        write(entry.getKey(), checkpoint);
+                    }
+                } catch (RuntimeException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            try {
+                writeBatch(batch);
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Writes complete checkpoints at once; all of them are queued again if that fails. Batch is cleared.
+     */
+    private void writeBatch(Map<UUID, Checkpoint<T>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<WorkflowContext<T>> contexts = new ArrayList<>(batch.size());
+        for (Checkpoint<T> checkpoint : batch.values()) {
+            contexts.add(new WorkflowContext<>(checkpoint.restoreExecution(), checkpoint.userContext));
+        }
+        try {
+            repository.saveAll(contexts);
+        } catch (RuntimeException e) {
+            batch.forEach(this::requeue);
+            throw e;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private void write(UUID executionId, Checkpoint<T> checkpoint) {
+        try {
+            if (checkpoint.isComplete()) {
+                repository.save(new WorkflowContext<>(checkpoint.restoreExecution(), checkpoint.userContext));
+            } else if (checkpoint.execution != null) {
+                repository.saveExecutionContext(checkpoint.restoreExecution());
+            } else {
+                repository.saveUserContext(executionId, checkpoint.executionPath, checkpoint.userContext);
+            }
+        } catch (RuntimeException e) {
+            requeue(executionId, checkpoint);
+            throw e;
+        }
+    }
+
+    /**
+     * Queues failed checkpoint again; parts of a newer checkpoint queued meanwhile take precedence.
+     */
+    private void requeue(UUID executionId, Checkpoint<T> checkpoint) {
+        pending.merge(executionId, checkpoint, (failed, newer) ->
+                Checkpoint.merge(failed, newer.execution, newer.userContext, newer.executionPath));
+    }
+
+    private T copy(T context) {
+        return context == null ? null : copier.apply(context);
+    }
+
+    /**
+     * Latest not yet written state of a single execution.
+     */
+    private static final class Checkpoint<T extends UserContext> {
+        private final ExecutionSnapshot execution;
+        private final T userContext;
+        private final String executionPath;
+
+        private Checkpoint(ExecutionSnapshot execution, T userContext, String executionPath) {
+            this.execution = execution;
+            this.userContext = userContext;
+            this.executionPath = executionPath;
+        }
+
+        static <T extends UserContext> Checkpoint<T> merge(Checkpoint<T> checkpoint, ExecutionSnapshot execution,
+                                                           T userContext, String executionPath) {
+            if (checkpoint == null) {
+                return new Checkpoint<>(execution, userContext, executionPath);
+            }
+            return new Checkpoint<>(
+                    execution != null ? execution : checkpoint.execution,
+                    userContext != null ? userContext : checkpoint.userContext,
+                    userContext != null ? executionPath : checkpoint.executionPath);
+        }
+
+        boolean isComplete() {
+            return execution != null && userContext != null;
+        }
+
+        /**
+         * @return execution context as of checkpoint, carrying fencing token of the lease it was taken under
+         */
+        ExecutionContext<T> restoreExecution() {
+            ExecutionContext<T> executionContext = execution.restore();
+            executionContext.setFencingToken(execution.fencingToken);
+            return executionContext;
+        }
+    }
+}
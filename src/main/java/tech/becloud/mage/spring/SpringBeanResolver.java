@@ -7,7 +7,9 @@ import tech.becloud.mage.graph.BeanResolver;
 import tech.becloud.mage.graph.Flow;
 import tech.becloud.mage.model.UserContext;
 
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Component
 public class SpringBeanResolver implements BeanResolver {
@@ -33,4 +35,18 @@ public class SpringBeanResolver implements BeanResolver {
         // TODO verify parameter class using GenericTypeResolver mehods
         return (Flow<T>) bean;
     }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends UserContext> Predicate<? super T> getPredicate(String name, Class<T> klass) {
+        Predicate<?> bean = beanFactory.getBean(name, Predicate.class);
+        return (Predicate<? super T>) bean;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends UserContext> BiConsumer<? super T, Throwable> getExceptionHandler(String name, Class<T> klass) {
+        BiConsumer<?, ?> bean = beanFactory.getBean(name, BiConsumer.class);
+        return (BiConsumer<? super T, Throwable>) bean;
+    }
 }
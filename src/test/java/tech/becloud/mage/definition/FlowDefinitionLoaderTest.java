@@ -0,0 +1,290 @@
+package tech.becloud.mage.definition;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.becloud.mage.graph.BeanResolver;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.graph.Workflow;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.definition.FlowDefinition;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowDefinitionLoaderTest {
+
+    private static final String ORDER = "{\n"
+            + "  \"name\": \"order\",\n"
+            + "  \"version\": 2,\n"
+            + "  \"nodes\": [\n"
+            + "    {\"id\": \"check\", \"action\": \"check\", \"next\": \"route\"},\n"
+            + "    {\"id\": \"route\", \"routes\": [{\"predicate\": \"large\", \"route\": \"approve\"}],"
+            + " \"defaultRoute\": \"ship\"},\n"
+            + "    {\"id\": \"approve\", \"action\": \"fail\", \"next\": \"ship\", \"exceptionRoutes\": [\n"
+            + "      {\"exceptionClass\": \"java.lang.IllegalStateException\", \"handler\": \"log\","
+            + " \"route\": \"ship\"}]},\n"
+            + "    {\"id\": \"ship\", \"subflow\": \"shipping\"}\n"
+            + "  ]\n"
+            + "}";
+    private static final String SHIPPING = "{\"name\": \"shipping\", \"version\": 1, \"nodes\": ["
+            + "{\"id\": \"pack\", \"action\": \"pack\", \"retry\": {\"maxAttempts\": 3, \"initialDelay\": \"PT0.01S\"}}"
+            + "]}";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLoadAndRun() throws IOException {
+        Files.writeString(directory.resolve("order.json"), ORDER);
+        Files.writeString(directory.resolve("shipping.json"), SHIPPING);
+        Files.writeString(directory.resolve("readme.txt"), "not a definition");
+        MapBeanResolver beans = new MapBeanResolver();
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, beans);
+        List<Workflow<Order>> workflows = loader.loadAll(directory);
+        assertEquals(2, workflows.size());
+        Workflow<Order> workflow = workflows.get(0);
+        assertEquals("order", workflow.getName());
+        assertEquals(2, workflow.getVersion());
+
+        Order order = new Order(10);
+        workflow.start(workflow.createContext(order));
+        assertEquals(List.of("check", "pack"), order.history);
+
+        order = new Order(1000);
+        workflow.start(workflow.createContext(order));
+        assertEquals(List.of("check", "fail", "log", "pack"), order.history);
+        assertEquals(1, beans.lookups.get("pack").get());
+    }
+
+    @Test
+    void testAllProblemsReported() throws IOException {
+        Path file = directory.resolve("broken.json");
+        Files.writeString(file, "{\"version\": 1, \"colour\": \"red\", \"nodes\": ["
+                + "{\"id\": \"a\", \"action\": \"check\", \"next\": \"missing\", \"timeout\": \"soon\"},"
+                + "{\"id\": \"a\", \"subflow\": \"x\", \"persistContext\": \"SOME\"},"
+                + "{\"id\": \"b\", \"routes\": [], \"exceptionRoutes\": [{\"exceptionClass\": \"java.lang.String\","
+                + " \"route\": \"a\"}]}]}");
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        FlowDefinitionException e = assertThrows(FlowDefinitionException.class, () -> loader.load(file));
+        assertEquals(List.of(
+                "broken.json: Definition: unknown property colour",
+                "broken.json: Node a: timeout should be ISO-8601 duration, e.g. PT30S",
+                "broken.json: Definition: name is missing",
+                "broken.json: Node a: defined more than once",
+                "broken.json: Node a: references undefined node missing",
+                "broken.json: Node a: unknown persistence scope SOME",
+                "broken.json: Node b: router should have at least one route",
+                "broken.json: Node b: java.lang.String isn't an exception class"), e.getProblems());
+    }
+
+    @Test
+    void testUnresolvedBeansReported() throws IOException {
+        Path file = directory.resolve("unresolved.json");
+        Files.writeString(file, "{\"name\": \"unresolved\", \"nodes\": ["
+                + "{\"id\": \"a\", \"action\": \"unknown\", \"next\": \"b\"},"
+                + "{\"id\": \"b\", \"subflow\": \"nowhere\"}]}");
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        FlowDefinitionException e = assertThrows(FlowDefinitionException.class, () -> loader.load(file));
+        assertEquals(List.of(
+                "Definition unresolved node a: can't resolve bean unknown: No bean unknown",
+                "Definition unresolved node b: can't resolve bean nowhere: No bean nowhere"), e.getProblems());
+    }
+
+    @Test
+    void testPredicatesAndHandlersOptionalForResolver() throws IOException {
+        Path file = directory.resolve("routed.json");
+        Files.writeString(file, "{\"name\": \"routed\", \"nodes\": ["
+                + "{\"id\": \"a\", \"routes\": [{\"predicate\": \"large\", \"route\": \"b\"}],"
+                + " \"defaultRoute\": \"b\"},"
+                + "{\"id\": \"b\", \"action\": \"check\"}]}");
+        MapBeanResolver beans = new MapBeanResolver();
+        // resolver implementing lookups of actions and flows only
+        BeanResolver resolver = new BeanResolver() {
+            @Override
+            public <T extends UserContext> Consumer<? super T> getConsumer(String name, Class<T> klass) {
+                return beans.getConsumer(name, klass);
+            }
+
+            @Override
+            public <T extends UserContext> Flow<T> getFlow(String name, Class<T> klass) {
+                return beans.getFlow(name, klass);
+            }
+        };
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, resolver);
+        FlowDefinitionException e = assertThrows(FlowDefinitionException.class, () -> loader.load(file));
+        assertEquals(List.of("Definition routed node a: bean large not found"), e.getProblems());
+    }
+
+    @Test
+    void testMalformedJsonReported() throws IOException {
+        Path file = directory.resolve("malformed.json");
+        Files.writeString(file, "{\"name\": \"x\",\n \"nodes\": [}");
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        FlowDefinitionException e = assertThrows(FlowDefinitionException.class, () -> loader.load(file));
+        assertEquals(List.of("malformed.json: Unexpected character '}' at line 2, column 12"), e.getProblems());
+    }
+
+    @Test
+    void testYamlRequiresParser() throws IOException {
+        Path file = directory.resolve("shipping.yaml");
+        Files.writeString(file, "name: shipping");
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        assertThrows(IllegalStateException.class, () -> loader.load(file));
+        // stands in for a YAML library
+        loader.setParser("yaml", content -> new JsonDefinitionParser().parse(SHIPPING));
+        assertEquals("shipping", loader.load(file).getName());
+    }
+
+    @Test
+    void testCachedDefinition() throws IOException {
+        Path cacheDirectory = directory.resolve("cache");
+        Path file = directory.resolve("shipping.json");
+        Files.writeString(file, SHIPPING);
+        AtomicInteger parses = new AtomicInteger();
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        loader.setParser("json", content -> {
+            parses.incrementAndGet();
+            return new JsonDefinitionParser().parse(content);
+        });
+        loader.setCacheDirectory(cacheDirectory);
+        FlowDefinition first = loader.read(file);
+        assertEquals(1, parses.get());
+
+        // a new loader stands for the next application start
+        loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        loader.setParser("json", content -> {
+            parses.incrementAndGet();
+            return new JsonDefinitionParser().parse(content);
+        });
+        loader.setCacheDirectory(cacheDirectory);
+        FlowDefinition cached = loader.read(file);
+        assertEquals(1, parses.get());
+        assertEquals(first.getName(), cached.getName());
+        assertEquals(first.getNodes().get(0).getRetry().getInitialDelay(),
+                cached.getNodes().get(0).getRetry().getInitialDelay());
+        Order order = new Order(1);
+        Workflow<Order> workflow = loader.compile(List.of(cached)).get(0);
+        workflow.start(workflow.createContext(order));
+        assertEquals(List.of("pack"), order.history);
+
+        Files.writeString(file, SHIPPING.replace("\"version\": 1", "\"version\": 1 "));
+        loader.read(file);
+        assertEquals(2, parses.get());
+        try (Stream<Path> entries = Files.list(cacheDirectory)) {
+            assertEquals(1, entries.count());
+        }
+    }
+
+    @Test
+    void testUnreadableCacheEntryRewritten() throws IOException {
+        Path cacheDirectory = directory.resolve("cache");
+        Path file = directory.resolve("shipping.json");
+        Files.writeString(file, SHIPPING);
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        loader.setCacheDirectory(cacheDirectory);
+        loader.read(file);
+        Path entry;
+        try (Stream<Path> entries = Files.list(cacheDirectory)) {
+            entry = entries.findFirst().orElseThrow();
+        }
+        Files.write(entry, new byte[] {1});
+
+        loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        loader.setCacheDirectory(cacheDirectory);
+        loader.read(file);
+        assertTrue(Files.size(entry) > 1);
+    }
+
+    @Test
+    void testSubflowCycleReported() throws IOException {
+        Files.writeString(directory.resolve("a.json"),
+                "{\"name\": \"a\", \"nodes\": [{\"id\": \"call\", \"subflow\": \"b\"}]}");
+        Files.writeString(directory.resolve("b.json"),
+                "{\"name\": \"b\", \"nodes\": [{\"id\": \"call\", \"subflow\": \"a\"}]}");
+        FlowDefinitionLoader<Order> loader = new FlowDefinitionLoader<>(Order.class, new MapBeanResolver());
+        FlowDefinitionException e = assertThrows(FlowDefinitionException.class, () -> loader.loadAll(directory));
+        assertTrue(e.getProblems().contains("Definition a: subflow calls form a cycle"));
+    }
+
+    static class Order implements UserContext {
+        final int amount;
+        final List<String> history = new ArrayList<>();
+        UUID executionId;
+
+        Order(int amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public UUID getExecutionId() {
+            return executionId;
+        }
+
+        @Override
+        public void setExecutionId(UUID executionId) {
+            this.executionId = executionId;
+        }
+    }
+
+    static class MapBeanResolver implements BeanResolver {
+        final Map<String, Object> beans = new HashMap<>();
+        final Map<String, AtomicInteger> lookups = new HashMap<>();
+
+        MapBeanResolver() {
+            beans.put("check", (Consumer<Order>) order -> order.history.add("check"));
+            beans.put("pack", (Consumer<Order>) order -> order.history.add("pack"));
+            beans.put("fail", (Consumer<Order>) order -> {
+                order.history.add("fail");
+                throw new IllegalStateException("Not approved");
+            });
+            beans.put("large", (Predicate<Order>) order -> order.amount > 100);
+            beans.put("log", (BiConsumer<Order, Throwable>) (order, e) -> order.history.add("log"));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <B> B lookup(String name) {
+            lookups.computeIfAbsent(name, key -> new AtomicInteger()).incrementAndGet();
+            Object bean = beans.get(name);
+            if (bean == null) {
+                throw new IllegalArgumentException("No bean " + name);
+            }
+            return (B) bean;
+        }
+
+        @Override
+        public <T extends UserContext> Consumer<? super T> getConsumer(String name, Class<T> klass) {
+            return lookup(name);
+        }
+
+        @Override
+        public <T extends UserContext> Flow<T> getFlow(String name, Class<T> klass) {
+            return lookup(name);
+        }
+
+        @Override
+        public <T extends UserContext> Predicate<? super T> getPredicate(String name, Class<T> klass) {
+            return lookup(name);
+        }
+
+        @Override
+        public <T extends UserContext> BiConsumer<? super T, Throwable> getExceptionHandler(String name,
+                                                                                           Class<T> klass) {
+            return lookup(name);
+        }
+    }
+}
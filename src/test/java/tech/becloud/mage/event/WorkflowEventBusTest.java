@@ -0,0 +1,124 @@
+package tech.becloud.mage.event;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.graph.FlowBuilder;
+import tech.becloud.mage.graph.TestContext;
+import tech.becloud.mage.graph.Workflow;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkflowEventBusTest {
+
+    private WorkflowEventBus bus;
+
+    @AfterEach
+    void tearDown() {
+        bus.close();
+    }
+
+    @Test
+    void testEventsDeliveredInOrder() {
+        bus = new WorkflowEventBus(4, OverflowPolicy.BLOCK);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        Subscription subscription = bus.subscribe(event -> {
+            threads.add(Thread.currentThread());
+            received.add(event.getWorkflowVersion());
+        });
+        for (int i = 0; i < 100; i++) {
+            bus.publish(event(i));
+        }
+        subscription.close();
+        assertEquals(100, received.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, received.get(i));
+        }
+        assertNotSame(Thread.currentThread(), threads.get(0));
+        assertEquals(100, subscription.getDeliveredCount());
+        assertEquals(0, subscription.getDroppedCount());
+        assertEquals(0, subscription.getPendingCount());
+    }
+
+    @Test
+    void testSlowListenerDropsEvents() throws InterruptedException {
+        bus = new WorkflowEventBus(4, OverflowPolicy.DROP);
+        CountDownLatch release = new CountDownLatch(1);
+        Subscription slow = bus.subscribe(event -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        List<WorkflowEvent> received = new CopyOnWriteArrayList<>();
+        Subscription fast = bus.subscribe(received::add);
+        for (int i = 0; i < 20; i++) {
+            bus.publish(event(i));
+            // let fast listener keep up
+            Thread.sleep(1);
+        }
+        assertTrue(slow.getDroppedCount() >= 15, "dropped " + slow.getDroppedCount());
+        assertEquals(slow.getDroppedCount(), bus.getDroppedCount());
+        release.countDown();
+        bus.close();
+        assertEquals(20, slow.getDeliveredCount() + slow.getDroppedCount());
+        assertEquals(0, fast.getDroppedCount());
+        assertEquals(20, received.size());
+    }
+
+    @Test
+    void testListenerFailureDoesNotStopDelivery() {
+        bus = new WorkflowEventBus(8, OverflowPolicy.BLOCK);
+        Subscription subscription = bus.subscribe(event -> {
+            throw new IllegalStateException("listener failure");
+        });
+        bus.publish(event(1));
+        bus.publish(event(2));
+        subscription.close();
+        assertEquals(2, subscription.getDeliveredCount());
+        assertEquals(2, subscription.getFailedCount());
+    }
+
+    @Test
+    void testFlowLifecycleEvents() {
+        bus = new WorkflowEventBus(64, OverflowPolicy.BLOCK);
+        List<WorkflowEvent> received = new CopyOnWriteArrayList<>();
+        bus.subscribe(received::add);
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Failing", t -> {
+                    throw new IllegalArgumentException("failure");
+                })
+                .onException(IllegalArgumentException.class, "Router");
+        builder.routeTo("Router", t -> true, "Last");
+        builder.execute("Last", t -> { });
+        Workflow<TestContext> workflow = new Workflow<>("events", 1, builder.build());
+        workflow.setEventBus(bus);
+        workflow.start(workflow.createContext(new TestContext()));
+        bus.close();
+
+        assertEquals(List.of("STARTED null>null",
+                        "NODE_ENTERED Failing>null", "EXCEPTION_ROUTED Failing>Router",
+                        "NODE_ENTERED Router>null", "ROUTED Router>Last",
+                        "NODE_ENTERED Last>null", "NODE_EXITED Last>null",
+                        "COMPLETED null>null"),
+                received.stream().map(e -> e.getType() + " " + e.getNodeId() + ">" + e.getNextNodeId())
+                        .collect(Collectors.toList()));
+        assertInstanceOf(IllegalArgumentException.class, received.get(2).getException());
+    }
+
+    private static WorkflowEvent event(int sequence) {
+        return new WorkflowEvent(WorkflowEventType.NODE_ENTERED, "test", sequence, UUID.randomUUID(), "Step", null,
+                null);
+    }
+}
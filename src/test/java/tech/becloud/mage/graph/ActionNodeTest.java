@@ -1,12 +1,26 @@
 package tech.becloud.mage.graph;
 
 import org.junit.jupiter.api.Test;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepository;
+import tech.becloud.mage.persistence.PersistContext;
+import tech.becloud.mage.persistence.PersistContextScope;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ActionNodeTest extends FlowTestBase {
 
@@ -48,4 +62,140 @@ class ActionNodeTest extends FlowTestBase {
         ActionNode<TestContext> node = new ActionNode<>("test", new ThrowingConsumer(), "next", exceptionRoutes);
         assertThrows(WokflowExecutionException.class, () -> node.apply(workflowContext));
     }
+
+    @Test
+    void testTimeoutInterruptsAction() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }).timeout(Duration.ofMillis(20))
+                .onException(TimeoutException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        long started = System.nanoTime();
+        workflow.start(workflow.createContext(context));
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(List.of("Recovery"), context.history);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    void testActionReturningAfterTimeoutCompletes() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                // returns normally although interrupted by timer
+            }
+        }).timeout(Duration.ofMillis(20))
+                .onException(TimeoutException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        workflow.start(workflow.createContext(context));
+        assertEquals(List.of("Step 2"), context.history);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    void testRetryUntilSuccess() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("Transient failure");
+            }
+        }).retry(RetryPolicy.maxAttempts(3).backoff(Duration.ofMillis(10), 2, Duration.ofMillis(20)))
+                .onException(IllegalStateException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        CompletableFuture<ExecutionState> completion = new CompletableFuture<>();
+        workflow.setCompletionHandler((t, state) -> completion.complete(state));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        // thread returns once retry is scheduled, execution continues when delay elapses
+        workflow.start(workflowContext);
+        assertEquals(ExecutionState.COMPLETED, completion.get(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+        assertEquals(List.of("Step 2"), context.history);
+        assertEquals(0, workflowContext.getExecutionContext().getRetryAttempts());
+    }
+
+    @Test
+    void testRetriesExhaustedOrNotRetryable() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> {
+            attempts.incrementAndGet();
+            if (t.condition) {
+                throw new IllegalArgumentException("Permanent failure");
+            }
+            throw new IllegalStateException("Transient failure");
+        }).retry(RetryPolicy.maxAttempts(3).backoff(Duration.ZERO, 1, Duration.ZERO)
+                        .retryOn(IllegalStateException.class))
+                .onException(RuntimeException.class, "Recovery");
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            workflow.start(workflow.createContext(context), executorService).get(5, TimeUnit.SECONDS);
+            assertEquals(3, attempts.get());
+            assertEquals(List.of("Recovery"), context.history);
+
+            attempts.set(0);
+            context.condition = true;
+            workflow.start(workflow.createContext(context), executorService).get(5, TimeUnit.SECONDS);
+            assertEquals(1, attempts.get());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    void testRetryAttemptsPersisted() throws Exception {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .execute("Step2", new ThrowingConsumer())
+                .retry(RetryPolicy.maxAttempts(5).backoff(Duration.ofMinutes(1), 1, Duration.ofMinutes(1)));
+        Flow<TestContext> flow = builder.build();
+        InMemoryWorkflowContextRepository<TestContext> repository = new InMemoryWorkflowContextRepository<>();
+        flow.setWorkflowContextRepository(repository);
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, flow);
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        ExecutionContext<TestContext> saved = repository.loadExecutionContext(workflowContext.getExecutionId());
+        assertEquals(ExecutionState.RUNNING, saved.getExecutionState());
+        assertEquals("Step2", saved.getExecutionPoint());
+        assertEquals(1, saved.getRetryAttempts());
+        // execution awaiting retry is canceled without waiting for delay
+        workflowContext.cancel().get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.CANCELED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testPersistenceScopePrecedence() {
+        ActionNode<TestContext> node = new ActionNode<>("test", new TrackingConsumer("Step 1"), "next", Collections.emptyList());
+        assertEquals(PersistContextScope.ALL, node.getPersistenceScope());
+        node.setPersistenceScope(PersistContextScope.USER);
+        assertEquals(PersistContextScope.USER, node.getPersistenceScope());
+
+        ActionNode<TestContext> annotated = new ActionNode<>("test", new NotPersistingConsumer(), "next", Collections.emptyList());
+        annotated.setPersistenceScope(PersistContextScope.USER);
+        assertEquals(PersistContextScope.NONE, annotated.getPersistenceScope());
+        annotated.setNodePersistContextScope(PersistContextScope.EXECUTION);
+        assertEquals(PersistContextScope.EXECUTION, annotated.getPersistenceScope());
+    }
+
+    @PersistContext(PersistContextScope.NONE)
+    private static class NotPersistingConsumer implements Consumer<TestContext> {
+        @Override
+        public void accept(TestContext testContext) {
+        }
+    }
 }
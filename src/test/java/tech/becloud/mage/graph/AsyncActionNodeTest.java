@@ -0,0 +1,126 @@
+package tech.becloud.mage.graph;
+
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncActionNodeTest extends FlowTestBase {
+
+    @Test
+    void testCompletedStage() {
+        AsyncActionNode<TestContext> node = new AsyncActionNode<>("test", t -> {
+            t.history.add("Step 1");
+            return CompletableFuture.completedFuture(null);
+        }, "next", Collections.emptyList());
+        assertEquals("next", node.apply(workflowContext));
+        assertEquals(List.of("Step 1"), context.history);
+    }
+
+    @Test
+    void testHandledException() {
+        List<ExceptionRoute<TestContext>> exceptionRoutes = List.of(
+                new ExceptionRoute<TestContext>(IllegalStateException.class, "errorPath"));
+        AsyncActionNode<TestContext> node = new AsyncActionNode<>("test",
+                t -> CompletableFuture.failedFuture(new IllegalStateException("test")), "next", exceptionRoutes);
+        assertEquals("errorPath", node.apply(workflowContext));
+    }
+
+    @Test
+    void testUnhandledException() {
+        List<ExceptionRoute<TestContext>> exceptionRoutes = List.of(
+                new ExceptionRoute<TestContext>(NullPointerException.class, "errorPath"));
+        AsyncActionNode<TestContext> node = new AsyncActionNode<>("test",
+                t -> CompletableFuture.failedFuture(new IllegalStateException("test")), "next", exceptionRoutes);
+        assertThrows(WokflowExecutionException.class, () -> node.apply(workflowContext));
+    }
+
+    @Test
+    void testFlowContinuesOnStageCompletion() throws Exception {
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep1", new TrackingConsumer("Sub 1"))
+                .executeAsync("AsyncStep", t -> stage)
+                .execute("SubStep2", new TrackingConsumer("Sub 2"));
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .subflow("Sub", subflowBuilder.build())
+                .execute("Step3", new TrackingConsumer("Step 3"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        CompletableFuture<ExecutionState> completion = new CompletableFuture<>();
+        workflow.setCompletionHandler((t, state) -> completion.complete(state));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertEquals(List.of("Step 1", "Sub 1"), context.history);
+        assertEquals("Sub/AsyncStep", workflowContext.getExecutionContext().getExecutionPoint());
+        CompletableFuture.runAsync(() -> stage.complete(null));
+        assertEquals(ExecutionState.COMPLETED, completion.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("Step 1", "Sub 1", "Sub 2", "Step 3"), context.history);
+    }
+
+    @Test
+    void testExceptionRoutedOnStageFailure() {
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.executeAsync("AsyncStep", t -> stage)
+                .onException(IllegalStateException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertTrue(context.history.isEmpty());
+        stage.completeExceptionally(new IllegalStateException("test"));
+        assertEquals(List.of("Recovery"), context.history);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testStageTimeoutRouted() throws Exception {
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.executeAsync("AsyncStep", t -> stage)
+                .timeout(Duration.ofMillis(20))
+                .onException(TimeoutException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", t -> t.history.add(Thread.currentThread().getName()));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        CompletableFuture<ExecutionState> completion = new CompletableFuture<>();
+        workflow.setCompletionHandler((t, state) -> completion.complete(state));
+        workflow.start(workflow.createContext(context));
+        assertEquals(ExecutionState.COMPLETED, completion.get(5, TimeUnit.SECONDS));
+        // timer thread only fires timeout, flow goes on in the common pool
+        assertEquals(1, context.history.size());
+        assertTrue(context.history.get(0).startsWith("ForkJoinPool.commonPool"), context.history.get(0));
+        assertFalse(stage.isDone());
+    }
+
+    @Test
+    void testCancelAwaitingExecution() throws Exception {
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.executeAsync("AsyncStep", t -> stage)
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        CompletableFuture<ExecutionState> completion = new CompletableFuture<>();
+        workflow.setCompletionHandler((t, state) -> completion.complete(state));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        workflowContext.cancel().get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.CANCELED, completion.get(5, TimeUnit.SECONDS));
+        assertEquals("AsyncStep", workflowContext.getExecutionContext().getExecutionPoint());
+        assertFalse(stage.isDone());
+        stage.complete(null);
+        assertTrue(context.history.isEmpty());
+    }
+}
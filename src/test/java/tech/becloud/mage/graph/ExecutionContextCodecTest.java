@@ -0,0 +1,118 @@
+package tech.becloud.mage.graph;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExecutionContextCodecTest {
+
+    private TestContext context;
+    private Workflow<TestContext> workflow;
+
+    @BeforeEach
+    void setUp() {
+        context = new TestContext();
+        workflow = new Workflow<>("test", 1, buildFlow("SubStep2"));
+    }
+
+    @Test
+    void testRoundTrip() {
+        ExecutionContextCodec codec = new ExecutionContextCodec(workflow);
+        ExecutionContext<TestContext> execution = new ExecutionContext<>("test", 1, UUID.randomUUID());
+        execution.setExecutionState(ExecutionState.PAUSED);
+        execution.setExecutionPoint("Sub/SubStep2");
+        execution.setServiceInstanceId("node-1");
+        execution.setCompletedBranches(1L << 40);
+        execution.setRetryAttempts(3);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(codec.maxEncodedSize(execution));
+        codec.encode(execution, buffer);
+        buffer.flip();
+
+        ExecutionContext<TestContext> decoded = codec.decode(buffer);
+        assertEquals(0, buffer.remaining());
+        assertEquals("test", decoded.getWorkflowName());
+        assertEquals(1, decoded.getWorkflowVersion());
+        assertEquals(execution.getExecutionId(), decoded.getExecutionId());
+        assertEquals(ExecutionState.PAUSED, decoded.getExecutionState());
+        assertEquals("Sub/SubStep2", decoded.getExecutionPoint());
+        assertEquals("node-1", decoded.getServiceInstanceId());
+        assertEquals(1L << 40, decoded.getCompletedBranches());
+        assertEquals(3, decoded.getRetryAttempts());
+        // node ids are interned, slots are resolved
+        Flow<TestContext> subflow = ((SubflowNode<TestContext>) workflow.getFlow().getNode(decoded.getNodeSlot(0)))
+                .getFlow();
+        assertSame(subflow.getNode(decoded.getNodeSlot(1)).getId(), decoded.getNodeId(1));
+    }
+
+    @Test
+    void testCompactSize() {
+        ExecutionContextCodec codec = new ExecutionContextCodec(workflow);
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        ExecutionContext<TestContext> execution = workflowContext.getExecutionContext();
+        assertEquals(26, codec.encode(execution).length);
+        execution.setExecutionPoint("Step3");
+        execution.setExecutionState(ExecutionState.RUNNING);
+        byte[] data = codec.encode(execution);
+        assertEquals(27, data.length);
+        ExecutionContext<TestContext> decoded = codec.decode(data);
+        assertEquals("Step3", decoded.getExecutionPoint());
+        assertNull(decoded.getServiceInstanceId());
+    }
+
+    @Test
+    void testResumeDecoded() {
+        ExecutionContextCodec codec = new ExecutionContextCodec(workflow);
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflowContext.getExecutionContext().setExecutionPoint("Sub/SubStep2");
+        ExecutionContext<TestContext> decoded = codec.decode(codec.encode(workflowContext.getExecutionContext()));
+        workflow.resume(new WorkflowContext<>(decoded, context));
+        assertEquals(List.of("Sub 2", "Step 3"), context.history);
+        assertEquals(ExecutionState.COMPLETED, decoded.getExecutionState());
+    }
+
+    @Test
+    void testDefinitionChangeDetected() {
+        Workflow<TestContext> changed = new Workflow<>("test", 1, buildFlow("SubStepB"));
+        ExecutionContextCodec codec = new ExecutionContextCodec(workflow);
+        codec.register(workflow);
+        assertThrows(IllegalArgumentException.class, () -> codec.register(changed));
+
+        byte[] data = codec.encode(workflow.createContext(context).getExecutionContext());
+        ExecutionContextCodec changedCodec = new ExecutionContextCodec(changed);
+        assertThrows(IllegalStateException.class, () -> changedCodec.decode(data));
+        data[0] = ExecutionContextCodec.FORMAT_VERSION + 1;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(data));
+    }
+
+    @Test
+    void testUnknownWorkflowOrNode() {
+        ExecutionContextCodec codec = new ExecutionContextCodec(workflow);
+        assertThrows(IllegalStateException.class,
+                () -> codec.encode(new ExecutionContext<>("test", 2, UUID.randomUUID())));
+        ExecutionContext<TestContext> execution = new ExecutionContext<>("test", 1, UUID.randomUUID());
+        execution.setExecutionPoint("Step3/SubStep2");
+        assertThrows(IllegalStateException.class, () -> codec.encode(execution));
+        execution.setExecutionPoint("Sub/Undefined");
+        assertThrows(IllegalStateException.class, () -> codec.encode(execution));
+    }
+
+    private static Flow<TestContext> buildFlow(String subStepId) {
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep1", new TrackingConsumer("Sub 1"))
+                .execute(subStepId, new TrackingConsumer("Sub 2"));
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .subflow("Sub", subflowBuilder.build())
+                .execute("Step3", new TrackingConsumer("Step 3"));
+        return builder.build();
+    }
+}
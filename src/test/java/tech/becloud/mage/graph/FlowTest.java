@@ -1,31 +1,369 @@
 package tech.becloud.mage.graph;
 
 import org.junit.jupiter.api.Test;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepository;
+import tech.becloud.mage.persistence.PersistContextScope;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FlowTest extends FlowTestBase {
 
     @Test
     void testSuccessfulExecution() {
-
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .execute("Step2", new TrackingConsumer("Step 2"))
+                .execute("Step3", new TrackingConsumer("Step 3"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertEquals(List.of("Step 1", "Step 2", "Step 3"), context.history);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
     }
 
     @Test
     void testSuccessfulExecutionWithRouting() {
-
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .routeTo("Route1", t -> t.action1, "Step2")
+                .routeTo(t -> t.action2, "Step3")
+                .defaultRoute("Step4");
+        builder.execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Step3", new TrackingConsumer("Step 3"));
+        builder.execute("Step4", new TrackingConsumer("Step 4"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        context.action2 = true;
+        workflow.start(workflow.createContext(context));
+        assertEquals(List.of("Step 1", "Step 3"), context.history);
     }
 
     @Test
     void testExceptionalExecution() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new ThrowingConsumer())
+                .onException(IllegalStateException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertEquals(List.of("Recovery"), context.history);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
 
+    @Test
+    void testUndefinedNodeReference() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new ThrowingConsumer())
+                .onException(IllegalStateException.class, "Recovery");
+        assertThrows(IllegalStateException.class, builder::build);
     }
 
     @Test
-    void testResumeFromStepInMainFlow() {
+    void testAllGraphProblemsReported() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .routeTo("Router", t -> t.condition, "Step2")
+                .defaultRoute("Step3");
+        builder.execute("Step2", new TrackingConsumer("Step 2")).next("Step3");
+        builder.execute("Step3", new TrackingConsumer("Step 3")).next("Step2");
+        builder.execute("Orphan", new TrackingConsumer("Orphan")).next("Missing");
+        FlowValidationException e = assertThrows(FlowValidationException.class, builder::build);
+        assertEquals(3, e.getProblems().size());
+        assertTrue(e.getProblems().containsAll(List.of(
+                "Node Orphan references undefined node Missing",
+                "Nodes [Orphan] are unreachable from start node Step1",
+                "Nodes [Router, Step1, Step2, Step3] form a cycle without exit")));
+    }
+
+    @Test
+    void testCycleWithExitAccepted() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> t.history.add("Step 1"))
+                .routeTo("Router", t -> t.history.size() < 3, "Step1");
+        TestContext context = new TestContext();
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        workflow.start(workflow.createContext(context));
+        assertEquals(List.of("Step 1", "Step 1", "Step 1"), context.history);
+    }
 
+    @Test
+    void testMaxSubflowDepth() {
+        FlowBuilder<TestContext> inner = FlowBuilder.flowBuilderFor(TestContext.class);
+        inner.execute("Inner", new TrackingConsumer("Inner"));
+        Flow<TestContext> innerFlow = inner.build();
+        FlowBuilder<TestContext> middle = FlowBuilder.flowBuilderFor(TestContext.class);
+        middle.execute("Middle", new TrackingConsumer("Middle")).subflow("CallInner", innerFlow);
+        Flow<TestContext> middleFlow = middle.build();
+        FlowBuilder<TestContext> outer = FlowBuilder.flowBuilderFor(TestContext.class);
+        outer.execute("Outer", new TrackingConsumer("Outer"))
+                .subflow("CallMiddle", middleFlow)
+                .subflow("CallInner", innerFlow);
+        Flow<TestContext> outerFlow = outer.build();
+        assertEquals(0, innerFlow.getMaxSubflowDepth());
+        assertEquals(1, middleFlow.getMaxSubflowDepth());
+        assertEquals(2, outerFlow.getMaxSubflowDepth());
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, outerFlow);
+        workflow.start(workflow.createContext(context));
+        assertEquals(List.of("Outer", "Middle", "Inner", "Inner"), context.history);
+    }
+
+    @Test
+    void testResumeFromStepInMainFlow() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .execute("Step2", new TrackingConsumer("Step 2"))
+                .execute("Step3", new TrackingConsumer("Step 3"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflowContext.getExecutionContext().setExecutionPoint("Step2");
+        workflow.resume(workflowContext);
+        assertEquals(List.of("Step 2", "Step 3"), context.history);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
     }
 
     @Test
     void testResumeFromStepInSubflow() {
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep1", new TrackingConsumer("Sub 1"))
+                .execute("SubStep2", new TrackingConsumer("Sub 2"));
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .subflow("Sub", subflowBuilder.build())
+                .execute("Step3", new TrackingConsumer("Step 3"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflowContext.getExecutionContext().setExecutionPoint("Sub/SubStep2");
+        workflow.resume(workflowContext);
+        assertEquals(List.of("Sub 2", "Step 3"), context.history);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testExecutionPathOfFailureInSubflow() {
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep1", new TrackingConsumer("Sub 1"))
+                .execute("SubStep2", new ThrowingConsumer());
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .subflow("Sub", subflowBuilder.build());
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        List<String> failurePaths = new ArrayList<>();
+        workflow.setExceptionHandler((data, e, path) -> failurePaths.add(path));
+        workflow.start(workflow.createContext(context));
+        assertEquals("Sub/SubStep2", failurePaths.get(0));
+    }
+
+    @Test
+    void testFusedChain() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .execute("Step2", new TrackingConsumer("Step 2"))
+                .execute("Step3", new TrackingConsumer("Step 3")).persistContext(PersistContextScope.ALL)
+                .execute("Step4", new ThrowingConsumer());
+        Flow<TestContext> flow = builder.build();
+        flow.setPersistContextScope(PersistContextScope.NONE);
+        assertEquals(3, flow.getFusedLength("Step1"));
+        assertEquals(2, flow.getFusedLength("Step2"));
+        assertEquals(1, flow.getFusedLength("Step3"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, flow);
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertEquals(List.of("Step 1", "Step 2", "Step 3"), context.history);
+        assertEquals("Step4", workflowContext.getExecutionContext().getExecutionPoint());
+
+        builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1")).persistContext(PersistContextScope.NONE)
+                .execute("Step2", new ThrowingConsumer()).persistContext(PersistContextScope.NONE)
+                .execute("Step3", new TrackingConsumer("Step 3"));
+        flow = builder.build();
+        assertEquals(3, flow.getFusedLength("Step1"));
+        workflow = new Workflow<>("test", 1, flow);
+        List<String> failurePaths = new ArrayList<>();
+        workflow.setExceptionHandler((data, e, path) -> failurePaths.add(path));
+        TestContext failing = new TestContext();
+        workflowContext = workflow.createContext(failing);
+        workflow.start(workflowContext);
+        assertEquals(List.of("Step 1"), failing.history);
+        assertEquals(List.of("Step2"), failurePaths);
+        assertEquals(ExecutionState.FAILED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testCancelRunningExecution() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> {
+            entered.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }).interruptible()
+                .onException(IllegalStateException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        Flow<TestContext> flow = builder.build();
+        InMemoryWorkflowContextRepository<TestContext> repository = new InMemoryWorkflowContextRepository<>();
+        flow.setWorkflowContextRepository(repository);
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, flow);
+        CompletableFuture<ExecutionState> completion = new CompletableFuture<>();
+        workflow.setCompletionHandler((t, state) -> completion.complete(state));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Void> run = workflow.start(workflowContext, executorService);
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            workflowContext.cancel().get(5, TimeUnit.SECONDS);
+            run.get(5, TimeUnit.SECONDS);
+            // interrupt status doesn't leak to the pooled thread
+            assertFalse(executorService.submit(() -> Thread.currentThread().isInterrupted()).get());
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(ExecutionState.CANCELED, completion.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(), context.history);
+        ExecutionContext<TestContext> saved = repository.loadExecutionContext(workflowContext.getExecutionId());
+        assertEquals(ExecutionState.CANCELED, saved.getExecutionState());
+        assertEquals("Step1", saved.getExecutionPoint());
+    }
+
+    @Test
+    void testCancelBeforeStart() throws Exception {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        CompletableFuture<Void> canceled = workflowContext.cancel();
+        assertTrue(canceled.isDone());
+        assertEquals(ExecutionState.CANCELED, workflowContext.getExecutionContext().getExecutionState());
+        workflow.start(workflowContext);
+        assertEquals(List.of(), context.history);
+        assertEquals(ExecutionState.CANCELED, workflowContext.getExecutionContext().getExecutionState());
+        assertTrue(workflowContext.cancel().isDone());
+    }
+
+    @Test
+    void testExecutionDeadline() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.timeout(Duration.ofMillis(50))
+                .execute("Step1", t -> {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    t.history.add("Step 1");
+                })
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        List<Throwable> failures = new ArrayList<>();
+        workflow.setExceptionHandler((t, e, path) -> failures.add(e));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertEquals(List.of("Step 1"), context.history);
+        assertEquals(ExecutionState.CANCELED, workflowContext.getExecutionContext().getExecutionState());
+        assertTrue(failures.get(0) instanceof TimeoutException);
+    }
+
+    @Test
+    void testPausePointAndResume() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1")).pause()
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertEquals(List.of("Step 1"), context.history);
+        assertEquals(ExecutionState.PAUSED, workflowContext.getExecutionContext().getExecutionState());
+        assertEquals("Step2", workflowContext.getExecutionContext().getExecutionPoint());
+        workflow.resume(workflowContext);
+        assertEquals(List.of("Step 1", "Step 2"), context.history);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testPauseInSubflowResumesSubflow() {
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep1", new TrackingConsumer("Sub 1")).pause()
+                .execute("SubStep2", new TrackingConsumer("Sub 2"));
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .subflow("Sub", subflowBuilder.build())
+                .execute("Step3", new TrackingConsumer("Step 3"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflow.start(workflowContext);
+        assertEquals(ExecutionState.PAUSED, workflowContext.getExecutionContext().getExecutionState());
+        assertEquals("Sub/SubStep2", workflowContext.getExecutionContext().getExecutionPoint());
+        workflow.resume(workflowContext);
+        assertEquals(List.of("Step 1", "Sub 1", "Sub 2", "Step 3"), context.history);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testConcurrentPauseRequestsAndResumes() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch resumed = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> await(entered, release))
+                .execute("Step2", t -> await(resumed, finish));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            CompletableFuture<Void> run = workflow.start(workflowContext, executorService);
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            List<CompletableFuture<CompletableFuture<Void>>> requests = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                requests.add(CompletableFuture.supplyAsync(workflowContext::requestPause, executorService));
+            }
+            CompletableFuture<Void> paused = requests.get(0).get(5, TimeUnit.SECONDS);
+            for (CompletableFuture<CompletableFuture<Void>> request : requests) {
+                assertTrue(paused == request.get(5, TimeUnit.SECONDS));
+            }
+            assertFalse(paused.isDone());
+            release.countDown();
+            paused.get(5, TimeUnit.SECONDS);
+            run.get(5, TimeUnit.SECONDS);
+            assertEquals(ExecutionState.PAUSED, workflowContext.getExecutionContext().getExecutionState());
+            assertEquals("Step2", workflowContext.getExecutionContext().getExecutionPoint());
+
+            CompletableFuture<Void> resumeRun = workflow.resume(workflowContext, executorService);
+            assertTrue(resumed.await(5, TimeUnit.SECONDS));
+            assertThrows(IllegalStateException.class, () -> workflow.resume(workflowContext, executorService));
+            finish.countDown();
+            resumeRun.get(5, TimeUnit.SECONDS);
+            assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+            assertThrows(IllegalStateException.class, () -> workflow.resume(workflowContext));
+        } finally {
+            executorService.shutdown();
+        }
+    }
 
+    private static void await(CountDownLatch entered, CountDownLatch release) {
+        entered.countDown();
+        try {
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
@@ -13,7 +13,7 @@ public class FlowTestBase {
     public void setupContext() {
         context = new TestContext();
         ExecutionContext<TestContext> executionContext = new ExecutionContext<>("test", 1, UUID.randomUUID());
-        executionContext.getCurrentNodePath().add("test");
+        executionContext.setExecutionPoint("test");
         context.setExecutionId(executionContext.getExecutionId());
         workflowContext = new WorkflowContext<>(executionContext, context);
     }
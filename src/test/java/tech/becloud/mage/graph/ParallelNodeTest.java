@@ -0,0 +1,191 @@
+package tech.becloud.mage.graph;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepository;
+import tech.becloud.mage.persistence.PersistContextScope;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelNodeTest {
+
+    private ExecutorService executor;
+    private TestContext context;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+        context = new TestContext();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testBranchesRunConcurrently() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        AtomicInteger executed = new AtomicInteger();
+        Consumer<TestContext> branch = t -> {
+            try {
+                // fails unless all 3 branches run at the same time
+                barrier.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                throw new IllegalStateException(e);
+            }
+            executed.incrementAndGet();
+        };
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep", branch);
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.parallel("Parallel").executor(executor)
+                .branch(branch)
+                .branch(branch)
+                .branch(subflowBuilder.build())
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        assertEquals(ExecutionState.COMPLETED, run(builder));
+        assertEquals(3, executed.get());
+        assertEquals(List.of("Step 2"), context.history);
+    }
+
+    @Test
+    void testBranchExceptionRouted() throws Exception {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.parallel("Parallel").executor(executor)
+                .branch(t -> { })
+                .branch(new ThrowingConsumer())
+                .onBranchException(IllegalStateException.class, "Recovery")
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        builder.execute("Recovery", new TrackingConsumer("Recovery"));
+        assertEquals(ExecutionState.COMPLETED, run(builder));
+        assertEquals(List.of("Recovery"), context.history);
+    }
+
+    @Test
+    void testUnhandledBranchException() throws Exception {
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep", new ThrowingConsumer());
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.parallel("Parallel").executor(executor)
+                .branch(subflowBuilder.build())
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        assertEquals(ExecutionState.FAILED, run(builder));
+        assertEquals(List.of(), context.history);
+    }
+
+    @Test
+    void testResumeRunsUnfinishedBranches() throws Exception {
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger second = new AtomicInteger();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.parallel("Parallel").executor(executor)
+                .branch(t -> first.incrementAndGet())
+                .branch(t -> second.incrementAndGet());
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        workflowContext.getExecutionContext().setExecutionPoint("Parallel");
+        workflowContext.getExecutionContext().setCompletedBranches(1L);
+        workflow.resume(workflowContext, executor).get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+        assertEquals(0, first.get());
+        assertEquals(1, second.get());
+        assertEquals(0L, workflowContext.getExecutionContext().getCompletedBranches());
+    }
+
+    @Test
+    void testDataSavedWithCompletedBranches() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.parallel("Parallel").executor(executor)
+                .branch(t -> t.action1 = true)
+                .branch(t -> {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        Flow<TestContext> flow = builder.build();
+        InMemoryWorkflowContextRepository<TestContext> repository = new InMemoryWorkflowContextRepository<>(t -> {
+            TestContext copy = new TestContext();
+            copy.action1 = t.action1;
+            return copy;
+        });
+        flow.setWorkflowContextRepository(repository);
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, flow);
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        CompletableFuture<Void> run = workflow.start(workflowContext, executor);
+        UUID executionId = workflowContext.getExecutionContext().getExecutionId();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && (repository.load(executionId) == null
+                || repository.load(executionId).getExecutionContext().getCompletedBranches() == 0)) {
+            Thread.sleep(1);
+        }
+        // checkpoint of the first branch holds its changes along with the completion mark
+        WorkflowContext<TestContext> saved = repository.load(executionId);
+        assertEquals(1L, saved.getExecutionContext().getCompletedBranches());
+        assertTrue(saved.getUserContext().action1);
+        release.countDown();
+        run.get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testCompletedBranchesKeptInMemoryWithoutData() throws Exception {
+        CountDownLatch firstDone = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.parallel("Parallel").executor(executor)
+                .branch(t -> {
+                    t.action1 = true;
+                    firstDone.countDown();
+                })
+                .branch(t -> {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                })
+                .persistContext(PersistContextScope.EXECUTION);
+        Flow<TestContext> flow = builder.build();
+        InMemoryWorkflowContextRepository<TestContext> repository = new InMemoryWorkflowContextRepository<>();
+        flow.setWorkflowContextRepository(repository);
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, flow);
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(context);
+        CompletableFuture<Void> run = workflow.start(workflowContext, executor);
+        assertTrue(firstDone.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        // completion mark without the branch's data would make resume skip the branch and lose its output
+        assertNull(repository.loadExecutionContext(workflowContext.getExecutionContext().getExecutionId()));
+        release.countDown();
+        run.get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    private ExecutionState run(FlowBuilder<TestContext> builder) throws Exception {
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        CompletableFuture<ExecutionState> completion = new CompletableFuture<>();
+        workflow.setCompletionHandler((t, state) -> completion.complete(state));
+        workflow.start(workflow.createContext(context));
+        return completion.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -2,7 +2,11 @@ package tech.becloud.mage.graph;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -48,6 +52,116 @@ class RouterNodeTest extends FlowTestBase {
         assertThrows(WokflowExecutionException.class, () -> node.apply(workflowContext));
     }
 
+    @Test
+    void testKeyRouting() {
+        Map<TimeUnit, String> keyRoutes = Map.of(TimeUnit.SECONDS, "Seconds", TimeUnit.MINUTES, "Minutes",
+                TimeUnit.HOURS, "Minutes");
+        List<Route<? super TestContext>> routes = List.of(new Route<TestContext>(t -> t.action1, "Fallback"));
+        RouterNode<TestContext> node = new RouterNode<>("Route1", t -> t.key, keyRoutes, routes, "DefaultStep",
+                List.of());
+        TestContext data = workflowContext.getUserContext();
+        data.key = TimeUnit.SECONDS;
+        assertEquals("Seconds", node.apply(workflowContext));
+        data.key = TimeUnit.HOURS;
+        assertEquals("Minutes", node.apply(workflowContext));
+        // keys not in the table fall back to predicate routes
+        data.key = TimeUnit.DAYS;
+        assertEquals("DefaultStep", node.apply(workflowContext));
+        data.key = null;
+        data.action1 = true;
+        assertEquals("Fallback", node.apply(workflowContext));
+        // key of another type
+        data.key = "SECONDS";
+        assertEquals("Fallback", node.apply(workflowContext));
+        // targets of key routes are deduplicated
+        assertEquals(Set.of("Seconds", "Minutes"), Set.copyOf(node.getNextNodeIds().subList(0, 2)));
+        assertEquals(List.of("Fallback", "DefaultStep"), node.getNextNodeIds().subList(2, 4));
+    }
+
+    @Test
+    void testKeyRoutingIntAndStringKeys() {
+        Map<Integer, String> denseRoutes = new HashMap<>();
+        Map<Integer, String> sparseRoutes = new HashMap<>();
+        Map<String, String> stringRoutes = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            denseRoutes.put(i - 10, "Step" + i);
+            sparseRoutes.put(i * 1_000_003, "Step" + i);
+            stringRoutes.put("tenant-" + i, "Step" + i);
+        }
+        RouterNode<TestContext> dense = new RouterNode<>("Dense", t -> t.key, denseRoutes, List.of(), "DefaultStep",
+                List.of());
+        RouterNode<TestContext> sparse = new RouterNode<>("Sparse", t -> t.key, sparseRoutes, List.of(),
+                "DefaultStep", List.of());
+        RouterNode<TestContext> strings = new RouterNode<>("Strings", t -> t.key, stringRoutes, List.of(),
+                "DefaultStep", List.of());
+        TestContext data = workflowContext.getUserContext();
+        for (int i = 0; i < 50; i++) {
+            data.key = i - 10;
+            assertEquals("Step" + i, dense.apply(workflowContext));
+            data.key = i * 1_000_003;
+            assertEquals("Step" + i, sparse.apply(workflowContext));
+            data.key = "tenant-" + i;
+            assertEquals("Step" + i, strings.apply(workflowContext));
+        }
+        data.key = -11;
+        assertEquals("DefaultStep", dense.apply(workflowContext));
+        data.key = 40;
+        assertEquals("DefaultStep", dense.apply(workflowContext));
+        data.key = 7;
+        assertEquals("DefaultStep", sparse.apply(workflowContext));
+        data.key = "tenant-50";
+        assertEquals("DefaultStep", strings.apply(workflowContext));
+    }
+
+    @Test
+    void testAdaptiveOrder() {
+        List<Route<? super TestContext>> routes = List.of(
+                new Route<TestContext>(t -> "a".equals(t.key), "StepA"),
+                new Route<TestContext>(t -> "b".equals(t.key), "StepB"),
+                new Route<TestContext>(t -> "c".equals(t.key), "StepC"));
+        RouterNode<TestContext> node = new RouterNode<>("Route1", routes, "DefaultStep", List.of());
+        assertEquals(List.of(), node.getRouteHits());
+        node.enableAdaptiveOrder();
+        TestContext data = workflowContext.getUserContext();
+        data.key = "c";
+        for (int i = 0; i < 10; i++) {
+            assertEquals("StepC", node.apply(workflowContext));
+        }
+        data.key = "b";
+        for (int i = 0; i < 3; i++) {
+            assertEquals("StepB", node.apply(workflowContext));
+        }
+        data.key = "x";
+        assertEquals("DefaultStep", node.apply(workflowContext));
+        node.reorderRoutes();
+        assertEquals(List.of(2, 1, 0), node.getRouteOrder());
+        assertEquals(List.of(0L, 3L, 10L, 1L), node.getRouteHits());
+        // routing result doesn't depend on order
+        data.key = "a";
+        assertEquals("StepA", node.apply(workflowContext));
+        // scores decay, so recent traffic takes over
+        for (int i = 0; i < 30; i++) {
+            node.apply(workflowContext);
+        }
+        node.reorderRoutes();
+        assertEquals(List.of(0, 2, 1), node.getRouteOrder());
+    }
+
+    @Test
+    void testKeyRoutingInFlow() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Start", t -> t.key = 2)
+                .routeOn("Router", t -> (Integer) t.key, Map.of(1, "One", 2, "Two"))
+                .defaultRoute("Other");
+        builder.execute("One", new TrackingConsumer("One"));
+        builder.execute("Two", new TrackingConsumer("Two"));
+        builder.execute("Other", new TrackingConsumer("Other"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        TestContext data = new TestContext();
+        workflow.start(workflow.createContext(data));
+        assertEquals(List.of("Two"), data.history);
+    }
+
     private static class ThrowingPredicate implements Predicate<TestContext> {
         @Override
         public boolean test(TestContext testContext) {
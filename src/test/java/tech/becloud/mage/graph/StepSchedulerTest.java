@@ -0,0 +1,199 @@
+package tech.becloud.mage.graph;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StepSchedulerTest {
+
+    private StepScheduler scheduler;
+    private final List<String> trace = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void testExecutionsInterleaveByWeight() throws Exception {
+        scheduler = new StepScheduler(1);
+        Workflow<TestContext> heavy = new Workflow<>("heavy", 1, steps("H", 12));
+        heavy.setSchedulingWeight(3);
+        Workflow<TestContext> light = new Workflow<>("light", 1, steps("L", 2));
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+        // started from a worker, so both are queued to it in order
+        CompletableFuture.runAsync(() -> {
+            runs.add(heavy.start(heavy.createContext(new TestContext()), scheduler));
+            runs.add(light.start(light.createContext(new TestContext()), scheduler));
+        }, scheduler).get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        // short flow isn't kept waiting until the long one completes
+        assertEquals(List.of("H", "H", "H", "L", "H", "H", "H", "L", "H", "H", "H", "H", "H", "H"), trace);
+    }
+
+    @Test
+    void testPauseServedBetweenTurns() throws Exception {
+        scheduler = new StepScheduler(1);
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, steps("S", 4));
+        Workflow<TestContext> pausing = new Workflow<>("pausing", 1, steps("P", 1));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(new TestContext());
+        List<CompletableFuture<?>> runs = new ArrayList<>();
+        CompletableFuture.runAsync(() -> {
+            runs.add(workflow.start(workflowContext, scheduler));
+            TestContext context = new TestContext();
+            context.key = workflowContext;
+            runs.add(pausing.start(pausing.createContext(context), scheduler));
+        }, scheduler).get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.PAUSED, workflowContext.getExecutionContext().getExecutionState());
+        assertEquals(List.of("S", "P"), trace);
+
+        workflow.resume(workflowContext, scheduler).get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+        assertEquals(List.of("S", "P", "S", "S", "S"), trace);
+    }
+
+    @Test
+    void testStepsSpreadAcrossWorkers() throws Exception {
+        scheduler = new StepScheduler(4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> work(threads, t))
+                .execute("Step2", t -> work(threads, t))
+                .executeAsync("Await", t -> stage)
+                .execute("Step3", t -> work(threads, t));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        List<TestContext> contexts = new ArrayList<>();
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            TestContext context = new TestContext();
+            contexts.add(context);
+            runs.add(workflow.start(workflow.createContext(context), scheduler));
+        }
+        stage.complete(null);
+        CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        for (TestContext context : contexts) {
+            assertEquals(3, context.history.size());
+        }
+        assertTrue(threads.size() > 1, "threads " + threads);
+        for (String thread : threads) {
+            assertTrue(thread.startsWith("mage-step-"), thread);
+        }
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    void testClosedSchedulerRejectsExecutions() {
+        scheduler = new StepScheduler(1);
+        scheduler.close();
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, steps("S", 1));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(new TestContext());
+        assertThrows(RejectedExecutionException.class, () -> workflow.start(workflowContext, scheduler));
+        // run claim is released, so execution may be started elsewhere
+        workflow.start(workflowContext);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testTaskScheduledWhileClosingRunsOrIsRejected() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            scheduler = new StepScheduler(1);
+            CompletableFuture<Void> ran = new CompletableFuture<>();
+            CompletableFuture<Boolean> scheduled = CompletableFuture.supplyAsync(
+                    () -> scheduler.schedule(() -> ran.complete(null)));
+            scheduler.close();
+            if (scheduled.get(5, TimeUnit.SECONDS)) {
+                // accepted task is run even though workers were closing
+                ran.get(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    void testRejectedStartLeavesNoContinuationExecutor() throws Exception {
+        scheduler = new StepScheduler(1);
+        scheduler.close();
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, awaiting(stage));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(new TestContext());
+        assertThrows(RejectedExecutionException.class, () -> workflow.start(workflowContext, scheduler));
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Void> run = workflow.start(workflowContext, executorService);
+            stage.complete(null);
+            run.get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+        assertEquals(List.of("A"), trace);
+    }
+
+    @Test
+    void testContinuationRunsAfterSchedulerClosed() throws Exception {
+        scheduler = new StepScheduler(1);
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, awaiting(stage));
+        WorkflowContext<TestContext> workflowContext = workflow.createContext(new TestContext());
+        CompletableFuture<Void> run = workflow.start(workflowContext, scheduler);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (workflowContext.getExecutionContext().getAwaitedStage() == null && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        scheduler.close();
+        stage.complete(null);
+        run.get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.COMPLETED, workflowContext.getExecutionContext().getExecutionState());
+        assertEquals(List.of("A"), trace);
+    }
+
+    private Flow<TestContext> awaiting(CompletableFuture<Void> stage) {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.executeAsync("Await", t -> stage)
+                .execute("After", t -> trace.add("A"));
+        return builder.build();
+    }
+
+    private Flow<TestContext> steps(String name, int count) {
+        Consumer<TestContext> step = t -> {
+            trace.add(name);
+            if (t.key instanceof WorkflowContext) {
+                ((WorkflowContext<?>) t.key).requestPause();
+            }
+        };
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        ActionNodeBuilder<TestContext> node = builder.execute(name + 0, step);
+        for (int i = 1; i < count; i++) {
+            node = node.execute(name + i, step);
+        }
+        return builder.build();
+    }
+
+    private static void work(Set<String> threads, TestContext context) {
+        threads.add(Thread.currentThread().getName());
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        context.history.add("step");
+    }
+}
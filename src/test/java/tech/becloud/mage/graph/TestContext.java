@@ -10,6 +10,7 @@ public class TestContext implements UserContext {
     boolean action1;
     boolean action2;
     boolean condition;
+    Object key;
     List<String> history;
 
     public TestContext() {
@@ -0,0 +1,171 @@
+package tech.becloud.mage.graph;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.graph.WorkflowBatch.BatchReport;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkflowBatchTest {
+
+    private ExecutorService executor;
+    private FlushCountingRepository repository;
+    private Workflow<TestContext> workflow;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+        repository = new FlushCountingRepository();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    if (t.condition) {
+                        throw new IllegalStateException("Rejected " + t.key);
+                    }
+                })
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        Flow<TestContext> flow = builder.build();
+        flow.setWorkflowContextRepository(repository);
+        workflow = new Workflow<>("test", 1, flow);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testCountsAndSamplesFailures() throws Exception {
+        WorkflowBatch<TestContext> batch = new WorkflowBatch<>(workflow, executor);
+        batch.setMaxInFlight(4);
+        batch.setFailureSampleSize(3);
+        Stream<TestContext> contexts = IntStream.range(0, 500).mapToObj(i -> {
+            TestContext context = new TestContext();
+            context.key = i;
+            context.condition = i % 50 == 0;
+            return context;
+        });
+
+        BatchReport report = batch.run(contexts).get(10, TimeUnit.SECONDS);
+        assertEquals(500, report.getStarted());
+        assertEquals(490, report.getCount(ExecutionState.COMPLETED));
+        assertEquals(10, report.getCount(ExecutionState.FAILED));
+        assertEquals(0, report.getRejected());
+        assertEquals(3, report.getFailures().size());
+        for (WorkflowBatch.Failure failure : report.getFailures()) {
+            assertEquals("Step1", failure.getExecutionPoint());
+            assertInstanceOf(IllegalStateException.class, failure.getException());
+        }
+        assertTrue(maxRunning.get() <= 4, "max running " + maxRunning.get());
+        // checkpoints are made durable once for the whole batch
+        assertEquals(0, repository.executionFlushes.get());
+        assertEquals(1, repository.flushes.get());
+    }
+
+    @Test
+    void testSourcePulledLazily() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Wait", t -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Workflow<TestContext> waiting = new Workflow<>("waiting", 1, builder.build());
+        AtomicInteger pulled = new AtomicInteger();
+        Iterator<TestContext> source = Stream.generate(() -> {
+            pulled.incrementAndGet();
+            return new TestContext();
+        }).limit(100).iterator();
+        WorkflowBatch<TestContext> batch = new WorkflowBatch<>(waiting, executor);
+        batch.setMaxInFlight(2);
+
+        CompletableFuture<BatchReport> result = batch.run(source);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pulled.get() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        // two executions started and one data object waits for a permit
+        assertEquals(3, pulled.get());
+        release.countDown();
+        BatchReport report = result.get(10, TimeUnit.SECONDS);
+        assertEquals(100, report.getCount(ExecutionState.COMPLETED));
+    }
+
+    @Test
+    void testSourceFailureReportedOnceStartedExecutionsFinish() throws Exception {
+        List<TestContext> started = new ArrayList<>();
+        Iterator<TestContext> source = IntStream.range(0, 20).mapToObj(i -> {
+            if (i == 10) {
+                throw new IllegalStateException("Source failed");
+            }
+            TestContext context = new TestContext();
+            started.add(context);
+            return context;
+        }).iterator();
+        WorkflowBatch<TestContext> batch = new WorkflowBatch<>(workflow, executor);
+        batch.setMaxInFlight(4);
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> batch.run(source).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(10, started.size());
+        for (TestContext context : started) {
+            assertEquals(List.of("Step 2"), context.history);
+        }
+        assertEquals(0, repository.executionFlushes.get());
+        assertEquals(1, repository.flushes.get());
+    }
+
+    @Test
+    void testSettingsValidated() {
+        WorkflowBatch<TestContext> batch = new WorkflowBatch<>(workflow, executor);
+        assertThrows(IllegalArgumentException.class, () -> batch.setMaxInFlight(0));
+        assertThrows(IllegalArgumentException.class, () -> batch.setFailureSampleSize(-1));
+    }
+
+    private static class FlushCountingRepository extends InMemoryWorkflowContextRepository<TestContext> {
+        final AtomicInteger flushes = new AtomicInteger();
+        final AtomicInteger executionFlushes = new AtomicInteger();
+
+        @Override
+        public void flush(UUID executionId) {
+            executionFlushes.incrementAndGet();
+        }
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package tech.becloud.mage.graph;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.graph.WorkflowRecovery.RecoveryReport;
+import tech.becloud.mage.lease.InMemoryLeaseManager;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkflowRecoveryTest {
+
+    private ExecutorService executor;
+    private InMemoryWorkflowContextRepository<TestContext> repository;
+    private Workflow<TestContext> workflow;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final List<UUID> savedIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+        repository = new InMemoryWorkflowContextRepository<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"))
+                .execute("Step2", t -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    t.history.add("Step 2");
+                });
+        workflow = new Workflow<>("test", 1, builder.build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testResumesOwnExecutions() throws Exception {
+        List<TestContext> own = save("test", "node-1", ExecutionState.PAUSED, 150);
+        own.addAll(save("test", "node-1", ExecutionState.RUNNING, 100));
+        List<TestContext> others = save("test", "node-2", ExecutionState.PAUSED, 10);
+        others.addAll(save("test", "node-1", ExecutionState.COMPLETED, 5));
+        save("unknown", "node-1", ExecutionState.PAUSED, 3);
+        WorkflowRecovery<TestContext> recovery = new WorkflowRecovery<>(repository, executor).register(workflow);
+        recovery.setPageSize(40);
+        recovery.setMaxConcurrentResumes(4);
+
+        RecoveryReport report = recovery.recover("node-1").get(10, TimeUnit.SECONDS);
+        assertEquals(250, report.getResumed());
+        assertEquals(0, report.getFailed());
+        assertEquals(3, report.getSkipped());
+        for (TestContext context : own) {
+            assertEquals(List.of("Step 2"), context.history);
+        }
+        for (TestContext context : others) {
+            assertEquals(List.of(), context.history);
+        }
+        assertTrue(maxRunning.get() <= 4, "max running " + maxRunning.get());
+    }
+
+    @Test
+    void testRateLimited() throws Exception {
+        save("test", "node-1", ExecutionState.PAUSED, 20);
+        WorkflowRecovery<TestContext> recovery = new WorkflowRecovery<>(repository, executor).register(workflow);
+        recovery.setMaxResumesPerSecond(200);
+        long started = System.nanoTime();
+        RecoveryReport report = recovery.recover("node-1").get(10, TimeUnit.SECONDS);
+        assertEquals(20, report.getResumed());
+        // 19 intervals of 5 ms between the first and the last resume
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    @Test
+    void testTakesOverExpiredLeases() throws Exception {
+        InMemoryLeaseManager leaseManager = new InMemoryLeaseManager();
+        List<TestContext> abandoned = save("test", "node-1", ExecutionState.RUNNING, 30);
+        List<TestContext> owned = save("test", "node-3", ExecutionState.RUNNING, 5);
+        for (UUID executionId : savedIds) {
+            String owner = repository.loadExecutionContext(executionId).getServiceInstanceId();
+            // node-1 has failed, its leases of zero duration have expired
+            leaseManager.claim(executionId, owner, owner.equals("node-1") ? Duration.ZERO : Duration.ofMinutes(1));
+        }
+        workflow.getFlow().setWorkflowContextRepository(repository);
+        workflow.setServiceInstanceId("node-2");
+        workflow.setLeaseManager(leaseManager, Duration.ofMinutes(1));
+        WorkflowRecovery<TestContext> recovery = new WorkflowRecovery<>(repository, executor).register(workflow);
+        recovery.setPageSize(7);
+
+        RecoveryReport report = recovery.takeOverExpired(leaseManager).get(10, TimeUnit.SECONDS);
+        assertEquals(30, report.getResumed());
+        assertEquals(0, report.getFailed());
+        for (TestContext context : abandoned) {
+            assertEquals(List.of("Step 2"), context.history);
+        }
+        for (TestContext context : owned) {
+            assertEquals(List.of(), context.history);
+        }
+        for (UUID executionId : savedIds) {
+            String owner = repository.loadExecutionContext(executionId).getServiceInstanceId();
+            assertTrue(owner.equals("node-2") || owner.equals("node-3"));
+        }
+        assertEquals(List.of(), leaseManager.findExpired(null, 100));
+    }
+
+    @Test
+    void testCanceledExecutionNotRecovered() throws Exception {
+        List<TestContext> paused = save("test", "node-1", ExecutionState.PAUSED, 3);
+        workflow.getFlow().setWorkflowContextRepository(repository);
+        WorkflowContext<TestContext> canceled = repository.load(savedIds.get(0));
+        workflow.cancel(canceled).get(5, TimeUnit.SECONDS);
+        assertEquals(ExecutionState.CANCELED, repository.loadExecutionContext(savedIds.get(0)).getExecutionState());
+
+        WorkflowRecovery<TestContext> recovery = new WorkflowRecovery<>(repository, executor).register(workflow);
+        RecoveryReport report = recovery.recover("node-1").get(10, TimeUnit.SECONDS);
+        assertEquals(2, report.getResumed());
+        assertEquals(List.of(), paused.get(0).history);
+        assertEquals(List.of("Step 2"), paused.get(1).history);
+        assertEquals(List.of("Step 2"), paused.get(2).history);
+    }
+
+    private List<TestContext> save(String workflowName, String serviceInstanceId, ExecutionState state, int count) {
+        List<TestContext> contexts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ExecutionContext<TestContext> execution = new ExecutionContext<>(workflowName, 1, UUID.randomUUID());
+            execution.setExecutionState(state);
+            execution.setExecutionPoint("Step2");
+            execution.setServiceInstanceId(serviceInstanceId);
+            TestContext context = new TestContext();
+            repository.save(new WorkflowContext<>(execution, context));
+            savedIds.add(execution.getExecutionId());
+            contexts.add(context);
+        }
+        return contexts;
+    }
+}
@@ -0,0 +1,231 @@
+package tech.becloud.mage.graph;
+
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.lease.InMemoryLeaseManager;
+import tech.becloud.mage.lease.Lease;
+import tech.becloud.mage.lease.LeaseException;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class WorkflowTest {
+
+    @Test
+    void testConcurrencyLimit() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+        });
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        workflow.setMaxConcurrentExecutions(2);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(workflow.start(workflow.createContext(new TestContext()), executorService));
+            }
+            for (Future<Void> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    void testStartOnVirtualThread() throws Exception {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        TestContext context = new TestContext();
+        if (!VirtualThreads.isAvailable()) {
+            assertThrows(UnsupportedOperationException.class,
+                    () -> workflow.startOnVirtualThread(workflow.createContext(context)));
+        }
+        assumeTrue(VirtualThreads.isAvailable());
+        CompletableFuture<Void> result = workflow.startOnVirtualThread(workflow.createContext(context));
+        result.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("Step 1"), context.history);
+    }
+
+    @Test
+    void testLeaseHeldWhileRunning() {
+        InMemoryLeaseManager leaseManager = new InMemoryLeaseManager();
+        List<UUID> executionIds = new ArrayList<>();
+        List<Lease> leases = new ArrayList<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> leases.add(leaseManager.getLease(executionIds.get(0))));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        workflow.setServiceInstanceId("node-1");
+        workflow.setLeaseManager(leaseManager, Duration.ofMinutes(1));
+        WorkflowContext<TestContext> context = workflow.createContext(new TestContext());
+        executionIds.add(context.getExecutionContext().getExecutionId());
+        workflow.start(context);
+        assertEquals(ExecutionState.COMPLETED, context.getExecutionContext().getExecutionState());
+        assertEquals("node-1", leases.get(0).getOwner());
+        assertEquals("node-1", context.getExecutionContext().getServiceInstanceId());
+        assertNull(leaseManager.getLease(executionIds.get(0)));
+        assertNull(context.getExecutionContext().getLease());
+    }
+
+    @Test
+    void testStartRejectedWhenLeasedByAnotherInstance() {
+        InMemoryLeaseManager leaseManager = new InMemoryLeaseManager();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        workflow.setServiceInstanceId("node-1");
+        workflow.setLeaseManager(leaseManager, Duration.ofMinutes(1));
+        TestContext userContext = new TestContext();
+        WorkflowContext<TestContext> context = workflow.createContext(userContext);
+        leaseManager.claim(context.getExecutionContext().getExecutionId(), "node-2", Duration.ofMinutes(1));
+        LeaseException e = assertThrows(LeaseException.class, () -> workflow.start(context));
+        assertTrue(e.getMessage().contains("node-2"));
+        assertEquals(List.of(), userContext.history);
+    }
+
+    @Test
+    void testStopsWithoutCheckpointOnLostLease() throws Exception {
+        InMemoryLeaseManager leaseManager = new InMemoryLeaseManager();
+        InMemoryWorkflowContextRepository<TestContext> repository = new InMemoryWorkflowContextRepository<>();
+        List<UUID> executionIds = new ArrayList<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        List<ExecutionContext<TestContext>> executions = new ArrayList<>();
+        builder.execute("Step1", t -> {
+            // another instance takes execution over, e.g. after this one stalled, and the next renewal fails
+            t.history.add("Step 1");
+            leaseManager.release(executions.get(0).getLease());
+            leaseManager.claim(executionIds.get(0), "node-2", Duration.ofMinutes(1));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!executions.get(0).isLeaseLost() && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+        }).execute("Step2", new TrackingConsumer("Step 2"));
+        Flow<TestContext> flow = builder.build();
+        flow.setWorkflowContextRepository(repository);
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, flow);
+        workflow.setServiceInstanceId("node-1");
+        workflow.setLeaseManager(leaseManager, Duration.ofMillis(20));
+        TestContext userContext = new TestContext();
+        WorkflowContext<TestContext> context = workflow.createContext(userContext);
+        executionIds.add(context.getExecutionContext().getExecutionId());
+        executions.add(context.getExecutionContext());
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Void> run = workflow.start(context, executorService);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> run.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof LeaseException);
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(List.of("Step 1"), userContext.history);
+        assertNull(repository.load(executionIds.get(0)));
+        assertEquals("node-2", leaseManager.getLease(executionIds.get(0)).getOwner());
+    }
+
+    @Test
+    void testLeaseReleasedWhenStartRejected() {
+        InMemoryLeaseManager leaseManager = new InMemoryLeaseManager();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        workflow.setServiceInstanceId("node-1");
+        workflow.setLeaseManager(leaseManager, Duration.ofMinutes(1));
+        WorkflowContext<TestContext> context = workflow.createContext(new TestContext());
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.shutdown();
+        assertThrows(RejectedExecutionException.class, () -> workflow.start(context, executorService));
+        assertNull(leaseManager.getLease(context.getExecutionContext().getExecutionId()));
+        assertNull(context.getExecutionContext().getLease());
+        // another instance may take execution over at once
+        assertTrue(leaseManager.claim(context.getExecutionContext().getExecutionId(), "node-2",
+                Duration.ofMinutes(1)) != null);
+    }
+
+    @Test
+    void testLeaseRenewedWhileAwaiting() throws Exception {
+        InMemoryLeaseManager leaseManager = new InMemoryLeaseManager();
+        InMemoryWorkflowContextRepository<TestContext> repository = new InMemoryWorkflowContextRepository<>();
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.executeAsync("Await", t -> stage)
+                .execute("Step2", new TrackingConsumer("Step 2"));
+        Flow<TestContext> flow = builder.build();
+        flow.setWorkflowContextRepository(repository);
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, flow);
+        workflow.setServiceInstanceId("node-1");
+        workflow.setLeaseManager(leaseManager, Duration.ofMillis(50));
+        TestContext userContext = new TestContext();
+        WorkflowContext<TestContext> context = workflow.createContext(userContext);
+        UUID executionId = context.getExecutionContext().getExecutionId();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Void> run = workflow.start(context, executorService);
+            // lease outlives its duration while action is awaited, so another instance can't take execution over
+            Thread.sleep(150);
+            assertNull(leaseManager.claim(executionId, "node-2", Duration.ofMinutes(1)));
+            stage.complete(null);
+            run.get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(List.of("Step 2"), userContext.history);
+        assertEquals(ExecutionState.COMPLETED, context.getExecutionContext().getExecutionState());
+        // released once execution completes
+        assertNull(context.getExecutionContext().getLease());
+        assertTrue(leaseManager.claim(executionId, "node-2", Duration.ofMinutes(1)) != null);
+    }
+
+    @Test
+    void testLeaseDurationValidated() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", new TrackingConsumer("Step 1"));
+        Workflow<TestContext> workflow = new Workflow<>("test", 1, builder.build());
+        workflow.setServiceInstanceId("node-1");
+        assertThrows(IllegalArgumentException.class,
+                () -> workflow.setLeaseManager(new InMemoryLeaseManager(), Duration.ZERO));
+    }
+
+    @Test
+    void testStaleCheckpointRejected() {
+        InMemoryLeaseManager leaseManager = new InMemoryLeaseManager();
+        InMemoryWorkflowContextRepository<TestContext> repository = new InMemoryWorkflowContextRepository<>();
+        UUID executionId = UUID.randomUUID();
+        ExecutionContext<TestContext> former = new ExecutionContext<>("test", 1, executionId);
+        former.setLease(leaseManager.claim(executionId, "node-1", Duration.ZERO), leaseManager, Duration.ZERO);
+        ExecutionContext<TestContext> current = new ExecutionContext<>("test", 1, executionId);
+        current.setLease(leaseManager.claim(executionId, "node-2", Duration.ofMinutes(1)), leaseManager,
+                Duration.ofMinutes(1));
+        repository.save(new WorkflowContext<>(current, new TestContext()));
+        assertThrows(LeaseException.class, () -> repository.saveExecutionContext(former));
+        assertThrows(LeaseException.class, () -> repository.save(new WorkflowContext<>(former, new TestContext())));
+        repository.saveExecutionContext(current);
+    }
+}
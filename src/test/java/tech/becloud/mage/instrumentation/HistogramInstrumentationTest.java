@@ -0,0 +1,153 @@
+package tech.becloud.mage.instrumentation;
+
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.graph.FlowBuilder;
+import tech.becloud.mage.graph.TestContext;
+import tech.becloud.mage.graph.Workflow;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.PersistContextScope;
+import tech.becloud.mage.persistence.WorkflowContextRepository;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramInstrumentationTest {
+
+    @Test
+    void testStepsAndExecutionTimed() {
+        FlowBuilder<TestContext> subflowBuilder = FlowBuilder.flowBuilderFor(TestContext.class);
+        subflowBuilder.execute("SubStep", t -> { });
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> { })
+                .subflow("Subflow", subflowBuilder.build())
+                .execute("Step2", t -> { })
+                .persistContext(PersistContextScope.NONE);
+        Workflow<TestContext> workflow = new Workflow<>("timed", 2, builder.build());
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation();
+        workflow.setInstrumentation(instrumentation);
+        workflow.start(workflow.createContext(new TestContext()));
+        workflow.start(workflow.createContext(new TestContext()));
+
+        WorkflowMetrics metrics = instrumentation.getMetrics("timed", 2);
+        assertEquals(2, metrics.getStartedCount());
+        assertEquals(2, metrics.getCompleted().getCount());
+        assertEquals(0, metrics.getFailed().getCount());
+        assertEquals(Set.of("Step1", "Subflow", "SubStep", "Step2"), metrics.getNodes().keySet());
+        assertEquals(2, metrics.getNodes().get("SubStep").getCount());
+        // subflow step includes its steps
+        assertTrue(metrics.getNodes().get("Subflow").getTotalNanos()
+                >= metrics.getNodes().get("SubStep").getTotalNanos());
+        // no repository set
+        assertTrue(metrics.getPersistence().isEmpty());
+        assertNull(instrumentation.getMetrics("timed", 1));
+    }
+
+    @Test
+    void testFailureAndPersistenceTimed() {
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.execute("Step1", t -> { })
+                .execute("Failing", t -> {
+                    throw new IllegalStateException("failure");
+                })
+                .persistContext(PersistContextScope.NONE);
+        Flow<TestContext> flow = builder.build();
+        flow.setWorkflowContextRepository(new DiscardingRepository());
+        Workflow<TestContext> workflow = new Workflow<>("failing", 1, flow);
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation();
+        workflow.setInstrumentation(instrumentation);
+        workflow.setExceptionHandler((t, e, path) -> { });
+        workflow.start(workflow.createContext(new TestContext()));
+
+        WorkflowMetrics metrics = instrumentation.getMetrics("failing", 1);
+        assertEquals(1, metrics.getStartedCount());
+        assertEquals(0, metrics.getCompleted().getCount());
+        assertEquals(1, metrics.getFailed().getCount());
+        assertEquals(1, metrics.getNodes().get("Failing").getCount());
+        // failing step doesn't complete so nothing persisted after it
+        assertEquals(Set.of("Step1"), metrics.getPersistence().keySet());
+    }
+
+    @Test
+    void testAwaitingStepTimedInFull() throws Exception {
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.executeAsync("Await", t -> stage)
+                .execute("Step2", t -> { }).pause()
+                .execute("Step3", t -> { })
+                .persistContext(PersistContextScope.NONE);
+        Workflow<TestContext> workflow = new Workflow<>("awaiting", 1, builder.build());
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation();
+        workflow.setInstrumentation(instrumentation);
+        WorkflowContext<TestContext> context = workflow.createContext(new TestContext());
+        CompletableFuture<Void> run = workflow.start(context, ForkJoinPool.commonPool());
+        Thread.sleep(20);
+        stage.complete(null);
+        run.get(5, TimeUnit.SECONDS);
+
+        WorkflowMetrics metrics = instrumentation.getMetrics("awaiting", 1);
+        assertEquals(1, metrics.getNodes().get("Await").getCount());
+        // time the action is awaited is included
+        assertTrue(metrics.getNodes().get("Await").getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, metrics.getPaused().getCount());
+        assertEquals(0, metrics.getCompleted().getCount());
+    }
+
+    @Test
+    void testCanceledExecutionReported() throws Exception {
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        FlowBuilder<TestContext> builder = FlowBuilder.flowBuilderFor(TestContext.class);
+        builder.executeAsync("Await", t -> stage)
+                .persistContext(PersistContextScope.NONE);
+        Workflow<TestContext> workflow = new Workflow<>("canceled", 1, builder.build());
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation();
+        workflow.setInstrumentation(instrumentation);
+        WorkflowContext<TestContext> context = workflow.createContext(new TestContext());
+        workflow.start(context);
+        context.cancel().get(5, TimeUnit.SECONDS);
+
+        WorkflowMetrics metrics = instrumentation.getMetrics("canceled", 1);
+        assertEquals(1, metrics.getStartedCount());
+        assertEquals(1, metrics.getCanceled().getCount());
+        assertEquals(0, metrics.getFailed().getCount());
+        // step suspended when execution is canceled doesn't complete
+        assertNull(metrics.getNodes().get("Await"));
+    }
+
+    private static class DiscardingRepository implements WorkflowContextRepository<TestContext> {
+        @Override
+        public TestContext loadUserContext(UUID executionId, String executionPath) {
+            return null;
+        }
+
+        @Override
+        public void saveUserContext(UUID executionId, String executionPath, TestContext context) {
+        }
+
+        @Override
+        public ExecutionContext<TestContext> loadExecutionContext(UUID executionId) {
+            return null;
+        }
+
+        @Override
+        public void saveExecutionContext(ExecutionContext<TestContext> executionContext) {
+        }
+
+        @Override
+        public WorkflowContext<TestContext> load(UUID executionId) {
+            return null;
+        }
+
+        @Override
+        public void save(WorkflowContext<TestContext> context) {
+        }
+    }
+}
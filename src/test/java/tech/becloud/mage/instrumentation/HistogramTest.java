@@ -0,0 +1,38 @@
+package tech.becloud.mage.instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+
+    @Test
+    void testBucketBounds() {
+        for (long value : new long[] {0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789L, 1L << 40}) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(Histogram.upperBoundOf(bucket) >= value, "upper bound of " + value);
+            assertTrue(bucket == 0 || Histogram.upperBoundOf(bucket - 1) < value, "lower bound of " + value);
+            // relative error is bounded by sub-bucket width
+            assertTrue(Histogram.upperBoundOf(bucket) - value <= value / 8, "precision of " + value);
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testPercentiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000L, histogram.getMaxNanos());
+        assertEquals(500_500.0, histogram.getMeanNanos());
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue(median >= 500_000 && median <= 500_000 * 9 / 8, "median " + median);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 " + p99);
+        assertEquals(1_000_000L, histogram.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,120 @@
+package tech.becloud.mage.lease;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryLeaseManagerTest {
+    private static final Duration DURATION = Duration.ofSeconds(10);
+
+    private ManualClock clock;
+    private InMemoryLeaseManager leaseManager;
+
+    @BeforeEach
+    void setUp() {
+        clock = new ManualClock();
+        leaseManager = new InMemoryLeaseManager(clock);
+    }
+
+    @Test
+    void testClaimHeldByAnotherOwner() {
+        UUID executionId = UUID.randomUUID();
+        Lease lease = leaseManager.claim(executionId, "node-1", DURATION);
+        assertNotNull(lease);
+        assertEquals("node-1", lease.getOwner());
+        assertNull(leaseManager.claim(executionId, "node-2", DURATION));
+        assertEquals(lease.getFencingToken(), leaseManager.getLease(executionId).getFencingToken());
+    }
+
+    @Test
+    void testReclaimBySameOwnerFencesPreviousLease() {
+        UUID executionId = UUID.randomUUID();
+        Lease first = leaseManager.claim(executionId, "node-1", DURATION);
+        Lease second = leaseManager.claim(executionId, "node-1", DURATION);
+        assertTrue(second.getFencingToken() > first.getFencingToken());
+        assertNull(leaseManager.renew(first, DURATION));
+        assertFalse(leaseManager.release(first));
+        assertNotNull(leaseManager.renew(second, DURATION));
+    }
+
+    @Test
+    void testStealOnExpiry() {
+        UUID executionId = UUID.randomUUID();
+        Lease lease = leaseManager.claim(executionId, "node-1", DURATION);
+        clock.advance(Duration.ofSeconds(5));
+        Lease renewed = leaseManager.renew(lease, DURATION);
+        assertEquals(lease.getFencingToken(), renewed.getFencingToken());
+        clock.advance(Duration.ofSeconds(9));
+        assertNull(leaseManager.claim(executionId, "node-2", DURATION));
+        clock.advance(Duration.ofSeconds(1));
+        Lease stolen = leaseManager.claim(executionId, "node-2", DURATION);
+        assertNotNull(stolen);
+        assertTrue(stolen.getFencingToken() > lease.getFencingToken());
+        assertNull(leaseManager.renew(renewed, DURATION));
+        assertFalse(leaseManager.release(renewed));
+        assertTrue(leaseManager.release(stolen));
+        assertNull(leaseManager.getLease(executionId));
+    }
+
+    @Test
+    void testRenewExpiredLeaseNotClaimedSince() {
+        UUID executionId = UUID.randomUUID();
+        Lease lease = leaseManager.claim(executionId, "node-1", DURATION);
+        clock.advance(Duration.ofMinutes(1));
+        assertNotNull(leaseManager.renew(lease, DURATION));
+        assertNull(leaseManager.claim(executionId, "node-2", DURATION));
+    }
+
+    @Test
+    void testFindExpired() {
+        for (int i = 0; i < 10; i++) {
+            leaseManager.claim(UUID.randomUUID(), "node-1", DURATION);
+        }
+        clock.advance(DURATION);
+        for (int i = 0; i < 5; i++) {
+            leaseManager.claim(UUID.randomUUID(), "node-2", DURATION);
+        }
+        List<Lease> first = leaseManager.findExpired(null, 6);
+        List<Lease> second = leaseManager.findExpired(first.get(5).getExecutionId(), 6);
+        assertEquals(6, first.size());
+        assertEquals(4, second.size());
+        assertTrue(first.get(5).getExecutionId().compareTo(second.get(0).getExecutionId()) < 0);
+        second.forEach(lease -> assertEquals("node-1", lease.getOwner()));
+    }
+
+    private static final class ManualClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package tech.becloud.mage.persistence;
+
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.graph.ActionNodeBuilder;
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionState;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.graph.FlowBuilder;
+import tech.becloud.mage.graph.Workflow;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class InMemoryWorkflowContextRepositoryTest {
+
+    @Test
+    void testCheckpointIsSnapshot() {
+        InMemoryWorkflowContextRepository<Data> repository = new InMemoryWorkflowContextRepository<>(Data::new);
+        Data data = new Data();
+        data.value = 1;
+        ExecutionContext<Data> execution = new ExecutionContext<>("test", 2, data.executionId);
+        execution.setExecutionState(ExecutionState.RUNNING);
+        execution.setExecutionPoint("Subflow/Step1");
+        repository.save(new WorkflowContext<>(execution, data));
+        // changes after checkpoint aren't visible
+        data.value = 2;
+        execution.setExecutionPoint("Subflow/Step2");
+
+        WorkflowContext<Data> loaded = repository.load(data.executionId);
+        assertEquals(1, loaded.getUserContext().value);
+        assertNotSame(data, loaded.getUserContext());
+        ExecutionContext<Data> loadedExecution = loaded.getExecutionContext();
+        assertEquals("test", loadedExecution.getWorkflowName());
+        assertEquals(2, loadedExecution.getWorkflowVersion());
+        assertEquals(ExecutionState.RUNNING, loadedExecution.getExecutionState());
+        assertEquals("Subflow/Step1", loadedExecution.getExecutionPoint());
+        assertEquals(1, repository.size());
+
+        repository.remove(data.executionId);
+        assertNull(repository.load(data.executionId));
+        assertEquals(0, repository.size());
+    }
+
+    @Test
+    void testPartialCheckpoints() {
+        InMemoryWorkflowContextRepository<Data> repository = new InMemoryWorkflowContextRepository<>();
+        Data data = new Data();
+        repository.saveUserContext(data.executionId, "Step1", data);
+        assertSame(data, repository.loadUserContext(data.executionId, "Step1"));
+        assertNull(repository.loadExecutionContext(data.executionId));
+        // no execution context, so nothing to resume
+        assertNull(repository.load(data.executionId));
+        repository.saveExecutionContext(new ExecutionContext<>("test", 1, data.executionId));
+        assertSame(data, repository.load(data.executionId).getUserContext());
+    }
+
+    @Test
+    void testFindExecutionsInPages() {
+        InMemoryWorkflowContextRepository<Data> repository = new InMemoryWorkflowContextRepository<>();
+        List<UUID> paused = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Data data = new Data();
+            ExecutionContext<Data> execution = new ExecutionContext<>("test", 1, data.executionId);
+            execution.setExecutionState(i == 0 ? ExecutionState.COMPLETED : ExecutionState.PAUSED);
+            execution.setServiceInstanceId(i == 1 ? "node-2" : "node-1");
+            repository.save(new WorkflowContext<>(execution, data));
+            if (i > 1) {
+                paused.add(data.executionId);
+            }
+        }
+        paused.sort(null);
+        Set<ExecutionState> states = Set.of(ExecutionState.PAUSED);
+        List<WorkflowContext<Data>> page = repository.findExecutions("node-1", states, null, 2);
+        assertEquals(paused.subList(0, 2), List.of(page.get(0).getUserContext().executionId,
+                page.get(1).getUserContext().executionId));
+        page = repository.findExecutions("node-1", states, paused.get(1), 2);
+        assertEquals(1, page.size());
+        assertEquals(paused.get(2), page.get(0).getExecutionContext().getExecutionId());
+    }
+
+    @Test
+    void testFlowCheckpoints() {
+        InMemoryWorkflowContextRepository<Data> repository = new InMemoryWorkflowContextRepository<>(Data::new);
+        FlowBuilder<Data> builder = FlowBuilder.flowBuilderFor(Data.class);
+        builder.execute("Step1", d -> d.value++).execute("Step2", d -> d.value++);
+        Flow<Data> flow = builder.build();
+        flow.setWorkflowContextRepository(repository);
+        Workflow<Data> workflow = new Workflow<>("test", 1, flow);
+        Data data = new Data();
+        workflow.start(workflow.createContext(data));
+        WorkflowContext<Data> loaded = repository.load(data.executionId);
+        assertEquals(2, loaded.getUserContext().value);
+    }
+
+    @Test
+    void testChangesReplayedOnLoad() {
+        AtomicInteger copies = new AtomicInteger();
+        InMemoryWorkflowContextRepository<TrackedData> repository = new InMemoryWorkflowContextRepository<>(data -> {
+            copies.incrementAndGet();
+            return new TrackedData(data);
+        });
+        repository.setFullSnapshotInterval(3);
+        Flow<TrackedData> flow = buildTrackingFlow(10);
+        flow.setWorkflowContextRepository(repository);
+        Workflow<TrackedData> workflow = new Workflow<>("test", 1, flow);
+        TrackedData data = new TrackedData();
+        workflow.start(workflow.createContext(data));
+        // full copies on steps 1, 5 and 9
+        assertEquals(3, copies.get());
+        assertArrayEquals(data.values, repository.load(data.executionId).getUserContext().values);
+        assertArrayEquals(data.values, repository.loadUserContext(data.executionId, null).values);
+    }
+
+    /**
+     * @return flow where step {@code i} sets value {@code i % SIZE} to {@code i + 1}
+     */
+    static Flow<TrackedData> buildTrackingFlow(int steps) {
+        FlowBuilder<TrackedData> builder = FlowBuilder.flowBuilderFor(TrackedData.class);
+        ActionNodeBuilder<TrackedData> step = builder.execute("Step0", d -> d.set(0, 1));
+        for (int i = 1; i < steps; i++) {
+            int index = i;
+            step = step.execute("Step" + i, d -> d.set(index % TrackedData.SIZE, index + 1));
+        }
+        return builder.build();
+    }
+
+    static class Data implements UserContext {
+        UUID executionId = UUID.randomUUID();
+        int value;
+
+        Data() {
+        }
+
+        Data(Data other) {
+            this.executionId = other.executionId;
+            this.value = other.value;
+        }
+
+        @Override
+        public UUID getExecutionId() {
+            return executionId;
+        }
+
+        @Override
+        public void setExecutionId(UUID executionId) {
+            this.executionId = executionId;
+        }
+    }
+}
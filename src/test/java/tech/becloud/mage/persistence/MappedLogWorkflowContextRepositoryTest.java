@@ -0,0 +1,252 @@
+package tech.becloud.mage.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.graph.ExecutionContextCodec;
+import tech.becloud.mage.graph.Flow;
+import tech.becloud.mage.graph.FlowBuilder;
+import tech.becloud.mage.graph.Workflow;
+import tech.becloud.mage.graph.ExecutionState;
+import tech.becloud.mage.model.WorkflowContext;
+import tech.becloud.mage.persistence.InMemoryWorkflowContextRepositoryTest.Data;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedLogWorkflowContextRepositoryTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    private MappedLogWorkflowContextRepository<Data> repository;
+    private MappedLogWorkflowContextRepository<TrackedData> tracking;
+
+    @AfterEach
+    void tearDown() {
+        if (repository != null) {
+            repository.close();
+        }
+        if (tracking != null) {
+            tracking.close();
+        }
+    }
+
+    @Test
+    void testCheckpointsRecoveredOnReopen() {
+        repository = open();
+        Data data = new Data();
+        data.value = 7;
+        ExecutionContext<Data> execution = new ExecutionContext<>("test", 3, data.executionId);
+        execution.setExecutionState(ExecutionState.PAUSED);
+        execution.setExecutionPoint("Subflow/Step2");
+        execution.setServiceInstanceId("node-1");
+        execution.setCompletedBranches(5L);
+        repository.save(new WorkflowContext<>(execution, data));
+        Data removed = new Data();
+        repository.saveUserContext(removed.executionId, "Step1", removed);
+        repository.saveExecutionContext(new ExecutionContext<>("test", 3, removed.executionId));
+        repository.remove(removed.executionId);
+        repository.close();
+
+        repository = open();
+        WorkflowContext<Data> loaded = repository.load(data.executionId);
+        assertEquals(7, loaded.getUserContext().value);
+        ExecutionContext<Data> loadedExecution = loaded.getExecutionContext();
+        assertEquals("test", loadedExecution.getWorkflowName());
+        assertEquals(3, loadedExecution.getWorkflowVersion());
+        assertEquals(ExecutionState.PAUSED, loadedExecution.getExecutionState());
+        assertEquals("Subflow/Step2", loadedExecution.getExecutionPoint());
+        assertEquals("node-1", loadedExecution.getServiceInstanceId());
+        assertEquals(5L, loadedExecution.getCompletedBranches());
+        assertNull(repository.load(removed.executionId));
+        assertEquals(1, repository.size());
+    }
+
+    @Test
+    void testBinaryExecutionContexts() {
+        FlowBuilder<Data> builder = FlowBuilder.flowBuilderFor(Data.class);
+        builder.execute("Step1", d -> d.value++).execute("Step2", d -> d.value++);
+        ExecutionContextCodec executionCodec = new ExecutionContextCodec(new Workflow<>("test", 1, builder.build()));
+        repository = new MappedLogWorkflowContextRepository<>(directory, new Codec(0), SEGMENT_SIZE, executionCodec);
+        Data data = new Data();
+        ExecutionContext<Data> execution = new ExecutionContext<>("test", 1, data.executionId);
+        execution.setExecutionState(ExecutionState.PAUSED);
+        execution.setExecutionPoint("Step2");
+        repository.save(new WorkflowContext<>(execution, data));
+        repository.close();
+
+        repository = new MappedLogWorkflowContextRepository<>(directory, new Codec(0), SEGMENT_SIZE, executionCodec);
+        ExecutionContext<Data> loaded = repository.loadExecutionContext(data.executionId);
+        assertEquals(ExecutionState.PAUSED, loaded.getExecutionState());
+        assertEquals("Step2", loaded.getExecutionPoint());
+        repository.close();
+        // binary records can't be read without codec
+        repository = open();
+        assertThrows(IllegalStateException.class, () -> repository.loadExecutionContext(data.executionId));
+    }
+
+    @Test
+    void testChangesReplayedOnLoad() {
+        tracking = openTracking();
+        tracking.setFullSnapshotInterval(3);
+        Flow<TrackedData> flow = InMemoryWorkflowContextRepositoryTest.buildTrackingFlow(10);
+        flow.setWorkflowContextRepository(tracking);
+        Workflow<TrackedData> workflow = new Workflow<>("test", 1, flow);
+        TrackedData data = new TrackedData();
+        workflow.start(workflow.createContext(data));
+        // 3 full snapshots of 1000 bytes, small changes and execution contexts
+        assertTrue(tracking.getLogSize() < 4000, "log size " + tracking.getLogSize());
+        tracking.close();
+
+        tracking = openTracking();
+        assertArrayEquals(data.values, tracking.load(data.executionId).getUserContext().values);
+        tracking.compact();
+        tracking.close();
+        tracking = openTracking();
+        assertArrayEquals(data.values, tracking.loadUserContext(data.executionId, null).values);
+    }
+
+    private MappedLogWorkflowContextRepository<TrackedData> openTracking() {
+        return new MappedLogWorkflowContextRepository<>(directory, new TrackedData.Codec(1000), SEGMENT_SIZE);
+    }
+
+    @Test
+    void testFindExecutions() {
+        repository = open();
+        List<UUID> paused = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Data data = new Data();
+            data.value = i;
+            ExecutionContext<Data> execution = new ExecutionContext<>("test", 1, data.executionId);
+            execution.setExecutionState(i == 0 ? ExecutionState.RUNNING : ExecutionState.PAUSED);
+            execution.setServiceInstanceId("node-1");
+            repository.save(new WorkflowContext<>(execution, data));
+            if (i > 0) {
+                paused.add(data.executionId);
+            }
+        }
+        paused.sort(null);
+        repository.close();
+        repository = open();
+        List<WorkflowContext<Data>> page = repository.findExecutions("node-1", Set.of(ExecutionState.PAUSED),
+                paused.get(0), 5);
+        assertEquals(paused.subList(1, 3), List.of(page.get(0).getUserContext().executionId,
+                page.get(1).getUserContext().executionId));
+        assertEquals(ExecutionState.PAUSED, page.get(0).getExecutionContext().getExecutionState());
+    }
+
+    @Test
+    void testTornRecordEndsLog() throws IOException {
+        repository = open();
+        Data data = new Data();
+        data.value = 1;
+        repository.saveUserContext(data.executionId, "Step1", data);
+        data.value = 2;
+        repository.saveUserContext(data.executionId, "Step2", data);
+        long logSize = repository.getLogSize();
+        repository.close();
+        // corrupt checksum of the second record as if it was torn by a crash
+        Path segment = segmentFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(logSize - 1);
+            int checksumByte = file.read();
+            file.seek(logSize - 1);
+            file.write(checksumByte ^ 0xFF);
+        }
+
+        repository = open();
+        assertEquals(1, repository.loadUserContext(data.executionId, "Step1").value);
+        assertEquals(logSize / 2, repository.getLogSize());
+        data.value = 3;
+        repository.saveUserContext(data.executionId, "Step3", data);
+        repository.close();
+        repository = open();
+        assertEquals(3, repository.loadUserContext(data.executionId, "Step3").value);
+    }
+
+    @Test
+    void testCompaction() throws IOException {
+        repository = open();
+        List<Data> executions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            executions.add(new Data());
+        }
+        // several segments worth of checkpoints of 3 executions
+        for (int step = 0; step < 200; step++) {
+            for (Data data : executions) {
+                data.value = step;
+                repository.save(new WorkflowContext<>(new ExecutionContext<>("test", 1, data.executionId), data));
+            }
+        }
+        assertTrue(repository.getLogSize() < 2L * SEGMENT_SIZE + repository.getLiveSize() * 2,
+                "log size " + repository.getLogSize());
+        repository.compact();
+        assertEquals(repository.getLiveSize(), repository.getLogSize());
+        assertEquals(1, repository.getSegmentCount());
+        assertEquals(1, segmentFiles().size());
+        repository.close();
+
+        repository = open();
+        for (Data data : executions) {
+            assertEquals(199, repository.load(data.executionId).getUserContext().value);
+        }
+    }
+
+    @Test
+    void testCheckpointLargerThanSegmentRejected() {
+        repository = new MappedLogWorkflowContextRepository<>(directory, new Codec(SEGMENT_SIZE), SEGMENT_SIZE);
+        Data data = new Data();
+        assertThrows(IllegalArgumentException.class, () -> repository.saveUserContext(data.executionId, "Step", data));
+    }
+
+    private MappedLogWorkflowContextRepository<Data> open() {
+        return new MappedLogWorkflowContextRepository<>(directory, new Codec(0), SEGMENT_SIZE);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static class Codec implements UserContextCodec<Data> {
+        private final int padding;
+
+        Codec(int padding) {
+            this.padding = padding;
+        }
+
+        @Override
+        public byte[] encode(Data context) {
+            return ByteBuffer.allocate(20 + padding).putLong(context.executionId.getMostSignificantBits())
+                    .putLong(context.executionId.getLeastSignificantBits()).putInt(context.value).array();
+        }
+
+        @Override
+        public Data decode(byte[] data) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            Data context = new Data();
+            context.executionId = new UUID(buffer.getLong(), buffer.getLong());
+            context.value = buffer.getInt();
+            return context;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package tech.becloud.mage.persistence;
+
+import tech.becloud.mage.model.ChangeTracking;
+import tech.becloud.mage.model.UserContext;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Flow data object tracking changes of its values, changes are new values by index.
+ */
+public class TrackedData implements UserContext, ChangeTracking<Map<Integer, Integer>> {
+    static final int SIZE = 8;
+
+    UUID executionId = UUID.randomUUID();
+    final int[] values = new int[SIZE];
+    private Map<Integer, Integer> changes = new TreeMap<>();
+
+    TrackedData() {
+    }
+
+    TrackedData(TrackedData other) {
+        this.executionId = other.executionId;
+        System.arraycopy(other.values, 0, values, 0, SIZE);
+    }
+
+    void set(int index, int value) {
+        values[index] = value;
+        changes.put(index, value);
+    }
+
+    @Override
+    public Map<Integer, Integer> takeChanges() {
+        if (changes.isEmpty()) {
+            return null;
+        }
+        Map<Integer, Integer> taken = changes;
+        changes = new TreeMap<>();
+        return taken;
+    }
+
+    @Override
+    public void applyChanges(Map<Integer, Integer> changes) {
+        changes.forEach((index, value) -> values[index] = value);
+    }
+
+    @Override
+    public UUID getExecutionId() {
+        return executionId;
+    }
+
+    @Override
+    public void setExecutionId(UUID executionId) {
+        this.executionId = executionId;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+
+    /**
+     * Codec writing full snapshots padded to given size, like a large object would take.
+     */
+    static class Codec implements ChangeTrackingCodec<TrackedData, Map<Integer, Integer>> {
+        private final int size;
+
+        Codec(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public byte[] encode(TrackedData context) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(size, 16 + SIZE * Integer.BYTES));
+            buffer.putLong(context.executionId.getMostSignificantBits())
+                    .putLong(context.executionId.getLeastSignificantBits());
+            for (int value : context.values) {
+                buffer.putInt(value);
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public TrackedData decode(byte[] data) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            TrackedData context = new TrackedData();
+            context.executionId = new UUID(buffer.getLong(), buffer.getLong());
+            for (int i = 0; i < SIZE; i++) {
+                context.values[i] = buffer.getInt();
+            }
+            return context;
+        }
+
+        @Override
+        public void encodeChanges(Map<Integer, Integer> changes, ByteBuffer target) {
+            target.put((byte) changes.size());
+            changes.forEach((index, value) -> target.put(index.byteValue()).putInt(value));
+        }
+
+        @Override
+        public Map<Integer, Integer> decodeChanges(ByteBuffer source) {
+            Map<Integer, Integer> changes = new TreeMap<>();
+            for (int count = source.get(); count > 0; count--) {
+                changes.put((int) source.get(), source.getInt());
+            }
+            return changes;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package tech.becloud.mage.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.becloud.mage.graph.ExecutionContext;
+import tech.becloud.mage.model.UserContext;
+import tech.becloud.mage.model.WorkflowContext;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WriteBehindWorkflowContextRepositoryTest {
+
+    private RecordingRepository recording;
+    private WriteBehindWorkflowContextRepository<Data> repository;
+
+    @BeforeEach
+    void setUp() {
+        recording = new RecordingRepository();
+        repository = new WriteBehindWorkflowContextRepository<>(recording, Data::copy, 3, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    void testCheckpointsCoalescedPerExecution() {
+        WorkflowContext<Data> context = newContext();
+        repository.saveExecutionContext(context.getExecutionContext());
+        repository.saveUserContext(context.getExecutionId(), "a", context.getUserContext());
+        repository.save(context);
+        assertEquals(0, recording.writes.size());
+        assertEquals(1, repository.getPendingCount());
+        repository.flush(context.getExecutionId());
+        assertEquals(List.of("save"), recording.writes);
+        assertEquals(0, repository.getPendingCount());
+    }
+
+    @Test
+    void testPartialCheckpointsMerged() {
+        WorkflowContext<Data> context = newContext();
+        repository.saveExecutionContext(context.getExecutionContext());
+        repository.saveExecutionContext(context.getExecutionContext());
+        repository.flush(context.getExecutionId());
+        repository.saveUserContext(context.getExecutionId(), "a", context.getUserContext());
+        repository.flush(context.getExecutionId());
+        repository.saveExecutionContext(context.getExecutionContext());
+        repository.saveUserContext(context.getExecutionId(), "a", context.getUserContext());
+        repository.flush(context.getExecutionId());
+        assertEquals(List.of("saveExecutionContext", "saveUserContext", "save"), recording.writes);
+    }
+
+    @Test
+    void testFlushInBatches() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountDownLatch latch = new CountDownLatch(1);
+        // keep scheduler busy, so flush triggered by batch size doesn't interfere
+        scheduler.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try (WriteBehindWorkflowContextRepository<Data> batching =
+                     new WriteBehindWorkflowContextRepository<>(recording, scheduler, Data::copy, 3,
+                             Duration.ofHours(1))) {
+            for (int i = 0; i < 5; i++) {
+                batching.save(newContext());
+            }
+            batching.flush();
+            assertEquals(List.of("saveAll:3", "saveAll:2"), recording.writes);
+        } finally {
+            latch.countDown();
+            scheduler.shutdown();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testLoadFlushesPendingCheckpoint() {
+        WorkflowContext<Data> context = newContext();
+        context.getUserContext().value = "checkpoint";
+        repository.save(context);
+        assertEquals("checkpoint", repository.load(context.getExecutionId()).getUserContext().value);
+    }
+
+    @Test
+    void testCheckpointCopiedWhenQueued() {
+        WorkflowContext<Data> context = newContext();
+        context.getUserContext().value = "checkpoint";
+        context.getExecutionContext().setExecutionPoint("Step1");
+        repository.save(context);
+        context.getUserContext().value = "changed";
+        context.getExecutionContext().setExecutionPoint("Step2");
+        repository.flush(context.getExecutionId());
+        assertEquals("checkpoint", recording.lastSaved.getUserContext().value);
+        assertEquals("Step1", recording.lastSaved.getExecutionContext().getExecutionPoint());
+    }
+
+    @Test
+    void testCopierRequired() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new WriteBehindWorkflowContextRepository<>(recording, null, 3, Duration.ofHours(1)));
+    }
+
+    @Test
+    void testFailedBackgroundFlushRetried() throws InterruptedException {
+        recording.failures = 2;
+        try (WriteBehindWorkflowContextRepository<Data> periodic =
+                     new WriteBehindWorkflowContextRepository<>(recording, Data::copy, 100, Duration.ofMillis(5))) {
+            WorkflowContext<Data> context = newContext();
+            periodic.saveExecutionContext(context.getExecutionContext());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (recording.writes.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(List.of("saveExecutionContext"), recording.writes);
+            assertEquals(0, recording.failures);
+            assertEquals(0, periodic.getPendingCount());
+        }
+    }
+
+    @Test
+    void testFailedFlushKeepsNewerCheckpoint() {
+        recording.failures = 1;
+        WorkflowContext<Data> context = newContext();
+        context.getExecutionContext().setExecutionPoint("Step1");
+        repository.save(context);
+        assertThrows(IllegalStateException.class, () -> repository.flush(context.getExecutionId()));
+        assertEquals(1, repository.getPendingCount());
+        context.getExecutionContext().setExecutionPoint("Step2");
+        repository.saveExecutionContext(context.getExecutionContext());
+        repository.flush();
+        assertEquals(List.of("saveAll:1"), recording.writes);
+        assertEquals("Step2", recording.lastSaved.getExecutionContext().getExecutionPoint());
+    }
+
+    private static WorkflowContext<Data> newContext() {
+        Data data = new Data();
+        data.setExecutionId(UUID.randomUUID());
+        return new WorkflowContext<>(new ExecutionContext<>("test", 1, data.getExecutionId()), data);
+    }
+
+    private static class Data implements UserContext {
+        private UUID executionId;
+        String value;
+
+        Data copy() {
+            Data copy = new Data();
+            copy.executionId = executionId;
+            copy.value = value;
+            return copy;
+        }
+
+        @Override
+        public UUID getExecutionId() {
+            return executionId;
+        }
+
+        @Override
+        public void setExecutionId(UUID executionId) {
+            this.executionId = executionId;
+        }
+    }
+
+    private static class RecordingRepository implements WorkflowContextRepository<Data> {
+        final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+        volatile WorkflowContext<Data> lastSaved;
+        volatile int failures;
+
+        private void fail() {
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("Storage is unavailable");
+            }
+        }
+
+        @Override
+        public Data loadUserContext(UUID executionId, String executionPath) {
+            return lastSaved.getUserContext();
+        }
+
+        @Override
+        public void saveUserContext(UUID executionId, String executionPath, Data context) {
+            fail();
+            writes.add("saveUserContext");
+        }
+
+        @Override
+        public ExecutionContext<Data> loadExecutionContext(UUID executionId) {
+            return lastSaved.getExecutionContext();
+        }
+
+        @Override
+        public void saveExecutionContext(ExecutionContext<Data> executionContext) {
+            fail();
+            writes.add("saveExecutionContext");
+        }
+
+        @Override
+        public WorkflowContext<Data> load(UUID executionId) {
+            return lastSaved;
+        }
+
+        @Override
+        public void save(WorkflowContext<Data> context) {
+            fail();
+            writes.add("save");
+            lastSaved = context;
+        }
+
+        @Override
+        public void saveAll(Collection<WorkflowContext<Data>> contexts) {
+            fail();
+            writes.add("saveAll:" + contexts.size());
+            contexts.forEach(context -> lastSaved = context);
+        }
+    }
+}